@@ -0,0 +1,131 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web;
+
+import info.gianlucacosta.diffdetector.core.ComparisonResult;
+import info.gianlucacosta.diffdetector.core.Diff;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast a comparison result is written in the compact binary format
+ * and in JSON - whose payload sizes are compared by CompactComparisonResultConverterTest
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ComparisonResultWritingBenchmark {
+    @Param({"1000", "1000000"})
+    private int diffCount;
+
+
+    private final CompactComparisonResultConverter compactConverter =
+            new CompactComparisonResultConverter();
+
+    private final MappingJackson2HttpMessageConverter jsonConverter =
+            new MappingJackson2HttpMessageConverter();
+
+    private ComparisonResult comparisonResult;
+
+
+    @Setup
+    public void setUp() {
+        Random random =
+                new Random(90);
+
+        List<Diff> diffs =
+                new ArrayList<>(diffCount);
+
+        int offset =
+                0;
+
+        for (int index = 0; index < diffCount; index++) {
+            offset += 1 + random.nextInt(100);
+
+            int length =
+                    1 + random.nextInt(8);
+
+            diffs.add(new Diff(offset, length));
+
+            offset += length;
+        }
+
+        comparisonResult =
+                ComparisonResult.ofDiffs(diffs);
+    }
+
+
+    @Benchmark
+    public int writeCompact() throws IOException {
+        BufferedOutputMessage outputMessage =
+                new BufferedOutputMessage();
+
+        compactConverter.write(comparisonResult, CompactComparisonResultConverter.mediaType, outputMessage);
+
+        return outputMessage.body.size();
+    }
+
+
+    @Benchmark
+    public int writeJson() throws IOException {
+        BufferedOutputMessage outputMessage =
+                new BufferedOutputMessage();
+
+        jsonConverter.write(comparisonResult, MediaType.APPLICATION_JSON, outputMessage);
+
+        return outputMessage.body.size();
+    }
+
+
+    private static class BufferedOutputMessage implements HttpOutputMessage {
+        final HttpHeaders headers =
+                new HttpHeaders();
+
+        final ByteArrayOutputStream body =
+                new ByteArrayOutputStream();
+
+
+        @Override
+        public OutputStream getBody() {
+            return body;
+        }
+
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.diff;
+
+import info.gianlucacosta.diffdetector.core.ComparisonResult;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures DiffService across operand sizes - from KBs to hundreds of MBs -
+ * and diff densities, with the default parallel settings
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DiffServiceBenchmark {
+    public enum Density {
+        IDENTICAL {
+            @Override
+            void alter(byte[] bytes, Random random) {
+            }
+        },
+
+
+        /**
+         * One different byte every 64 KB
+         */
+        SPARSE {
+            @Override
+            void alter(byte[] bytes, Random random) {
+                for (int offset = 0; offset < bytes.length; offset += 65536) {
+                    bytes[offset] ^= 0x5A;
+                }
+            }
+        },
+
+
+        /**
+         * About 10% of the bytes, at random positions
+         */
+        DENSE {
+            @Override
+            void alter(byte[] bytes, Random random) {
+                for (int offset = 0; offset < bytes.length; offset++) {
+                    if (random.nextInt(10) == 0) {
+                        bytes[offset] ^= 0x5A;
+                    }
+                }
+            }
+        },
+
+
+        /**
+         * Equal and different 8-byte blocks, alternately: the worst case for
+         * the word engine, as no word can be skipped in a single step
+         */
+        ALTERNATING {
+            @Override
+            void alter(byte[] bytes, Random random) {
+                for (int offset = 8; offset < bytes.length; offset += 16) {
+                    int blockEnd =
+                            Math.min(offset + 8, bytes.length);
+
+                    for (int blockOffset = offset; blockOffset < blockEnd; blockOffset++) {
+                        bytes[blockOffset] ^= 0x5A;
+                    }
+                }
+            }
+        };
+
+
+        abstract void alter(byte[] bytes, Random random);
+    }
+
+
+    @Param({"1024", "1048576", "67108864", "268435456"})
+    private int size;
+
+    @Param({"IDENTICAL", "SPARSE", "DENSE", "ALTERNATING"})
+    private Density density;
+
+    @Param({"WORD", "BYTE"})
+    private ComparisonEngine engine;
+
+    private ByteBuffer left;
+
+    private ByteBuffer right;
+
+    private DiffService diffService;
+
+
+    @Setup
+    public void setUp() {
+        Random random =
+                new Random(90);
+
+        byte[] leftBytes =
+                new byte[size];
+
+        random.nextBytes(leftBytes);
+
+        byte[] rightBytes =
+                leftBytes.clone();
+
+        density.alter(rightBytes, random);
+
+        left =
+                ByteBuffer.wrap(leftBytes);
+
+        right =
+                ByteBuffer.wrap(rightBytes);
+
+        diffService =
+                new DiffService(engine, 8 * 1024 * 1024, 0);
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        diffService.shutdown();
+    }
+
+
+    @Benchmark
+    public ComparisonResult compare() {
+        return diffService.compare(left, right);
+    }
+
+
+    @Benchmark
+    public void compareStreaming(Blackhole blackhole) {
+        diffService.compare(left, right, (offset, length) ->
+                blackhole.consume(offset + length)
+        );
+    }
+}
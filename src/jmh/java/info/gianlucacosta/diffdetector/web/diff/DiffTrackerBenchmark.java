@@ -0,0 +1,110 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.diff;
+
+import info.gianlucacosta.diffdetector.core.Diff;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how DiffTracker accumulates diffs - run by run or byte by byte -
+ * and how many bytes it allocates per diff, via the GC profiler
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DiffTrackerBenchmark {
+    @Param({"1000", "1000000"})
+    private int diffCount;
+
+    /**
+     * The distance between consecutive diffs: 0 merges them into a single run
+     */
+    @Param({"0", "3"})
+    private int gap;
+
+
+    @Benchmark
+    public List<Diff> trackRuns() {
+        DiffTracker diffTracker =
+                new DiffTracker();
+
+        int offset =
+                0;
+
+        for (int index = 0; index < diffCount; index++) {
+            diffTracker.inputDiff(offset, 2);
+
+            offset +=
+                    2 + gap;
+        }
+
+        diffTracker.finish();
+
+        return diffTracker.getDiffs();
+    }
+
+
+    @Benchmark
+    public void trackBytes(Blackhole blackhole) {
+        DiffTracker diffTracker =
+                new DiffTracker();
+
+        for (int index = 0; index < diffCount; index++) {
+            diffTracker.inputBytes((byte) 0, (byte) 1);
+
+            for (int gapIndex = 0; gapIndex < gap; gapIndex++) {
+                diffTracker.inputBytes((byte) 0, (byte) 0);
+            }
+        }
+
+        diffTracker.finish();
+
+        blackhole.consume(diffTracker.getDiffs().size());
+    }
+
+
+    @Benchmark
+    public void trackRunsToSink(Blackhole blackhole) {
+        DiffTracker diffTracker =
+                new DiffTracker(0, (offset, length) ->
+                        blackhole.consume(offset + length)
+                );
+
+        int offset =
+                0;
+
+        for (int index = 0; index < diffCount; index++) {
+            diffTracker.inputDiff(offset, 2);
+
+            offset +=
+                    2 + gap;
+        }
+
+        diffTracker.finish();
+    }
+}
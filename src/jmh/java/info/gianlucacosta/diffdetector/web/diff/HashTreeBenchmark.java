@@ -0,0 +1,135 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.diff;
+
+import info.gianlucacosta.diffdetector.core.ComparisonResult;
+import info.gianlucacosta.diffdetector.web.storage.BlockHashTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a full scan with a hash-tree comparison, as a function of the number
+ * of different bytes - scattered at random offsets - and of the tree's block size.
+ * <p>
+ * The repository builds the trees in background after saving the operands, and comparisons
+ * requested before then perform a full scan: hashTree() therefore uses trees built in the setup,
+ * whereas buildTree() measures the background cost per operand.
+ * buildTreesAndCompare() measures a first comparison building both trees on its own thread
+ * - which is why comparisons never wait for the trees.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class HashTreeBenchmark {
+    @Param({"268435456"})
+    private int size;
+
+    @Param({"0", "1", "16", "256", "4096", "65536"})
+    private int diffCount;
+
+    @Param({"4096", "65536"})
+    private int blockSize;
+
+    private ByteBuffer left;
+
+    private ByteBuffer right;
+
+    private BlockHashTree leftTree;
+
+    private BlockHashTree rightTree;
+
+    private DiffService diffService;
+
+
+    @Setup
+    public void setUp() {
+        Random random =
+                new Random(90);
+
+        byte[] leftBytes =
+                new byte[size];
+
+        random.nextBytes(leftBytes);
+
+        byte[] rightBytes =
+                leftBytes.clone();
+
+        for (int diffIndex = 0; diffIndex < diffCount; diffIndex++) {
+            rightBytes[random.nextInt(size)] ^= 0x5A;
+        }
+
+        left =
+                ByteBuffer.wrap(leftBytes);
+
+        right =
+                ByteBuffer.wrap(rightBytes);
+
+        leftTree =
+                BlockHashTree.of(left, blockSize);
+
+        rightTree =
+                BlockHashTree.of(right, blockSize);
+
+        diffService =
+                new DiffService(ComparisonEngine.WORD, 8 * 1024 * 1024, 0);
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        diffService.shutdown();
+    }
+
+
+    @Benchmark
+    public ComparisonResult fullScan() {
+        return diffService.compare(left, right);
+    }
+
+
+    @Benchmark
+    public ComparisonResult hashTree() {
+        return diffService.compare(left, right, leftTree, rightTree);
+    }
+
+
+    @Benchmark
+    public BlockHashTree buildTree() {
+        return BlockHashTree.of(right, blockSize);
+    }
+
+
+    @Benchmark
+    public ComparisonResult buildTreesAndCompare() {
+        return diffService.compare(
+                left,
+                right,
+                BlockHashTree.of(left, blockSize),
+                BlockHashTree.of(right, blockSize)
+        );
+    }
+}
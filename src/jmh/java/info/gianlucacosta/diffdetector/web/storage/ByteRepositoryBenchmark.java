@@ -0,0 +1,167 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.storage;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures save(), find() and remove() of each ByteRepository
+ * under multi-threaded contention on a shared set of ids
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class ByteRepositoryBenchmark {
+    public enum RepositoryType {
+        IN_MEMORY {
+            @Override
+            ByteRepository create() {
+                return new InMemoryByteRepository();
+            }
+        },
+
+        OFF_HEAP {
+            @Override
+            ByteRepository create() {
+                return new OffHeapByteRepository(4 * 1024 * 1024);
+            }
+        },
+
+        MAPPED_FILE {
+            @Override
+            ByteRepository create() throws IOException {
+                return new MappedFileByteRepository(System.getProperty("java.io.tmpdir"), false);
+            }
+        },
+
+        DEDUPLICATED {
+            @Override
+            ByteRepository create() {
+                return new DeduplicatedByteRepository(64 * 1024);
+            }
+        };
+
+
+        abstract ByteRepository create() throws IOException;
+    }
+
+
+    private static final int idCount =
+            1024;
+
+
+    @Param({"IN_MEMORY", "OFF_HEAP", "MAPPED_FILE", "DEDUPLICATED"})
+    private RepositoryType repositoryType;
+
+    @Param({"1024", "1048576"})
+    private int itemSize;
+
+    private ByteRepository byteRepository;
+
+    private String[] ids;
+
+    private byte[] item;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        byteRepository =
+                repositoryType.create();
+
+        ids =
+                new String[idCount];
+
+        item =
+                new byte[itemSize];
+
+        ThreadLocalRandom.current().nextBytes(item);
+
+        for (int index = 0; index < idCount; index++) {
+            ids[index] =
+                    "id" + index;
+
+            byteRepository.save(ids[index], item);
+        }
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        if (byteRepository instanceof InMemoryByteRepository) {
+            ((InMemoryByteRepository) byteRepository).close();
+        } else if (byteRepository instanceof MappedFileByteRepository) {
+            ((MappedFileByteRepository) byteRepository).close();
+        }
+    }
+
+
+    private String pickId() {
+        return ids[ThreadLocalRandom.current().nextInt(idCount)];
+    }
+
+
+    @Benchmark
+    public void save() {
+        byteRepository.save(pickId(), item);
+    }
+
+
+    @Benchmark
+    public Optional<byte[]> find() {
+        return byteRepository.find(pickId());
+    }
+
+
+    /**
+     * Savers, finders and removers working on the same ids at the same time
+     */
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void mixedSave() {
+        save();
+    }
+
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public Optional<byte[]> mixedFind() {
+        return find();
+    }
+
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void mixedRemove() {
+        byteRepository.remove(pickId());
+    }
+}
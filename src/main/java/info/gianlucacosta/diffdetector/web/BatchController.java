@@ -0,0 +1,302 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import info.gianlucacosta.diffdetector.core.ComparisonResult;
+import info.gianlucacosta.diffdetector.web.storage.OperandPairRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Batch versions of the operations of DiffController, to reduce the number of HTTP round trips
+ * when handling many small operands
+ */
+@RestController
+@RequestMapping(BatchController.path)
+public class BatchController {
+    public static final String path = DiffController.path + "/batch";
+
+
+    private final OperandPairRepository operandPairRepository;
+
+    private final ComparisonCoordinator comparisonCoordinator;
+
+    private final ComparisonExecutor comparisonExecutor;
+
+    private final ObjectMapper objectMapper;
+
+    private final int concurrency;
+
+
+    public BatchController(
+            OperandPairRepository operandPairRepository,
+            ComparisonCoordinator comparisonCoordinator,
+            ComparisonExecutor comparisonExecutor,
+            ObjectMapper objectMapper
+    ) {
+        this(operandPairRepository, comparisonCoordinator, comparisonExecutor, objectMapper, 4);
+    }
+
+
+    /**
+     * Creates a controller.
+     *
+     * @param concurrency The maximum number of comparisons of a batch that are queued or running
+     *                    - or complete, but waiting for the previous entries to be written
+     */
+    @Autowired
+    public BatchController(
+            OperandPairRepository operandPairRepository,
+            ComparisonCoordinator comparisonCoordinator,
+            ComparisonExecutor comparisonExecutor,
+            ObjectMapper objectMapper,
+            @Value("${diffdetector.batch.concurrency:4}") int concurrency
+    ) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException();
+        }
+
+        this.operandPairRepository = operandPairRepository;
+        this.comparisonCoordinator = comparisonCoordinator;
+        this.comparisonExecutor = comparisonExecutor;
+        this.objectMapper = objectMapper;
+        this.concurrency = concurrency;
+    }
+
+
+    @PostMapping("/upload")
+    @ResponseStatus(HttpStatus.CREATED)
+    public void upload(@RequestBody List<BatchUploadEntry> entries) {
+        entries.forEach(entry -> validateId(entry.getId()));
+
+        for (BatchUploadEntry entry : entries) {
+            if (entry.getLeft() != null) {
+                DecodedComparisonOperand decodedOperand =
+                        DecodedComparisonOperand.of(entry.getLeft());
+
+                operandPairRepository.saveLeft(entry.getId(), decodedOperand.getBuffer(), decodedOperand.getLength());
+            }
+
+            if (entry.getRight() != null) {
+                DecodedComparisonOperand decodedOperand =
+                        DecodedComparisonOperand.of(entry.getRight());
+
+                operandPairRepository.saveRight(entry.getId(), decodedOperand.getBuffer(), decodedOperand.getLength());
+            }
+
+            comparisonCoordinator.operandSaved(entry.getId());
+        }
+    }
+
+
+    /**
+     * Compares the operands of the given ids as distinct tasks of the ComparisonExecutor
+     * - so that the container's thread is released, like for the other comparisons - at most
+     * <i>concurrency</i> at a time: the response array follows the order of the ids,
+     * and each entry is written as soon as its comparison and the previous entries are complete.
+     * Each entry has the form:
+     * <pre>{"id": "...", "found": true, "result": {...}}</pre>
+     * where <i>result</i> is missing when <i>found</i> is false - that is, when either operand is missing.
+     * <p>
+     * As the status has already been sent, the failure of a comparison - including its rejection
+     * by the ComparisonExecutor - is reported by its own entry, having the form:
+     * <pre>{"id": "...", "error": {"status": 500, "message": "..."}}</pre>
+     * so that the response is always a valid JSON array; the whole batch is rejected only
+     * when the ComparisonExecutor cannot even accept the task starting the response.
+     */
+    @PostMapping("/compare")
+    public CompletableFuture<Void> compare(@RequestBody List<String> ids, HttpServletResponse response) {
+        ids.forEach(BatchController::validateId);
+
+        List<CompletableFuture<ObjectNode>> entries =
+                new ArrayList<>(Collections.nCopies(ids.size(), null));
+
+        CompletableFuture<JsonGenerator> arrayStarted =
+                comparisonExecutor.submit(() -> startArray(response));
+
+        for (int index = 0; index < Math.min(concurrency, ids.size()); index++) {
+            entries.set(index, submitEntry(ids.get(index)));
+        }
+
+
+        CompletableFuture<JsonGenerator> entriesWritten =
+                arrayStarted;
+
+        for (int index = 0; index < ids.size(); index++) {
+            int entryIndex =
+                    index;
+
+            //Each entry is written after the previous one, so the futures are set in time
+            entriesWritten =
+                    entriesWritten.thenCompose(jsonGenerator ->
+                            entries.get(entryIndex).thenApply(entry -> {
+                                writeEntry(jsonGenerator, entry);
+
+                                int nextIndex =
+                                        entryIndex + concurrency;
+
+                                if (nextIndex < ids.size()) {
+                                    entries.set(nextIndex, submitEntry(ids.get(nextIndex)));
+                                }
+
+                                return jsonGenerator;
+                            })
+                    );
+        }
+
+        return entriesWritten.thenAccept(this::endArray);
+    }
+
+
+    private JsonGenerator startArray(HttpServletResponse response) {
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+
+        try {
+            JsonGenerator jsonGenerator =
+                    objectMapper.getFactory().createGenerator(response.getOutputStream());
+
+            jsonGenerator.writeStartArray();
+
+            return jsonGenerator;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+
+    private void writeEntry(JsonGenerator jsonGenerator, ObjectNode entry) {
+        try {
+            jsonGenerator.writeTree(entry);
+            jsonGenerator.flush();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+
+    private void endArray(JsonGenerator jsonGenerator) {
+        try {
+            jsonGenerator.writeEndArray();
+            jsonGenerator.close();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+
+    /**
+     * Submits the comparison of the given id to the ComparisonExecutor;
+     * if it is rejected, the returned entry reports the rejection
+     */
+    private CompletableFuture<ObjectNode> submitEntry(String id) {
+        try {
+            return comparisonExecutor.submit(() -> createEntry(id));
+        } catch (ComparisonRejectedException ex) {
+            return CompletableFuture.completedFuture(
+                    createErrorEntry(id, ex)
+            );
+        }
+    }
+
+
+    /**
+     * Compares the operands of the given id, creating the whole entry before it is written
+     * - so that a failure never leaves an entry half-written
+     */
+    private ObjectNode createEntry(String id) {
+        ObjectNode entry =
+                objectMapper.createObjectNode();
+
+        entry.put("id", id);
+
+        try {
+            ComparisonResult comparisonResult =
+                    comparisonCoordinator.compare(id);
+
+            entry.put("found", true);
+            entry.set("result", objectMapper.valueToTree(comparisonResult));
+        } catch (DataNotFoundException ex) {
+            entry.put("found", false);
+        } catch (RuntimeException ex) {
+            return createErrorEntry(id, ex);
+        }
+
+        return entry;
+    }
+
+
+    private ObjectNode createErrorEntry(String id, RuntimeException ex) {
+        ObjectNode entry =
+                objectMapper.createObjectNode();
+
+        entry.put("id", id);
+
+        ResponseStatus responseStatus =
+                AnnotatedElementUtils.findMergedAnnotation(ex.getClass(), ResponseStatus.class);
+
+        HttpStatus status =
+                (responseStatus != null) ?
+                        responseStatus.code()
+                        :
+                        HttpStatus.INTERNAL_SERVER_ERROR;
+
+        entry.putObject("error")
+                .put("status", status.value())
+                .put("message", status.getReasonPhrase());
+
+        return entry;
+    }
+
+
+    @PostMapping("/delete")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void delete(@RequestBody List<String> ids) {
+        ids.forEach(BatchController::validateId);
+
+        for (String id : ids) {
+            operandPairRepository.remove(id);
+
+            comparisonCoordinator.operandsRemoved(id);
+        }
+    }
+
+
+    private static void validateId(String id) {
+        if (id == null || id.isEmpty()) {
+            throw new InvalidIdException();
+        }
+    }
+}
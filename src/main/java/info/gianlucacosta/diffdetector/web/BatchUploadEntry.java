@@ -0,0 +1,61 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import info.gianlucacosta.diffdetector.core.ComparisonOperand;
+
+/**
+ * Entry of a batch upload: either operand can be missing
+ */
+public class BatchUploadEntry {
+    private final String id;
+    private final ComparisonOperand left;
+    private final ComparisonOperand right;
+
+
+    @JsonCreator
+    public BatchUploadEntry(
+            @JsonProperty("id") String id,
+            @JsonProperty("left") ComparisonOperand left,
+            @JsonProperty("right") ComparisonOperand right
+    ) {
+        this.id = id;
+        this.left = left;
+        this.right = right;
+    }
+
+
+    public String getId() {
+        return id;
+    }
+
+
+    public ComparisonOperand getLeft() {
+        return left;
+    }
+
+
+    public ComparisonOperand getRight() {
+        return right;
+    }
+}
@@ -0,0 +1,91 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web;
+
+import info.gianlucacosta.diffdetector.core.ComparisonResult;
+import info.gianlucacosta.diffdetector.core.Diff;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Writes comparison results in the compact binary format described by CompactDiffWriter,
+ * when the request's Accept header selects it.
+ * <p>
+ * It must follow the JSON converter, so that JSON remains the format selected by wildcards.
+ */
+class CompactComparisonResultConverter extends AbstractHttpMessageConverter<ComparisonResult> {
+    public static final String mediaTypeValue =
+            "application/x-diffdetector-diffs";
+
+    public static final MediaType mediaType =
+            MediaType.parseMediaType(mediaTypeValue);
+
+
+    public CompactComparisonResultConverter() {
+        super(mediaType);
+    }
+
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return ComparisonResult.class.isAssignableFrom(clazz);
+    }
+
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+
+
+    @Override
+    protected ComparisonResult readInternal(
+            Class<? extends ComparisonResult> clazz,
+            HttpInputMessage inputMessage
+    ) {
+        throw new HttpMessageNotReadableException("Comparison results can only be written");
+    }
+
+
+    @Override
+    protected void writeInternal(ComparisonResult comparisonResult, HttpOutputMessage outputMessage) throws IOException {
+        CompactDiffWriter compactDiffWriter =
+                new CompactDiffWriter(outputMessage.getBody());
+
+        try {
+            compactDiffWriter.begin(comparisonResult.isSameLength());
+
+            for (Diff diff : comparisonResult.getDiffs()) {
+                compactDiffWriter.acceptDiff(diff.getOffset(), diff.getLength());
+            }
+
+            compactDiffWriter.end();
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web;
+
+import info.gianlucacosta.diffdetector.web.diff.DiffSink;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Writes a comparison result in the compact binary format:
+ * <ul>
+ * <li>a header byte: 1 if the operands have the same length, 0 otherwise</li>
+ * <li>for each diff, the gap between the end of the previous diff (or 0) and its offset,
+ * followed by its length - both as unsigned LEB128 varints</li>
+ * <li>the (0, 0) pair, as terminator - as no diff can have length 0</li>
+ * </ul>
+ * Most diffs therefore take 2 bytes, instead of about 30 in JSON; furthermore, as the
+ * diff count is not written in advance, diffs can be written as soon as they are detected.
+ * <p>
+ * The bytes are accumulated into an internal buffer, and written to the stream
+ * when it is full and by end(); the stream is not closed.
+ */
+class CompactDiffWriter implements DiffSink {
+    private static final int bufferSize =
+            8192;
+
+    /**
+     * A varint encoding an int takes at most 5 bytes
+     */
+    private static final int maxPairSize =
+            10;
+
+
+    private final OutputStream outputStream;
+
+    private final byte[] buffer =
+            new byte[bufferSize];
+
+    private int count;
+
+    private int previousEndOffset;
+
+
+    public CompactDiffWriter(OutputStream outputStream) {
+        this.outputStream =
+                outputStream;
+    }
+
+
+    @Override
+    public void begin(boolean sameLength) {
+        buffer[count++] =
+                (byte) (sameLength ? 1 : 0);
+    }
+
+
+    @Override
+    public void acceptDiff(int offset, int length) {
+        writePair(offset - previousEndOffset, length);
+
+        previousEndOffset =
+                offset + length;
+    }
+
+
+    @Override
+    public void end() {
+        writePair(0, 0);
+
+        flushBuffer();
+    }
+
+
+    private void writePair(int gap, int length) {
+        if (count > bufferSize - maxPairSize) {
+            flushBuffer();
+        }
+
+        writeVarint(gap);
+        writeVarint(length);
+    }
+
+
+    private void writeVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[count++] =
+                    (byte) ((value & 0x7F) | 0x80);
+
+            value >>>= 7;
+        }
+
+        buffer[count++] =
+                (byte) value;
+    }
+
+
+    private void flushBuffer() {
+        try {
+            outputStream.write(buffer, 0, count);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        count =
+                0;
+    }
+}
@@ -0,0 +1,813 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web;
+
+import info.gianlucacosta.diffdetector.core.ComparisonResult;
+import info.gianlucacosta.diffdetector.core.Diff;
+import info.gianlucacosta.diffdetector.web.diff.ComparisonResultCache;
+import info.gianlucacosta.diffdetector.web.diff.DiffService;
+import info.gianlucacosta.diffdetector.web.diff.DiffSink;
+import info.gianlucacosta.diffdetector.web.diff.DiffSummary;
+import info.gianlucacosta.diffdetector.web.storage.Fingerprint;
+import info.gianlucacosta.diffdetector.web.storage.Operand;
+import info.gianlucacosta.diffdetector.web.storage.OperandPair;
+import info.gianlucacosta.diffdetector.web.storage.OperandPairRepository;
+import info.gianlucacosta.diffdetector.web.storage.OperandPatch;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares the operands of an id, on request or - in eager mode - in background,
+ * as soon as both operands are present
+ */
+@Service
+public class ComparisonCoordinator {
+    private final OperandPairRepository operandPairRepository;
+
+    private final DiffService diffService;
+
+    private final ComparisonResultCache comparisonResultCache;
+
+    private final boolean verifyingFingerprintMatches;
+
+    private final ThreadPoolExecutor eagerExecutor;
+
+    private final ConcurrentMap<String, EagerComparison> eagerComparisons =
+            new ConcurrentHashMap<>();
+
+    private final LongAdder scheduledCount =
+            new LongAdder();
+
+    private final LongAdder supersededCount =
+            new LongAdder();
+
+    private final LongAdder rejectedCount =
+            new LongAdder();
+
+
+    /**
+     * Creates a coordinator comparing operands only on request
+     */
+    public ComparisonCoordinator(
+            OperandPairRepository operandPairRepository,
+            DiffService diffService,
+            ComparisonResultCache comparisonResultCache,
+            boolean verifyingFingerprintMatches
+    ) {
+        this(
+                operandPairRepository,
+                diffService,
+                comparisonResultCache,
+                verifyingFingerprintMatches,
+                false,
+                1,
+                1
+        );
+    }
+
+
+    /**
+     * Creates a coordinator.
+     *
+     * @param verifyingFingerprintMatches If true, operands having the same fingerprint are scanned anyway
+     * @param eager                       If true, operands are compared in background as soon as both are present
+     * @param eagerThreads                The threads performing background comparisons
+     * @param eagerQueueCapacity          The maximum number of background comparisons waiting for a thread;
+     *                                    when exceeded, the comparisons are performed on request
+     */
+    @Autowired
+    public ComparisonCoordinator(
+            OperandPairRepository operandPairRepository,
+            DiffService diffService,
+            ComparisonResultCache comparisonResultCache,
+            @Value("${diffdetector.fingerprint.verify:false}") boolean verifyingFingerprintMatches,
+            @Value("${diffdetector.comparison.eager.enabled:false}") boolean eager,
+            @Value("${diffdetector.comparison.eager.threads:1}") int eagerThreads,
+            @Value("${diffdetector.comparison.eager.queue-capacity:64}") int eagerQueueCapacity
+    ) {
+        if (eagerThreads < 1 || eagerQueueCapacity < 1) {
+            throw new IllegalArgumentException();
+        }
+
+        this.operandPairRepository = operandPairRepository;
+        this.diffService = diffService;
+        this.comparisonResultCache = comparisonResultCache;
+        this.verifyingFingerprintMatches = verifyingFingerprintMatches;
+
+        this.eagerExecutor =
+                eager ?
+                        createEagerExecutor(eagerThreads, eagerQueueCapacity)
+                        :
+                        null;
+    }
+
+
+    private static ThreadPoolExecutor createEagerExecutor(int threads, int queueCapacity) {
+        AtomicInteger threadCounter =
+                new AtomicInteger();
+
+        return new ThreadPoolExecutor(
+                threads,
+                threads,
+                0,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread eagerThread =
+                            new Thread(runnable, "ComparisonCoordinator-eager-" + threadCounter.incrementAndGet());
+
+                    eagerThread.setDaemon(true);
+
+                    return eagerThread;
+                },
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+    }
+
+
+    /**
+     * Must be called whenever an operand of the given id is saved
+     */
+    public void operandSaved(String id) {
+        comparisonResultCache.invalidate(id);
+
+        cancelEagerComparison(id);
+
+        if (eagerExecutor != null) {
+            scheduleEagerComparison(id);
+        }
+    }
+
+
+    /**
+     * Must be called whenever an operand of the given id is patched: if the result
+     * of comparing the previous versions of the operands is cached, just the patched range
+     * is compared again, on the calling thread; otherwise, the operand is handled as saved
+     */
+    public void operandPatched(String id, OperandPatch operandPatch) {
+        cancelEagerComparison(id);
+
+        if (!recompareRange(id, operandPatch)) {
+            operandSaved(id);
+        }
+    }
+
+
+    private boolean recompareRange(String id, OperandPatch operandPatch) {
+        try (OperandPair operandPair = operandPairRepository.acquire(id).orElse(null)) {
+            if (operandPair == null) {
+                return false;
+            }
+
+            Operand left =
+                    operandPair.getLeft().orElse(null);
+
+            Operand right =
+                    operandPair.getRight().orElse(null);
+
+            if (left == null || right == null) {
+                return false;
+            }
+
+            Operand patchedOperand =
+                    operandPatch.isLeft() ? left : right;
+
+            //Another update might have occurred in the meantime
+            if (patchedOperand.getVersion() != operandPatch.getVersion()) {
+                return false;
+            }
+
+
+            long previousLeftVersion =
+                    operandPatch.isLeft() ? operandPatch.getPreviousVersion() : left.getVersion();
+
+            long previousRightVersion =
+                    operandPatch.isLeft() ? right.getVersion() : operandPatch.getPreviousVersion();
+
+            Optional<ComparisonResult> previousResult =
+                    comparisonResultCache.find(id, previousLeftVersion, previousRightVersion);
+
+            if (!previousResult.isPresent()) {
+                return false;
+            }
+
+
+            //Patches never change the length of an operand
+            ComparisonResult comparisonResult =
+                    !previousResult.get().isSameLength() ?
+                            previousResult.get()
+                            :
+                            isBlockBased(left, right) ?
+                                    diffService.recompare(
+                                            previousResult.get(),
+                                            left.getContent(),
+                                            right.getContent(),
+                                            operandPatch.getOffset(),
+                                            operandPatch.getLength()
+                                    )
+                                    :
+                                    diffService.recompare(
+                                            previousResult.get(),
+                                            left.getData(),
+                                            right.getData(),
+                                            operandPatch.getOffset(),
+                                            operandPatch.getLength()
+                                    );
+
+            comparisonResultCache.put(
+                    id,
+                    left.getVersion(),
+                    right.getVersion(),
+                    comparisonResult
+            );
+
+            return true;
+        }
+    }
+
+
+    /**
+     * Must be called whenever the operands of the given id are removed
+     */
+    public void operandsRemoved(String id) {
+        comparisonResultCache.invalidate(id);
+
+        cancelEagerComparison(id);
+    }
+
+
+    private void cancelEagerComparison(String id) {
+        EagerComparison staleComparison =
+                eagerComparisons.remove(id);
+
+        if (staleComparison != null) {
+            staleComparison.cancel(true);
+            supersededCount.increment();
+        }
+    }
+
+
+    private void scheduleEagerComparison(String id) {
+        long leftVersion;
+        long rightVersion;
+
+        try (OperandPair operandPair = operandPairRepository.acquire(id).orElse(null)) {
+            if (operandPair == null
+                    || !operandPair.getLeft().isPresent()
+                    || !operandPair.getRight().isPresent()) {
+                return;
+            }
+
+            leftVersion =
+                    operandPair.getLeft().get().getVersion();
+
+            rightVersion =
+                    operandPair.getRight().get().getVersion();
+        }
+
+
+        EagerComparison eagerComparison =
+                new EagerComparison(id, leftVersion, rightVersion);
+
+        EagerComparison[] discardedComparison =
+                new EagerComparison[1];
+
+        //Concurrent uploads of the same id race here: the most recent operands always win
+        eagerComparisons.compute(id, (comparisonId, currentComparison) -> {
+            if (currentComparison != null && currentComparison.isNewerThan(eagerComparison)) {
+                discardedComparison[0] =
+                        eagerComparison;
+
+                return currentComparison;
+            }
+
+            discardedComparison[0] =
+                    currentComparison;
+
+            return eagerComparison;
+        });
+
+        //Cancelling outside compute(), as it removes the comparison from the map
+        if (discardedComparison[0] != null) {
+            discardedComparison[0].cancel(true);
+        }
+
+        if (eagerComparison.isCancelled()) {
+            return;
+        }
+
+
+        try {
+            eagerExecutor.execute(eagerComparison);
+            scheduledCount.increment();
+        } catch (RejectedExecutionException ex) {
+            eagerComparisons.remove(id, eagerComparison);
+            rejectedCount.increment();
+        }
+    }
+
+
+    /**
+     * Returns the comparison result of the operands having the given id - precomputed,
+     * cached or computed on the fly
+     *
+     * @throws DataNotFoundException If either operand is missing
+     */
+    public ComparisonResult compare(String id) {
+        try (OperandPair operandPair = operandPairRepository.acquire(id).orElseThrow(DataNotFoundException::new)) {
+            Operand left =
+                    operandPair.getLeft().orElseThrow(DataNotFoundException::new);
+
+            Operand right =
+                    operandPair.getRight().orElseThrow(DataNotFoundException::new);
+
+            Optional<ComparisonResult> eagerResult =
+                    awaitEagerComparison(id, left.getVersion(), right.getVersion());
+
+            if (eagerResult.isPresent()) {
+                return eagerResult.get();
+            }
+
+            return comparisonResultCache.getOrCompare(
+                    id,
+                    left.getVersion(),
+                    right.getVersion(),
+                    () -> compareOperands(left, right)
+            );
+        }
+    }
+
+
+    /**
+     * Passes the comparison result of the operands having the given id to the sink.
+     * <p>
+     * If the result is precomputed or cached, its diffs are just replayed; otherwise,
+     * the diffs are passed as soon as they are detected - and, in this case, the result
+     * is not cached, as the full diff list is never held in memory.
+     *
+     * @throws DataNotFoundException If either operand is missing
+     */
+    public void compare(String id, DiffSink diffSink) {
+        compare(id, diffSink, Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Like compare(String, DiffSink), but passing at most <i>diffLimit</i> diffs to the sink:
+     * unless the result is precomputed or cached, the operands are scanned only until
+     * a further diff is found.
+     *
+     * @return The offset of the first diff exceeding the limit, or -1 if there is none
+     * @throws DataNotFoundException If either operand is missing
+     */
+    public int compare(String id, DiffSink diffSink, int diffLimit) {
+        try (OperandPair operandPair = operandPairRepository.acquire(id).orElseThrow(DataNotFoundException::new)) {
+            Operand left =
+                    operandPair.getLeft().orElseThrow(DataNotFoundException::new);
+
+            Operand right =
+                    operandPair.getRight().orElseThrow(DataNotFoundException::new);
+
+            Optional<ComparisonResult> availableResult =
+                    findAvailableResult(id, left, right);
+
+            int stopOffset =
+                    -1;
+
+            if (availableResult.isPresent()) {
+                ComparisonResult comparisonResult =
+                        availableResult.get();
+
+                List<Diff> diffs =
+                        comparisonResult.getDiffs();
+
+                int passedCount =
+                        Math.min(diffs.size(), diffLimit);
+
+                diffSink.begin(comparisonResult.isSameLength());
+
+                diffs.subList(0, passedCount).forEach(diff ->
+                        diffSink.acceptDiff(diff.getOffset(), diff.getLength())
+                );
+
+                if (passedCount < diffs.size()) {
+                    stopOffset =
+                            diffs.get(passedCount).getOffset();
+                }
+            } else if (left.getLength() != right.getLength()) {
+                diffSink.begin(false);
+            } else {
+                diffSink.begin(true);
+
+                if (!left.getFingerprint().equals(right.getFingerprint()) || verifyingFingerprintMatches) {
+                    stopOffset =
+                            scanOperands(left, right, diffSink, diffLimit);
+                }
+            }
+
+            diffSink.end();
+
+            return stopOffset;
+        }
+    }
+
+
+    /**
+     * Summarizes the comparison of the operands having the given id: if the result
+     * is precomputed or cached, its diffs are just counted; otherwise, the operands
+     * are scanned without creating any diff - and the summary is not cached.
+     *
+     * @throws DataNotFoundException If either operand is missing
+     */
+    public DiffSummary summarize(String id) {
+        try (OperandPair operandPair = operandPairRepository.acquire(id).orElseThrow(DataNotFoundException::new)) {
+            Operand left =
+                    operandPair.getLeft().orElseThrow(DataNotFoundException::new);
+
+            Operand right =
+                    operandPair.getRight().orElseThrow(DataNotFoundException::new);
+
+            Optional<ComparisonResult> availableResult =
+                    findAvailableResult(id, left, right);
+
+            if (availableResult.isPresent()) {
+                return summarize(availableResult.get());
+            }
+
+            if (left.getLength() != right.getLength()) {
+                return DiffSummary.ofDifferentLengths();
+            }
+
+            if (left.getFingerprint().equals(right.getFingerprint()) && !verifyingFingerprintMatches) {
+                return new DiffSummary(true, 0, 0);
+            }
+
+
+            if (isBlockBased(left, right)) {
+                return diffService.summarize(
+                        left.getContent(),
+                        right.getContent()
+                );
+            }
+
+            if (canUseHashTrees(left, right)) {
+                return diffService.summarize(
+                        left.getData(),
+                        right.getData(),
+                        left.getHashTree().get(),
+                        right.getHashTree().get()
+                );
+            }
+
+            return diffService.summarize(
+                    left.getData(),
+                    right.getData()
+            );
+        }
+    }
+
+
+    private static DiffSummary summarize(ComparisonResult comparisonResult) {
+        if (!comparisonResult.isSameLength()) {
+            return DiffSummary.ofDifferentLengths();
+        }
+
+        List<Diff> diffs =
+                comparisonResult.getDiffs();
+
+        long diffLength =
+                0;
+
+        for (Diff diff : diffs) {
+            diffLength += diff.getLength();
+        }
+
+        return new DiffSummary(true, diffs.size(), diffLength);
+    }
+
+
+    /**
+     * Checks whether the operands having the given id are equal: operands having
+     * different fingerprints are surely different, so they are scanned only
+     * when fingerprint matches must be verified - stopping at their first difference.
+     *
+     * @throws DataNotFoundException If either operand is missing
+     */
+    public EqualityCheck checkEquality(String id) {
+        try (OperandPair operandPair = operandPairRepository.acquire(id).orElseThrow(DataNotFoundException::new)) {
+            Operand left =
+                    operandPair.getLeft().orElseThrow(DataNotFoundException::new);
+
+            Operand right =
+                    operandPair.getRight().orElseThrow(DataNotFoundException::new);
+
+            Optional<ComparisonResult> availableResult =
+                    findAvailableResult(id, left, right);
+
+            if (availableResult.isPresent()) {
+                ComparisonResult comparisonResult =
+                        availableResult.get();
+
+                return new EqualityCheck(
+                        comparisonResult.isSameLength(),
+                        comparisonResult.isSameLength() && comparisonResult.getDiffs().isEmpty()
+                );
+            }
+
+            if (left.getLength() != right.getLength()) {
+                return new EqualityCheck(false, false);
+            }
+
+            if (!left.getFingerprint().equals(right.getFingerprint())) {
+                return new EqualityCheck(true, false);
+            }
+
+            if (!verifyingFingerprintMatches) {
+                return new EqualityCheck(true, true);
+            }
+
+
+            int stopOffset =
+                    scanOperands(left, right, (diffOffset, diffLength) -> {
+                    }, 0);
+
+            return new EqualityCheck(true, stopOffset == -1);
+        }
+    }
+
+
+    private Optional<ComparisonResult> findAvailableResult(String id, Operand left, Operand right) {
+        Optional<ComparisonResult> eagerResult =
+                awaitEagerComparison(id, left.getVersion(), right.getVersion());
+
+        if (eagerResult.isPresent()) {
+            return eagerResult;
+        }
+
+        return comparisonResultCache.find(id, left.getVersion(), right.getVersion());
+    }
+
+
+    /**
+     * Scans operands having the same length, passing their diffs to the sink
+     *
+     * @return The offset of the first diff exceeding the limit, or -1 if there is none
+     */
+    private int scanOperands(Operand left, Operand right, DiffSink diffSink, int diffLimit) {
+        if (isBlockBased(left, right)) {
+            return diffService.compare(
+                    left.getContent(),
+                    right.getContent(),
+                    diffSink,
+                    diffLimit
+            );
+        }
+
+        if (canUseHashTrees(left, right)) {
+            return diffService.compare(
+                    left.getData(),
+                    right.getData(),
+                    left.getHashTree().get(),
+                    right.getHashTree().get(),
+                    diffSink,
+                    diffLimit
+            );
+        }
+
+        return diffService.compare(
+                left.getData(),
+                right.getData(),
+                diffSink,
+                diffLimit
+        );
+    }
+
+
+    private Optional<ComparisonResult> awaitEagerComparison(String id, long leftVersion, long rightVersion) {
+        EagerComparison eagerComparison =
+                eagerComparisons.get(id);
+
+        if (eagerComparison == null || !eagerComparison.hasVersions(leftVersion, rightVersion)) {
+            return Optional.empty();
+        }
+
+        try {
+            return Optional.ofNullable(eagerComparison.get());
+        } catch (CancellationException ex) {
+            return Optional.empty();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(ex);
+        } catch (ExecutionException ex) {
+            Throwable cause =
+                    ex.getCause();
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw new IllegalStateException(cause);
+        }
+    }
+
+
+    private ComparisonResult compareOperands(Operand left, Operand right) {
+        Fingerprint leftFingerprint =
+                left.getFingerprint();
+
+        Fingerprint rightFingerprint =
+                right.getFingerprint();
+
+        if (leftFingerprint.getLength() != rightFingerprint.getLength()) {
+            return ComparisonResult.ofDifferentLengths();
+        }
+
+        if (leftFingerprint.equals(rightFingerprint) && !verifyingFingerprintMatches) {
+            return ComparisonResult.ofDiffs(Collections.emptyList());
+        }
+
+
+        if (isBlockBased(left, right)) {
+            return diffService.compare(
+                    left.getContent(),
+                    right.getContent()
+            );
+        }
+
+        if (canUseHashTrees(left, right)) {
+            return diffService.compare(
+                    left.getData(),
+                    right.getData(),
+                    left.getHashTree().get(),
+                    right.getHashTree().get()
+            );
+        }
+
+        return diffService.compare(
+                left.getData(),
+                right.getData()
+        );
+    }
+
+
+    /**
+     * Operands stored as blocks are compared block by block, so that they are never inflated
+     */
+    private static boolean isBlockBased(Operand left, Operand right) {
+        return left.isBlockBased() || right.isBlockBased();
+    }
+
+
+    /**
+     * Hash trees are not used when fingerprint matches must be verified,
+     * as they would skip blocks on the basis of their hashes; comparisons never wait
+     * for the trees built in background, as hashing both operands costs more than scanning them
+     */
+    private boolean canUseHashTrees(Operand left, Operand right) {
+        return !verifyingFingerprintMatches
+                && left.getHashTree().isPresent()
+                && right.getHashTree().isPresent();
+    }
+
+
+    /**
+     * The number of background comparisons submitted to the executor
+     */
+    public long getScheduledCount() {
+        return scheduledCount.sum();
+    }
+
+
+    /**
+     * The number of background comparisons cancelled because an operand was saved or removed
+     */
+    public long getSupersededCount() {
+        return supersededCount.sum();
+    }
+
+
+    /**
+     * The number of background comparisons not performed because the executor queue was full
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+
+    public int getPendingCount() {
+        return eagerComparisons.size();
+    }
+
+
+    @PreDestroy
+    public void shutdown() {
+        if (eagerExecutor != null) {
+            eagerExecutor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Background comparison of given operand versions; its result is null
+     * if the operands were replaced before it could start
+     */
+    private class EagerComparison extends FutureTask<ComparisonResult> {
+        final String id;
+        final long leftVersion;
+        final long rightVersion;
+
+        EagerComparison(String id, long leftVersion, long rightVersion) {
+            super(() -> compareInBackground(id, leftVersion, rightVersion));
+
+            this.id = id;
+            this.leftVersion = leftVersion;
+            this.rightVersion = rightVersion;
+        }
+
+
+        boolean hasVersions(long leftVersion, long rightVersion) {
+            return this.leftVersion == leftVersion
+                    && this.rightVersion == rightVersion;
+        }
+
+
+        boolean isNewerThan(EagerComparison other) {
+            return leftVersion >= other.leftVersion
+                    && rightVersion >= other.rightVersion;
+        }
+
+
+        @Override
+        protected void done() {
+            eagerComparisons.remove(id, this);
+        }
+    }
+
+
+    private ComparisonResult compareInBackground(String id, long leftVersion, long rightVersion) {
+        try (OperandPair operandPair = operandPairRepository.acquire(id).orElse(null)) {
+            if (operandPair == null) {
+                return null;
+            }
+
+            Operand left =
+                    operandPair.getLeft().orElse(null);
+
+            Operand right =
+                    operandPair.getRight().orElse(null);
+
+            if (left == null
+                    || right == null
+                    || left.getVersion() != leftVersion
+                    || right.getVersion() != rightVersion) {
+                return null;
+            }
+
+
+            //The result is stored in the cache, where requests will find it after the job is done;
+            //cancelled jobs - whose scan ends as soon as it is interrupted - store nothing
+            return comparisonResultCache.getOrCompare(
+                    id,
+                    leftVersion,
+                    rightVersion,
+                    () -> {
+                        ComparisonResult comparisonResult =
+                                compareOperands(left, right);
+
+                        if (Thread.currentThread().isInterrupted()) {
+                            throw new CancellationException();
+                        }
+
+                        return comparisonResult;
+                    }
+            );
+        }
+    }
+}
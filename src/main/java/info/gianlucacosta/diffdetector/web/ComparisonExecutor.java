@@ -0,0 +1,157 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs the comparisons requested by the clients on a dedicated bounded pool,
+ * so that the container's threads are released - and remain available to uploads
+ * and deletes - while the operands are scanned.
+ * <p>
+ * When both the threads and the queue are busy, further comparisons are rejected
+ * with a ComparisonRejectedException.
+ */
+@Service
+public class ComparisonExecutor {
+    private final ThreadPoolExecutor executor;
+
+    private final LongAdder rejectedCount =
+            new LongAdder();
+
+
+    /**
+     * Creates an executor.
+     *
+     * @param threads       The threads performing the comparisons; 0 means the number of available processors
+     * @param queueCapacity The maximum number of comparisons waiting for a thread
+     */
+    @Autowired
+    public ComparisonExecutor(
+            @Value("${diffdetector.comparison.async.threads:0}") int threads,
+            @Value("${diffdetector.comparison.async.queue-capacity:256}") int queueCapacity
+    ) {
+        if (threads < 0 || queueCapacity < 1) {
+            throw new IllegalArgumentException();
+        }
+
+        int actualThreads =
+                (threads == 0) ?
+                        Runtime.getRuntime().availableProcessors()
+                        :
+                        threads;
+
+        AtomicInteger threadCounter =
+                new AtomicInteger();
+
+        this.executor =
+                new ThreadPoolExecutor(
+                        actualThreads,
+                        actualThreads,
+                        0,
+                        TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(queueCapacity),
+                        runnable -> {
+                            Thread comparisonThread =
+                                    new Thread(runnable, "ComparisonExecutor-" + threadCounter.incrementAndGet());
+
+                            comparisonThread.setDaemon(true);
+
+                            return comparisonThread;
+                        },
+                        new ThreadPoolExecutor.AbortPolicy()
+                );
+    }
+
+
+    /**
+     * Submits a comparison, returning a future completed - with its result
+     * or with the very exception it throws - on a thread of the pool
+     *
+     * @throws ComparisonRejectedException If the pool and its queue are full
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> comparison) {
+        CompletableFuture<T> future =
+                new CompletableFuture<>();
+
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(comparison.get());
+                } catch (Throwable ex) {
+                    future.completeExceptionally(ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            rejectedCount.increment();
+
+            throw new ComparisonRejectedException();
+        }
+
+        return future;
+    }
+
+
+    /**
+     * Returns the number of threads currently performing a comparison
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+
+    /**
+     * Returns the number of comparisons waiting for a thread
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+
+    /**
+     * Returns the number of comparisons completed - successfully or not - since startup
+     */
+    public long getCompletedCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+
+    /**
+     * Returns the number of comparisons rejected because the pool was full
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,143 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import info.gianlucacosta.diffdetector.core.ComparisonOperand;
+import org.springframework.boot.jackson.JsonComponent;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.IOException;
+
+/**
+ * Deserializes a ComparisonOperand by decoding its <i>base64Data</i> field chunk by chunk,
+ * straight from the Jackson token stream, instead of first materializing it as a String.
+ * <p>
+ * The output array is pre-sized from the Content-Length of the current request,
+ * if any: this way, the peak memory per upload is about the decoded size.
+ * As the estimate can exceed the decoded size - because of padding, whitespace
+ * or further fields - the array is never trimmed here: the returned operand
+ * is a view of exactly the decoded bytes.
+ */
+@JsonComponent
+class ComparisonOperandDeserializer extends JsonDeserializer<ComparisonOperand> {
+    private static final String base64DataField =
+            "base64Data";
+
+
+    @Override
+    public ComparisonOperand deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        JsonToken token =
+                parser.getCurrentToken();
+
+        if (token == JsonToken.START_OBJECT) {
+            token =
+                    parser.nextToken();
+        }
+
+        DecodedComparisonOperand result =
+                null;
+
+        while (token == JsonToken.FIELD_NAME) {
+            String fieldName =
+                    parser.getCurrentName();
+
+            token =
+                    parser.nextToken();
+
+            if (base64DataField.equals(fieldName) && token == JsonToken.VALUE_STRING) {
+                PresizedByteArrayOutputStream outputStream =
+                        new PresizedByteArrayOutputStream(
+                                getExpectedDecodedLength(parser)
+                        );
+
+                parser.readBinaryValue(
+                        context.getBase64Variant(),
+                        outputStream
+                );
+
+                result =
+                        new DecodedComparisonOperand(
+                                outputStream.getBuffer(),
+                                outputStream.size()
+                        );
+            } else {
+                parser.skipChildren();
+            }
+
+            token =
+                    parser.nextToken();
+        }
+
+
+        if (result == null) {
+            throw JsonMappingException.from(
+                    parser,
+                    "Missing string field: " + base64DataField
+            );
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Estimates the decoded length from the request's Content-Length, as each
+     * 4 base64 characters encode 3 bytes; the few bytes of the JSON envelope
+     * are subtracted assuming a compact object
+     *
+     * @return The estimated length, or -1 if there is no current request,
+     * if its Content-Length is unknown or if the operand is not the root
+     * of the request body - for example, within a batch
+     */
+    private static int getExpectedDecodedLength(JsonParser parser) {
+        if (!parser.getParsingContext().getParent().inRoot()) {
+            return -1;
+        }
+
+        RequestAttributes requestAttributes =
+                RequestContextHolder.getRequestAttributes();
+
+        if (!(requestAttributes instanceof ServletRequestAttributes)) {
+            return -1;
+        }
+
+        int contentLength =
+                ((ServletRequestAttributes) requestAttributes)
+                        .getRequest()
+                        .getContentLength();
+
+        if (contentLength < 0) {
+            return -1;
+        }
+
+        int envelopeLength =
+                ("{\"" + base64DataField + "\":\"\"}").length();
+
+        return Math.max(0, contentLength - envelopeLength) / 4 * 3;
+    }
+}
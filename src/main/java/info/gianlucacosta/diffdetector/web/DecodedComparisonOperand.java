@@ -0,0 +1,116 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web;
+
+import info.gianlucacosta.diffdetector.core.ComparisonOperand;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Operand decoded into an array that can be longer than the data, as it was
+ * sized according to an estimate: only the first <i>length</i> bytes are used.
+ * <p>
+ * The data can be stored by passing both the buffer and the length,
+ * without trimming the array; getData() trims it - just once - on demand.
+ */
+class DecodedComparisonOperand extends ComparisonOperand {
+    private static final byte[] emptyData =
+            new byte[0];
+
+
+    /**
+     * Returns the given operand if it is already a DecodedComparisonOperand,
+     * or a view of its whole data otherwise
+     */
+    static DecodedComparisonOperand of(ComparisonOperand comparisonOperand) {
+        if (comparisonOperand instanceof DecodedComparisonOperand) {
+            return (DecodedComparisonOperand) comparisonOperand;
+        }
+
+        byte[] data =
+                comparisonOperand.getData();
+
+        return new DecodedComparisonOperand(data, data.length);
+    }
+
+
+    private byte[] buffer;
+
+    private final int length;
+
+
+    DecodedComparisonOperand(byte[] buffer, int length) {
+        super(emptyData);
+
+        if (length < 0 || length > buffer.length) {
+            throw new IllegalArgumentException("Invalid length: " + length);
+        }
+
+        this.buffer = buffer;
+        this.length = length;
+    }
+
+
+    /**
+     * Returns the array containing the data, which may have unused bytes at its end
+     */
+    synchronized byte[] getBuffer() {
+        return buffer;
+    }
+
+
+    int getLength() {
+        return length;
+    }
+
+
+    @Override
+    public synchronized byte[] getData() {
+        if (buffer.length != length) {
+            buffer =
+                    Arrays.copyOf(buffer, length);
+        }
+
+        return buffer;
+    }
+
+
+    @Override
+    public String getBase64Data() {
+        byte[] buffer =
+                getBuffer();
+
+        ByteBuffer encodedBuffer =
+                Base64.getEncoder().encode(
+                        ByteBuffer.wrap(buffer, 0, length)
+                );
+
+        return new String(
+                encodedBuffer.array(),
+                encodedBuffer.arrayOffset(),
+                encodedBuffer.remaining(),
+                StandardCharsets.US_ASCII
+        );
+    }
+}
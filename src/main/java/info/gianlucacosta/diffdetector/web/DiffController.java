@@ -20,14 +20,34 @@
 
 package info.gianlucacosta.diffdetector.web;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import info.gianlucacosta.diffdetector.core.ComparisonOperand;
 import info.gianlucacosta.diffdetector.core.ComparisonResult;
-import info.gianlucacosta.diffdetector.web.diff.DiffService;
-import info.gianlucacosta.diffdetector.web.storage.ByteRepository;
+import info.gianlucacosta.diffdetector.core.Diff;
+import info.gianlucacosta.diffdetector.web.diff.Alignment;
+import info.gianlucacosta.diffdetector.web.diff.AlignmentService;
+import info.gianlucacosta.diffdetector.web.diff.DiffSink;
+import info.gianlucacosta.diffdetector.web.diff.DiffSummary;
+import info.gianlucacosta.diffdetector.web.storage.Operand;
+import info.gianlucacosta.diffdetector.web.storage.OperandPair;
+import info.gianlucacosta.diffdetector.web.storage.OperandPairRepository;
+import info.gianlucacosta.diffdetector.web.storage.OperandPatch;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * RESTful web service controller.
@@ -40,67 +60,570 @@ import java.util.Optional;
  * <ul>
  * <li><b>/{id}/left</b> -> <b>POST</b>, to set the left item having the given id</li>
  * <li></b>/{id}/right</b> -> <b>POST</b>, to set the right item having the given id</li>
+ * <li>Both the above paths also accept raw <b>application/octet-stream</b> bodies,
+ * streamed straight into the repository without the JSON and base64 layers</li>
  * <li></b>/{id}</b> -> <b>GET</b>, to compare the left and right item having the given id</li>
+ * <li>The comparison also accepts <b>equality=true</b>, <b>summary=true</b> or <b>first=N</b>,
+ * to return just whether the items are equal, the counts of their diffs or their first N diffs -
+ * scanning the items no further than needed; the other modes are <b>limit=N</b> - plus an optional
+ * <b>cursor</b> - <b>stream=true</b> and <b>align=true</b>. At most one mode can be requested</li>
  * <li></b>/{id}</b> -> <b>DELETE</b>, to remove the left and right item having the given id</li>
  * </ul>
+ * <p>
+ * Both the operands of an id are kept in a single entry of an OperandPairRepository,
+ * so each comparison works on a consistent snapshot of them.
+ * <p>
+ * Operands having the same fingerprint are reported as identical without scanning them,
+ * unless fingerprint matches must be verified.
+ * <p>
+ * Comparisons are performed asynchronously by a ComparisonExecutor, releasing
+ * the container's thread while the operands are scanned.
  */
 @RestController
 @RequestMapping(DiffController.path)
 public class DiffController {
     public static final String path = "/v1/diff";
 
-    private final ByteRepository leftRepository;
+    private static final JsonFactory jsonFactory =
+            new JsonFactory();
+
+    @FunctionalInterface
+    private interface PatchAction<E extends Exception> {
+        Optional<OperandPatch> patch() throws E;
+    }
+
+    private enum ComparisonMode {
+        FULL,
+        PAGE,
+        FIRST,
+        STREAM,
+        SUMMARY,
+        EQUALITY,
+        ALIGNMENT
+    }
+
+    private final OperandPairRepository operandPairRepository;
 
-    private final ByteRepository rightRepository;
+    private final ComparisonCoordinator comparisonCoordinator;
 
-    private final DiffService diffService;
+    private final ComparisonExecutor comparisonExecutor;
 
+    private final AlignmentService alignmentService;
 
-    public DiffController(ByteRepository leftRepository, ByteRepository rightRepository, DiffService diffService) {
-        this.leftRepository = leftRepository;
-        this.rightRepository = rightRepository;
-        this.diffService = diffService;
+
+    /**
+     * Creates a controller whose alignments have the default settings
+     */
+    public DiffController(
+            OperandPairRepository operandPairRepository,
+            ComparisonCoordinator comparisonCoordinator,
+            ComparisonExecutor comparisonExecutor
+    ) {
+        this(operandPairRepository, comparisonCoordinator, comparisonExecutor, new AlignmentService());
+    }
+
+
+    @Autowired
+    public DiffController(
+            OperandPairRepository operandPairRepository,
+            ComparisonCoordinator comparisonCoordinator,
+            ComparisonExecutor comparisonExecutor,
+            AlignmentService alignmentService
+    ) {
+        this.operandPairRepository = operandPairRepository;
+        this.comparisonCoordinator = comparisonCoordinator;
+        this.comparisonExecutor = comparisonExecutor;
+        this.alignmentService = alignmentService;
     }
 
 
     @PostMapping("/{id}/left")
     @ResponseStatus(HttpStatus.CREATED)
     public void putLeft(@PathVariable String id, @RequestBody ComparisonOperand comparisonOperand) {
-        byte[] data =
-                comparisonOperand.getData();
+        DecodedComparisonOperand decodedOperand =
+                DecodedComparisonOperand.of(comparisonOperand);
 
-        leftRepository.save(id, data);
+        operandPairRepository.saveLeft(id, decodedOperand.getBuffer(), decodedOperand.getLength());
+
+        comparisonCoordinator.operandSaved(id);
     }
 
 
     @PostMapping("/{id}/right")
     @ResponseStatus(HttpStatus.CREATED)
     public void putRight(@PathVariable String id, @RequestBody ComparisonOperand comparisonOperand) {
-        byte[] data =
-                comparisonOperand.getData();
+        DecodedComparisonOperand decodedOperand =
+                DecodedComparisonOperand.of(comparisonOperand);
+
+        operandPairRepository.saveRight(id, decodedOperand.getBuffer(), decodedOperand.getLength());
+
+        comparisonCoordinator.operandSaved(id);
+    }
+
+
+    @PostMapping(path = "/{id}/left", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    @ResponseStatus(HttpStatus.CREATED)
+    public void putLeftBytes(@PathVariable String id, HttpServletRequest request) throws IOException {
+        operandPairRepository.saveLeft(
+                id,
+                request.getInputStream(),
+                request.getContentLength()
+        );
+
+        comparisonCoordinator.operandSaved(id);
+    }
+
+
+    @PostMapping(path = "/{id}/right", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    @ResponseStatus(HttpStatus.CREATED)
+    public void putRightBytes(@PathVariable String id, HttpServletRequest request) throws IOException {
+        operandPairRepository.saveRight(
+                id,
+                request.getInputStream(),
+                request.getContentLength()
+        );
+
+        comparisonCoordinator.operandSaved(id);
+    }
+
+
+    @PatchMapping("/{id}/left")
+    public void patchLeft(
+            @PathVariable String id,
+            @RequestParam int offset,
+            @RequestBody ComparisonOperand comparisonOperand
+    ) {
+        OperandPatch operandPatch =
+                checkRange(() -> operandPairRepository.patchLeft(id, offset, comparisonOperand.getData()));
+
+        comparisonCoordinator.operandPatched(id, operandPatch);
+    }
+
+
+    @PatchMapping("/{id}/right")
+    public void patchRight(
+            @PathVariable String id,
+            @RequestParam int offset,
+            @RequestBody ComparisonOperand comparisonOperand
+    ) {
+        OperandPatch operandPatch =
+                checkRange(() -> operandPairRepository.patchRight(id, offset, comparisonOperand.getData()));
 
-        rightRepository.save(id, data);
+        comparisonCoordinator.operandPatched(id, operandPatch);
     }
 
 
+    @PatchMapping(path = "/{id}/left", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public void patchLeftBytes(
+            @PathVariable String id,
+            @RequestParam int offset,
+            HttpServletRequest request
+    ) throws IOException {
+        OperandPatch operandPatch =
+                checkRange(() -> operandPairRepository.patchLeft(
+                        id,
+                        offset,
+                        request.getInputStream(),
+                        request.getContentLength()
+                ));
+
+        comparisonCoordinator.operandPatched(id, operandPatch);
+    }
+
+
+    @PatchMapping(path = "/{id}/right", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public void patchRightBytes(
+            @PathVariable String id,
+            @RequestParam int offset,
+            HttpServletRequest request
+    ) throws IOException {
+        OperandPatch operandPatch =
+                checkRange(() -> operandPairRepository.patchRight(
+                        id,
+                        offset,
+                        request.getInputStream(),
+                        request.getContentLength()
+                ));
+
+        comparisonCoordinator.operandPatched(id, operandPatch);
+    }
+
+
+    private static <E extends Exception> OperandPatch checkRange(PatchAction<E> patchAction) throws E {
+        try {
+            return patchAction.patch().orElseThrow(DataNotFoundException::new);
+        } catch (IndexOutOfBoundsException ex) {
+            throw new InvalidRangeException();
+        }
+    }
+
+
+    /**
+     * The single handler of the comparisons, performing the mode selected by the query parameters;
+     * requesting more than one mode - or a cursor without a limit - fails with a
+     * ConflictingOptionsException, instead of picking one of them.
+     * <p>
+     * The latency of each mode is recorded separately, as <i>DiffController.compare.{mode}</i>
+     */
     @GetMapping("/{id}")
-    public ComparisonResult compare(@PathVariable String id) {
-        Optional<ComparisonResult> comparisonResultOption =
-                leftRepository.find(id).flatMap(left ->
-                        rightRepository.find(id).map(right ->
-                                diffService.compare(left, right)
-                        )
-                );
+    public CompletableFuture<?> compare(
+            @PathVariable String id,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) Integer cursor,
+            @RequestParam(required = false) Integer first,
+            @RequestParam(defaultValue = "false") boolean stream,
+            @RequestParam(defaultValue = "false") boolean summary,
+            @RequestParam(defaultValue = "false") boolean equality,
+            @RequestParam(defaultValue = "false") boolean align,
+            @RequestHeader(name = HttpHeaders.ACCEPT, defaultValue = MediaType.APPLICATION_JSON_VALUE) String accept,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        ComparisonMode mode =
+                resolveMode(limit != null, first != null, stream, summary, equality, align);
+
+        EndpointLatencyInterceptor.setEndpointVariant(request, mode.name().toLowerCase(Locale.ROOT));
+
+        if (cursor != null && mode != ComparisonMode.PAGE) {
+            throw new ConflictingOptionsException();
+        }
+
+        switch (mode) {
+            case PAGE:
+                return compare(id, (cursor != null) ? cursor : 0, limit);
+
+            case FIRST:
+                return compareFirst(id, first);
+
+            case STREAM:
+                return compareStreaming(id, accept, response);
+
+            case SUMMARY:
+                return summarize(id);
+
+            case EQUALITY:
+                return checkEquality(id);
+
+            case ALIGNMENT:
+                return align(id);
+
+            default:
+                return compare(id);
+        }
+    }
+
+
+    private static ComparisonMode resolveMode(
+            boolean paged,
+            boolean firstOnly,
+            boolean streamed,
+            boolean summarized,
+            boolean equalityOnly,
+            boolean aligned
+    ) {
+        List<ComparisonMode> requestedModes =
+                new ArrayList<>();
+
+        if (paged) {
+            requestedModes.add(ComparisonMode.PAGE);
+        }
+
+        if (firstOnly) {
+            requestedModes.add(ComparisonMode.FIRST);
+        }
+
+        if (streamed) {
+            requestedModes.add(ComparisonMode.STREAM);
+        }
+
+        if (summarized) {
+            requestedModes.add(ComparisonMode.SUMMARY);
+        }
+
+        if (equalityOnly) {
+            requestedModes.add(ComparisonMode.EQUALITY);
+        }
+
+        if (aligned) {
+            requestedModes.add(ComparisonMode.ALIGNMENT);
+        }
+
+
+        if (requestedModes.size() > 1) {
+            throw new ConflictingOptionsException();
+        }
+
+        return requestedModes.isEmpty() ?
+                ComparisonMode.FULL
+                :
+                requestedModes.get(0);
+    }
+
+
+    public CompletableFuture<ComparisonResult> compare(String id) {
+        return comparisonExecutor.submit(() ->
+                comparisonCoordinator.compare(id)
+        );
+    }
+
+
+    /**
+     * Returns the diffs starting at the given cursor - that is, the diffs whose offset
+     * is at least the cursor - up to the given limit
+     */
+    public CompletableFuture<DiffPage> compare(String id, int cursor, int limit) {
+        if (cursor < 0 || limit < 1) {
+            throw new InvalidRangeException();
+        }
+
+        return comparisonExecutor.submit(() ->
+                getPage(id, cursor, limit)
+        );
+    }
+
+
+    private DiffPage getPage(String id, int cursor, int limit) {
+        ComparisonResult comparisonResult =
+                comparisonCoordinator.compare(id);
+
+        List<Diff> diffs =
+                comparisonResult.getDiffs();
+
+        int startIndex =
+                findFirstDiffIndex(diffs, cursor);
+
+        int endIndex =
+                (int) Math.min(diffs.size(), (long) startIndex + limit);
+
+
+        return new DiffPage(
+                comparisonResult.isSameLength(),
+                diffs.subList(startIndex, endIndex),
+                (endIndex < diffs.size()) ?
+                        diffs.get(endIndex).getOffset()
+                        :
+                        null
+        );
+    }
+
+
+    /**
+     * Binary search of the first diff whose offset is at least the given one
+     */
+    private static int findFirstDiffIndex(List<Diff> diffs, int offset) {
+        int lowIndex =
+                0;
+
+        int highIndex =
+                diffs.size();
+
+        while (lowIndex < highIndex) {
+            int middleIndex =
+                    (lowIndex + highIndex) >>> 1;
+
+            if (diffs.get(middleIndex).getOffset() < offset) {
+                lowIndex =
+                        middleIndex + 1;
+            } else {
+                highIndex =
+                        middleIndex;
+            }
+        }
+
+        return lowIndex;
+    }
+
+
+    /**
+     * Returns the first diffs, up to the given count: unless the comparison result is available,
+     * the items are scanned only until the diff following them - whose offset is the next cursor
+     */
+    public CompletableFuture<DiffPage> compareFirst(String id, int first) {
+        if (first < 1) {
+            throw new InvalidRangeException();
+        }
+
+        return comparisonExecutor.submit(() -> {
+            List<Diff> diffs =
+                    new ArrayList<>();
+
+            boolean[] sameLength =
+                    new boolean[1];
+
+            int stopOffset =
+                    comparisonCoordinator.compare(
+                            id,
+                            new DiffSink() {
+                                @Override
+                                public void begin(boolean operandsHaveSameLength) {
+                                    sameLength[0] =
+                                            operandsHaveSameLength;
+                                }
+
+
+                                @Override
+                                public void acceptDiff(int offset, int length) {
+                                    diffs.add(new Diff(offset, length));
+                                }
+                            },
+                            first
+                    );
+
+            return new DiffPage(
+                    sameLength[0],
+                    diffs,
+                    (stopOffset != -1) ?
+                            stopOffset
+                            :
+                            null
+            );
+        });
+    }
 
-        return comparisonResultOption
-                .orElseThrow(DataNotFoundException::new);
+
+    /**
+     * Returns the number of diffs and of differing bytes, without creating the diffs
+     */
+    public CompletableFuture<DiffSummary> summarize(String id) {
+        return comparisonExecutor.submit(() ->
+                comparisonCoordinator.summarize(id)
+        );
+    }
+
+
+    /**
+     * Tells whether the items are equal, scanning them at most up to their first difference
+     */
+    public CompletableFuture<EqualityCheck> checkEquality(String id) {
+        return comparisonExecutor.submit(() ->
+                comparisonCoordinator.checkEquality(id)
+        );
+    }
+
+
+    /**
+     * Writes the comparison result in the usual format - or in the compact binary format,
+     * if accepted by the client - but each diff is written as soon as it is detected,
+     * so that neither the server nor the response ever hold the full diff list
+     */
+    public CompletableFuture<Void> compareStreaming(String id, String accept, HttpServletResponse response) throws IOException {
+        //Wildcards select JSON, which remains the default
+        boolean compact =
+                MediaType.parseMediaTypes(accept)
+                        .stream()
+                        .anyMatch(acceptedType ->
+                                !acceptedType.isWildcardSubtype()
+                                        && acceptedType.isCompatibleWith(CompactComparisonResultConverter.mediaType)
+                        );
+
+        DiffSink diffSink =
+                compact ?
+                        new CompactDiffWriter(response.getOutputStream()) {
+                            @Override
+                            public void begin(boolean sameLength) {
+                                response.setContentType(CompactComparisonResultConverter.mediaTypeValue);
+                                super.begin(sameLength);
+                            }
+                        }
+                        :
+                        new JsonDiffWriter(response);
+
+        return comparisonExecutor.submit(() -> {
+            comparisonCoordinator.compare(id, diffSink);
+            return null;
+        });
+    }
+
+
+    /**
+     * Aligns the items - which can have different lengths - reporting the regions
+     * inserted, deleted or changed, instead of byte-per-byte diffs
+     */
+    public CompletableFuture<Alignment> align(String id) {
+        return comparisonExecutor.submit(() ->
+                alignOperands(id)
+        );
+    }
+
+
+    private Alignment alignOperands(String id) {
+        try (OperandPair operandPair = operandPairRepository.acquire(id).orElseThrow(DataNotFoundException::new)) {
+            Operand left =
+                    operandPair.getLeft().orElseThrow(DataNotFoundException::new);
+
+            Operand right =
+                    operandPair.getRight().orElseThrow(DataNotFoundException::new);
+
+            return alignmentService.align(
+                    left.getData(),
+                    right.getData()
+            );
+        }
+    }
+
+
+    /**
+     * Writes the diffs in the usual JSON format
+     */
+    private static class JsonDiffWriter implements DiffSink {
+        private final HttpServletResponse response;
+
+        private JsonGenerator jsonGenerator;
+
+
+        JsonDiffWriter(HttpServletResponse response) {
+            this.response = response;
+        }
+
+
+        @Override
+        public void begin(boolean sameLength) {
+            response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+
+            try {
+                jsonGenerator =
+                        jsonFactory.createGenerator(response.getOutputStream());
+
+                jsonGenerator.writeStartObject();
+                jsonGenerator.writeBooleanField("sameLength", sameLength);
+                jsonGenerator.writeArrayFieldStart("diffs");
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+
+        @Override
+        public void acceptDiff(int offset, int length) {
+            try {
+                jsonGenerator.writeStartObject();
+                jsonGenerator.writeNumberField("offset", offset);
+                jsonGenerator.writeNumberField("length", length);
+                jsonGenerator.writeEndObject();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+
+        @Override
+        public void end() {
+            try {
+                jsonGenerator.writeEndArray();
+                jsonGenerator.writeEndObject();
+                jsonGenerator.close();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
     }
 
 
     @DeleteMapping("/{id}")
     public HttpStatus delete(@PathVariable String id) {
-        leftRepository.remove(id);
-        rightRepository.remove(id);
+        operandPairRepository.remove(id);
+
+        comparisonCoordinator.operandsRemoved(id);
 
         return HttpStatus.NO_CONTENT;
     }
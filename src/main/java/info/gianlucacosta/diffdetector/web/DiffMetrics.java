@@ -0,0 +1,178 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web;
+
+import info.gianlucacosta.diffdetector.web.diff.ComparisonResultCache;
+import info.gianlucacosta.diffdetector.web.diff.DiffService;
+import info.gianlucacosta.diffdetector.web.metrics.Histogram;
+import info.gianlucacosta.diffdetector.web.storage.ByteRepository;
+import info.gianlucacosta.diffdetector.web.storage.DeduplicatedByteRepository;
+import info.gianlucacosta.diffdetector.web.storage.InMemoryByteRepository;
+import info.gianlucacosta.diffdetector.web.storage.OperandPairRepository;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the metrics of the diff service via the actuator's <b>/metrics</b> endpoint.
+ * <p>
+ * All the values are read from counters maintained by the services, or computed
+ * when the metrics are requested.
+ */
+@Component
+public class DiffMetrics implements PublicMetrics {
+    private static final String prefix =
+            "diffdetector.";
+
+    private static final double nanosPerMillisecond =
+            TimeUnit.MILLISECONDS.toNanos(1);
+
+
+    private final EndpointLatencyInterceptor endpointLatencyInterceptor;
+
+    private final DiffService diffService;
+
+    private final OperandPairRepository operandPairRepository;
+
+    private final ComparisonResultCache comparisonResultCache;
+
+    private final ComparisonCoordinator comparisonCoordinator;
+
+    private final ComparisonExecutor comparisonExecutor;
+
+
+    public DiffMetrics(
+            EndpointLatencyInterceptor endpointLatencyInterceptor,
+            DiffService diffService,
+            OperandPairRepository operandPairRepository,
+            ComparisonResultCache comparisonResultCache,
+            ComparisonCoordinator comparisonCoordinator,
+            ComparisonExecutor comparisonExecutor
+    ) {
+        this.endpointLatencyInterceptor = endpointLatencyInterceptor;
+        this.diffService = diffService;
+        this.operandPairRepository = operandPairRepository;
+        this.comparisonResultCache = comparisonResultCache;
+        this.comparisonCoordinator = comparisonCoordinator;
+        this.comparisonExecutor = comparisonExecutor;
+    }
+
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics =
+                new ArrayList<>();
+
+        endpointLatencyInterceptor.getLatencyHistograms().forEach((endpointName, latencyHistogram) ->
+                addHistogram(metrics, "endpoint." + endpointName + ".latency-ms", latencyHistogram, nanosPerMillisecond)
+        );
+
+
+        long scanNanos =
+                diffService.getScanNanos();
+
+        long scannedBytes =
+                diffService.getScannedBytes();
+
+        add(metrics, "comparison.count", diffService.getComparisonCount());
+        add(metrics, "comparison.scanned-bytes", scannedBytes);
+        add(metrics, "comparison.skipped-bytes", diffService.getSkippedBytes());
+        add(
+                metrics,
+                "comparison.bytes-per-second",
+                (scanNanos > 0) ?
+                        scannedBytes * (double) TimeUnit.SECONDS.toNanos(1) / scanNanos
+                        :
+                        0
+        );
+        addHistogram(metrics, "comparison.diffs", diffService.getDiffCountHistogram(), 1);
+
+
+        add(metrics, "storage.pairs", operandPairRepository.getPairCount());
+        add(metrics, "storage.operands", operandPairRepository.getOperandCount());
+        add(metrics, "storage.operand-bytes", operandPairRepository.getOperandBytes());
+
+        ByteRepository byteRepository =
+                operandPairRepository.getByteRepository();
+
+        if (byteRepository instanceof InMemoryByteRepository) {
+            InMemoryByteRepository inMemoryRepository =
+                    (InMemoryByteRepository) byteRepository;
+
+            add(metrics, "storage.in-memory.stored-bytes", inMemoryRepository.getStoredBytes());
+            add(metrics, "storage.in-memory.original-bytes", inMemoryRepository.getOriginalBytes());
+            add(metrics, "storage.in-memory.compression-ratio", inMemoryRepository.getCompressionRatio());
+        } else if (byteRepository instanceof DeduplicatedByteRepository) {
+            DeduplicatedByteRepository deduplicatedRepository =
+                    (DeduplicatedByteRepository) byteRepository;
+
+            add(metrics, "storage.deduplicated.blocks", deduplicatedRepository.getBlockCount());
+            add(metrics, "storage.deduplicated.block-bytes", deduplicatedRepository.getBlockBytes());
+            add(metrics, "storage.deduplicated.item-bytes", deduplicatedRepository.getItemBytes());
+            add(metrics, "storage.deduplicated.ratio", deduplicatedRepository.getDeduplicationRatio());
+        }
+
+
+        add(metrics, "cache.size", comparisonResultCache.getSize());
+        add(metrics, "cache.estimated-bytes", comparisonResultCache.getEstimatedBytes());
+        add(metrics, "cache.hits", comparisonResultCache.getHitCount());
+        add(metrics, "cache.misses", comparisonResultCache.getMissCount());
+        add(metrics, "cache.evictions", comparisonResultCache.getEvictionCount());
+
+
+        add(metrics, "executor.active", comparisonExecutor.getActiveCount());
+        add(metrics, "executor.queued", comparisonExecutor.getQueuedCount());
+        add(metrics, "executor.completed", comparisonExecutor.getCompletedCount());
+        add(metrics, "executor.rejected", comparisonExecutor.getRejectedCount());
+
+
+        add(metrics, "eager.scheduled", comparisonCoordinator.getScheduledCount());
+        add(metrics, "eager.superseded", comparisonCoordinator.getSupersededCount());
+        add(metrics, "eager.rejected", comparisonCoordinator.getRejectedCount());
+        add(metrics, "eager.pending", comparisonCoordinator.getPendingCount());
+
+        return metrics;
+    }
+
+
+    private static void add(List<Metric<?>> metrics, String name, Number value) {
+        metrics.add(new Metric<>(prefix + name, value));
+    }
+
+
+    /**
+     * Adds the count, mean, max and percentiles of the histogram,
+     * dividing the recorded values by the given unit
+     */
+    private static void addHistogram(List<Metric<?>> metrics, String name, Histogram histogram, double unit) {
+        add(metrics, name + ".count", histogram.getCount());
+        add(metrics, name + ".mean", histogram.getMean() / unit);
+        add(metrics, name + ".max", histogram.getMax() / unit);
+        add(metrics, name + ".p50", histogram.getPercentile(0.5) / unit);
+        add(metrics, name + ".p90", histogram.getPercentile(0.9) / unit);
+        add(metrics, name + ".p99", histogram.getPercentile(0.99) / unit);
+    }
+}
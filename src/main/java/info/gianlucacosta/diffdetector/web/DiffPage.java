@@ -0,0 +1,60 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web;
+
+import info.gianlucacosta.diffdetector.core.Diff;
+
+import java.util.List;
+
+/**
+ * A page of the diffs of a comparison result
+ */
+public class DiffPage {
+    private final boolean sameLength;
+    private final List<Diff> diffs;
+    private final Integer nextCursor;
+
+
+    public DiffPage(boolean sameLength, List<Diff> diffs, Integer nextCursor) {
+        this.sameLength = sameLength;
+        this.diffs = diffs;
+        this.nextCursor = nextCursor;
+    }
+
+
+    public boolean isSameLength() {
+        return sameLength;
+    }
+
+
+    public List<Diff> getDiffs() {
+        return diffs;
+    }
+
+
+    /**
+     * Returns the cursor of the next page - that is, the offset of its first diff -
+     * or null if this is the last page
+     */
+    public Integer getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,114 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web;
+
+import info.gianlucacosta.diffdetector.web.metrics.Histogram;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Records the latency of each controller method, in nanoseconds.
+ * <p>
+ * For asynchronous requests, the latency spans from the first dispatch
+ * to the completion of the asynchronous one.
+ * <p>
+ * A handler serving different operations - such as the comparison modes of
+ * DiffController.compare - can name the one being performed via
+ * {@link #setEndpointVariant(HttpServletRequest, String)}, so that each
+ * operation has its own histogram instead of mixing their latencies.
+ */
+@Component
+public class EndpointLatencyInterceptor extends HandlerInterceptorAdapter {
+    private static final String startTimeAttribute =
+            EndpointLatencyInterceptor.class.getName() + ".startTime";
+
+    private static final String endpointVariantAttribute =
+            EndpointLatencyInterceptor.class.getName() + ".endpointVariant";
+
+
+    /**
+     * Makes the latency of the request be recorded under the endpoint name
+     * followed by the given variant - for example, <i>DiffController.compare.summary</i>
+     */
+    public static void setEndpointVariant(HttpServletRequest request, String variant) {
+        request.setAttribute(endpointVariantAttribute, variant);
+    }
+
+
+    private final ConcurrentMap<String, Histogram> latencyHistograms =
+            new ConcurrentHashMap<>();
+
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        //The asynchronous dispatch must not reset the start time
+        if (request.getAttribute(startTimeAttribute) == null) {
+            request.setAttribute(startTimeAttribute, System.nanoTime());
+        }
+
+        return true;
+    }
+
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        Long startTime =
+                (Long) request.getAttribute(startTimeAttribute);
+
+        if (startTime == null || !(handler instanceof HandlerMethod)) {
+            return;
+        }
+
+        HandlerMethod handlerMethod =
+                (HandlerMethod) handler;
+
+        String endpointName =
+                handlerMethod.getBeanType().getSimpleName() + "." + handlerMethod.getMethod().getName();
+
+        String endpointVariant =
+                (String) request.getAttribute(endpointVariantAttribute);
+
+        if (endpointVariant != null) {
+            endpointName += "." + endpointVariant;
+        }
+
+        latencyHistograms
+                .computeIfAbsent(endpointName, name -> new Histogram())
+                .record(System.nanoTime() - startTime);
+    }
+
+
+    /**
+     * Returns the latency histograms, by endpoint name - such as <i>DiffController.delete</i>,
+     * or <i>DiffController.compare.full</i> for an endpoint having variants
+     */
+    public Map<String, Histogram> getLatencyHistograms() {
+        return Collections.unmodifiableMap(latencyHistograms);
+    }
+}
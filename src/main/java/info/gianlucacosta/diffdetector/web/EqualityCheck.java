@@ -0,0 +1,45 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web;
+
+/**
+ * Whether the two items of a comparison are equal
+ */
+public class EqualityCheck {
+    private final boolean sameLength;
+    private final boolean equal;
+
+
+    public EqualityCheck(boolean sameLength, boolean equal) {
+        this.sameLength = sameLength;
+        this.equal = equal;
+    }
+
+
+    public boolean isSameLength() {
+        return sameLength;
+    }
+
+
+    public boolean isEqual() {
+        return equal;
+    }
+}
@@ -0,0 +1,132 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Output stream writing into an array allocated according to the expected length,
+ * so that, when the expectation is right, the data are never copied while growing.
+ * <p>
+ * As the expected length usually comes from the client, the initial array is at most
+ * 64 MB: beyond that, it grows towards the expected length, but never beyond twice
+ * the bytes written so far.
+ */
+class PresizedByteArrayOutputStream extends OutputStream {
+    private static final int defaultCapacity =
+            8192;
+
+    private static final int maxArrayLength =
+            Integer.MAX_VALUE - 8;
+
+    private static final int maxPresizedLength =
+            64 * 1024 * 1024;
+
+
+    private final int expectedLength;
+
+    private byte[] buffer;
+
+    private int count;
+
+
+    /**
+     * @param expectedLength The expected number of bytes, or a negative value if unknown
+     */
+    public PresizedByteArrayOutputStream(int expectedLength) {
+        this.expectedLength =
+                expectedLength;
+
+        buffer =
+                new byte[(expectedLength >= 0) ? Math.min(expectedLength, maxPresizedLength) : defaultCapacity];
+    }
+
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(count + 1);
+
+        buffer[count++] =
+                (byte) b;
+    }
+
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        ensureCapacity(count + length);
+
+        System.arraycopy(bytes, offset, buffer, count, length);
+
+        count += length;
+    }
+
+
+    private void ensureCapacity(int requiredCapacity) {
+        if (requiredCapacity < 0 || requiredCapacity > maxArrayLength) {
+            throw new OutOfMemoryError("Required array size too large");
+        }
+
+        if (requiredCapacity > buffer.length) {
+            long doubledCapacity =
+                    Math.max(defaultCapacity, 2L * buffer.length);
+
+            long preferredCapacity =
+                    (expectedLength > buffer.length) ?
+                            Math.min(expectedLength, doubledCapacity)
+                            :
+                            doubledCapacity;
+
+            int newCapacity =
+                    (int) Math.min(
+                            maxArrayLength,
+                            Math.max(requiredCapacity, preferredCapacity)
+                    );
+
+            buffer =
+                    Arrays.copyOf(buffer, newCapacity);
+        }
+    }
+
+
+    /**
+     * Returns the array being written, whose first size() bytes are the written ones
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+
+    public int size() {
+        return count;
+    }
+
+
+    /**
+     * Returns the written bytes - without copying them, if they fill the array exactly
+     */
+    public byte[] toByteArray() {
+        return (count == buffer.length) ?
+                buffer
+                :
+                Arrays.copyOf(buffer, count);
+    }
+}
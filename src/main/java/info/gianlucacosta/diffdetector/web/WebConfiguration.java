@@ -0,0 +1,81 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Customizes Spring MVC
+ */
+@Configuration
+public class WebConfiguration extends WebMvcConfigurerAdapter {
+    private final EndpointLatencyInterceptor endpointLatencyInterceptor;
+
+    private final long asyncTimeoutSeconds;
+
+
+    public WebConfiguration(
+            EndpointLatencyInterceptor endpointLatencyInterceptor,
+            @Value("${diffdetector.comparison.async.timeout-seconds:0}") long asyncTimeoutSeconds
+    ) {
+        this.endpointLatencyInterceptor = endpointLatencyInterceptor;
+        this.asyncTimeoutSeconds = asyncTimeoutSeconds;
+    }
+
+
+    /**
+     * Asynchronous comparisons have no timeout by default - just like
+     * synchronous requests - instead of the container's one
+     */
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setDefaultTimeout(
+                (asyncTimeoutSeconds > 0) ?
+                        TimeUnit.SECONDS.toMillis(asyncTimeoutSeconds)
+                        :
+                        -1
+        );
+    }
+
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(endpointLatencyInterceptor);
+    }
+
+
+    /**
+     * Appends the compact converter after the default ones - unlike converter beans,
+     * which would precede them and be selected by wildcard Accept headers
+     */
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(new CompactComparisonResultConverter());
+    }
+}
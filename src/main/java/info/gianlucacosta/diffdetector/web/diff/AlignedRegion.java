@@ -0,0 +1,127 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.diff;
+
+import java.util.Objects;
+
+/**
+ * Region where two aligned operands differ: bytes inserted into the right operand,
+ * deleted from the left operand, or changed - possibly into a different number of bytes
+ */
+public final class AlignedRegion {
+    public enum Type {
+        INSERTED,
+        DELETED,
+        CHANGED
+    }
+
+
+    private final Type type;
+    private final int leftOffset;
+    private final int leftLength;
+    private final int rightOffset;
+    private final int rightLength;
+
+
+    public AlignedRegion(int leftOffset, int leftLength, int rightOffset, int rightLength) {
+        if (leftOffset < 0 || leftLength < 0 || rightOffset < 0 || rightLength < 0) {
+            throw new IllegalArgumentException();
+        }
+
+        if (leftLength == 0 && rightLength == 0) {
+            throw new IllegalArgumentException("The region is empty");
+        }
+
+        this.type =
+                (leftLength == 0) ?
+                        Type.INSERTED
+                        :
+                        (rightLength == 0) ?
+                                Type.DELETED
+                                :
+                                Type.CHANGED;
+
+        this.leftOffset = leftOffset;
+        this.leftLength = leftLength;
+        this.rightOffset = rightOffset;
+        this.rightLength = rightLength;
+    }
+
+
+    public Type getType() {
+        return type;
+    }
+
+
+    public int getLeftOffset() {
+        return leftOffset;
+    }
+
+
+    public int getLeftLength() {
+        return leftLength;
+    }
+
+
+    public int getRightOffset() {
+        return rightOffset;
+    }
+
+
+    public int getRightLength() {
+        return rightLength;
+    }
+
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof AlignedRegion)) {
+            return false;
+        }
+
+        AlignedRegion other =
+                (AlignedRegion) obj;
+
+        return leftOffset == other.leftOffset
+                && leftLength == other.leftLength
+                && rightOffset == other.rightOffset
+                && rightLength == other.rightLength;
+    }
+
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(leftOffset, leftLength, rightOffset, rightLength);
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s(left: %d+%d, right: %d+%d)",
+                type,
+                leftOffset,
+                leftLength,
+                rightOffset,
+                rightLength
+        );
+    }
+}
@@ -0,0 +1,67 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.diff;
+
+import java.util.List;
+
+/**
+ * Result of aligning two operands - possibly having different lengths:
+ * the regions where they differ, in ascending order of both their left and right offsets.
+ * The bytes outside the regions are identical in both operands.
+ */
+public final class Alignment {
+    private final int leftLength;
+    private final int rightLength;
+    private final List<AlignedRegion> regions;
+    private final boolean coarse;
+
+
+    public Alignment(int leftLength, int rightLength, List<AlignedRegion> regions, boolean coarse) {
+        this.leftLength = leftLength;
+        this.rightLength = rightLength;
+        this.regions = regions;
+        this.coarse = coarse;
+    }
+
+
+    public int getLeftLength() {
+        return leftLength;
+    }
+
+
+    public int getRightLength() {
+        return rightLength;
+    }
+
+
+    public List<AlignedRegion> getRegions() {
+        return regions;
+    }
+
+
+    /**
+     * Returns true if the cost ceiling was reached: some regions were then not
+     * aligned further, and can contain identical bytes
+     */
+    public boolean isCoarse() {
+        return coarse;
+    }
+}
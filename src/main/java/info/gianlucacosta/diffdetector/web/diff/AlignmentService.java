@@ -0,0 +1,458 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.diff;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aligns operands that can have different lengths, reporting the regions
+ * inserted, deleted or changed in the right operand with respect to the left one.
+ * <p>
+ * After skipping the common prefix and suffix, both operands are split into
+ * content-defined chunks: chunks occurring exactly once in each operand become anchors,
+ * of which the longest sequence in the same order on both sides is kept. Each anchor
+ * is then extended byte by byte, in both directions, as long as the operands match;
+ * the ranges between the matches are aligned again with smaller chunks, down to
+ * a minimum chunk size - below which they are reported as they are.
+ * <p>
+ * Each alignment step costs the length of the ranges it chunks; when the total cost
+ * would exceed a multiple of the operands' length, the remaining ranges are reported
+ * without aligning them further, and the result is marked as coarse.
+ */
+@Service
+public class AlignmentService {
+    /**
+     * Below this average chunk size, ranges are not aligned further
+     */
+    private static final int minChunkSize =
+            64;
+
+    /**
+     * Ratio between the chunk sizes of successive alignment steps
+     */
+    private static final int refinementFactor =
+            8;
+
+
+    private final int chunkSize;
+
+    private final int maxCostFactor;
+
+
+    /**
+     * Creates a service having the default settings
+     */
+    public AlignmentService() {
+        this(4096, 4);
+    }
+
+
+    /**
+     * Creates a service.
+     *
+     * @param chunkSize     The average chunk size of the first alignment step;
+     *                      it must be a power of two, at least 64
+     * @param maxCostFactor The cost ceiling, as a multiple of the total length of the operands
+     */
+    @Autowired
+    public AlignmentService(
+            @Value("${diffdetector.alignment.chunk-size:4096}") int chunkSize,
+            @Value("${diffdetector.alignment.max-cost-factor:4}") int maxCostFactor
+    ) {
+        if (Integer.bitCount(chunkSize) != 1 || chunkSize < minChunkSize || maxCostFactor < 1) {
+            throw new IllegalArgumentException();
+        }
+
+        this.chunkSize =
+                chunkSize;
+
+        this.maxCostFactor =
+                maxCostFactor;
+    }
+
+
+    /**
+     * Aligns the bytes between the position and the limit of each buffer,
+     * without altering the buffers' state
+     */
+    public Alignment align(ByteBuffer left, ByteBuffer right) {
+        AlignmentContext context =
+                new AlignmentContext(
+                        left.slice().order(ByteOrder.LITTLE_ENDIAN),
+                        right.slice().order(ByteOrder.LITTLE_ENDIAN),
+                        maxCostFactor * ((long) left.remaining() + right.remaining())
+                );
+
+        int leftLength =
+                context.left.limit();
+
+        int rightLength =
+                context.right.limit();
+
+        int prefixLength =
+                context.matchForward(0, 0, Math.min(leftLength, rightLength));
+
+        int suffixLength =
+                context.matchBackward(
+                        leftLength,
+                        rightLength,
+                        Math.min(leftLength, rightLength) - prefixLength
+                );
+
+        alignRange(
+                context,
+                prefixLength,
+                leftLength - suffixLength,
+                prefixLength,
+                rightLength - suffixLength,
+                chunkSize
+        );
+
+        return new Alignment(
+                leftLength,
+                rightLength,
+                context.regions,
+                context.coarse
+        );
+    }
+
+
+    private void alignRange(
+            AlignmentContext context,
+            int leftStart,
+            int leftEnd,
+            int rightStart,
+            int rightEnd,
+            int currentChunkSize
+    ) {
+        int leftLength =
+                leftEnd - leftStart;
+
+        int rightLength =
+                rightEnd - rightStart;
+
+        if (leftLength == 0 && rightLength == 0) {
+            return;
+        }
+
+        if (leftLength == 0 || rightLength == 0 || currentChunkSize < minChunkSize) {
+            context.addRegion(leftStart, leftLength, rightStart, rightLength);
+            return;
+        }
+
+        if (context.cost + leftLength + rightLength > context.maxCost) {
+            context.coarse =
+                    true;
+
+            context.addRegion(leftStart, leftLength, rightStart, rightLength);
+            return;
+        }
+
+        context.cost +=
+                leftLength + rightLength;
+
+
+        ContentChunker.Chunks leftChunks =
+                ContentChunker.chunk(context.left, leftStart, leftEnd, currentChunkSize);
+
+        ContentChunker.Chunks rightChunks =
+                ContentChunker.chunk(context.right, rightStart, rightEnd, currentChunkSize);
+
+        int[][] anchors =
+                findAnchors(leftChunks, rightChunks);
+
+        int nextChunkSize =
+                currentChunkSize / refinementFactor;
+
+        int matchedLeftEnd =
+                leftStart;
+
+        int matchedRightEnd =
+                rightStart;
+
+        for (int[] anchor : anchors) {
+            int anchorLeftOffset =
+                    leftChunks.getOffset(anchor[0]);
+
+            int anchorRightOffset =
+                    rightChunks.getOffset(anchor[1]);
+
+            int anchorLength =
+                    leftChunks.getLength(anchor[0]);
+
+            //The anchor was covered by extending the previous match, or is a hash collision
+            if (anchorLeftOffset < matchedLeftEnd
+                    || anchorRightOffset < matchedRightEnd
+                    || context.matchForward(anchorLeftOffset, anchorRightOffset, anchorLength) < anchorLength) {
+                continue;
+            }
+
+            int backwardLength =
+                    context.matchBackward(
+                            anchorLeftOffset,
+                            anchorRightOffset,
+                            Math.min(anchorLeftOffset - matchedLeftEnd, anchorRightOffset - matchedRightEnd)
+                    );
+
+            int forwardLength =
+                    anchorLength + context.matchForward(
+                            anchorLeftOffset + anchorLength,
+                            anchorRightOffset + anchorLength,
+                            Math.min(leftEnd - anchorLeftOffset, rightEnd - anchorRightOffset) - anchorLength
+                    );
+
+            alignRange(
+                    context,
+                    matchedLeftEnd,
+                    anchorLeftOffset - backwardLength,
+                    matchedRightEnd,
+                    anchorRightOffset - backwardLength,
+                    nextChunkSize
+            );
+
+            matchedLeftEnd =
+                    anchorLeftOffset + forwardLength;
+
+            matchedRightEnd =
+                    anchorRightOffset + forwardLength;
+        }
+
+        alignRange(
+                context,
+                matchedLeftEnd,
+                leftEnd,
+                matchedRightEnd,
+                rightEnd,
+                nextChunkSize
+        );
+    }
+
+
+    /**
+     * Returns the pairs of indexes of the chunks occurring just once in each operand,
+     * having the same hash and length, and forming the longest sequence
+     * that is ascending on both sides
+     */
+    private static int[][] findAnchors(ContentChunker.Chunks leftChunks, ContentChunker.Chunks rightChunks) {
+        Map<Long, Integer> uniqueRightChunks =
+                findUniqueChunks(rightChunks);
+
+        Map<Long, Integer> uniqueLeftChunks =
+                findUniqueChunks(leftChunks);
+
+        List<int[]> candidates =
+                new ArrayList<>();
+
+        for (int leftIndex = 0; leftIndex < leftChunks.getCount(); leftIndex++) {
+            long hash =
+                    leftChunks.getHash(leftIndex);
+
+            Integer uniqueLeftIndex =
+                    uniqueLeftChunks.get(hash);
+
+            Integer rightIndex =
+                    uniqueRightChunks.get(hash);
+
+            if (uniqueLeftIndex != null
+                    && uniqueLeftIndex == leftIndex
+                    && rightIndex != null
+                    && rightIndex >= 0
+                    && leftChunks.getLength(leftIndex) == rightChunks.getLength(rightIndex)) {
+                candidates.add(new int[]{leftIndex, rightIndex});
+            }
+        }
+
+        return findLongestAscendingSequence(candidates);
+    }
+
+
+    /**
+     * Maps the hash of each chunk to its index - or to -1, if the hash occurs more than once
+     */
+    private static Map<Long, Integer> findUniqueChunks(ContentChunker.Chunks chunks) {
+        Map<Long, Integer> result =
+                new HashMap<>();
+
+        for (int chunkIndex = 0; chunkIndex < chunks.getCount(); chunkIndex++) {
+            Integer previousIndex =
+                    result.putIfAbsent(chunks.getHash(chunkIndex), chunkIndex);
+
+            if (previousIndex != null) {
+                result.put(chunks.getHash(chunkIndex), -1);
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Patience sorting: given pairs ascending by their first element, returns the longest
+     * subsequence whose second elements are ascending too - in O(n log n)
+     */
+    private static int[][] findLongestAscendingSequence(List<int[]> pairs) {
+        int[] tailIndexes =
+                new int[pairs.size()];
+
+        int[] predecessors =
+                new int[pairs.size()];
+
+        int sequenceLength =
+                0;
+
+        for (int pairIndex = 0; pairIndex < pairs.size(); pairIndex++) {
+            int value =
+                    pairs.get(pairIndex)[1];
+
+            int lowIndex =
+                    0;
+
+            int highIndex =
+                    sequenceLength;
+
+            while (lowIndex < highIndex) {
+                int middleIndex =
+                        (lowIndex + highIndex) >>> 1;
+
+                if (pairs.get(tailIndexes[middleIndex])[1] < value) {
+                    lowIndex =
+                            middleIndex + 1;
+                } else {
+                    highIndex =
+                            middleIndex;
+                }
+            }
+
+            predecessors[pairIndex] =
+                    (lowIndex > 0) ? tailIndexes[lowIndex - 1] : -1;
+
+            tailIndexes[lowIndex] =
+                    pairIndex;
+
+            if (lowIndex == sequenceLength) {
+                sequenceLength++;
+            }
+        }
+
+
+        int[][] result =
+                new int[sequenceLength][];
+
+        int pairIndex =
+                (sequenceLength > 0) ? tailIndexes[sequenceLength - 1] : -1;
+
+        for (int resultIndex = sequenceLength - 1; resultIndex >= 0; resultIndex--) {
+            result[resultIndex] =
+                    pairs.get(pairIndex);
+
+            pairIndex =
+                    predecessors[pairIndex];
+        }
+
+        return result;
+    }
+
+
+    /**
+     * State of a single alignment
+     */
+    private static class AlignmentContext {
+        final ByteBuffer left;
+        final ByteBuffer right;
+        final long maxCost;
+        final List<AlignedRegion> regions = new ArrayList<>();
+        long cost;
+        boolean coarse;
+
+        AlignmentContext(ByteBuffer left, ByteBuffer right, long maxCost) {
+            this.left = left;
+            this.right = right;
+            this.maxCost = maxCost;
+        }
+
+
+        void addRegion(int leftOffset, int leftLength, int rightOffset, int rightLength) {
+            regions.add(new AlignedRegion(leftOffset, leftLength, rightOffset, rightLength));
+        }
+
+
+        /**
+         * Returns the number of equal bytes starting at the given offsets, up to the given length
+         */
+        int matchForward(int leftOffset, int rightOffset, int maxLength) {
+            ByteBuffer leftRange =
+                    slice(left, leftOffset, maxLength);
+
+            ByteBuffer rightRange =
+                    slice(right, rightOffset, maxLength);
+
+            return ComparisonEngine.findMismatch(leftRange, rightRange, 0, maxLength);
+        }
+
+
+        /**
+         * Returns the number of equal bytes ending at the given offsets, up to the given length
+         */
+        int matchBackward(int leftEndOffset, int rightEndOffset, int maxLength) {
+            int length =
+                    0;
+
+            //In little-endian words, the last bytes in memory are the most significant
+            while (length <= maxLength - Long.BYTES) {
+                long xor =
+                        left.getLong(leftEndOffset - length - Long.BYTES)
+                                ^ right.getLong(rightEndOffset - length - Long.BYTES);
+
+                if (xor != 0) {
+                    return length + (Long.numberOfLeadingZeros(xor) >>> 3);
+                }
+
+                length += Long.BYTES;
+            }
+
+            while (length < maxLength && left.get(leftEndOffset - length - 1) == right.get(rightEndOffset - length - 1)) {
+                length++;
+            }
+
+            return length;
+        }
+
+
+        private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+            ByteBuffer result =
+                    buffer.duplicate();
+
+            result.position(offset);
+            result.limit(offset + length);
+
+            return result.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+}
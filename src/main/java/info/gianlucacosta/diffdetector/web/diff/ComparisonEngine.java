@@ -0,0 +1,168 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.diff;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Strategy employed by DiffService to scan two operands having the same length,
+ * feeding a DiffTracker with the differences it finds.
+ * <p>
+ * It can be selected via the <b>diffdetector.comparison.engine</b> property.
+ */
+public enum ComparisonEngine {
+    /**
+     * Reference implementation, comparing the operands one byte at a time
+     */
+    BYTE {
+        @Override
+        void scan(ByteBuffer left, ByteBuffer right, int startOffset, int endOffset, DiffTracker diffTracker) {
+            for (int offset = startOffset; offset < endOffset && !diffTracker.isStopped(); offset++) {
+                diffTracker.inputBytes(
+                        left.get(offset),
+                        right.get(offset)
+                );
+            }
+        }
+    },
+
+
+    /**
+     * Word-at-a-time (SWAR) implementation: it reads 8 bytes at a time as longs,
+     * skipping equal words in a single step; the exact boundaries of each diff
+     * are then located by counting the trailing zeros of the XOR between the words.
+     */
+    WORD {
+        @Override
+        void scan(ByteBuffer left, ByteBuffer right, int startOffset, int endOffset, DiffTracker diffTracker) {
+            ByteBuffer leftWords =
+                    left.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+            ByteBuffer rightWords =
+                    right.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+            int offset =
+                    findMismatch(leftWords, rightWords, startOffset, endOffset);
+
+            while (offset < endOffset && !diffTracker.stopsAt(offset)) {
+                int diffEndOffset =
+                        findMatch(leftWords, rightWords, offset + 1, endOffset);
+
+                diffTracker.inputDiff(
+                        offset,
+                        diffEndOffset - offset
+                );
+
+                offset =
+                        findMismatch(leftWords, rightWords, diffEndOffset, endOffset);
+            }
+        }
+    };
+
+
+    /**
+     * Mask having the 7 lowest bits of each byte set
+     */
+    private static final long lowBitsMask =
+            0x7F7F7F7F7F7F7F7FL;
+
+
+    /**
+     * Scans the given range of the operands, whose offsets are absolute indexes
+     * within the buffers; the DiffTracker must be positioned at <i>startOffset</i>.
+     * <p>
+     * The scan ends early as soon as the DiffTracker stops.
+     */
+    abstract void scan(ByteBuffer left, ByteBuffer right, int startOffset, int endOffset, DiffTracker diffTracker);
+
+
+    /**
+     * Returns the offset of the first differing byte, or <i>endOffset</i> if
+     * the two ranges are equal.
+     * <p>
+     * The buffers must be little-endian, so that the first byte in memory
+     * is the least significant byte of each word.
+     */
+    static int findMismatch(ByteBuffer left, ByteBuffer right, int startOffset, int endOffset) {
+        int offset =
+                startOffset;
+
+        while (offset <= endOffset - Long.BYTES) {
+            long xor =
+                    left.getLong(offset) ^ right.getLong(offset);
+
+            if (xor != 0) {
+                return offset + (Long.numberOfTrailingZeros(xor) >>> 3);
+            }
+
+            offset += Long.BYTES;
+        }
+
+        while (offset < endOffset) {
+            if (left.get(offset) != right.get(offset)) {
+                return offset;
+            }
+
+            offset++;
+        }
+
+        return endOffset;
+    }
+
+
+    /**
+     * Returns the offset of the first equal byte, or <i>endOffset</i> if
+     * the two ranges differ at every position.
+     * <p>
+     * The buffers must be little-endian.
+     */
+    private static int findMatch(ByteBuffer left, ByteBuffer right, int startOffset, int endOffset) {
+        int offset =
+                startOffset;
+
+        while (offset <= endOffset - Long.BYTES) {
+            long xor =
+                    left.getLong(offset) ^ right.getLong(offset);
+
+            //The high bit of each byte is set if and only if the related XOR byte is zero;
+            //unlike the classic "haszero" trick, no carry can cross byte boundaries
+            long equalBytes =
+                    ~(((xor & lowBitsMask) + lowBitsMask) | xor | lowBitsMask);
+
+            if (equalBytes != 0) {
+                return offset + (Long.numberOfTrailingZeros(equalBytes) >>> 3);
+            }
+
+            offset += Long.BYTES;
+        }
+
+        while (offset < endOffset) {
+            if (left.get(offset) == right.get(offset)) {
+                return offset;
+            }
+
+            offset++;
+        }
+
+        return endOffset;
+    }
+}
@@ -0,0 +1,313 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.diff;
+
+import info.gianlucacosta.diffdetector.core.ComparisonResult;
+import info.gianlucacosta.diffdetector.web.storage.OperandPairRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Cache of comparison results, keyed by id and by the versions of the left
+ * and right operands.
+ * <p>
+ * As each update of an operand assigns it a new, globally unique version,
+ * cached results computed on previous versions can never be returned.
+ * Each id keeps at most one cached result, and the least recently used results
+ * are evicted when either the maximum number of entries or the maximum estimated
+ * size of the diff lists is exceeded.
+ * <p>
+ * A result is stored only if it describes the current operands - which might
+ * have been updated while comparing them - and never replaces the result
+ * of newer versions.
+ * <p>
+ * The class is thread-safe.
+ */
+@Component
+public class ComparisonResultCache {
+    /**
+     * Rough heap footprint of a Diff instance, including the reference to it
+     */
+    private static final long estimatedBytesPerDiff =
+            32;
+
+    private static final long estimatedBytesPerEntry =
+            128;
+
+
+    private final int maxEntries;
+
+    private final long maxBytes;
+
+    private final OperandPairRepository operandPairRepository;
+
+    private final LinkedHashMap<String, CacheEntry> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    private long estimatedBytes;
+
+    private final LongAdder hitCount =
+            new LongAdder();
+
+    private final LongAdder missCount =
+            new LongAdder();
+
+    private final LongAdder evictionCount =
+            new LongAdder();
+
+
+    /**
+     * Creates a cache that cannot check the current versions of the operands
+     */
+    public ComparisonResultCache(int maxEntries, long maxBytes) {
+        this(maxEntries, maxBytes, null);
+    }
+
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxEntries            The maximum number of cached results; 0 disables the cache
+     * @param maxBytes              The maximum estimated size, in bytes, of the cached results
+     * @param operandPairRepository Provides the current versions of the operands; if null,
+     *                              results are stored unless newer ones are cached
+     */
+    @Autowired
+    public ComparisonResultCache(
+            @Value("${diffdetector.cache.max-entries:1000}") int maxEntries,
+            @Value("${diffdetector.cache.max-bytes:67108864}") long maxBytes,
+            OperandPairRepository operandPairRepository
+    ) {
+        if (maxEntries < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException();
+        }
+
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.operandPairRepository = operandPairRepository;
+    }
+
+
+    /**
+     * Returns the cached result for the given versions of the operands;
+     * if missing, it is computed via the given comparison and cached
+     *
+     * @param id           The id of the operands
+     * @param leftVersion  The version of the left operand
+     * @param rightVersion The version of the right operand
+     * @param comparison   Compares the operands having the given versions
+     * @return The comparison result
+     */
+    public ComparisonResult getOrCompare(
+            String id,
+            long leftVersion,
+            long rightVersion,
+            Supplier<ComparisonResult> comparison
+    ) {
+        if (maxEntries == 0) {
+            return comparison.get();
+        }
+
+
+        synchronized (entries) {
+            CacheEntry cacheEntry =
+                    entries.get(id);
+
+            if (cacheEntry != null && cacheEntry.hasVersions(leftVersion, rightVersion)) {
+                hitCount.increment();
+                return cacheEntry.comparisonResult;
+            }
+        }
+
+        missCount.increment();
+
+
+        ComparisonResult comparisonResult =
+                comparison.get();
+
+        store(id, leftVersion, rightVersion, comparisonResult);
+
+        return comparisonResult;
+    }
+
+
+    /**
+     * Returns the cached result for the given versions of the operands, without
+     * affecting the hit and miss counts
+     */
+    public Optional<ComparisonResult> find(String id, long leftVersion, long rightVersion) {
+        synchronized (entries) {
+            CacheEntry cacheEntry =
+                    entries.get(id);
+
+            return (cacheEntry != null && cacheEntry.hasVersions(leftVersion, rightVersion)) ?
+                    Optional.of(cacheEntry.comparisonResult)
+                    :
+                    Optional.empty();
+        }
+    }
+
+
+    /**
+     * Caches a result computed elsewhere - for example, by updating a previous result
+     */
+    public void put(String id, long leftVersion, long rightVersion, ComparisonResult comparisonResult) {
+        if (maxEntries > 0) {
+            store(id, leftVersion, rightVersion, comparisonResult);
+        }
+    }
+
+
+    private void store(String id, long leftVersion, long rightVersion, ComparisonResult comparisonResult) {
+        long entryBytes =
+                estimatedBytesPerEntry
+                        + estimatedBytesPerDiff * comparisonResult.getDiffs().size();
+
+        if (entryBytes > maxBytes) {
+            return;
+        }
+
+
+        synchronized (entries) {
+            //The operands might have been updated while comparing - and, as updates
+            //invalidate the cache while holding this lock, no stale result can slip in
+            if (operandPairRepository != null && !operandPairRepository.hasVersions(id, leftVersion, rightVersion)) {
+                return;
+            }
+
+            CacheEntry currentEntry =
+                    entries.get(id);
+
+            if (currentEntry != null && currentEntry.isNewerThan(leftVersion, rightVersion)) {
+                return;
+            }
+
+            CacheEntry previousEntry =
+                    entries.put(
+                            id,
+                            new CacheEntry(leftVersion, rightVersion, comparisonResult, entryBytes)
+                    );
+
+            if (previousEntry != null) {
+                estimatedBytes -= previousEntry.estimatedBytes;
+            }
+
+            estimatedBytes += entryBytes;
+
+
+            Iterator<CacheEntry> lruIterator =
+                    entries.values().iterator();
+
+            while (entries.size() > maxEntries || estimatedBytes > maxBytes) {
+                CacheEntry eldestEntry =
+                        lruIterator.next();
+
+                lruIterator.remove();
+
+                estimatedBytes -= eldestEntry.estimatedBytes;
+
+                evictionCount.increment();
+            }
+        }
+    }
+
+
+    /**
+     * Removes the cached result of the given id - which could never be returned anyway
+     * once an operand has been updated, but would keep occupying memory
+     */
+    public void invalidate(String id) {
+        synchronized (entries) {
+            CacheEntry cacheEntry =
+                    entries.remove(id);
+
+            if (cacheEntry != null) {
+                estimatedBytes -= cacheEntry.estimatedBytes;
+            }
+        }
+    }
+
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+
+    public long getEstimatedBytes() {
+        synchronized (entries) {
+            return estimatedBytes;
+        }
+    }
+
+
+    private static class CacheEntry {
+        final long leftVersion;
+        final long rightVersion;
+        final ComparisonResult comparisonResult;
+        final long estimatedBytes;
+
+        CacheEntry(long leftVersion, long rightVersion, ComparisonResult comparisonResult, long estimatedBytes) {
+            this.leftVersion = leftVersion;
+            this.rightVersion = rightVersion;
+            this.comparisonResult = comparisonResult;
+            this.estimatedBytes = estimatedBytes;
+        }
+
+
+        boolean hasVersions(long leftVersion, long rightVersion) {
+            return this.leftVersion == leftVersion
+                    && this.rightVersion == rightVersion;
+        }
+
+
+        /**
+         * Versions only grow, so an entry having any newer version describes newer operands
+         */
+        boolean isNewerThan(long leftVersion, long rightVersion) {
+            return this.leftVersion > leftVersion
+                    || this.rightVersion > rightVersion;
+        }
+    }
+}
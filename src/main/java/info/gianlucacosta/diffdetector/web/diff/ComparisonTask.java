@@ -0,0 +1,115 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.diff;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Fork/join task scanning a range of the operands: ranges longer than the chunk
+ * size are split in two halves, whose diffs are then stitched back together,
+ * so that the result is the same as a sequential scan.
+ * <p>
+ * No task completes before the half it forked - even when failing or cancelled:
+ * once the root task completes, no chunk is being scanned.
+ */
+class ComparisonTask extends RecursiveTask<DiffTracker> {
+    private final ComparisonEngine comparisonEngine;
+    private final ByteBuffer left;
+    private final ByteBuffer right;
+    private final int startOffset;
+    private final int endOffset;
+    private final int chunkSize;
+    private final ScanCancellation cancellation;
+
+
+    public ComparisonTask(
+            ComparisonEngine comparisonEngine,
+            ByteBuffer left,
+            ByteBuffer right,
+            int startOffset,
+            int endOffset,
+            int chunkSize,
+            ScanCancellation cancellation
+    ) {
+        this.comparisonEngine = comparisonEngine;
+        this.left = left;
+        this.right = right;
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
+        this.chunkSize = chunkSize;
+        this.cancellation = cancellation;
+    }
+
+
+    @Override
+    protected DiffTracker compute() {
+        cancellation.check();
+
+        if (endOffset - startOffset <= chunkSize) {
+            DiffTracker diffTracker =
+                    new DiffTracker(startOffset);
+
+            cancellation.scan(
+                    comparisonEngine,
+                    left,
+                    right,
+                    startOffset,
+                    endOffset,
+                    diffTracker
+            );
+
+            return diffTracker;
+        }
+
+
+        //Splitting on a word boundary keeps the word engine aligned
+        int middleOffset =
+                (startOffset + (endOffset - startOffset) / 2) & ~(Long.BYTES - 1);
+
+        ComparisonTask leftTask =
+                new ComparisonTask(comparisonEngine, left, right, startOffset, middleOffset, chunkSize, cancellation);
+
+        ComparisonTask rightTask =
+                new ComparisonTask(comparisonEngine, left, right, middleOffset, endOffset, chunkSize, cancellation);
+
+
+        leftTask.fork();
+
+        DiffTracker rightTracker;
+
+        try {
+            rightTracker =
+                    rightTask.compute();
+        } finally {
+            //Even when failing, no task can complete before its forked half
+            leftTask.quietlyJoin();
+        }
+
+        DiffTracker leftTracker =
+                leftTask.join();
+
+
+        leftTracker.inputDiffs(rightTracker);
+
+        return leftTracker;
+    }
+}
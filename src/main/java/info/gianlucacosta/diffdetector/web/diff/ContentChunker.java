@@ -0,0 +1,188 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.diff;
+
+import info.gianlucacosta.diffdetector.web.storage.Fingerprint;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Content-defined chunking via a Gear rolling hash: a chunk ends where the hash
+ * of the last bytes matches a mask, so that boundaries depend on the content only -
+ * and, after an insertion or a deletion, the chunk boundaries of the two operands
+ * get in sync again within a few chunks.
+ * <p>
+ * The average chunk size must be a power of two; chunks are at least a quarter
+ * and at most four times as long, except the last one.
+ */
+final class ContentChunker {
+    private static final long[] gearTable =
+            createGearTable();
+
+
+    private static long[] createGearTable() {
+        Random random =
+                new Random(90);
+
+        long[] result =
+                new long[256];
+
+        for (int index = 0; index < result.length; index++) {
+            result[index] =
+                    random.nextLong();
+        }
+
+        return result;
+    }
+
+
+    /**
+     * The chunks of a range: chunk <i>i</i> spans from offsets[i] to offsets[i + 1]
+     */
+    static final class Chunks {
+        private final int[] offsets;
+        private final long[] hashes;
+        private final int count;
+
+        private Chunks(int[] offsets, long[] hashes, int count) {
+            this.offsets = offsets;
+            this.hashes = hashes;
+            this.count = count;
+        }
+
+
+        int getCount() {
+            return count;
+        }
+
+
+        int getOffset(int chunkIndex) {
+            return offsets[chunkIndex];
+        }
+
+
+        int getLength(int chunkIndex) {
+            return offsets[chunkIndex + 1] - offsets[chunkIndex];
+        }
+
+
+        long getHash(int chunkIndex) {
+            return hashes[chunkIndex];
+        }
+    }
+
+
+    /**
+     * Splits the given range of the buffer into chunks, hashing each of them
+     */
+    static Chunks chunk(ByteBuffer data, int startOffset, int endOffset, int averageChunkSize) {
+        if (Integer.bitCount(averageChunkSize) != 1) {
+            throw new IllegalArgumentException();
+        }
+
+        int minChunkSize =
+                Math.max(1, averageChunkSize / 4);
+
+        long maxChunkSize =
+                4L * averageChunkSize;
+
+        //The most significant bits depend on the longest window of bytes
+        long boundaryMask =
+                -1L << (Long.SIZE - Integer.numberOfTrailingZeros(averageChunkSize));
+
+        int capacity =
+                (endOffset - startOffset) / minChunkSize + 2;
+
+        int[] offsets =
+                new int[Math.min(capacity, 1024)];
+
+        int count =
+                0;
+
+        offsets[0] =
+                startOffset;
+
+        long rollingHash =
+                0;
+
+        int chunkStart =
+                startOffset;
+
+        for (int offset = startOffset; offset < endOffset; offset++) {
+            rollingHash =
+                    (rollingHash << 1) + gearTable[data.get(offset) & 0xFF];
+
+            int chunkLength =
+                    offset + 1 - chunkStart;
+
+            if ((chunkLength >= minChunkSize && (rollingHash & boundaryMask) == 0) || chunkLength >= maxChunkSize) {
+                count++;
+
+                if (count + 1 > offsets.length) {
+                    offsets =
+                            Arrays.copyOf(offsets, Math.min(capacity, offsets.length * 2));
+                }
+
+                offsets[count] =
+                        offset + 1;
+
+                chunkStart =
+                        offset + 1;
+            }
+        }
+
+        if (chunkStart < endOffset) {
+            count++;
+
+            if (count + 1 > offsets.length) {
+                offsets =
+                        Arrays.copyOf(offsets, count + 1);
+            }
+
+            offsets[count] =
+                    endOffset;
+        }
+
+
+        long[] hashes =
+                new long[count];
+
+        for (int chunkIndex = 0; chunkIndex < count; chunkIndex++) {
+            hashes[chunkIndex] =
+                    hashRange(data, offsets[chunkIndex], offsets[chunkIndex + 1]);
+        }
+
+        return new Chunks(offsets, hashes, count);
+    }
+
+
+    private static long hashRange(ByteBuffer data, int startOffset, int endOffset) {
+        ByteBuffer range =
+                data.duplicate();
+
+        range.limit(endOffset);
+        range.position(startOffset);
+
+        return Fingerprint.of(range).getHash();
+    }
+}
@@ -0,0 +1,118 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.diff;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Fork/join task counting the diffs in a range of the operands: it splits
+ * the range just like ComparisonTask, but each chunk only keeps its counts,
+ * whatever the number of its diffs.
+ * <p>
+ * Like ComparisonTask, once the root task completes, no chunk is being scanned.
+ */
+class CountingTask extends RecursiveTask<DiffCounter> {
+    private final ComparisonEngine comparisonEngine;
+    private final ByteBuffer left;
+    private final ByteBuffer right;
+    private final int startOffset;
+    private final int endOffset;
+    private final int chunkSize;
+    private final ScanCancellation cancellation;
+
+
+    public CountingTask(
+            ComparisonEngine comparisonEngine,
+            ByteBuffer left,
+            ByteBuffer right,
+            int startOffset,
+            int endOffset,
+            int chunkSize,
+            ScanCancellation cancellation
+    ) {
+        this.comparisonEngine = comparisonEngine;
+        this.left = left;
+        this.right = right;
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
+        this.chunkSize = chunkSize;
+        this.cancellation = cancellation;
+    }
+
+
+    @Override
+    protected DiffCounter compute() {
+        cancellation.check();
+
+        if (endOffset - startOffset <= chunkSize) {
+            DiffCounter diffCounter =
+                    new DiffCounter();
+
+            DiffTracker diffTracker =
+                    new DiffTracker(startOffset, diffCounter);
+
+            cancellation.scan(
+                    comparisonEngine,
+                    left,
+                    right,
+                    startOffset,
+                    endOffset,
+                    diffTracker
+            );
+
+            diffTracker.finish();
+
+            return diffCounter;
+        }
+
+
+        int middleOffset =
+                (startOffset + (endOffset - startOffset) / 2) & ~(Long.BYTES - 1);
+
+        CountingTask leftTask =
+                new CountingTask(comparisonEngine, left, right, startOffset, middleOffset, chunkSize, cancellation);
+
+        CountingTask rightTask =
+                new CountingTask(comparisonEngine, left, right, middleOffset, endOffset, chunkSize, cancellation);
+
+
+        leftTask.fork();
+
+        DiffCounter rightCounter;
+
+        try {
+            rightCounter =
+                    rightTask.compute();
+        } finally {
+            //Even when failing, no task can complete before its forked half
+            leftTask.quietlyJoin();
+        }
+
+        DiffCounter leftCounter =
+                leftTask.join();
+
+
+        leftCounter.add(rightCounter);
+
+        return leftCounter;
+    }
+}
@@ -0,0 +1,81 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.diff;
+
+/**
+ * Sink counting the diffs of a range instead of collecting them.
+ * <p>
+ * Counters of adjacent ranges can be added, merging the runs crossing
+ * the boundary between them - so that ranges can be counted in parallel.
+ */
+class DiffCounter implements DiffSink {
+    private int diffCount;
+
+    private long diffLength;
+
+    private int firstOffset;
+
+    private int lastEndOffset;
+
+
+    @Override
+    public void acceptDiff(int offset, int length) {
+        if (diffCount == 0) {
+            firstOffset =
+                    offset;
+        }
+
+        diffCount++;
+        diffLength += length;
+
+        lastEndOffset =
+                offset + length;
+    }
+
+
+    /**
+     * Adds the counts of a range starting where the range of this counter ends
+     */
+    public void add(DiffCounter nextCounter) {
+        if (nextCounter.diffCount == 0) {
+            return;
+        }
+
+        if (diffCount == 0) {
+            firstOffset =
+                    nextCounter.firstOffset;
+        } else if (lastEndOffset == nextCounter.firstOffset) {
+            //The same run, split by the boundary
+            diffCount--;
+        }
+
+        diffCount += nextCounter.diffCount;
+        diffLength += nextCounter.diffLength;
+
+        lastEndOffset =
+                nextCounter.lastEndOffset;
+    }
+
+
+    public DiffSummary toSummary() {
+        return new DiffSummary(true, diffCount, diffLength);
+    }
+}
@@ -22,51 +22,1000 @@ package info.gianlucacosta.diffdetector.web.diff;
 
 import info.gianlucacosta.diffdetector.core.ComparisonResult;
 import info.gianlucacosta.diffdetector.core.Diff;
+import info.gianlucacosta.diffdetector.web.metrics.Histogram;
+import info.gianlucacosta.diffdetector.web.storage.BlockContent;
+import info.gianlucacosta.diffdetector.web.storage.BlockHashTree;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+import java.nio.ByteBuffer;
 import java.util.List;
-import java.util.stream.IntStream;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Service that actually performs comparisons to detect diffs
+ * Service that actually performs comparisons to detect diffs.
+ * <p>
+ * Operands at least as long as the parallel threshold are split into chunks,
+ * scanned on a dedicated fork/join pool whose parallelism is capped by configuration;
+ * shorter operands are scanned sequentially, on the calling thread.
+ * <p>
+ * Operands stored as blocks - for example, compressed - are scanned sequentially, one block
+ * at a time, so that no operand is ever fully materialized; blocks that the storage can tell
+ * to be identical in both operands are skipped without reading them.
+ * <p>
+ * Similarly, operands having comparable hash trees are scanned only within the blocks
+ * whose hashes differ.
+ * <p>
+ * Callers needing less than the full diff list can either summarize a comparison - counting
+ * its diffs without creating them - or limit the number of diffs, ending the scan early.
+ * <p>
+ * Metrics are recorded once per comparison, outside the scanning loop.
+ * <p>
+ * Comparisons can be cancelled by interrupting their thread: the scan then ends
+ * with a CancellationException after the current segment - or, if parallel,
+ * after the current segment of each chunk being scanned; in both cases, the exception
+ * is thrown only once no thread is reading the operands, which can then be released.
  */
 @Service
 public class DiffService {
+    /**
+     * Below this size, splitting a range costs more than scanning it
+     */
+    private static final int minChunkSize =
+            64 * 1024;
+
+    /**
+     * Chunks per worker thread, to balance the load when workers run at different speeds
+     */
+    private static final int chunksPerThread =
+            4;
+
+    /**
+     * Sequential scans check whether their thread was interrupted after each segment this long
+     */
+    static final int interruptionCheckInterval =
+            1024 * 1024;
+
+
+    private final ComparisonEngine comparisonEngine;
+
+    private final int parallelThreshold;
+
+    private final ForkJoinPool forkJoinPool;
+
+    private final LongAdder comparisonCount =
+            new LongAdder();
+
+    private final LongAdder scannedBytes =
+            new LongAdder();
+
+    private final LongAdder scanNanos =
+            new LongAdder();
+
+    private final LongAdder skippedBytes =
+            new LongAdder();
+
+    private final Histogram diffCountHistogram =
+            new Histogram();
+
+
+    /**
+     * Creates a service performing sequential comparisons via the word engine
+     */
+    public DiffService() {
+        this(ComparisonEngine.WORD, Integer.MAX_VALUE, 1);
+    }
+
+
+    /**
+     * Creates a service.
+     *
+     * @param comparisonEngine  The engine scanning the operands
+     * @param parallelThreshold The minimum operand length triggering a parallel comparison
+     * @param parallelism       The maximum number of threads performing parallel comparisons;
+     *                          0 means the number of available processors, whereas 1 disables
+     *                          parallel comparisons
+     */
+    @Autowired
+    public DiffService(
+            @Value("${diffdetector.comparison.engine:WORD}") ComparisonEngine comparisonEngine,
+            @Value("${diffdetector.comparison.parallel-threshold:8388608}") int parallelThreshold,
+            @Value("${diffdetector.comparison.parallelism:0}") int parallelism
+    ) {
+        if (parallelThreshold < 0 || parallelism < 0) {
+            throw new IllegalArgumentException();
+        }
+
+        this.comparisonEngine =
+                Objects.requireNonNull(comparisonEngine);
+
+        this.parallelThreshold =
+                parallelThreshold;
+
+        int actualParallelism =
+                (parallelism == 0) ?
+                        Runtime.getRuntime().availableProcessors()
+                        :
+                        parallelism;
+
+        this.forkJoinPool =
+                (actualParallelism > 1) ?
+                        new ForkJoinPool(actualParallelism)
+                        :
+                        null;
+    }
+
+
     public ComparisonResult compare(byte[] left, byte[] right) {
-        if (left.length != right.length) {
+        return compare(
+                ByteBuffer.wrap(left),
+                ByteBuffer.wrap(right)
+        );
+    }
+
+
+    /**
+     * Compares the bytes between the position and the limit of each buffer,
+     * without altering the buffers' state; direct and memory-mapped buffers are
+     * scanned in place, without copying them to the heap
+     */
+    public ComparisonResult compare(ByteBuffer left, ByteBuffer right) {
+        if (left.remaining() != right.remaining()) {
             return ComparisonResult.ofDifferentLengths();
         }
 
+        ByteBuffer leftBuffer =
+                left.slice();
+
+        ByteBuffer rightBuffer =
+                right.slice();
+
+        long startTime =
+                System.nanoTime();
+
         DiffTracker diffTracker =
-                new DiffTracker();
+                scan(leftBuffer, rightBuffer, 0, leftBuffer.limit());
+
+        List<Diff> diffs =
+                diffTracker.getDiffs();
 
+        recordComparison(leftBuffer.limit(), startTime, diffs.size());
 
-        IntStream
-                .range(
-                        0,
-                        left.length
+
+        return ComparisonResult.ofDiffs(
+                diffs
+        );
+    }
+
+
+    /**
+     * Compares operands having the same length, passing the diffs to the given sink
+     * as soon as they are detected - so that the full diff list is never held in memory;
+     * the scan is always sequential, as diffs must be passed in ascending order.
+     * <p>
+     * The buffers are handled as in compare(ByteBuffer, ByteBuffer), and the sink's
+     * begin() and end() methods are not called.
+     *
+     * @throws IllegalArgumentException If the operands have different lengths
+     */
+    public void compare(ByteBuffer left, ByteBuffer right, DiffSink diffSink) {
+        compare(left, right, diffSink, Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Like compare(ByteBuffer, ByteBuffer, DiffSink), but passing at most <i>diffLimit</i> diffs
+     * to the sink: the scan stops as soon as a further diff is found - so a limit of 0
+     * just checks whether the operands are equal, stopping at their first difference.
+     *
+     * @return The offset of the first diff exceeding the limit, or -1 if there is none
+     * @throws IllegalArgumentException If the operands have different lengths
+     */
+    public int compare(ByteBuffer left, ByteBuffer right, DiffSink diffSink, int diffLimit) {
+        if (left.remaining() != right.remaining()) {
+            throw new IllegalArgumentException("The operands have different lengths");
+        }
+
+        long startTime =
+                System.nanoTime();
+
+        int[] diffCount =
+                new int[1];
+
+        DiffTracker diffTracker =
+                createSinkTracker(diffSink, diffLimit, diffCount);
+
+        scanInterruptibly(
+                left.slice(),
+                right.slice(),
+                0,
+                left.remaining(),
+                diffTracker
+        );
+
+        diffTracker.finish();
+
+        recordComparison(getScannedLength(diffTracker, left.remaining()), startTime, diffCount[0]);
+
+        return diffTracker.getStopOffset();
+    }
+
+
+    /**
+     * Summarizes the comparison of two buffers - handled as in compare(ByteBuffer, ByteBuffer) -
+     * without creating any diff: each thread of a parallel scan just keeps its counts
+     */
+    public DiffSummary summarize(ByteBuffer left, ByteBuffer right) {
+        if (left.remaining() != right.remaining()) {
+            return DiffSummary.ofDifferentLengths();
+        }
+
+        int length =
+                left.remaining();
+
+        DiffCounter diffCounter =
+                new DiffCounter();
+
+        if (forkJoinPool == null || length < parallelThreshold) {
+            compare(left, right, diffCounter);
+
+            return diffCounter.toSummary();
+        }
+
+
+        long startTime =
+                System.nanoTime();
+
+        ScanCancellation cancellation =
+                new ScanCancellation();
+
+        diffCounter.add(
+                invokeInterruptibly(
+                        forkJoinPool,
+                        new CountingTask(
+                                comparisonEngine,
+                                left.slice(),
+                                right.slice(),
+                                0,
+                                length,
+                                getChunkSize(length),
+                                cancellation
+                        ),
+                        cancellation
                 )
-                .forEach(offset -> {
-                    byte leftByte =
-                            left[offset];
+        );
 
-                    byte rightByte =
-                            right[offset];
+        DiffSummary diffSummary =
+                diffCounter.toSummary();
 
+        recordComparison(length, startTime, diffSummary.getDiffCount());
 
-                    diffTracker.inputBytes(
-                            leftByte,
-                            rightByte
-                    );
-                });
+        return diffSummary;
+    }
+
+
+    /**
+     * Updates the result of a previous comparison after the bytes in the given range
+     * have changed - in either operand, whose length must not have changed: just the range
+     * is scanned again, whereas the previous diffs outside it are kept, and stitched
+     * to the new diffs at its boundaries.
+     * <p>
+     * The buffers are handled as in compare(ByteBuffer, ByteBuffer).
+     *
+     * @param previousResult The result of comparing the operands before the change
+     * @param left           The left operand, after the change
+     * @param right          The right operand, after the change
+     * @param offset         The offset of the changed range
+     * @param length         The length of the changed range
+     * @return The result of comparing the operands after the change
+     */
+    public ComparisonResult recompare(
+            ComparisonResult previousResult,
+            ByteBuffer left,
+            ByteBuffer right,
+            int offset,
+            int length
+    ) {
+        if (left.remaining() != right.remaining()) {
+            return ComparisonResult.ofDifferentLengths();
+        }
 
+        checkRecomparison(previousResult, left.remaining(), offset, length);
+
+        long startTime =
+                System.nanoTime();
+
+        DiffTracker rangeTracker =
+                scan(left.slice(), right.slice(), offset, offset + length);
+
+        List<Diff> diffs =
+                stitchDiffs(previousResult.getDiffs(), offset, offset + length, rangeTracker);
+
+        recordComparison(length, startTime, diffs.size());
+
+        return ComparisonResult.ofDiffs(
+                diffs
+        );
+    }
+
+
+    /**
+     * Compares buffers as in compare(ByteBuffer, ByteBuffer), but scanning only the blocks
+     * whose hashes differ in the given trees - which must describe the buffers;
+     * if the trees are not comparable, the whole buffers are scanned.
+     * <p>
+     * Blocks having equal hashes are never read, so a hash collision would hide their diffs:
+     * callers that cannot accept such risk must not pass hash trees.
+     */
+    public ComparisonResult compare(ByteBuffer left, ByteBuffer right, BlockHashTree leftTree, BlockHashTree rightTree) {
+        if (!canUseHashTrees(left, right, leftTree, rightTree)) {
+            return compare(left, right);
+        }
+
+        ByteBuffer leftBuffer =
+                left.slice();
+
+        ByteBuffer rightBuffer =
+                right.slice();
+
+        long startTime =
+                System.nanoTime();
+
+        DiffTracker diffTracker =
+                new DiffTracker();
+
+        int[] scannedLength =
+                new int[1];
+
+        leftTree.findDifferingRanges(rightTree, (startOffset, endOffset) -> {
+            diffTracker.inputDiffs(
+                    scan(leftBuffer, rightBuffer, startOffset, endOffset)
+            );
+
+            scannedLength[0] += endOffset - startOffset;
+        });
+
+        List<Diff> diffs =
+                diffTracker.getDiffs();
+
+        skippedBytes.add(leftBuffer.limit() - scannedLength[0]);
+        recordComparison(scannedLength[0], startTime, diffs.size());
+
+        return ComparisonResult.ofDiffs(
+                diffs
+        );
+    }
+
+
+    /**
+     * Like compare(ByteBuffer, ByteBuffer, BlockHashTree, BlockHashTree), but passing the diffs
+     * to the given sink as described in compare(ByteBuffer, ByteBuffer, DiffSink)
+     *
+     * @throws IllegalArgumentException If the operands have different lengths
+     */
+    public void compare(
+            ByteBuffer left,
+            ByteBuffer right,
+            BlockHashTree leftTree,
+            BlockHashTree rightTree,
+            DiffSink diffSink
+    ) {
+        compare(left, right, leftTree, rightTree, diffSink, Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Like compare(ByteBuffer, ByteBuffer, BlockHashTree, BlockHashTree, DiffSink), but with
+     * a diff limit, as described in compare(ByteBuffer, ByteBuffer, DiffSink, int)
+     *
+     * @return The offset of the first diff exceeding the limit, or -1 if there is none
+     * @throws IllegalArgumentException If the operands have different lengths
+     */
+    public int compare(
+            ByteBuffer left,
+            ByteBuffer right,
+            BlockHashTree leftTree,
+            BlockHashTree rightTree,
+            DiffSink diffSink,
+            int diffLimit
+    ) {
+        if (!canUseHashTrees(left, right, leftTree, rightTree)) {
+            return compare(left, right, diffSink, diffLimit);
+        }
+
+        ByteBuffer leftBuffer =
+                left.slice();
+
+        ByteBuffer rightBuffer =
+                right.slice();
+
+        long startTime =
+                System.nanoTime();
+
+        int[] diffCount =
+                new int[1];
+
+        DiffTracker diffTracker =
+                createSinkTracker(diffSink, diffLimit, diffCount);
+
+        int[] scannedLength =
+                new int[1];
+
+        leftTree.findDifferingRanges(rightTree, (startOffset, endOffset) -> {
+            if (diffTracker.isStopped()) {
+                return;
+            }
+
+            //Differing ranges are never adjacent, so no run can cross their boundaries
+            diffTracker.skipTo(startOffset);
+
+            scanInterruptibly(
+                    leftBuffer,
+                    rightBuffer,
+                    startOffset,
+                    endOffset,
+                    diffTracker
+            );
+
+            scannedLength[0] += endOffset - startOffset;
+        });
+
+        diffTracker.finish();
+
+        skippedBytes.add(leftBuffer.limit() - scannedLength[0]);
+        recordComparison(scannedLength[0], startTime, diffCount[0]);
+
+        return diffTracker.getStopOffset();
+    }
+
+
+    /**
+     * Like summarize(ByteBuffer, ByteBuffer), but scanning only the blocks whose hashes differ,
+     * as in compare(ByteBuffer, ByteBuffer, BlockHashTree, BlockHashTree)
+     */
+    public DiffSummary summarize(ByteBuffer left, ByteBuffer right, BlockHashTree leftTree, BlockHashTree rightTree) {
+        if (!canUseHashTrees(left, right, leftTree, rightTree)) {
+            return summarize(left, right);
+        }
+
+        DiffCounter diffCounter =
+                new DiffCounter();
+
+        compare(left, right, leftTree, rightTree, diffCounter);
+
+        return diffCounter.toSummary();
+    }
+
+
+    private static boolean canUseHashTrees(ByteBuffer left, ByteBuffer right, BlockHashTree leftTree, BlockHashTree rightTree) {
+        return leftTree.getLength() == left.remaining()
+                && rightTree.getLength() == right.remaining()
+                && leftTree.isComparableWith(rightTree);
+    }
+
+
+    /**
+     * Compares operands stored as blocks
+     */
+    public ComparisonResult compare(BlockContent left, BlockContent right) {
+        if (left.getLength() != right.getLength()) {
+            return ComparisonResult.ofDifferentLengths();
+        }
+
+        long startTime =
+                System.nanoTime();
+
+        DiffTracker diffTracker =
+                new DiffTracker();
+
+        scanBlocks(left, right, 0, left.getLength(), diffTracker);
 
         List<Diff> diffs =
                 diffTracker.getDiffs();
 
+        recordComparison(left.getLength(), startTime, diffs.size());
+
+        return ComparisonResult.ofDiffs(
+                diffs
+        );
+    }
+
+
+    /**
+     * Compares operands stored as blocks, passing the diffs to the given sink
+     * as described in compare(ByteBuffer, ByteBuffer, DiffSink)
+     *
+     * @throws IllegalArgumentException If the operands have different lengths
+     */
+    public void compare(BlockContent left, BlockContent right, DiffSink diffSink) {
+        compare(left, right, diffSink, Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Compares operands stored as blocks, with a diff limit as described
+     * in compare(ByteBuffer, ByteBuffer, DiffSink, int): no block following
+     * the first diff exceeding the limit is read
+     *
+     * @return The offset of the first diff exceeding the limit, or -1 if there is none
+     * @throws IllegalArgumentException If the operands have different lengths
+     */
+    public int compare(BlockContent left, BlockContent right, DiffSink diffSink, int diffLimit) {
+        if (left.getLength() != right.getLength()) {
+            throw new IllegalArgumentException("The operands have different lengths");
+        }
+
+        long startTime =
+                System.nanoTime();
+
+        int[] diffCount =
+                new int[1];
+
+        DiffTracker diffTracker =
+                createSinkTracker(diffSink, diffLimit, diffCount);
+
+        scanBlocks(left, right, 0, left.getLength(), diffTracker);
+
+        diffTracker.finish();
+
+        recordComparison(getScannedLength(diffTracker, left.getLength()), startTime, diffCount[0]);
+
+        return diffTracker.getStopOffset();
+    }
+
+
+    /**
+     * Summarizes the comparison of operands stored as blocks, without creating any diff
+     */
+    public DiffSummary summarize(BlockContent left, BlockContent right) {
+        if (left.getLength() != right.getLength()) {
+            return DiffSummary.ofDifferentLengths();
+        }
+
+        DiffCounter diffCounter =
+                new DiffCounter();
+
+        compare(left, right, diffCounter);
+
+        return diffCounter.toSummary();
+    }
+
+
+    /**
+     * Creates a tracker passing its runs to the given sink, and counting them
+     */
+    private static DiffTracker createSinkTracker(DiffSink diffSink, int diffLimit, int[] diffCount) {
+        return new DiffTracker(
+                0,
+                (diffOffset, diffLength) -> {
+                    diffCount[0]++;
+                    diffSink.acceptDiff(diffOffset, diffLength);
+                },
+                diffLimit
+        );
+    }
+
+
+    /**
+     * Scans of stopped trackers are assumed to end at the stop offset
+     */
+    private static int getScannedLength(DiffTracker diffTracker, int length) {
+        return diffTracker.isStopped() ?
+                diffTracker.getStopOffset()
+                :
+                length;
+    }
+
+
+    /**
+     * Like recompare(ComparisonResult, ByteBuffer, ByteBuffer, int, int),
+     * but for operands stored as blocks: only the blocks overlapping the range are read
+     */
+    public ComparisonResult recompare(
+            ComparisonResult previousResult,
+            BlockContent left,
+            BlockContent right,
+            int offset,
+            int length
+    ) {
+        if (left.getLength() != right.getLength()) {
+            return ComparisonResult.ofDifferentLengths();
+        }
+
+        checkRecomparison(previousResult, left.getLength(), offset, length);
+
+        long startTime =
+                System.nanoTime();
+
+        DiffTracker rangeTracker =
+                new DiffTracker(offset);
+
+        scanBlocks(left, right, offset, offset + length, rangeTracker);
+
+        List<Diff> diffs =
+                stitchDiffs(previousResult.getDiffs(), offset, offset + length, rangeTracker);
+
+        recordComparison(length, startTime, diffs.size());
 
         return ComparisonResult.ofDiffs(
                 diffs
         );
     }
+
+
+    private static void checkRecomparison(ComparisonResult previousResult, int operandLength, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > operandLength - length) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (!previousResult.isSameLength()) {
+            throw new IllegalArgumentException("The previous operands had different lengths");
+        }
+    }
+
+
+    /**
+     * Replaces the previous diffs within the given range with the diffs of the range tracker,
+     * stitching them to the previous diffs at the range boundaries
+     */
+    private static List<Diff> stitchDiffs(
+            List<Diff> previousDiffs,
+            int offset,
+            int endOffset,
+            DiffTracker rangeTracker
+    ) {
+        DiffTracker diffTracker =
+                new DiffTracker();
+
+        int diffIndex =
+                0;
+
+        //Diffs before the range - the last one possibly truncated at the range start
+        while (diffIndex < previousDiffs.size() && previousDiffs.get(diffIndex).getOffset() < offset) {
+            Diff diff =
+                    previousDiffs.get(diffIndex);
+
+            diffTracker.inputDiff(
+                    diff.getOffset(),
+                    Math.min(diff.getOffset() + diff.getLength(), offset) - diff.getOffset()
+            );
+
+            diffIndex++;
+        }
+
+
+        diffTracker.inputDiffs(
+                rangeTracker
+        );
+
+
+        //Diffs after the range - including the tail of a diff spanning the whole range
+        for (diffIndex = Math.max(0, diffIndex - 1); diffIndex < previousDiffs.size(); diffIndex++) {
+            Diff diff =
+                    previousDiffs.get(diffIndex);
+
+            int diffEndOffset =
+                    diff.getOffset() + diff.getLength();
+
+            if (diffEndOffset > endOffset) {
+                int tailOffset =
+                        Math.max(diff.getOffset(), endOffset);
+
+                diffTracker.inputDiff(
+                        tailOffset,
+                        diffEndOffset - tailOffset
+                );
+            }
+        }
+
+        return diffTracker.getDiffs();
+    }
+
+
+    private void recordComparison(int scannedLength, long startTime, int diffCount) {
+        scanNanos.add(System.nanoTime() - startTime);
+        scannedBytes.add(scannedLength);
+        comparisonCount.increment();
+        diffCountHistogram.record(diffCount);
+    }
+
+
+    /**
+     * Returns the number of comparisons - including recomparisons - that scanned the operands
+     */
+    public long getComparisonCount() {
+        return comparisonCount.sum();
+    }
+
+
+    /**
+     * Returns the total number of bytes scanned in each operand
+     */
+    public long getScannedBytes() {
+        return scannedBytes.sum();
+    }
+
+
+    /**
+     * Returns the total number of bytes that comparisons did not scan, as their hash trees
+     * showed them to be identical
+     */
+    public long getSkippedBytes() {
+        return skippedBytes.sum();
+    }
+
+
+    /**
+     * Returns the total time spent by comparisons, in nanoseconds
+     */
+    public long getScanNanos() {
+        return scanNanos.sum();
+    }
+
+
+    /**
+     * Returns the distribution of the number of diffs found by each comparison
+     */
+    public Histogram getDiffCountHistogram() {
+        return diffCountHistogram;
+    }
+
+
+    /**
+     * Scans the given range of the buffers - in parallel, if it is long enough
+     */
+    private DiffTracker scan(ByteBuffer leftBuffer, ByteBuffer rightBuffer, int startOffset, int endOffset) {
+        int length =
+                endOffset - startOffset;
+
+        if (forkJoinPool != null && length >= parallelThreshold) {
+            ScanCancellation cancellation =
+                    new ScanCancellation();
+
+            return invokeInterruptibly(
+                    forkJoinPool,
+                    new ComparisonTask(
+                            comparisonEngine,
+                            leftBuffer,
+                            rightBuffer,
+                            startOffset,
+                            endOffset,
+                            getChunkSize(length),
+                            cancellation
+                    ),
+                    cancellation
+            );
+        }
+
+
+        DiffTracker diffTracker =
+                new DiffTracker(startOffset);
+
+        scanInterruptibly(
+                leftBuffer,
+                rightBuffer,
+                startOffset,
+                endOffset,
+                diffTracker
+        );
+
+        return diffTracker;
+    }
+
+
+    /**
+     * Scans the given range as ComparisonEngine.scan(), one segment at a time,
+     * checking for interruptions between segments
+     *
+     * @throws CancellationException If the current thread was interrupted
+     */
+    private void scanInterruptibly(ByteBuffer left, ByteBuffer right, int startOffset, int endOffset, DiffTracker diffTracker) {
+        int offset =
+                startOffset;
+
+        while (offset < endOffset && !diffTracker.isStopped()) {
+            checkInterruption();
+
+            int segmentEnd =
+                    (int) Math.min(endOffset, (long) offset + interruptionCheckInterval);
+
+            comparisonEngine.scan(
+                    left,
+                    right,
+                    offset,
+                    segmentEnd,
+                    diffTracker
+            );
+
+            offset =
+                    segmentEnd;
+        }
+    }
+
+
+    private static void checkInterruption() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("The comparison was interrupted");
+        }
+    }
+
+
+    /**
+     * Runs the given task on the fork/join pool, waiting for it interruptibly: when interrupted,
+     * the task is cancelled via the given flag - shared by all its subtasks - and then awaited,
+     * so that no chunk is still being scanned when this method returns or throws
+     *
+     * @throws CancellationException If the current thread was interrupted
+     */
+    static <T> T invokeInterruptibly(ForkJoinPool forkJoinPool, ForkJoinTask<T> task, ScanCancellation cancellation) {
+        checkInterruption();
+
+        forkJoinPool.execute(task);
+
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            cancellation.cancel();
+
+            //Uninterruptible, as the operands can be released as soon as this method throws
+            task.quietlyJoin();
+
+            Thread.currentThread().interrupt();
+            throw new CancellationException("The comparison was interrupted");
+        } catch (ExecutionException ex) {
+            Throwable cause =
+                    ex.getCause();
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw new IllegalStateException(cause);
+        }
+    }
+
+
+    private int getChunkSize(int length) {
+        return Math.max(
+                minChunkSize,
+                length / (forkJoinPool.getParallelism() * chunksPerThread)
+        );
+    }
+
+
+    /**
+     * Scans the given range of two operands stored as blocks, appending the diffs
+     * to the target tracker; the range is split into segments, each lying within
+     * a single block of both operands.
+     * <p>
+     * Each segment is scanned into a slice tracker of the target, so that a limited
+     * scan ends at the first diff exceeding the limit, even within a segment
+     */
+    private void scanBlocks(BlockContent left, BlockContent right, int startOffset, int endOffset, DiffTracker target) {
+        int leftBlockSize =
+                left.getBlockSize();
+
+        int rightBlockSize =
+                right.getBlockSize();
+
+        BlockContent.Reader leftReader =
+                left.openReader();
+
+        BlockContent.Reader rightReader =
+                right.openReader();
+
+        int leftBlockIndex =
+                -1;
+
+        int rightBlockIndex =
+                -1;
+
+        ByteBuffer leftBlock =
+                null;
+
+        ByteBuffer rightBlock =
+                null;
+
+        int offset =
+                startOffset;
+
+        while (offset < endOffset && !target.isStopped()) {
+            checkInterruption();
+
+            int currentLeftIndex =
+                    offset / leftBlockSize;
+
+            int currentRightIndex =
+                    offset / rightBlockSize;
+
+            int leftBlockStart =
+                    currentLeftIndex * leftBlockSize;
+
+            int rightBlockStart =
+                    currentRightIndex * rightBlockSize;
+
+            int segmentEnd =
+                    (int) Math.min(
+                            endOffset,
+                            Math.min(
+                                    (long) leftBlockStart + leftBlockSize,
+                                    (long) rightBlockStart + rightBlockSize
+                            )
+                    );
+
+            if (leftBlockSize == rightBlockSize && left.isSameBlock(currentLeftIndex, right)) {
+                offset =
+                        segmentEnd;
+
+                continue;
+            }
+
+            if (currentLeftIndex != leftBlockIndex) {
+                leftBlock =
+                        leftReader.read(currentLeftIndex);
+
+                leftBlockIndex =
+                        currentLeftIndex;
+            }
+
+            if (currentRightIndex != rightBlockIndex) {
+                rightBlock =
+                        rightReader.read(currentRightIndex);
+
+                rightBlockIndex =
+                        currentRightIndex;
+            }
+
+            int segmentLength =
+                    segmentEnd - offset;
+
+            ByteBuffer leftSegment =
+                    slice(leftBlock, offset - leftBlockStart, segmentLength);
+
+            ByteBuffer rightSegment =
+                    slice(rightBlock, offset - rightBlockStart, segmentLength);
+
+            DiffTracker segmentTracker =
+                    target.createSliceTracker();
+
+            scanInterruptibly(
+                    leftSegment,
+                    rightSegment,
+                    0,
+                    segmentLength,
+                    segmentTracker
+            );
+
+            target.inputDiffs(segmentTracker, offset);
+
+            offset =
+                    segmentEnd;
+        }
+    }
+
+
+    private static ByteBuffer slice(ByteBuffer block, int offset, int length) {
+        ByteBuffer result =
+                block.duplicate();
+
+        result.position(result.position() + offset);
+        result.limit(result.position() + length);
+
+        return result.slice();
+    }
+
+
+    @PreDestroy
+    public void shutdown() {
+        if (forkJoinPool != null) {
+            forkJoinPool.shutdown();
+        }
+    }
 }
@@ -0,0 +1,44 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.diff;
+
+/**
+ * Receives diffs as soon as they are detected, in ascending order,
+ * instead of collecting them into a list
+ */
+@FunctionalInterface
+public interface DiffSink {
+    /**
+     * Called once, before any diff
+     *
+     * @param sameLength True if the operands have the same length; otherwise, no diff follows
+     */
+    default void begin(boolean sameLength) {
+    }
+
+    void acceptDiff(int offset, int length);
+
+    /**
+     * Called once, after the last diff
+     */
+    default void end() {
+    }
+}
@@ -0,0 +1,91 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.diff;
+
+/**
+ * Summary of a comparison: how many diffs it found, and how many bytes they span -
+ * computed without creating the diffs themselves
+ */
+public final class DiffSummary {
+    public static DiffSummary ofDifferentLengths() {
+        return new DiffSummary(false, 0, 0);
+    }
+
+
+    private final boolean sameLength;
+    private final int diffCount;
+    private final long diffLength;
+
+
+    public DiffSummary(boolean sameLength, int diffCount, long diffLength) {
+        this.sameLength = sameLength;
+        this.diffCount = diffCount;
+        this.diffLength = diffLength;
+    }
+
+
+    public boolean isSameLength() {
+        return sameLength;
+    }
+
+
+    /**
+     * Returns the number of diffs - that is, of maximal runs of differing bytes
+     */
+    public int getDiffCount() {
+        return diffCount;
+    }
+
+
+    /**
+     * Returns the total number of differing bytes
+     */
+    public long getDiffLength() {
+        return diffLength;
+    }
+
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof DiffSummary)) {
+            return false;
+        }
+
+        DiffSummary other =
+                (DiffSummary) obj;
+
+        return sameLength == other.sameLength
+                && diffCount == other.diffCount
+                && diffLength == other.diffLength;
+    }
+
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * Boolean.hashCode(sameLength) + diffCount) + Long.hashCode(diffLength);
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format("DiffSummary(%b, %d, %d)", sameLength, diffCount, diffLength);
+    }
+}
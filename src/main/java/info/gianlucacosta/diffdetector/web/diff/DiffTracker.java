@@ -22,69 +22,324 @@ package info.gianlucacosta.diffdetector.web.diff;
 
 import info.gianlucacosta.diffdetector.core.Diff;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Optional;
+import java.util.RandomAccess;
 
 /**
- * Internal class that tracks byte-per-byte diffs
+ * Internal class that tracks diffs - either byte per byte or as whole runs.
+ * <p>
+ * Runs are stored in growable primitive arrays, so that tracking allocates
+ * no object per diff: Diff instances are only created on demand, when
+ * the list returned by getDiffs() is actually read.
+ * <p>
+ * Alternatively, the tracker can pass each run to a DiffSink as soon as it is complete -
+ * that is, as soon as a non-adjacent run follows it - holding just one run at a time.
+ * <p>
+ * A diff limit can also be set: once that many runs have been tracked, the tracker stops
+ * at the start of the next non-adjacent run, ignoring any further input - so that engines
+ * can end their scan early.
  */
 class DiffTracker {
-    private boolean inputFinished;
+    private static final int initialCapacity =
+            16;
+
+    private static final int noRun =
+            -1;
+
+
     private int offset;
 
-    private Optional<Integer> diffStartOffsetOption =
-            Optional.empty();
+    private int runStartOffset =
+            noRun;
 
-    private final List<Diff> diffs =
-            new ArrayList<>();
+    private int[] diffOffsets =
+            new int[initialCapacity];
 
+    private int[] diffLengths =
+            new int[initialCapacity];
+
+    private int diffCount;
+
+    private final DiffSink diffSink;
+
+    private final int diffLimit;
+
+    private int acceptedCount;
+
+    private int stopOffset =
+            noRun;
+
+
+    public DiffTracker() {
+        this(0);
+    }
+
+
+    /**
+     * Creates a tracker whose first input byte is located at the given offset
+     */
+    public DiffTracker(int initialOffset) {
+        this(initialOffset, null);
+    }
+
+
+    /**
+     * Creates a tracker passing the runs to the given sink instead of collecting them;
+     * finish() must be called after the last input
+     */
+    public DiffTracker(int initialOffset, DiffSink diffSink) {
+        this(initialOffset, diffSink, Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Creates a tracker passing at most <i>diffLimit</i> runs to the given sink;
+     * finish() must be called after the last input
+     */
+    public DiffTracker(int initialOffset, DiffSink diffSink, int diffLimit) {
+        if (diffLimit < 0) {
+            throw new IllegalArgumentException();
+        }
+
+        this.offset =
+                initialOffset;
+
+        this.diffSink =
+                diffSink;
+
+        this.diffLimit =
+                diffLimit;
+    }
 
-    public void inputBytes(byte left, byte right) {
-        inputFinished =
-                false;
 
+    public void inputBytes(byte left, byte right) {
         if (left == right) {
-            tryToCreateDiff();
-        } else {
-            if (!diffStartOffsetOption.isPresent()) {
-                diffStartOffsetOption =
-                        Optional.of(offset);
-            }
+            closeRun();
+        } else if (runStartOffset == noRun) {
+            runStartOffset =
+                    offset;
         }
 
         offset++;
     }
 
 
-    private void tryToCreateDiff() {
-        diffStartOffsetOption.ifPresent(diffStartOffset -> {
-            int diffLength =
-                    offset - diffStartOffset;
+    private void closeRun() {
+        if (runStartOffset != noRun) {
+            inputDiff(
+                    runStartOffset,
+                    offset - runStartOffset
+            );
+
+            runStartOffset =
+                    noRun;
+        }
+    }
+
+
+    /**
+     * Registers an entire diff run, as detected by engines not working byte per byte.
+     * <p>
+     * Runs must be provided in ascending order and must not overlap; a run
+     * starting exactly where the previous one ends is merged into it.
+     */
+    public void inputDiff(int diffOffset, int diffLength) {
+        if (stopsAt(diffOffset)) {
+            return;
+        }
+
+        int lastIndex =
+                diffCount - 1;
 
-            Diff diff =
-                    new Diff(
-                            diffStartOffset,
-                            diffLength
-                    );
+        if (lastIndex >= 0 && diffOffsets[lastIndex] + diffLengths[lastIndex] == diffOffset) {
+            diffLengths[lastIndex] += diffLength;
+            return;
+        }
 
-            diffs.add(diff);
+        acceptedCount++;
 
-            diffStartOffsetOption =
-                    Optional.empty();
-        });
+        if (diffSink != null && diffCount == 1) {
+            diffSink.acceptDiff(diffOffsets[0], diffLengths[0]);
+            diffCount = 0;
+        }
+
+        if (diffCount == diffOffsets.length) {
+            int newCapacity =
+                    diffCount * 2;
+
+            diffOffsets =
+                    Arrays.copyOf(diffOffsets, newCapacity);
+
+            diffLengths =
+                    Arrays.copyOf(diffLengths, newCapacity);
+        }
+
+        diffOffsets[diffCount] =
+                diffOffset;
+
+        diffLengths[diffCount] =
+                diffLength;
+
+        diffCount++;
     }
 
 
+    /**
+     * Returns true if the tracker is stopped, or if a run starting at the given offset
+     * would exceed the diff limit - in which case the tracker stops there, so engines
+     * can skip looking for the end of the run
+     */
+    public boolean stopsAt(int diffOffset) {
+        if (stopOffset != noRun) {
+            return true;
+        }
+
+        if (acceptedCount < diffLimit) {
+            return false;
+        }
+
+        int lastIndex =
+                diffCount - 1;
+
+        //An adjacent run would just be merged into the last one
+        if (lastIndex >= 0 && diffOffsets[lastIndex] + diffLengths[lastIndex] == diffOffset) {
+            return false;
+        }
+
+        stopOffset =
+                diffOffset;
+
+        return true;
+    }
+
+
+    public boolean isStopped() {
+        return stopOffset != noRun;
+    }
+
+
+    /**
+     * Returns the offset of the first run exceeding the diff limit, or -1 if the tracker
+     * is not stopped
+     */
+    public int getStopOffset() {
+        return stopOffset;
+    }
+
+
+    /**
+     * Closes the current run, moving the tracker to the given offset - which must not
+     * precede the current one; for byte-per-byte input skipping a range
+     */
+    public void skipTo(int newOffset) {
+        closeRun();
+
+        offset =
+                newOffset;
+    }
+
+
+    /**
+     * Appends the diffs of a tracker that was positioned right after this one,
+     * stitching the runs crossing the boundary between the two
+     */
+    public void inputDiffs(DiffTracker nextTracker) {
+        inputDiffs(nextTracker, 0);
+    }
+
+
+    /**
+     * Like inputDiffs(DiffTracker), but adding the given shift to the offsets
+     * of the appended diffs - for trackers that scanned a slice starting at offset 0.
+     * <p>
+     * If the appended tracker is stopped, this tracker stops at the same offset,
+     * as no input follows it.
+     */
+    public void inputDiffs(DiffTracker nextTracker, int offsetShift) {
+        closeRun();
+        nextTracker.closeRun();
+
+        for (int index = 0; index < nextTracker.diffCount; index++) {
+            inputDiff(
+                    nextTracker.diffOffsets[index] + offsetShift,
+                    nextTracker.diffLengths[index]
+            );
+        }
+
+        if (nextTracker.isStopped() && !isStopped()) {
+            stopOffset =
+                    nextTracker.stopOffset + offsetShift;
+        }
+    }
+
+
+    /**
+     * Creates a tracker collecting the diffs of a slice, to be appended via
+     * inputDiffs(DiffTracker, int): its limit is the number of runs this tracker
+     * can still accept - plus one, as its first run could merge into the last one
+     * of this tracker - so that the slice scan ends as soon as this tracker would stop
+     */
+    public DiffTracker createSliceTracker() {
+        int sliceLimit =
+                (int) Math.min(Integer.MAX_VALUE, (long) diffLimit - acceptedCount + 1);
+
+        return new DiffTracker(0, null, sliceLimit);
+    }
+
+
+    /**
+     * Passes the last run to the sink
+     */
+    public void finish() {
+        closeRun();
+
+        if (diffSink != null && diffCount == 1) {
+            diffSink.acceptDiff(diffOffsets[0], diffLengths[0]);
+            diffCount = 0;
+        }
+    }
+
+
+    /**
+     * Returns an immutable snapshot of the diffs detected so far
+     */
     public List<Diff> getDiffs() {
-        if (!inputFinished) {
-            tryToCreateDiff();
+        closeRun();
+
+        return new DiffList(
+                Arrays.copyOf(diffOffsets, diffCount),
+                Arrays.copyOf(diffLengths, diffCount)
+        );
+    }
+
+
+    /**
+     * Read-only list creating each Diff only when it is requested
+     */
+    private static class DiffList extends AbstractList<Diff> implements RandomAccess {
+        private final int[] diffOffsets;
+        private final int[] diffLengths;
 
-            inputFinished =
-                    true;
+        DiffList(int[] diffOffsets, int[] diffLengths) {
+            this.diffOffsets = diffOffsets;
+            this.diffLengths = diffLengths;
         }
 
-        return Collections.unmodifiableList(diffs);
+
+        @Override
+        public Diff get(int index) {
+            return new Diff(
+                    diffOffsets[index],
+                    diffLengths[index]
+            );
+        }
+
+
+        @Override
+        public int size() {
+            return diffOffsets.length;
+        }
     }
 }
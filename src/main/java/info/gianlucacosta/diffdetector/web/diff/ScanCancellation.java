@@ -0,0 +1,90 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.diff;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Flag shared by all the tasks of a parallel scan: once it is set, chunks not started yet
+ * are skipped, whereas the chunks being scanned stop after their current segment.
+ */
+class ScanCancellation {
+    private volatile boolean cancelled;
+
+
+    public void cancel() {
+        cancelled =
+                true;
+    }
+
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+
+    /**
+     * @throws CancellationException If the scan was cancelled
+     */
+    public void check() {
+        if (isCancelled()) {
+            throw new CancellationException("The comparison was cancelled");
+        }
+    }
+
+
+    /**
+     * Scans the given range as ComparisonEngine.scan(), one segment at a time,
+     * checking for cancellation between segments
+     *
+     * @throws CancellationException If the scan was cancelled
+     */
+    public void scan(
+            ComparisonEngine comparisonEngine,
+            ByteBuffer left,
+            ByteBuffer right,
+            int startOffset,
+            int endOffset,
+            DiffTracker diffTracker
+    ) {
+        int offset =
+                startOffset;
+
+        while (offset < endOffset && !diffTracker.isStopped()) {
+            check();
+
+            int segmentEnd =
+                    (int) Math.min(endOffset, (long) offset + DiffService.interruptionCheckInterval);
+
+            comparisonEngine.scan(
+                    left,
+                    right,
+                    offset,
+                    segmentEnd,
+                    diffTracker
+            );
+
+            offset =
+                    segmentEnd;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of non-negative values - such as latencies or diff counts - recorded
+ * into power-of-two buckets: recording is lock-free and allocates nothing,
+ * while percentiles are approximated by the upper bound of their bucket.
+ * <p>
+ * The class is thread-safe.
+ */
+public class Histogram {
+    /**
+     * Bucket 0 holds the value 0, while bucket i holds the values in [2^(i-1), 2^i)
+     */
+    private static final int bucketCount =
+            Long.SIZE;
+
+
+    private final AtomicLongArray bucketCounts =
+            new AtomicLongArray(bucketCount);
+
+    private final LongAdder count =
+            new LongAdder();
+
+    private final LongAdder sum =
+            new LongAdder();
+
+    private final LongAccumulator max =
+            new LongAccumulator(Long::max, 0);
+
+
+    /**
+     * Records a value; negative values are recorded as 0
+     */
+    public void record(long value) {
+        long actualValue =
+                Math.max(value, 0);
+
+        bucketCounts.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(actualValue));
+
+        count.increment();
+        sum.add(actualValue);
+        max.accumulate(actualValue);
+    }
+
+
+    public long getCount() {
+        return count.sum();
+    }
+
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+
+    public long getMax() {
+        return max.get();
+    }
+
+
+    public double getMean() {
+        long currentCount =
+                getCount();
+
+        return (currentCount > 0) ?
+                (double) getSum() / currentCount
+                :
+                0;
+    }
+
+
+    /**
+     * Returns an upper bound of the given percentile - never greater than the maximum
+     *
+     * @param quantile The percentile, between 0 and 1
+     */
+    public long getPercentile(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException();
+        }
+
+        long[] snapshot =
+                new long[bucketCount];
+
+        long totalCount =
+                0;
+
+        for (int bucket = 0; bucket < bucketCount; bucket++) {
+            snapshot[bucket] =
+                    bucketCounts.get(bucket);
+
+            totalCount +=
+                    snapshot[bucket];
+        }
+
+        if (totalCount == 0) {
+            return 0;
+        }
+
+        long targetCount =
+                Math.max(1, (long) Math.ceil(quantile * totalCount));
+
+        long cumulativeCount =
+                0;
+
+        for (int bucket = 0; bucket < bucketCount; bucket++) {
+            cumulativeCount +=
+                    snapshot[bucket];
+
+            if (cumulativeCount >= targetCount) {
+                //For the last bucket, the shift overflows into Long.MAX_VALUE
+                long upperBound =
+                        (1L << bucket) - 1;
+
+                return Math.min(upperBound, getMax());
+            }
+        }
+
+        return getMax();
+    }
+}
@@ -0,0 +1,139 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.storage;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Algorithm compressing each block of an operand independently.
+ * <p>
+ * It can be selected via the <b>diffdetector.storage.in-memory.compression</b> property.
+ */
+public enum BlockCompression {
+    /**
+     * Operands are stored as they are
+     */
+    NONE {
+        @Override
+        byte[] compress(byte[] data, int offset, int length) {
+            return Arrays.copyOfRange(data, offset, offset + length);
+        }
+
+
+        @Override
+        void decompress(byte[] compressedBlock, byte[] target, int length) {
+            System.arraycopy(compressedBlock, 0, target, 0, length);
+        }
+    },
+
+
+    /**
+     * Deflate at its fastest level, via the JDK's zlib: deterministic, so that identical
+     * blocks are compressed into identical bytes
+     */
+    DEFLATE {
+        /**
+         * Each call employs its own Deflater, whose native memory is released via end()
+         * as soon as the block is compressed, instead of when it is garbage-collected
+         */
+        @Override
+        byte[] compress(byte[] data, int offset, int length) {
+            Deflater deflater =
+                    new Deflater(Deflater.BEST_SPEED);
+
+            try {
+                deflater.setInput(data, offset, length);
+                deflater.finish();
+
+                //Room for incompressible blocks, which slightly expand
+                byte[] buffer =
+                        new byte[length + length / 64 + 64];
+
+                int compressedLength =
+                        0;
+
+                while (!deflater.finished()) {
+                    if (compressedLength == buffer.length) {
+                        buffer =
+                                Arrays.copyOf(buffer, buffer.length * 2);
+                    }
+
+                    compressedLength +=
+                            deflater.deflate(buffer, compressedLength, buffer.length - compressedLength);
+                }
+
+                return Arrays.copyOf(buffer, compressedLength);
+            } finally {
+                deflater.end();
+            }
+        }
+
+
+        /**
+         * Each call employs its own Inflater, ended as soon as the block is decompressed
+         */
+        @Override
+        void decompress(byte[] compressedBlock, byte[] target, int length) {
+            Inflater inflater =
+                    new Inflater();
+
+            try {
+                inflater.setInput(compressedBlock);
+
+                int decompressedLength =
+                        0;
+
+                while (decompressedLength < length && !inflater.finished()) {
+                    int inflatedBytes =
+                            inflater.inflate(target, decompressedLength, length - decompressedLength);
+
+                    if (inflatedBytes == 0 && inflater.needsInput()) {
+                        break;
+                    }
+
+                    decompressedLength +=
+                            inflatedBytes;
+                }
+
+                if (decompressedLength != length) {
+                    throw new IllegalStateException("Corrupted block");
+                }
+            } catch (DataFormatException ex) {
+                throw new IllegalStateException(ex);
+            } finally {
+                inflater.end();
+            }
+        }
+    };
+
+
+    abstract byte[] compress(byte[] data, int offset, int length);
+
+    /**
+     * Decompresses a block into the beginning of the target array
+     *
+     * @param length The length of the block, once decompressed
+     */
+    abstract void decompress(byte[] compressedBlock, byte[] target, int length);
+}
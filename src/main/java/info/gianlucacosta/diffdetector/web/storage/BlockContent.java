@@ -0,0 +1,152 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Content of an operand stored as a sequence of blocks - for example, compressed ones -
+ * that can be read one at a time, without materializing the whole content.
+ * <p>
+ * All the blocks have the same size, except the last one, which can be shorter.
+ */
+public interface BlockContent {
+    /**
+     * Reads the blocks of a content, reusing its internal buffers: each returned buffer
+     * is therefore valid only until the next read. A reader must not be shared between threads.
+     */
+    @FunctionalInterface
+    interface Reader {
+        /**
+         * Returns a buffer containing the given block, between its position and its limit
+         */
+        ByteBuffer read(int blockIndex);
+    }
+
+
+    int getLength();
+
+    int getBlockSize();
+
+    default int getBlockCount() {
+        int blockSize =
+                getBlockSize();
+
+        return (blockSize > 0) ?
+                (int) ((getLength() + (long) blockSize - 1) / blockSize)
+                :
+                0;
+    }
+
+    Reader openReader();
+
+    /**
+     * Returns true if the block having the given index is known to be identical
+     * to the block having the same index in the other content - which must have
+     * the same block size - without reading them; false means unknown.
+     * <p>
+     * The default implementation always returns false.
+     */
+    default boolean isSameBlock(int blockIndex, BlockContent other) {
+        return false;
+    }
+
+    /**
+     * Returns a stream reading the given range of the content, block by block
+     */
+    default InputStream openStream(int offset, int length) {
+        if (offset < 0 || length < 0 || offset > getLength() - length) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        Reader reader =
+                openReader();
+
+        int endOffset =
+                offset + length;
+
+        return new InputStream() {
+            private int position =
+                    offset;
+
+            private ByteBuffer block;
+
+            private int blockIndex =
+                    -1;
+
+
+            @Override
+            public int read() throws IOException {
+                byte[] singleByte =
+                        new byte[1];
+
+                return (read(singleByte, 0, 1) < 0) ?
+                        -1
+                        :
+                        singleByte[0] & 0xFF;
+            }
+
+
+            @Override
+            public int read(byte[] target, int targetOffset, int targetLength) {
+                if (position == endOffset) {
+                    return -1;
+                }
+
+                int blockSize =
+                        getBlockSize();
+
+                int requiredIndex =
+                        position / blockSize;
+
+                if (requiredIndex != blockIndex) {
+                    block =
+                            reader.read(requiredIndex);
+
+                    blockIndex =
+                            requiredIndex;
+                }
+
+                int offsetInBlock =
+                        position - requiredIndex * blockSize;
+
+                int readLength =
+                        Math.min(
+                                targetLength,
+                                Math.min(block.remaining() - offsetInBlock, endOffset - position)
+                        );
+
+                ByteBuffer source =
+                        block.duplicate();
+
+                source.position(source.position() + offsetInBlock);
+                source.get(target, targetOffset, readLength);
+
+                position +=
+                        readLength;
+
+                return readLength;
+            }
+        };
+    }
+}
@@ -0,0 +1,332 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Immutable hash tree (Merkle tree) over the fixed-size blocks of an operand:
+ * each leaf is the hash of a block, and each parent the hash of its two children -
+ * a trailing node without sibling being promoted as it is.
+ * <p>
+ * Comparing the trees of two operands descends only into the subtrees whose hashes
+ * differ, so that just the blocks that probably differ must be scanned; as for
+ * fingerprints, blocks having the same hash are considered identical.
+ */
+public final class BlockHashTree {
+    /**
+     * Receives the ranges of the blocks whose hashes differ
+     */
+    @FunctionalInterface
+    public interface RangeConsumer {
+        void acceptRange(int startOffset, int endOffset);
+    }
+
+
+    /**
+     * Hashes the bytes between the position and the limit of the given buffer,
+     * without altering its state
+     */
+    public static BlockHashTree of(ByteBuffer data, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException();
+        }
+
+        ByteBuffer content =
+                data.slice();
+
+        int length =
+                content.limit();
+
+        int leafCount =
+                (int) ((length + (long) blockSize - 1) / blockSize);
+
+        long[] leaves =
+                new long[leafCount];
+
+        for (int leafIndex = 0; leafIndex < leafCount; leafIndex++) {
+            leaves[leafIndex] =
+                    hashBlock(content, leafIndex, blockSize);
+        }
+
+        long[][] levels =
+                buildLevels(leaves);
+
+        return new BlockHashTree(length, blockSize, levels);
+    }
+
+
+    private static long hashBlock(ByteBuffer content, int leafIndex, int blockSize) {
+        ByteBuffer block =
+                content.duplicate();
+
+        int blockOffset =
+                leafIndex * blockSize;
+
+        block.position(blockOffset);
+        block.limit((int) Math.min(content.limit(), (long) blockOffset + blockSize));
+
+        return XxHash64.hash(block, 0);
+    }
+
+
+    /**
+     * Returns the levels of the tree, from the leaves to the root
+     */
+    private static long[][] buildLevels(long[] leaves) {
+        int levelCount =
+                1;
+
+        for (int nodeCount = leaves.length; nodeCount > 1; nodeCount = (nodeCount + 1) / 2) {
+            levelCount++;
+        }
+
+        long[][] levels =
+                new long[levelCount][];
+
+        levels[0] =
+                leaves;
+
+        for (int level = 1; level < levelCount; level++) {
+            long[] children =
+                    levels[level - 1];
+
+            long[] parents =
+                    new long[(children.length + 1) / 2];
+
+            for (int parentIndex = 0; parentIndex < parents.length; parentIndex++) {
+                parents[parentIndex] =
+                        hashChildren(children, parentIndex);
+            }
+
+            levels[level] =
+                    parents;
+        }
+
+        return levels;
+    }
+
+
+    private static long hashChildren(long[] children, int parentIndex) {
+        int leftChildIndex =
+                2 * parentIndex;
+
+        return (leftChildIndex + 1 < children.length) ?
+                XxHash64.hash(children[leftChildIndex], children[leftChildIndex + 1], 0)
+                :
+                children[leftChildIndex];
+    }
+
+
+    private final int length;
+    private final int blockSize;
+    private final long[][] levels;
+
+
+    private BlockHashTree(int length, int blockSize, long[][] levels) {
+        this.length = length;
+        this.blockSize = blockSize;
+        this.levels = levels;
+    }
+
+
+    public int getLength() {
+        return length;
+    }
+
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+
+    public int getLeafCount() {
+        return levels[0].length;
+    }
+
+
+    /**
+     * Returns the hash of the root - 0 for empty operands
+     */
+    public long getRootHash() {
+        long[] root =
+                levels[levels.length - 1];
+
+        return (root.length > 0) ? root[0] : 0;
+    }
+
+
+    /**
+     * Returns a new tree for the given data, which only differ from the hashed data
+     * within the given range: just the leaves overlapping the range, and their ancestors,
+     * are hashed again
+     */
+    public BlockHashTree withUpdatedRange(ByteBuffer data, int offset, int rangeLength) {
+        ByteBuffer content =
+                data.slice();
+
+        if (content.limit() != length) {
+            throw new IllegalArgumentException("The data length has changed");
+        }
+
+        if (offset < 0 || rangeLength < 0 || offset > length - rangeLength) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (rangeLength == 0) {
+            return this;
+        }
+
+        long[][] updatedLevels =
+                new long[levels.length][];
+
+        int firstIndex =
+                offset / blockSize;
+
+        int lastIndex =
+                (offset + rangeLength - 1) / blockSize;
+
+        updatedLevels[0] =
+                levels[0].clone();
+
+        for (int leafIndex = firstIndex; leafIndex <= lastIndex; leafIndex++) {
+            updatedLevels[0][leafIndex] =
+                    hashBlock(content, leafIndex, blockSize);
+        }
+
+        for (int level = 1; level < levels.length; level++) {
+            firstIndex /= 2;
+            lastIndex /= 2;
+
+            updatedLevels[level] =
+                    levels[level].clone();
+
+            for (int parentIndex = firstIndex; parentIndex <= lastIndex; parentIndex++) {
+                updatedLevels[level][parentIndex] =
+                        hashChildren(updatedLevels[level - 1], parentIndex);
+            }
+        }
+
+        return new BlockHashTree(length, blockSize, updatedLevels);
+    }
+
+
+    /**
+     * Returns true if the trees can be compared - that is, if they have the same length
+     * and the same block size
+     */
+    public boolean isComparableWith(BlockHashTree other) {
+        return length == other.length
+                && blockSize == other.blockSize;
+    }
+
+
+    /**
+     * Passes to the consumer, in ascending order, the ranges of the blocks whose hashes
+     * differ in the two trees; adjacent blocks are merged into a single range.
+     *
+     * @throws IllegalArgumentException If the trees are not comparable
+     */
+    public void findDifferingRanges(BlockHashTree other, RangeConsumer rangeConsumer) {
+        if (!isComparableWith(other)) {
+            throw new IllegalArgumentException("The trees are not comparable");
+        }
+
+        if (getLeafCount() == 0) {
+            return;
+        }
+
+        int[] pendingRange =
+                {-1, -1};
+
+        descend(other, levels.length - 1, 0, pendingRange, rangeConsumer);
+
+        if (pendingRange[0] >= 0) {
+            rangeConsumer.acceptRange(pendingRange[0], pendingRange[1]);
+        }
+    }
+
+
+    private void descend(BlockHashTree other, int level, int nodeIndex, int[] pendingRange, RangeConsumer rangeConsumer) {
+        if (levels[level][nodeIndex] == other.levels[level][nodeIndex]) {
+            return;
+        }
+
+        if (level > 0) {
+            int leftChildIndex =
+                    2 * nodeIndex;
+
+            descend(other, level - 1, leftChildIndex, pendingRange, rangeConsumer);
+
+            if (leftChildIndex + 1 < levels[level - 1].length) {
+                descend(other, level - 1, leftChildIndex + 1, pendingRange, rangeConsumer);
+            }
+
+            return;
+        }
+
+
+        int blockOffset =
+                nodeIndex * blockSize;
+
+        int blockEnd =
+                (int) Math.min(length, (long) blockOffset + blockSize);
+
+        if (pendingRange[1] == blockOffset) {
+            pendingRange[1] =
+                    blockEnd;
+
+            return;
+        }
+
+        if (pendingRange[0] >= 0) {
+            rangeConsumer.acceptRange(pendingRange[0], pendingRange[1]);
+        }
+
+        pendingRange[0] =
+                blockOffset;
+
+        pendingRange[1] =
+                blockEnd;
+    }
+
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof BlockHashTree)) {
+            return false;
+        }
+
+        BlockHashTree other =
+                (BlockHashTree) obj;
+
+        return length == other.length
+                && blockSize == other.blockSize
+                && Arrays.deepEquals(levels, other.levels);
+    }
+
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(getRootHash());
+    }
+}
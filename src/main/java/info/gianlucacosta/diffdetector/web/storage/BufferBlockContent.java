@@ -0,0 +1,80 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.storage;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Content consisting of a single block - a whole buffer, read without copying it
+ */
+public final class BufferBlockContent implements BlockContent {
+    private final ByteBuffer data;
+
+
+    /**
+     * Wraps the bytes between the position and the limit of the given buffer
+     */
+    public BufferBlockContent(ByteBuffer data) {
+        this.data =
+                data.slice();
+    }
+
+
+    @Override
+    public int getLength() {
+        return data.limit();
+    }
+
+
+    @Override
+    public int getBlockSize() {
+        return data.limit();
+    }
+
+
+    @Override
+    public Reader openReader() {
+        return blockIndex -> {
+            if (blockIndex != 0 || data.limit() == 0) {
+                throw new IndexOutOfBoundsException();
+            }
+
+            return data.duplicate();
+        };
+    }
+
+
+    @Override
+    public InputStream openStream(int offset, int length) {
+        if (offset < 0 || length < 0 || offset > data.limit() - length) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        ByteBuffer range =
+                data.duplicate();
+
+        range.position(offset);
+        range.limit(offset + length);
+
+        return InputStreams.of(range);
+    }
+}
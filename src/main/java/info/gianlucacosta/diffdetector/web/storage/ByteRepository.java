@@ -20,12 +20,127 @@
 
 package info.gianlucacosta.diffdetector.web.storage;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface ByteRepository {
+    /**
+     * Stores the given data, also computing its fingerprint
+     */
     void save(String id, byte[] data);
 
+    /**
+     * Stores the first <i>length</i> bytes of the given array, which must not be modified afterwards
+     * - for example, when the data were decoded into an array sized according to an estimate.
+     * <p>
+     * The default implementation copies the bytes into an array having the exact length,
+     * if needed, then calls save(String, byte[]).
+     */
+    default void save(String id, byte[] data, int length) {
+        save(
+                id,
+                (length == data.length) ?
+                        data
+                        :
+                        Arrays.copyOf(data, length)
+        );
+    }
+
+    /**
+     * Stores the data read from the given stream, which is not closed.
+     * <p>
+     * The default implementation reads the whole stream into an array
+     * sized according to the expected length, then calls save(String, byte[]).
+     *
+     * @param id             The id
+     * @param inputStream    The stream providing the data
+     * @param expectedLength The expected length of the data, or a negative value if unknown
+     */
+    default void save(String id, InputStream inputStream, int expectedLength) throws IOException {
+        byte[] data =
+                InputStreams.readFully(inputStream, expectedLength);
+
+        save(id, data);
+    }
+
     Optional<byte[]> find(String id);
 
+    /**
+     * Returns a read-only buffer, between its position and its limit, containing the data
+     * having the given id; implementations storing data outside the heap should
+     * return a view of such data, without copying them.
+     * <p>
+     * The default implementation wraps the array returned by find().
+     */
+    default Optional<ByteBuffer> findBuffer(String id) {
+        return find(id).map(data ->
+                ByteBuffer.wrap(data).asReadOnlyBuffer()
+        );
+    }
+
+    /**
+     * Returns the data having the given id as blocks, if the repository stores them
+     * block by block - for example, compressed; in this case, the data should be read
+     * via this method, as the other ones must first reassemble them.
+     * <p>
+     * The default implementation returns an empty Optional, meaning that findBuffer()
+     * should be called instead.
+     */
+    default Optional<BlockContent> findBlockContent(String id) {
+        return Optional.empty();
+    }
+
+    /**
+     * Returns the fingerprint of the data having the given id
+     */
+    Optional<Fingerprint> findFingerprint(String id);
+
+    /**
+     * Returns true if write() is supported
+     */
+    default boolean isWritable() {
+        return false;
+    }
+
+    /**
+     * Overwrites, in place, part of the data having the given id; the fingerprint
+     * is computed again only when it is next requested.
+     * <p>
+     * The caller must ensure that the item is not being read meanwhile.
+     * The default implementation does not support writes.
+     *
+     * @param id     The id
+     * @param offset The offset of the first byte to overwrite
+     * @param bytes  The new bytes, which must not exceed the length of the data
+     * @return false if no data have the given id
+     */
+    default boolean write(String id, int offset, byte[] bytes) {
+        throw new UnsupportedOperationException();
+    }
+
     void remove(String id);
+
+    /**
+     * Registers a listener notified with the id of each item that the repository
+     * removes on its own initiative - for example, because it has expired.
+     * <p>
+     * The default implementation does nothing, as items are only removed via remove().
+     */
+    default void addRemovalListener(Consumer<String> removalListener) {
+    }
+
+    /**
+     * Releases the resources of the repository - for example, its files or its threads.
+     * <p>
+     * As ByteRepository beans are prototype-scoped, the container never destroys them:
+     * this method is called by the OperandPairRepository owning the instance, on shutdown.
+     * <p>
+     * The default implementation does nothing.
+     */
+    default void close() {
+    }
 }
@@ -0,0 +1,180 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Immutable content whose blocks are compressed independently,
+ * so that they can be decompressed one at a time
+ */
+final class CompressedBlockContent implements BlockContent {
+    /**
+     * Compresses the given data, block by block
+     */
+    static CompressedBlockContent compress(byte[] data, int blockSize, BlockCompression compression) {
+        return compress(data, data.length, blockSize, compression);
+    }
+
+
+    /**
+     * Compresses the first <i>length</i> bytes of the given array, block by block
+     */
+    static CompressedBlockContent compress(byte[] data, int length, int blockSize, BlockCompression compression) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException();
+        }
+
+        int blockCount =
+                (int) ((length + (long) blockSize - 1) / blockSize);
+
+        byte[][] compressedBlocks =
+                new byte[blockCount][];
+
+        long compressedBytes =
+                0;
+
+        for (int blockIndex = 0; blockIndex < blockCount; blockIndex++) {
+            int blockOffset =
+                    blockIndex * blockSize;
+
+            compressedBlocks[blockIndex] =
+                    compression.compress(
+                            data,
+                            blockOffset,
+                            Math.min(blockSize, length - blockOffset)
+                    );
+
+            compressedBytes +=
+                    compressedBlocks[blockIndex].length;
+        }
+
+        return new CompressedBlockContent(compression, length, blockSize, compressedBlocks, compressedBytes);
+    }
+
+
+    private final BlockCompression compression;
+    private final int length;
+    private final int blockSize;
+    private final byte[][] compressedBlocks;
+    private final long compressedBytes;
+
+
+    private CompressedBlockContent(BlockCompression compression, int length, int blockSize, byte[][] compressedBlocks, long compressedBytes) {
+        this.compression = compression;
+        this.length = length;
+        this.blockSize = blockSize;
+        this.compressedBlocks = compressedBlocks;
+        this.compressedBytes = compressedBytes;
+    }
+
+
+    @Override
+    public int getLength() {
+        return length;
+    }
+
+
+    @Override
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+
+    @Override
+    public int getBlockCount() {
+        return compressedBlocks.length;
+    }
+
+
+    /**
+     * Each reader decompresses into a single array, allocated on its first read
+     */
+    @Override
+    public Reader openReader() {
+        byte[][] buffer =
+                new byte[1][];
+
+        return blockIndex -> {
+            if (buffer[0] == null) {
+                buffer[0] =
+                        new byte[Math.min(blockSize, length)];
+            }
+
+            int blockLength =
+                    getBlockLength(blockIndex);
+
+            compression.decompress(compressedBlocks[blockIndex], buffer[0], blockLength);
+
+            return ByteBuffer.wrap(buffer[0], 0, blockLength);
+        };
+    }
+
+
+    /**
+     * Blocks compressed by the same deterministic algorithm are identical
+     * if their compressed bytes are identical
+     */
+    @Override
+    public boolean isSameBlock(int blockIndex, BlockContent other) {
+        if (!(other instanceof CompressedBlockContent)) {
+            return false;
+        }
+
+        CompressedBlockContent otherContent =
+                (CompressedBlockContent) other;
+
+        return otherContent.compression == compression
+                && otherContent.blockSize == blockSize
+                && blockIndex < otherContent.compressedBlocks.length
+                && getBlockLength(blockIndex) == otherContent.getBlockLength(blockIndex)
+                && Arrays.equals(compressedBlocks[blockIndex], otherContent.compressedBlocks[blockIndex]);
+    }
+
+
+    private int getBlockLength(int blockIndex) {
+        return Math.min(blockSize, length - blockIndex * blockSize);
+    }
+
+
+    /**
+     * Returns the total size of the compressed blocks
+     */
+    long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+
+    byte[] toByteArray() {
+        byte[] result =
+                new byte[length];
+
+        Reader reader =
+                openReader();
+
+        for (int blockIndex = 0; blockIndex < compressedBlocks.length; blockIndex++) {
+            reader.read(blockIndex).get(result, blockIndex * blockSize, getBlockLength(blockIndex));
+        }
+
+        return result;
+    }
+}
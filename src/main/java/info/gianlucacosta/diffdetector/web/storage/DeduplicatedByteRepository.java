@@ -0,0 +1,426 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.storage;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Repository;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ByteRepository splitting the data into fixed-size blocks, and storing each distinct block
+ * just once - keyed by its fingerprint, and shared by all the items containing it via
+ * reference counting. Each item is therefore just a list of block references.
+ * <p>
+ * When comparing two items, blocks referenced by both at the same index are skipped
+ * without reading them; this is especially effective when the same baseline is uploaded
+ * again and again, against different counterparts.
+ * <p>
+ * Blocks having the same fingerprint are compared byte per byte before being shared,
+ * so that hash collisions can never alter the data; since blocks are shared,
+ * items cannot be written in place.
+ * <p>
+ * It is selected by setting <b>diffdetector.storage.type</b> to <b>deduplicated</b>.
+ * <p>
+ * The class is thread-safe: reference counts are only updated within
+ * the atomic compute methods of ConcurrentHashMap.
+ */
+@Repository
+@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+@ConditionalOnProperty(name = "diffdetector.storage.type", havingValue = "deduplicated")
+public class DeduplicatedByteRepository implements ByteRepository {
+    private final int blockSize;
+
+    private final Map<String, StoredItem> itemsMap =
+            new ConcurrentHashMap<>();
+
+    private final Map<Fingerprint, StoredBlock> blocksMap =
+            new ConcurrentHashMap<>();
+
+    private final AtomicLong blockBytesCount =
+            new AtomicLong();
+
+    private final AtomicLong itemBytesCount =
+            new AtomicLong();
+
+
+    /**
+     * Creates a repository.
+     *
+     * @param blockSize The size of the blocks into which the items are split
+     */
+    @Autowired
+    public DeduplicatedByteRepository(
+            @Value("${diffdetector.storage.deduplicated.block-size:65536}") int blockSize
+    ) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException();
+        }
+
+        this.blockSize =
+                blockSize;
+    }
+
+
+    @Override
+    public void save(String id, byte[] data) {
+        save(id, data, data.length);
+    }
+
+
+    @Override
+    public void save(String id, byte[] data, int length) {
+        validateId(id);
+
+        int blockCount =
+                (int) ((length + (long) blockSize - 1) / blockSize);
+
+        StoredBlock[] blocks =
+                new StoredBlock[blockCount];
+
+        for (int blockIndex = 0; blockIndex < blockCount; blockIndex++) {
+            int blockOffset =
+                    blockIndex * blockSize;
+
+            blocks[blockIndex] =
+                    acquireBlock(
+                            data,
+                            blockOffset,
+                            Math.min(blockSize, length - blockOffset)
+                    );
+        }
+
+        StoredItem storedItem =
+                new StoredItem(
+                        new DeduplicatedBlockContent(length, blockSize, blocks),
+                        Fingerprint.of(ByteBuffer.wrap(data, 0, length))
+                );
+
+        itemBytesCount.addAndGet(length);
+
+        StoredItem previousItem =
+                itemsMap.put(id, storedItem);
+
+        if (previousItem != null) {
+            releaseItem(previousItem);
+        }
+    }
+
+
+    /**
+     * Returns the stored block having the same bytes - incrementing its reference count -
+     * or stores a copy of the given bytes as a new block
+     */
+    private StoredBlock acquireBlock(byte[] data, int offset, int length) {
+        Fingerprint blockFingerprint =
+                Fingerprint.of(ByteBuffer.wrap(data, offset, length));
+
+        StoredBlock[] result =
+                new StoredBlock[1];
+
+        blocksMap.compute(blockFingerprint, (key, existingBlock) -> {
+            if (existingBlock == null) {
+                result[0] =
+                        new StoredBlock(
+                                blockFingerprint,
+                                Arrays.copyOfRange(data, offset, offset + length)
+                        );
+
+                blockBytesCount.addAndGet(length);
+
+                return result[0];
+            }
+
+            if (existingBlock.hasBytes(data, offset, length)) {
+                existingBlock.referenceCount++;
+
+                result[0] =
+                        existingBlock;
+            }
+
+            return existingBlock;
+        });
+
+        //Hash collision: the block is stored privately, without sharing it
+        if (result[0] == null) {
+            blockBytesCount.addAndGet(length);
+
+            return new StoredBlock(
+                    null,
+                    Arrays.copyOfRange(data, offset, offset + length)
+            );
+        }
+
+        return result[0];
+    }
+
+
+    private void releaseItem(StoredItem storedItem) {
+        itemBytesCount.addAndGet(-storedItem.content.getLength());
+
+        for (StoredBlock block : storedItem.content.blocks) {
+            releaseBlock(block);
+        }
+    }
+
+
+    /**
+     * Decrements the reference count of the block, removing it when it reaches 0
+     */
+    private void releaseBlock(StoredBlock block) {
+        if (block.fingerprint == null) {
+            blockBytesCount.addAndGet(-block.bytes.length);
+            return;
+        }
+
+        blocksMap.computeIfPresent(block.fingerprint, (key, existingBlock) -> {
+            if (existingBlock != block) {
+                return existingBlock;
+            }
+
+            existingBlock.referenceCount--;
+
+            if (existingBlock.referenceCount > 0) {
+                return existingBlock;
+            }
+
+            blockBytesCount.addAndGet(-block.bytes.length);
+
+            return null;
+        });
+    }
+
+
+    /**
+     * Returns a new array, assembled from the blocks
+     */
+    @Override
+    public Optional<byte[]> find(String id) {
+        return findBlockContent(id).map(content -> {
+            DeduplicatedBlockContent deduplicatedContent =
+                    (DeduplicatedBlockContent) content;
+
+            byte[] data =
+                    new byte[deduplicatedContent.getLength()];
+
+            for (int blockIndex = 0; blockIndex < deduplicatedContent.blocks.length; blockIndex++) {
+                byte[] blockBytes =
+                        deduplicatedContent.blocks[blockIndex].bytes;
+
+                System.arraycopy(blockBytes, 0, data, blockIndex * blockSize, blockBytes.length);
+            }
+
+            return data;
+        });
+    }
+
+
+    /**
+     * Returns the block references of the item, whose blocks are read without copying them
+     */
+    @Override
+    public Optional<BlockContent> findBlockContent(String id) {
+        validateId(id);
+
+        return Optional.ofNullable(
+                itemsMap.get(id)
+        ).map(storedItem -> storedItem.content);
+    }
+
+
+    @Override
+    public Optional<Fingerprint> findFingerprint(String id) {
+        validateId(id);
+
+        return Optional.ofNullable(
+                itemsMap.get(id)
+        ).map(storedItem -> storedItem.fingerprint);
+    }
+
+
+    @Override
+    public void remove(String id) {
+        validateId(id);
+
+        StoredItem storedItem =
+                itemsMap.remove(id);
+
+        if (storedItem != null) {
+            releaseItem(storedItem);
+        }
+    }
+
+
+    /**
+     * Returns the number of distinct blocks currently stored
+     */
+    public int getBlockCount() {
+        return blocksMap.size();
+    }
+
+
+    /**
+     * Returns the bytes occupied by the distinct blocks
+     */
+    public long getBlockBytes() {
+        return blockBytesCount.get();
+    }
+
+
+    /**
+     * Returns the total length of the items, as if they did not share blocks
+     */
+    public long getItemBytes() {
+        return itemBytesCount.get();
+    }
+
+
+    /**
+     * Returns the ratio between the item bytes and the block bytes - 1 if no item is stored
+     */
+    public double getDeduplicationRatio() {
+        long blockBytes =
+                blockBytesCount.get();
+
+        return (blockBytes > 0) ?
+                (double) itemBytesCount.get() / blockBytes
+                :
+                1;
+    }
+
+
+    private static void validateId(String id) {
+        Objects.requireNonNull(id);
+
+        if (id.isEmpty()) {
+            throw new IllegalArgumentException();
+        }
+    }
+
+
+    private static class StoredBlock {
+        /**
+         * The key of the block, or null if the block is not shared
+         */
+        final Fingerprint fingerprint;
+        final byte[] bytes;
+
+        /**
+         * Only accessed within the compute methods of the blocks map
+         */
+        int referenceCount =
+                1;
+
+        StoredBlock(Fingerprint fingerprint, byte[] bytes) {
+            this.fingerprint = fingerprint;
+            this.bytes = bytes;
+        }
+
+
+        boolean hasBytes(byte[] data, int offset, int length) {
+            return ByteBuffer.wrap(bytes).equals(ByteBuffer.wrap(data, offset, length));
+        }
+    }
+
+
+    private static class StoredItem {
+        final DeduplicatedBlockContent content;
+        final Fingerprint fingerprint;
+
+        StoredItem(DeduplicatedBlockContent content, Fingerprint fingerprint) {
+            this.content = content;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+
+    /**
+     * Immutable list of block references
+     */
+    private static final class DeduplicatedBlockContent implements BlockContent {
+        private final int length;
+        private final int blockSize;
+        private final StoredBlock[] blocks;
+
+
+        DeduplicatedBlockContent(int length, int blockSize, StoredBlock[] blocks) {
+            this.length = length;
+            this.blockSize = blockSize;
+            this.blocks = blocks;
+        }
+
+
+        @Override
+        public int getLength() {
+            return length;
+        }
+
+
+        @Override
+        public int getBlockSize() {
+            return blockSize;
+        }
+
+
+        @Override
+        public int getBlockCount() {
+            return blocks.length;
+        }
+
+
+        /**
+         * Blocks are returned as read-only views, without copying them
+         */
+        @Override
+        public Reader openReader() {
+            return blockIndex ->
+                    ByteBuffer.wrap(blocks[blockIndex].bytes).asReadOnlyBuffer();
+        }
+
+
+        /**
+         * Blocks are identical if they are the very same stored block
+         */
+        @Override
+        public boolean isSameBlock(int blockIndex, BlockContent other) {
+            if (!(other instanceof DeduplicatedBlockContent)) {
+                return false;
+            }
+
+            DeduplicatedBlockContent otherContent =
+                    (DeduplicatedBlockContent) other;
+
+            return otherContent.blockSize == blockSize
+                    && blockIndex < otherContent.blocks.length
+                    && blocks[blockIndex] == otherContent.blocks[blockIndex];
+        }
+    }
+}
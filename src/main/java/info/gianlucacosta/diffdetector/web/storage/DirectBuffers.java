@@ -0,0 +1,78 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.storage;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Utilities for direct buffers
+ */
+final class DirectBuffers {
+    /**
+     * Releases the memory - or the mapping - of a direct buffer at once, via the JDK-internal
+     * cleaner: Unsafe.invokeCleaner() on Java 9+, DirectBuffer.cleaner() on Java 8;
+     * if neither is accessible, the garbage collector will release it anyway.
+     * <p>
+     * The buffer, as well as any view of it, must never be read afterwards,
+     * as reading released memory crashes the JVM.
+     */
+    static void release(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            return;
+        }
+
+        try {
+            Class<?> unsafeClass =
+                    Class.forName("sun.misc.Unsafe");
+
+            try {
+                Method invokeCleanerMethod =
+                        unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+
+                Field unsafeField =
+                        unsafeClass.getDeclaredField("theUnsafe");
+
+                unsafeField.setAccessible(true);
+
+                invokeCleanerMethod.invoke(unsafeField.get(null), buffer);
+            } catch (NoSuchMethodException ex) {
+                Method cleanerMethod =
+                        buffer.getClass().getMethod("cleaner");
+
+                cleanerMethod.setAccessible(true);
+
+                Object cleaner =
+                        cleanerMethod.invoke(buffer);
+
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            //Leaving the release to the garbage collector
+        }
+    }
+
+
+    private DirectBuffers() {
+    }
+}
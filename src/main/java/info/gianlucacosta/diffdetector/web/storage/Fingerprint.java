@@ -0,0 +1,93 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Length and 64-bit hash of an operand, computed when it is stored.
+ * <p>
+ * Operands having different fingerprints are surely different; operands having
+ * the same fingerprint are identical, except in case of (extremely unlikely) hash collisions.
+ */
+public final class Fingerprint {
+    public static Fingerprint of(byte[] data) {
+        return of(ByteBuffer.wrap(data));
+    }
+
+
+    /**
+     * Computes the fingerprint of the bytes between the position and the limit
+     * of the given buffer, without altering its state
+     */
+    public static Fingerprint of(ByteBuffer data) {
+        return new Fingerprint(
+                data.remaining(),
+                XxHash64.hash(data, 0)
+        );
+    }
+
+
+    private final int length;
+    private final long hash;
+
+
+    private Fingerprint(int length, long hash) {
+        this.length = length;
+        this.hash = hash;
+    }
+
+
+    public int getLength() {
+        return length;
+    }
+
+
+    public long getHash() {
+        return hash;
+    }
+
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Fingerprint)) {
+            return false;
+        }
+
+        Fingerprint other =
+                (Fingerprint) obj;
+
+        return length == other.length
+                && hash == other.hash;
+    }
+
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(hash);
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format("Fingerprint(%d, %016x)", length, hash);
+    }
+}
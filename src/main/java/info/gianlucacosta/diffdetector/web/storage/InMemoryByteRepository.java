@@ -20,50 +20,303 @@
 
 package info.gianlucacosta.diffdetector.web.storage;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Repository;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
 
 /**
  * Simple, in-memory implementation of ByteRepository.
- * It lacks a few important features:
  * <p>
- * <ul>
- * <li>Items never expire - it is the user that must manually remove them</li>
- * <li>The data reside in local memory - which is rather fragile</li>
- * </ul>
+ * Items can have a time-to-live, after which they expire, and the repository can have
+ * a byte budget: when it is exceeded, the least recently used items are evicted.
+ * Both are enforced by a background reaper thread, so that find() and save() never
+ * perform cleanups - they just check the expiration time and, when an expired item is read
+ * or the budget is exceeded, wake up the reaper; as a consequence, the budget can be exceeded
+ * for a short while, whereas expired items are never returned.
  * <p>
- * A more robust implementation could be based on a distributed cache, which could also
- * probably allow to introduce expiration policies.
+ * Optionally, items can be compressed block by block: they are then read via findBlockContent(),
+ * which decompresses one block at a time, and can no longer be written in place.
+ * Both the byte budget and getStoredBytes() refer to the compressed size.
+ * <p>
+ * The data reside in local memory - which is rather fragile: a more robust implementation
+ * could be based on a distributed cache.
  * <p>
  * The class is thread-safe, as it just employs basic methods of ConcurrentHashMap.
  */
 @Repository
 @Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+@ConditionalOnProperty(name = "diffdetector.storage.type", havingValue = "in-memory", matchIfMissing = true)
 public class InMemoryByteRepository implements ByteRepository {
-    private final Map<String, byte[]> bytesMap =
+    private static final int defaultCompressionBlockSize =
+            65536;
+
+    private static final int maxUnusedFraction =
+            64;
+
+    private final Map<String, StoredBytes> bytesMap =
             new ConcurrentHashMap<>();
 
+    private final long ttlNanos;
+
+    private final long maxBytes;
+
+    private final LongSupplier nanoClock;
+
+    private final BlockCompression compression;
+
+    private final int compressionBlockSize;
+
+    private final ScheduledExecutorService reaperExecutor;
+
+    private final AtomicBoolean evictionRequested =
+            new AtomicBoolean();
+
+    private final AtomicLong storedBytesCount =
+            new AtomicLong();
+
+    private final AtomicLong originalBytesCount =
+            new AtomicLong();
+
+    private final LongAdder expiredCount =
+            new LongAdder();
+
+    private final LongAdder evictedCount =
+            new LongAdder();
+
+    private final List<Consumer<String>> removalListeners =
+            new CopyOnWriteArrayList<>();
+
+
+    /**
+     * Creates a repository whose items never expire and are never evicted
+     */
+    public InMemoryByteRepository() {
+        this(0, 0, 0);
+    }
+
+
+    /**
+     * Creates a repository storing the items uncompressed.
+     *
+     * @param ttlSeconds            The time-to-live of each item since it was saved; 0 means no expiration
+     * @param maxBytes              The byte budget; 0 means no budget
+     * @param reaperIntervalSeconds The interval between the runs of the reaper, which removes
+     *                              the expired items; 0 disables the reaper
+     */
+    public InMemoryByteRepository(long ttlSeconds, long maxBytes, long reaperIntervalSeconds) {
+        this(ttlSeconds, maxBytes, reaperIntervalSeconds, BlockCompression.NONE, defaultCompressionBlockSize);
+    }
+
+
+    /**
+     * Creates a repository.
+     *
+     * @param ttlSeconds            The time-to-live of each item since it was saved; 0 means no expiration
+     * @param maxBytes              The byte budget; 0 means no budget
+     * @param reaperIntervalSeconds The interval between the runs of the reaper, which removes
+     *                              the expired items; 0 disables the reaper
+     * @param compression           The compression applied to each block of the items;
+     *                              NONE stores the items as they are, in a single array
+     * @param compressionBlockSize  The size of the compressed blocks
+     */
+    @Autowired
+    public InMemoryByteRepository(
+            @Value("${diffdetector.storage.in-memory.ttl-seconds:0}") long ttlSeconds,
+            @Value("${diffdetector.storage.in-memory.max-bytes:0}") long maxBytes,
+            @Value("${diffdetector.storage.in-memory.reaper-interval-seconds:10}") long reaperIntervalSeconds,
+            @Value("${diffdetector.storage.in-memory.compression:NONE}") BlockCompression compression,
+            @Value("${diffdetector.storage.in-memory.compression-block-size:65536}") int compressionBlockSize
+    ) {
+        this(ttlSeconds, maxBytes, reaperIntervalSeconds, compression, compressionBlockSize, System::nanoTime);
+    }
+
+
+    InMemoryByteRepository(long ttlSeconds, long maxBytes, long reaperIntervalSeconds, LongSupplier nanoClock) {
+        this(ttlSeconds, maxBytes, reaperIntervalSeconds, BlockCompression.NONE, defaultCompressionBlockSize, nanoClock);
+    }
+
+
+    InMemoryByteRepository(
+            long ttlSeconds,
+            long maxBytes,
+            long reaperIntervalSeconds,
+            BlockCompression compression,
+            int compressionBlockSize,
+            LongSupplier nanoClock
+    ) {
+        if (ttlSeconds < 0 || maxBytes < 0 || reaperIntervalSeconds < 0 || compressionBlockSize < 1) {
+            throw new IllegalArgumentException();
+        }
+
+        this.compression =
+                Objects.requireNonNull(compression);
+
+        this.compressionBlockSize =
+                compressionBlockSize;
+
+        this.ttlNanos =
+                TimeUnit.SECONDS.toNanos(ttlSeconds);
+
+        this.maxBytes =
+                maxBytes;
+
+        this.nanoClock =
+                nanoClock;
+
+        if (reaperIntervalSeconds > 0 && (ttlSeconds > 0 || maxBytes > 0)) {
+            reaperExecutor =
+                    Executors.newSingleThreadScheduledExecutor(runnable -> {
+                        Thread reaperThread =
+                                new Thread(runnable, "InMemoryByteRepository-reaper");
+
+                        reaperThread.setDaemon(true);
+
+                        return reaperThread;
+                    });
+
+            reaperExecutor.scheduleWithFixedDelay(
+                    this::reap,
+                    reaperIntervalSeconds,
+                    reaperIntervalSeconds,
+                    TimeUnit.SECONDS
+            );
+        } else {
+            reaperExecutor =
+                    null;
+        }
+    }
+
 
     @Override
     public void save(String id, byte[] bytes) {
+        save(id, bytes, bytes.length);
+    }
+
+
+    /**
+     * Keeps the given array, without copying it, unless more than 1/64 of it is unused
+     */
+    @Override
+    public void save(String id, byte[] bytes, int length) {
         Objects.requireNonNull(id);
 
         if (id.isEmpty()) {
             throw new IllegalArgumentException();
         }
 
-        bytesMap.put(id, bytes);
+        long now =
+                nanoClock.getAsLong();
+
+        Fingerprint fingerprint =
+                Fingerprint.of(ByteBuffer.wrap(bytes, 0, length));
+
+        StoredBytes storedBytes =
+                (compression == BlockCompression.NONE) ?
+                        new StoredBytes(
+                                (bytes.length - length > bytes.length / maxUnusedFraction) ?
+                                        Arrays.copyOf(bytes, length)
+                                        :
+                                        bytes,
+                                length,
+                                fingerprint,
+                                now
+                        )
+                        :
+                        new StoredBytes(
+                                CompressedBlockContent.compress(bytes, length, compressionBlockSize, compression),
+                                fingerprint,
+                                now
+                        );
+
+        StoredBytes previousBytes =
+                bytesMap.put(id, storedBytes);
+
+        originalBytesCount.addAndGet(
+                storedBytes.getOriginalLength() - ((previousBytes != null) ? previousBytes.getOriginalLength() : 0)
+        );
+
+        long currentBytesCount =
+                storedBytesCount.addAndGet(
+                        storedBytes.getStoredLength() - ((previousBytes != null) ? previousBytes.getStoredLength() : 0)
+                );
+
+        if (maxBytes > 0 && currentBytesCount > maxBytes) {
+            requestEviction();
+        }
     }
 
 
+    /**
+     * Returns the item - decompressing it into a new array, if it is compressed
+     */
     @Override
     public Optional<byte[]> find(String id) {
+        return findStoredBytes(id)
+                .map(storedBytes ->
+                        (storedBytes.bytes != null) ?
+                                storedBytes.getExactBytes()
+                                :
+                                storedBytes.blockContent.toByteArray()
+                );
+    }
+
+
+    /**
+     * Returns a read-only view of the item, if it is not compressed; otherwise,
+     * the item is decompressed into a new array
+     */
+    @Override
+    public Optional<ByteBuffer> findBuffer(String id) {
+        return findStoredBytes(id)
+                .map(storedBytes ->
+                        (storedBytes.bytes != null) ?
+                                ByteBuffer.wrap(storedBytes.bytes, 0, storedBytes.length).slice().asReadOnlyBuffer()
+                                :
+                                ByteBuffer.wrap(storedBytes.blockContent.toByteArray()).asReadOnlyBuffer()
+                );
+    }
+
+
+    /**
+     * Returns the item as compressed blocks, if it is compressed
+     */
+    @Override
+    public Optional<BlockContent> findBlockContent(String id) {
+        return findStoredBytes(id)
+                .map(storedBytes -> storedBytes.blockContent);
+    }
+
+
+    @Override
+    public Optional<Fingerprint> findFingerprint(String id) {
+        return findStoredBytes(id)
+                .map(StoredBytes::getFingerprint);
+    }
+
+
+    private Optional<StoredBytes> findStoredBytes(String id) {
         Objects.requireNonNull(id);
 
         if (id.isEmpty()) {
@@ -71,9 +324,65 @@ public class InMemoryByteRepository implements ByteRepository {
         }
 
 
-        return Optional.ofNullable(
-                bytesMap.get(id)
-        );
+        StoredBytes storedBytes =
+                bytesMap.get(id);
+
+        if (storedBytes == null) {
+            return Optional.empty();
+        }
+
+        long now =
+                nanoClock.getAsLong();
+
+        if (isExpired(storedBytes, now)) {
+            //Removing the item here could notify a listener within its own atomic update
+            requestEviction();
+
+            return Optional.empty();
+        }
+
+        storedBytes.lastAccessTime =
+                now;
+
+        return Optional.of(storedBytes);
+    }
+
+
+    /**
+     * Compressed items cannot be written in place
+     */
+    @Override
+    public boolean isWritable() {
+        return compression == BlockCompression.NONE;
+    }
+
+
+    @Override
+    public boolean write(String id, int offset, byte[] bytes) {
+        Optional<StoredBytes> storedBytesOptional =
+                findStoredBytes(id);
+
+        if (!storedBytesOptional.isPresent()) {
+            return false;
+        }
+
+        StoredBytes storedBytes =
+                storedBytesOptional.get();
+
+        if (storedBytes.bytes == null) {
+            throw new UnsupportedOperationException();
+        }
+
+        if (offset < 0 || offset > storedBytes.length - bytes.length) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        System.arraycopy(bytes, 0, storedBytes.bytes, offset, bytes.length);
+
+        storedBytes.fingerprint =
+                null;
+
+        return true;
     }
 
 
@@ -86,6 +395,258 @@ public class InMemoryByteRepository implements ByteRepository {
         }
 
 
-        bytesMap.remove(id);
+        StoredBytes storedBytes =
+                bytesMap.remove(id);
+
+        if (storedBytes != null) {
+            releaseBytes(storedBytes);
+        }
+    }
+
+
+    @Override
+    public void addRemovalListener(Consumer<String> removalListener) {
+        removalListeners.add(removalListener);
+    }
+
+
+    private boolean isExpired(StoredBytes storedBytes, long now) {
+        return ttlNanos > 0
+                && now - storedBytes.creationTime >= ttlNanos;
+    }
+
+
+    private void requestEviction() {
+        if (reaperExecutor != null && evictionRequested.compareAndSet(false, true)) {
+            reaperExecutor.execute(this::reap);
+        }
+    }
+
+
+    /**
+     * Removes the expired items, then evicts the least recently used ones
+     * until the byte budget is respected; it is performed by the reaper thread
+     */
+    void reap() {
+        evictionRequested.set(false);
+
+        long now =
+                nanoClock.getAsLong();
+
+        List<EvictionCandidate> evictionCandidates =
+                new ArrayList<>();
+
+        bytesMap.entrySet().forEach(entry -> {
+            if (isExpired(entry.getValue(), now)) {
+                if (removeEntry(entry)) {
+                    expiredCount.increment();
+                }
+            } else {
+                evictionCandidates.add(
+                        new EvictionCandidate(entry, now)
+                );
+            }
+        });
+
+
+        if (maxBytes == 0 || storedBytesCount.get() <= maxBytes) {
+            return;
+        }
+
+        evictionCandidates.sort(
+                Comparator.comparingLong(candidate -> candidate.idleNanos)
+        );
+
+        for (int index = evictionCandidates.size() - 1; index >= 0; index--) {
+            if (storedBytesCount.get() <= maxBytes) {
+                break;
+            }
+
+            if (removeEntry(evictionCandidates.get(index).entry)) {
+                evictedCount.increment();
+            }
+        }
+    }
+
+
+    /**
+     * Removes the entry only if the id still maps to the same item,
+     * notifying the removal listeners
+     */
+    private boolean removeEntry(Map.Entry<String, StoredBytes> entry) {
+        StoredBytes storedBytes =
+                entry.getValue();
+
+        if (bytesMap.remove(entry.getKey(), storedBytes)) {
+            releaseBytes(storedBytes);
+
+            removalListeners.forEach(removalListener ->
+                    removalListener.accept(entry.getKey())
+            );
+
+            return true;
+        }
+
+        return false;
+    }
+
+
+    private void releaseBytes(StoredBytes storedBytes) {
+        storedBytesCount.addAndGet(-storedBytes.getStoredLength());
+        originalBytesCount.addAndGet(-storedBytes.getOriginalLength());
+    }
+
+
+    /**
+     * Stops the reaper thread, if any; it is called by the owning OperandPairRepository
+     * when the application context is closed
+     */
+    @Override
+    public void close() {
+        if (reaperExecutor != null) {
+            reaperExecutor.shutdownNow();
+        }
+    }
+
+
+    boolean isReaperRunning() {
+        return reaperExecutor != null && !reaperExecutor.isShutdown();
+    }
+
+
+    public int getItemCount() {
+        return bytesMap.size();
+    }
+
+
+    /**
+     * Returns the bytes occupied by the items - compressed, if compression is enabled
+     */
+    public long getStoredBytes() {
+        return storedBytesCount.get();
+    }
+
+
+    /**
+     * Returns the total length of the items, before compression
+     */
+    public long getOriginalBytes() {
+        return originalBytesCount.get();
+    }
+
+
+    /**
+     * Returns the ratio between the original and the stored bytes - 1 if no item is stored
+     */
+    public double getCompressionRatio() {
+        long storedBytes =
+                storedBytesCount.get();
+
+        return (storedBytes > 0) ?
+                (double) originalBytesCount.get() / storedBytes
+                :
+                1;
+    }
+
+
+    public long getExpiredCount() {
+        return expiredCount.sum();
+    }
+
+
+    public long getEvictedCount() {
+        return evictedCount.sum();
+    }
+
+
+    /**
+     * Snapshot of the idle time of an entry, as the access time can change while sorting
+     */
+    private static class EvictionCandidate {
+        final Map.Entry<String, StoredBytes> entry;
+        final long idleNanos;
+
+        EvictionCandidate(Map.Entry<String, StoredBytes> entry, long now) {
+            this.entry = entry;
+            this.idleNanos = now - entry.getValue().lastAccessTime;
+        }
+    }
+
+
+    /**
+     * Item stored either as a plain array or as compressed blocks
+     */
+    private static class StoredBytes {
+        final byte[] bytes;
+        final int length;
+        final CompressedBlockContent blockContent;
+        final long creationTime;
+        volatile Fingerprint fingerprint;
+        volatile long lastAccessTime;
+
+        /**
+         * @param length The number of used bytes, at the beginning of the array
+         */
+        StoredBytes(byte[] bytes, int length, Fingerprint fingerprint, long creationTime) {
+            this(bytes, length, null, fingerprint, creationTime);
+        }
+
+
+        StoredBytes(CompressedBlockContent blockContent, Fingerprint fingerprint, long creationTime) {
+            this(null, blockContent.getLength(), blockContent, fingerprint, creationTime);
+        }
+
+
+        private StoredBytes(byte[] bytes, int length, CompressedBlockContent blockContent, Fingerprint fingerprint, long creationTime) {
+            this.bytes = bytes;
+            this.length = length;
+            this.blockContent = blockContent;
+            this.fingerprint = fingerprint;
+            this.creationTime = creationTime;
+            this.lastAccessTime = creationTime;
+        }
+
+
+        long getOriginalLength() {
+            return length;
+        }
+
+
+        long getStoredLength() {
+            return (bytes != null) ?
+                    bytes.length
+                    :
+                    blockContent.getCompressedBytes();
+        }
+
+
+        /**
+         * Returns the used bytes, copied into a new array only if the stored one has unused bytes
+         */
+        byte[] getExactBytes() {
+            return (length == bytes.length) ?
+                    bytes
+                    :
+                    Arrays.copyOf(bytes, length);
+        }
+
+
+        /**
+         * Returns the fingerprint, computing it again if the bytes were written
+         */
+        Fingerprint getFingerprint() {
+            Fingerprint result =
+                    fingerprint;
+
+            if (result == null) {
+                result =
+                        Fingerprint.of(ByteBuffer.wrap(bytes, 0, length));
+
+                fingerprint =
+                        result;
+            }
+
+            return result;
+        }
     }
 }
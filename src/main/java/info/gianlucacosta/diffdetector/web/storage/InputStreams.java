@@ -0,0 +1,158 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Utilities for reading operands from streams
+ */
+final class InputStreams {
+    private static final int defaultBufferSize =
+            8192;
+
+    private static final int maxArrayLength =
+            Integer.MAX_VALUE - 8;
+
+    /**
+     * The maximum size of a buffer allocated just according to the expected length,
+     * which usually comes from the client - for example, via Content-Length
+     */
+    static final int maxPresizedLength =
+            64 * 1024 * 1024;
+
+
+    /**
+     * Reads the whole stream into an array; when the expected length is correct
+     * and at most maxPresizedLength, the array is allocated just once and never copied.
+     * <p>
+     * Larger expected lengths are trusted only as data arrive: the array grows
+     * towards the expected length, but never beyond twice the bytes read so far.
+     *
+     * @param inputStream    The source stream
+     * @param expectedLength The expected number of bytes, or a negative value if unknown
+     */
+    public static byte[] readFully(InputStream inputStream, int expectedLength) throws IOException {
+        byte[] buffer =
+                new byte[(expectedLength >= 0) ? Math.min(expectedLength, maxPresizedLength) : defaultBufferSize];
+
+        int length =
+                0;
+
+        while (true) {
+            if (length == buffer.length) {
+                //Probing before growing, as the buffer might be exactly full
+                int nextByte =
+                        inputStream.read();
+
+                if (nextByte < 0) {
+                    return buffer;
+                }
+
+                if (buffer.length == maxArrayLength) {
+                    throw new IOException("The stream is too long");
+                }
+
+                long doubledLength =
+                        Math.max(defaultBufferSize, 2L * buffer.length);
+
+                buffer =
+                        Arrays.copyOf(
+                                buffer,
+                                (int) Math.min(
+                                        maxArrayLength,
+                                        (expectedLength > buffer.length) ?
+                                                Math.min(expectedLength, doubledLength)
+                                                :
+                                                doubledLength
+                                )
+                        );
+
+                buffer[length++] =
+                        (byte) nextByte;
+            }
+
+            int readBytes =
+                    inputStream.read(buffer, length, buffer.length - length);
+
+            if (readBytes < 0) {
+                return (length == buffer.length) ?
+                        buffer
+                        :
+                        Arrays.copyOf(buffer, length);
+            }
+
+            length += readBytes;
+        }
+    }
+
+
+    /**
+     * Returns a stream reading the bytes between the position and the limit
+     * of the given buffer, without altering its state
+     */
+    public static InputStream of(ByteBuffer buffer) {
+        ByteBuffer source =
+                buffer.duplicate();
+
+        return new InputStream() {
+            @Override
+            public int read() {
+                return source.hasRemaining() ?
+                        (source.get() & 0xFF)
+                        :
+                        -1;
+            }
+
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) {
+                if (length == 0) {
+                    return 0;
+                }
+
+                if (!source.hasRemaining()) {
+                    return -1;
+                }
+
+                int readBytes =
+                        Math.min(length, source.remaining());
+
+                source.get(bytes, offset, readBytes);
+
+                return readBytes;
+            }
+
+
+            @Override
+            public int available() {
+                return source.remaining();
+            }
+        };
+    }
+
+
+    private InputStreams() {
+    }
+}
@@ -0,0 +1,367 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.storage;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ByteRepository writing each item to a file in a local data directory, and serving it
+ * via a read-only memory-mapped region: this way, the stored data can exceed both the heap
+ * and the physical memory, as the operating system pages them in and out on demand.
+ * <p>
+ * Each instance creates its own subdirectory within the configured data directory,
+ * deleting it on shutdown; uploaded streams are copied straight to disk.
+ * Items are limited to 2 GB, the maximum size of a mapped region - and the maximum
+ * offset expressible by a Diff.
+ * <p>
+ * Removing or replacing an item deletes its file and, by default, unmaps it at once - so that
+ * neither its address space nor its disk space, as a deleted file still occupies the disk while
+ * mapped, wait for the garbage collector, which might reclaim them much later with a large heap.
+ * Consequently, the buffers returned by findBuffer() must never be read after their id has been
+ * updated or removed, as reading an unmapped region crashes the JVM: OperandPairRepository
+ * removes an operand only once no snapshot references it, and comparisons never outlive their
+ * snapshot - not even when cancelled. Unmapping can be disabled, leaving it to the garbage collector.
+ * <p>
+ * It is selected by setting <b>diffdetector.storage.type</b> to <b>mapped-file</b>.
+ * <p>
+ * The class is thread-safe.
+ */
+@Repository
+@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+@ConditionalOnProperty(name = "diffdetector.storage.type", havingValue = "mapped-file")
+public class MappedFileByteRepository implements ByteRepository {
+    private final Path directory;
+
+    private final boolean unmappingOnRemove;
+
+    private final AtomicLong fileCounter =
+            new AtomicLong();
+
+    private final Map<String, MappedFile> filesMap =
+            new ConcurrentHashMap<>();
+
+
+    /**
+     * Creates a repository.
+     *
+     * @param dataDirectory     The directory where a subdirectory for this instance will be created
+     * @param unmappingOnRemove True if removing or replacing an item should immediately unmap it;
+     *                          otherwise, the mapping is released by the garbage collector
+     */
+    @Autowired
+    public MappedFileByteRepository(
+            @Value("${diffdetector.storage.mapped-file.directory:${java.io.tmpdir}}") String dataDirectory,
+            @Value("${diffdetector.storage.mapped-file.unmap-on-remove:true}") boolean unmappingOnRemove
+    ) throws IOException {
+        Path dataDirectoryPath =
+                Files.createDirectories(
+                        Paths.get(dataDirectory)
+                );
+
+        this.directory =
+                Files.createTempDirectory(dataDirectoryPath, "diffdetector-");
+
+        this.unmappingOnRemove =
+                unmappingOnRemove;
+    }
+
+
+    @Override
+    public void save(String id, byte[] data) {
+        save(id, data, data.length);
+    }
+
+
+    @Override
+    public void save(String id, byte[] data, int length) {
+        validateId(id);
+
+        Path file =
+                createFilePath();
+
+        try {
+            try (OutputStream outputStream = Files.newOutputStream(file)) {
+                outputStream.write(data, 0, length);
+            }
+
+            store(id, file);
+        } catch (IOException ex) {
+            deleteFile(file);
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+
+    /**
+     * The stream is copied straight to disk, whatever the expected length
+     */
+    @Override
+    public void save(String id, InputStream inputStream, int expectedLength) throws IOException {
+        validateId(id);
+
+        Path file =
+                createFilePath();
+
+        try {
+            Files.copy(inputStream, file);
+
+            store(id, file);
+        } catch (IOException | RuntimeException ex) {
+            deleteFile(file);
+            throw ex;
+        }
+    }
+
+
+    private Path createFilePath() {
+        return directory.resolve(
+                fileCounter.incrementAndGet() + ".bin"
+        );
+    }
+
+
+    private void store(String id, Path file) throws IOException {
+        MappedByteBuffer buffer;
+
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size =
+                    fileChannel.size();
+
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Items larger than 2 GB are not supported");
+            }
+
+            buffer =
+                    fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+
+        MappedFile mappedFile =
+                new MappedFile(
+                        file,
+                        buffer,
+                        Fingerprint.of(buffer)
+                );
+
+        MappedFile previousFile =
+                filesMap.put(id, mappedFile);
+
+        if (previousFile != null) {
+            release(previousFile);
+        }
+    }
+
+
+    @Override
+    public Optional<byte[]> find(String id) {
+        return findBuffer(id).map(buffer -> {
+            byte[] data =
+                    new byte[buffer.remaining()];
+
+            buffer.get(data);
+
+            return data;
+        });
+    }
+
+
+    /**
+     * Returns a view of the mapped region - without reading the file into the heap
+     */
+    @Override
+    public Optional<ByteBuffer> findBuffer(String id) {
+        validateId(id);
+
+        return Optional.ofNullable(
+                filesMap.get(id)
+        ).map(mappedFile ->
+                mappedFile.buffer.duplicate()
+        );
+    }
+
+
+    @Override
+    public Optional<Fingerprint> findFingerprint(String id) {
+        validateId(id);
+
+        return Optional.ofNullable(
+                filesMap.get(id)
+        ).map(MappedFile::getFingerprint);
+    }
+
+
+    @Override
+    public boolean isWritable() {
+        return true;
+    }
+
+
+    /**
+     * Writes the bytes to the file: on the supported platforms, the mapping shares
+     * the operating system's page cache with the file, so the new bytes are visible
+     * through the read-only mapping as well
+     */
+    @Override
+    public boolean write(String id, int offset, byte[] bytes) {
+        validateId(id);
+
+        MappedFile mappedFile =
+                filesMap.get(id);
+
+        if (mappedFile == null) {
+            return false;
+        }
+
+        if (offset < 0 || offset > mappedFile.buffer.limit() - bytes.length) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        try (FileChannel fileChannel = FileChannel.open(mappedFile.file, StandardOpenOption.WRITE)) {
+            ByteBuffer source =
+                    ByteBuffer.wrap(bytes);
+
+            long position =
+                    offset;
+
+            while (source.hasRemaining()) {
+                position += fileChannel.write(source, position);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        mappedFile.fingerprint =
+                null;
+
+        return true;
+    }
+
+
+    @Override
+    public void remove(String id) {
+        validateId(id);
+
+        MappedFile mappedFile =
+                filesMap.remove(id);
+
+        if (mappedFile != null) {
+            release(mappedFile);
+        }
+    }
+
+
+    /**
+     * Releases all the items and deletes the directory of this instance
+     */
+    @Override
+    public void close() {
+        filesMap.keySet().forEach(this::remove);
+
+        deleteFile(directory);
+    }
+
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+
+    private void release(MappedFile mappedFile) {
+        if (unmappingOnRemove) {
+            DirectBuffers.release(mappedFile.buffer);
+        }
+
+        deleteFile(mappedFile.file);
+    }
+
+
+    private static void deleteFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ex) {
+            //For example, on Windows a mapped file cannot be deleted
+            file.toFile().deleteOnExit();
+        }
+    }
+
+
+    private static void validateId(String id) {
+        Objects.requireNonNull(id);
+
+        if (id.isEmpty()) {
+            throw new IllegalArgumentException();
+        }
+    }
+
+
+    private static class MappedFile {
+        final Path file;
+        final MappedByteBuffer buffer;
+        volatile Fingerprint fingerprint;
+
+        MappedFile(Path file, MappedByteBuffer buffer, Fingerprint fingerprint) {
+            this.file = file;
+            this.buffer = buffer;
+            this.fingerprint = fingerprint;
+        }
+
+
+        /**
+         * Returns the fingerprint, computing it again if the file was written
+         */
+        Fingerprint getFingerprint() {
+            Fingerprint result =
+                    fingerprint;
+
+            if (result == null) {
+                result =
+                        Fingerprint.of(buffer.duplicate());
+
+                fingerprint =
+                        result;
+            }
+
+            return result;
+        }
+    }
+}
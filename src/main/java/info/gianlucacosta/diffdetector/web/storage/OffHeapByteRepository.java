@@ -0,0 +1,303 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.storage;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ByteRepository storing the data in direct memory, outside the Java heap,
+ * so that large amounts of pending operands do not lengthen GC pauses:
+ * the heap only contains a small index entry per id.
+ * <p>
+ * Memory is managed by a slab allocator, reusing the space of removed data
+ * and releasing at once both the slabs left empty and the dedicated buffers
+ * of the items larger than a slab.
+ * For this reason, the buffers returned by findBuffer() must not be read after their id
+ * has been updated or removed - which is consistent with calling DELETE only after
+ * the comparison.
+ * <p>
+ * It is selected by setting <b>diffdetector.storage.type</b> to <b>off-heap</b>.
+ * <p>
+ * The class is thread-safe.
+ */
+@Repository
+@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+@ConditionalOnProperty(name = "diffdetector.storage.type", havingValue = "off-heap")
+public class OffHeapByteRepository implements ByteRepository {
+    private final SlabAllocator slabAllocator;
+
+    private final Map<String, StoredBuffer> buffersMap =
+            new ConcurrentHashMap<>();
+
+
+    @Autowired
+    public OffHeapByteRepository(
+            @Value("${diffdetector.storage.off-heap.slab-size:4194304}") int slabSize
+    ) {
+        slabAllocator =
+                new SlabAllocator(slabSize);
+    }
+
+
+    @Override
+    public void save(String id, byte[] data) {
+        save(id, data, data.length);
+    }
+
+
+    @Override
+    public void save(String id, byte[] data, int length) {
+        validateId(id);
+
+        SlabAllocator.Slot slot =
+                slabAllocator.allocate(length);
+
+        slot.getBuffer().put(data, 0, length);
+        slot.getBuffer().flip();
+
+        store(id, slot);
+    }
+
+
+    /**
+     * When the expected length is known, the stream is read straight into direct memory;
+     * as the expected length usually comes from the client, lengths above 64 MB
+     * are read into the heap first - so that they are trusted only as data arrive
+     */
+    @Override
+    public void save(String id, InputStream inputStream, int expectedLength) throws IOException {
+        if (expectedLength < 0 || expectedLength > InputStreams.maxPresizedLength) {
+            ByteRepository.super.save(id, inputStream, expectedLength);
+            return;
+        }
+
+        validateId(id);
+
+        SlabAllocator.Slot slot =
+                slabAllocator.allocate(expectedLength);
+
+        ByteBuffer slotBuffer =
+                slot.getBuffer();
+
+        try {
+            ReadableByteChannel channel =
+                    Channels.newChannel(inputStream);
+
+            int readBytes =
+                    0;
+
+            while (slotBuffer.hasRemaining() && readBytes >= 0) {
+                readBytes =
+                        channel.read(slotBuffer);
+            }
+
+            if (!slotBuffer.hasRemaining() && inputStream.read() >= 0) {
+                throw new IOException("The stream is longer than the expected length");
+            }
+        } catch (IOException | RuntimeException ex) {
+            slabAllocator.free(slot);
+            throw ex;
+        }
+
+        slotBuffer.flip();
+
+        store(id, slot);
+    }
+
+
+    private void store(String id, SlabAllocator.Slot slot) {
+        StoredBuffer storedBuffer =
+                new StoredBuffer(
+                        slot,
+                        Fingerprint.of(slot.getBuffer())
+                );
+
+        StoredBuffer previousBuffer =
+                buffersMap.put(id, storedBuffer);
+
+        if (previousBuffer != null) {
+            slabAllocator.free(previousBuffer.slot);
+        }
+    }
+
+
+    @Override
+    public Optional<byte[]> find(String id) {
+        return findBuffer(id).map(buffer -> {
+            byte[] data =
+                    new byte[buffer.remaining()];
+
+            buffer.get(data);
+
+            return data;
+        });
+    }
+
+
+    /**
+     * Returns a read-only view of the direct memory - without copying the data
+     */
+    @Override
+    public Optional<ByteBuffer> findBuffer(String id) {
+        validateId(id);
+
+        return Optional.ofNullable(
+                buffersMap.get(id)
+        ).map(storedBuffer ->
+                storedBuffer.slot.getBuffer().asReadOnlyBuffer()
+        );
+    }
+
+
+    @Override
+    public Optional<Fingerprint> findFingerprint(String id) {
+        validateId(id);
+
+        return Optional.ofNullable(
+                buffersMap.get(id)
+        ).map(StoredBuffer::getFingerprint);
+    }
+
+
+    @Override
+    public boolean isWritable() {
+        return true;
+    }
+
+
+    @Override
+    public boolean write(String id, int offset, byte[] bytes) {
+        validateId(id);
+
+        StoredBuffer storedBuffer =
+                buffersMap.get(id);
+
+        if (storedBuffer == null) {
+            return false;
+        }
+
+        ByteBuffer slot =
+                storedBuffer.slot.getBuffer().duplicate();
+
+        if (offset < 0 || offset > slot.limit() - bytes.length) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        slot.position(offset);
+        slot.put(bytes);
+
+        storedBuffer.fingerprint =
+                null;
+
+        return true;
+    }
+
+
+    @Override
+    public void remove(String id) {
+        validateId(id);
+
+        StoredBuffer storedBuffer =
+                buffersMap.remove(id);
+
+        if (storedBuffer != null) {
+            slabAllocator.free(storedBuffer.slot);
+        }
+    }
+
+
+    /**
+     * Returns the direct memory reserved by the slabs, in bytes
+     */
+    public long getSlabBytes() {
+        return slabAllocator.getSlabBytes();
+    }
+
+
+    /**
+     * Returns the slab bytes currently holding data
+     */
+    public long getUsedSlotBytes() {
+        return slabAllocator.getUsedSlotBytes();
+    }
+
+
+    /**
+     * Returns the direct memory of the items larger than a slab, in bytes
+     */
+    public long getDedicatedBytes() {
+        return slabAllocator.getDedicatedBytes();
+    }
+
+
+    private static void validateId(String id) {
+        Objects.requireNonNull(id);
+
+        if (id.isEmpty()) {
+            throw new IllegalArgumentException();
+        }
+    }
+
+
+    private static class StoredBuffer {
+        final SlabAllocator.Slot slot;
+        volatile Fingerprint fingerprint;
+
+        StoredBuffer(SlabAllocator.Slot slot, Fingerprint fingerprint) {
+            this.slot = slot;
+            this.fingerprint = fingerprint;
+        }
+
+
+        /**
+         * Returns the fingerprint, computing it again if the slot was written
+         */
+        Fingerprint getFingerprint() {
+            Fingerprint result =
+                    fingerprint;
+
+            if (result == null) {
+                result =
+                        Fingerprint.of(slot.getBuffer().duplicate());
+
+                fingerprint =
+                        result;
+            }
+
+            return result;
+        }
+    }
+}
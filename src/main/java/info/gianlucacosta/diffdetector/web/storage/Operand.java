@@ -0,0 +1,257 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable version of a left or right operand, kept by OperandPairRepository.
+ * <p>
+ * Its data are stored in a ByteRepository, and are removed from it only when
+ * the operand has been replaced or removed <i>and</i> no OperandPair returned by
+ * OperandPairRepository.acquire() still references it.
+ * <p>
+ * The data are either a buffer or - for repositories storing them block by block,
+ * for example compressed - a BlockContent; operands stored in a buffer can also
+ * have a BlockHashTree, to compare them just where their blocks differ.
+ * The tree is built by OperandPairRepository in background, after the operand is saved:
+ * until then, comparisons scan the whole operand instead of waiting for it.
+ */
+public final class Operand {
+    private final String key;
+    private final long version;
+    private final ByteBuffer data;
+    private final BlockContent blockContent;
+    private final int hashTreeBlockSize;
+    private final ByteRepository byteRepository;
+    private volatile Fingerprint fingerprint;
+    private volatile BlockHashTree hashTree;
+
+    private final AtomicInteger referenceCount =
+            new AtomicInteger(1);
+
+
+    /**
+     * Creates an operand.
+     *
+     * @param fingerprint       The fingerprint of the data, or null to compute it only when requested
+     * @param hashTree          The hash tree of the data, or null to build it via buildHashTree()
+     * @param hashTreeBlockSize The block size of the hash tree; 0 means no hash tree
+     */
+    Operand(
+            String key,
+            long version,
+            ByteBuffer data,
+            Fingerprint fingerprint,
+            BlockHashTree hashTree,
+            int hashTreeBlockSize,
+            ByteRepository byteRepository
+    ) {
+        this(key, version, data, null, fingerprint, hashTree, hashTreeBlockSize, byteRepository);
+    }
+
+
+    /**
+     * Creates an operand whose data are stored block by block
+     */
+    Operand(String key, long version, BlockContent blockContent, Fingerprint fingerprint, ByteRepository byteRepository) {
+        this(key, version, null, blockContent, fingerprint, null, 0, byteRepository);
+    }
+
+
+    private Operand(
+            String key,
+            long version,
+            ByteBuffer data,
+            BlockContent blockContent,
+            Fingerprint fingerprint,
+            BlockHashTree hashTree,
+            int hashTreeBlockSize,
+            ByteRepository byteRepository
+    ) {
+        this.key = key;
+        this.version = version;
+        this.data = data;
+        this.blockContent = blockContent;
+        this.fingerprint = fingerprint;
+        this.hashTree = hashTree;
+        this.hashTreeBlockSize = hashTreeBlockSize;
+        this.byteRepository = byteRepository;
+    }
+
+
+    String getKey() {
+        return key;
+    }
+
+
+    /**
+     * Returns a globally unique version number, assigned when the operand was saved
+     */
+    public long getVersion() {
+        return version;
+    }
+
+
+    /**
+     * Returns a new read-only view of the data; if the data are stored block by block,
+     * they are first copied into a new buffer - which should be avoided via getContent()
+     */
+    public ByteBuffer getData() {
+        if (data == null) {
+            int length =
+                    blockContent.getLength();
+
+            try (InputStream inputStream = blockContent.openStream(0, length)) {
+                return ByteBuffer.wrap(
+                        InputStreams.readFully(inputStream, length)
+                ).asReadOnlyBuffer();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        return data.duplicate();
+    }
+
+
+    /**
+     * Returns true if the data are stored block by block, and should
+     * therefore be read via getContent()
+     */
+    public boolean isBlockBased() {
+        return data == null;
+    }
+
+
+    /**
+     * Returns the data as blocks - a single one, if they are stored in a buffer
+     */
+    public BlockContent getContent() {
+        return (data == null) ?
+                blockContent
+                :
+                new BufferBlockContent(data);
+    }
+
+
+    public int getLength() {
+        return (data == null) ?
+                blockContent.getLength()
+                :
+                data.remaining();
+    }
+
+
+    public Fingerprint getFingerprint() {
+        Fingerprint result =
+                fingerprint;
+
+        if (result == null) {
+            result =
+                    Fingerprint.of(getData());
+
+            fingerprint =
+                    result;
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Returns the hash tree of the data, or an empty Optional if the operand
+     * has no hash tree - or if it has not been built yet
+     */
+    public Optional<BlockHashTree> getHashTree() {
+        return Optional.ofNullable(hashTree);
+    }
+
+
+    /**
+     * Returns true if the operand should have a hash tree, which has not been built yet
+     */
+    boolean needsHashTree() {
+        return data != null
+                && hashTreeBlockSize > 0
+                && hashTree == null;
+    }
+
+
+    /**
+     * Builds the hash tree, unless it already exists; the caller must hold a reference,
+     * so that the data are neither released nor modified in place meanwhile
+     */
+    synchronized void buildHashTree() {
+        if (needsHashTree()) {
+            hashTree =
+                    BlockHashTree.of(data.duplicate(), hashTreeBlockSize);
+        }
+    }
+
+
+    /**
+     * Adds a reference, unless the data have already been released
+     *
+     * @return false if the data have already been released
+     */
+    boolean retain() {
+        while (true) {
+            int currentCount =
+                    referenceCount.get();
+
+            if (currentCount == 0) {
+                return false;
+            }
+
+            if (referenceCount.compareAndSet(currentCount, currentCount + 1)) {
+                return true;
+            }
+        }
+    }
+
+
+    /**
+     * Takes over the data if the repository holds the only reference, so that they
+     * can be modified in place: afterwards, the operand can no longer be retained
+     * and its release() must not be called.
+     *
+     * @return false if other references exist
+     */
+    boolean claimExclusively() {
+        return referenceCount.compareAndSet(1, 0);
+    }
+
+
+    /**
+     * Removes a reference, releasing the data when no reference is left
+     */
+    void release() {
+        if (referenceCount.decrementAndGet() == 0) {
+            byteRepository.remove(key);
+        }
+    }
+}
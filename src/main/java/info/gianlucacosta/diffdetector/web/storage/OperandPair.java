@@ -0,0 +1,70 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.storage;
+
+import java.util.Optional;
+
+/**
+ * Consistent snapshot of the left and right operands having a given id.
+ * <p>
+ * While it is open, the data of its operands remain readable, even if the operands
+ * are concurrently replaced or removed: it must therefore be closed after use.
+ */
+public final class OperandPair implements AutoCloseable {
+    private final Operand left;
+    private final Operand right;
+    private boolean closed;
+
+
+    OperandPair(Operand left, Operand right) {
+        this.left = left;
+        this.right = right;
+    }
+
+
+    public Optional<Operand> getLeft() {
+        return Optional.ofNullable(left);
+    }
+
+
+    public Optional<Operand> getRight() {
+        return Optional.ofNullable(right);
+    }
+
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+
+        closed =
+                true;
+
+        if (left != null) {
+            left.release();
+        }
+
+        if (right != null) {
+            right.release();
+        }
+    }
+}
@@ -0,0 +1,743 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.storage;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Repository keeping both the left and the right operand of an id in a single entry,
+ * whose data are stored in a ByteRepository.
+ * <p>
+ * Retrieving the operands of an id is therefore a single lookup, returning
+ * a consistent snapshot - that is never mixed with concurrent updates - and removing
+ * an id frees both its operands at once.
+ * <p>
+ * The class is thread-safe: entries are replaced via ConcurrentHashMap's atomic methods,
+ * which only lock the hash bin of the updated id, so uploads to different ids do not contend.
+ * <p>
+ * Operands stored in a buffer can get a BlockHashTree, built in background after they are saved
+ * - so that neither saving nor comparing waits for it; patches written in place just hash again
+ * the blocks they overlap, if the tree was built.
+ */
+@Repository
+public class OperandPairRepository {
+    @FunctionalInterface
+    private interface OperandWriter {
+        void write(String key) throws IOException;
+    }
+
+
+    private final ByteRepository byteRepository;
+
+    /**
+     * Hash trees waiting for the builder thread beyond this number are not built,
+     * as they are just an optimization
+     */
+    private static final int hashTreeQueueCapacity =
+            1024;
+
+    /**
+     * Time granted to the tree being built when closing
+     */
+    private static final int hashTreeTerminationSeconds =
+            10;
+
+
+    private final int hashTreeBlockSize;
+
+    private final Executor hashTreeExecutor;
+
+    private final AtomicLong versionGenerator =
+            new AtomicLong();
+
+    private final ConcurrentMap<String, PairEntry> pairsMap =
+            new ConcurrentHashMap<>();
+
+
+    /**
+     * Creates a repository whose operands have no hash tree
+     */
+    public OperandPairRepository(ByteRepository byteRepository) {
+        this(byteRepository, 0);
+    }
+
+
+    /**
+     * Creates a repository.
+     *
+     * @param byteRepository    The repository storing the data
+     * @param hashTreeBlockSize The block size of the hash trees built after the operands are saved,
+     *                          by a dedicated thread; 0 disables hash trees
+     */
+    @Autowired
+    public OperandPairRepository(
+            ByteRepository byteRepository,
+            @Value("${diffdetector.storage.hash-tree.block-size:65536}") int hashTreeBlockSize
+    ) {
+        this(
+                byteRepository,
+                hashTreeBlockSize,
+                (hashTreeBlockSize > 0) ? createHashTreeExecutor() : null
+        );
+    }
+
+
+    /**
+     * Creates a repository whose hash trees are built by the given executor
+     * - which is shut down by close(), if it is an ExecutorService
+     */
+    public OperandPairRepository(ByteRepository byteRepository, int hashTreeBlockSize, Executor hashTreeExecutor) {
+        if (hashTreeBlockSize < 0 || (hashTreeBlockSize > 0 && hashTreeExecutor == null)) {
+            throw new IllegalArgumentException();
+        }
+
+        this.byteRepository =
+                byteRepository;
+
+        this.hashTreeBlockSize =
+                hashTreeBlockSize;
+
+        this.hashTreeExecutor =
+                hashTreeExecutor;
+
+        byteRepository.addRemovalListener(this::discardOperand);
+    }
+
+
+    private static ExecutorService createHashTreeExecutor() {
+        return new ThreadPoolExecutor(
+                1,
+                1,
+                0,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(hashTreeQueueCapacity),
+                runnable -> {
+                    Thread hashTreeThread =
+                            new Thread(runnable, "OperandPairRepository-hash-trees");
+
+                    hashTreeThread.setDaemon(true);
+
+                    return hashTreeThread;
+                },
+                new ThreadPoolExecutor.DiscardPolicy()
+        );
+    }
+
+
+    public void saveLeft(String id, byte[] data) {
+        saveOperand(id, true, key -> byteRepository.save(key, data));
+    }
+
+
+    /**
+     * Saves the first <i>length</i> bytes of the given array, which must not be modified afterwards
+     */
+    public void saveLeft(String id, byte[] data, int length) {
+        saveOperand(id, true, key -> byteRepository.save(key, data, length));
+    }
+
+
+    public void saveLeft(String id, InputStream inputStream, int expectedLength) throws IOException {
+        saveStreamedOperand(id, true, key -> byteRepository.save(key, inputStream, expectedLength));
+    }
+
+
+    public void saveRight(String id, byte[] data) {
+        saveOperand(id, false, key -> byteRepository.save(key, data));
+    }
+
+
+    /**
+     * Saves the first <i>length</i> bytes of the given array, which must not be modified afterwards
+     */
+    public void saveRight(String id, byte[] data, int length) {
+        saveOperand(id, false, key -> byteRepository.save(key, data, length));
+    }
+
+
+    public void saveRight(String id, InputStream inputStream, int expectedLength) throws IOException {
+        saveStreamedOperand(id, false, key -> byteRepository.save(key, inputStream, expectedLength));
+    }
+
+
+    private void saveOperand(String id, boolean left, OperandWriter operandWriter) {
+        try {
+            saveStreamedOperand(id, left, operandWriter);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+
+    private void saveStreamedOperand(String id, boolean left, OperandWriter operandWriter) throws IOException {
+        validateId(id);
+
+        long version =
+                versionGenerator.incrementAndGet();
+
+        //The version makes the key unique, and is placed first as ids can contain any character
+        String key =
+                version + ":" + id;
+
+        operandWriter.write(key);
+
+        Operand operand =
+                createOperand(key, version);
+
+        release(
+                replaceOperand(id, left, null, operand)
+        );
+
+        scheduleHashTree(id, left, operand);
+    }
+
+
+    private Operand createOperand(String key, long version) {
+        Fingerprint fingerprint =
+                byteRepository.findFingerprint(key).orElseThrow(IllegalStateException::new);
+
+        Optional<BlockContent> blockContent =
+                byteRepository.findBlockContent(key);
+
+        return blockContent.isPresent() ?
+                new Operand(
+                        key,
+                        version,
+                        blockContent.get(),
+                        fingerprint,
+                        byteRepository
+                )
+                :
+                createBufferOperand(
+                        key,
+                        version,
+                        byteRepository.findBuffer(key).orElseThrow(IllegalStateException::new),
+                        fingerprint,
+                        null
+                );
+    }
+
+
+    private Operand createBufferOperand(
+            String key,
+            long version,
+            ByteBuffer data,
+            Fingerprint fingerprint,
+            BlockHashTree hashTree
+    ) {
+        return new Operand(
+                key,
+                version,
+                data,
+                fingerprint,
+                hashTree,
+                hashTreeBlockSize,
+                byteRepository
+        );
+    }
+
+
+    /**
+     * Sets the given side of a pair to the new operand
+     *
+     * @param expectedOperand If not null, the replacement only occurs if the side still
+     *                        references this operand
+     * @return The replaced operand, which must be released; if expectedOperand is not null
+     * and was no longer referenced, the new operand itself is returned
+     */
+    private Operand replaceOperand(String id, boolean left, Operand expectedOperand, Operand newOperand) {
+        Operand[] replacedOperand =
+                new Operand[1];
+
+        pairsMap.compute(id, (pairId, pairEntry) -> {
+            Operand currentOperand =
+                    (pairEntry != null) ? pairEntry.get(left) : null;
+
+            if (expectedOperand != null && currentOperand != expectedOperand) {
+                replacedOperand[0] =
+                        newOperand;
+
+                return pairEntry;
+            }
+
+            replacedOperand[0] =
+                    currentOperand;
+
+            return PairEntry.with(pairEntry, left, newOperand);
+        });
+
+        return replacedOperand[0];
+    }
+
+
+    /**
+     * Overwrites part of the left operand having the given id, assigning it a new version.
+     * <p>
+     * If the ByteRepository is writable and no OperandPair references the operand,
+     * the bytes are written in place - in a time proportional to their length;
+     * otherwise, a patched copy of the operand is saved, leaving the snapshots unaltered.
+     *
+     * @return A description of the patch, or an empty Optional if the operand is missing
+     * @throws IndexOutOfBoundsException If the bytes would exceed the length of the operand
+     */
+    public Optional<OperandPatch> patchLeft(String id, int offset, byte[] bytes) {
+        return patchOperand(id, true, offset, bytes);
+    }
+
+
+    public Optional<OperandPatch> patchLeft(String id, int offset, InputStream inputStream, int expectedLength) throws IOException {
+        return patchLeft(id, offset, InputStreams.readFully(inputStream, expectedLength));
+    }
+
+
+    /**
+     * Overwrites part of the right operand having the given id - just like patchLeft()
+     */
+    public Optional<OperandPatch> patchRight(String id, int offset, byte[] bytes) {
+        return patchOperand(id, false, offset, bytes);
+    }
+
+
+    public Optional<OperandPatch> patchRight(String id, int offset, InputStream inputStream, int expectedLength) throws IOException {
+        return patchRight(id, offset, InputStreams.readFully(inputStream, expectedLength));
+    }
+
+
+    private Optional<OperandPatch> patchOperand(String id, boolean left, int offset, byte[] bytes) {
+        validateId(id);
+
+        while (true) {
+            PairEntry pairEntry =
+                    pairsMap.get(id);
+
+            Operand currentOperand =
+                    (pairEntry != null) ? pairEntry.get(left) : null;
+
+            if (currentOperand == null) {
+                return Optional.empty();
+            }
+
+            if (offset < 0 || offset > currentOperand.getLength() - bytes.length) {
+                throw new IndexOutOfBoundsException();
+            }
+
+
+            if (byteRepository.isWritable()) {
+                OperandPatch inPlacePatch =
+                        patchInPlace(id, left, currentOperand, offset, bytes);
+
+                if (inPlacePatch != null) {
+                    return Optional.of(inPlacePatch);
+                }
+            }
+
+
+            //The operand is referenced by a snapshot, or the ByteRepository is not writable;
+            //retaining fails if the operand was replaced or discarded in the meantime
+            if (!currentOperand.retain()) {
+                continue;
+            }
+
+            long version =
+                    versionGenerator.incrementAndGet();
+
+            String key =
+                    version + ":" + id;
+
+            try {
+                savePatchedCopy(key, currentOperand.getContent(), offset, bytes);
+            } finally {
+                currentOperand.release();
+            }
+
+            Operand patchedOperand =
+                    createOperand(key, version);
+
+            Operand replacedOperand =
+                    replaceOperand(id, left, currentOperand, patchedOperand);
+
+            release(replacedOperand);
+
+            if (replacedOperand == currentOperand) {
+                scheduleHashTree(id, left, patchedOperand);
+
+                return Optional.of(
+                        new OperandPatch(left, currentOperand.getVersion(), version, offset, bytes.length)
+                );
+            }
+        }
+    }
+
+
+    /**
+     * @return The patch, or null if the operand could not be claimed - or if its data
+     * were missing from the ByteRepository, in which case the operand is discarded
+     */
+    private OperandPatch patchInPlace(String id, boolean left, Operand currentOperand, int offset, byte[] bytes) {
+        OperandPatch[] result =
+                new OperandPatch[1];
+
+        Operand[] patchedOperands =
+                new Operand[1];
+
+        //Within compute(), no other thread can update the pair
+        pairsMap.computeIfPresent(id, (pairId, pairEntry) -> {
+            if (pairEntry.get(left) != currentOperand || !currentOperand.claimExclusively()) {
+                return pairEntry;
+            }
+
+            if (!byteRepository.write(currentOperand.getKey(), offset, bytes)) {
+                byteRepository.remove(currentOperand.getKey());
+
+                return PairEntry.with(pairEntry, left, null);
+            }
+
+            long version =
+                    versionGenerator.incrementAndGet();
+
+            ByteBuffer patchedData =
+                    currentOperand.getData();
+
+            Operand patchedOperand =
+                    createBufferOperand(
+                            currentOperand.getKey(),
+                            version,
+                            patchedData,
+                            null,
+                            currentOperand.getHashTree()
+                                    .map(hashTree -> hashTree.withUpdatedRange(patchedData, offset, bytes.length))
+                                    .orElse(null)
+                    );
+
+            result[0] =
+                    new OperandPatch(left, currentOperand.getVersion(), version, offset, bytes.length);
+
+            patchedOperands[0] =
+                    patchedOperand;
+
+            return PairEntry.with(pairEntry, left, patchedOperand);
+        });
+
+        //Outside compute(), as the builder looks the operand up
+        if (patchedOperands[0] != null) {
+            scheduleHashTree(id, left, patchedOperands[0]);
+        }
+
+        return result[0];
+    }
+
+
+    private void scheduleHashTree(String id, boolean left, Operand operand) {
+        if (operand.needsHashTree()) {
+            hashTreeExecutor.execute(() -> buildHashTree(id, left, operand));
+        }
+    }
+
+
+    /**
+     * Builds the hash tree of the operand, unless it is no longer current; holding a reference
+     * meanwhile prevents the operand from being released or patched in place
+     */
+    private void buildHashTree(String id, boolean left, Operand operand) {
+        PairEntry pairEntry =
+                pairsMap.get(id);
+
+        if (pairEntry == null || pairEntry.get(left) != operand || !operand.retain()) {
+            return;
+        }
+
+        try {
+            operand.buildHashTree();
+        } finally {
+            operand.release();
+        }
+    }
+
+
+    private void savePatchedCopy(String key, BlockContent content, int offset, byte[] bytes) {
+        int suffixOffset =
+                offset + bytes.length;
+
+        InputStream patchedStream =
+                new SequenceInputStream(
+                        Collections.enumeration(
+                                Arrays.asList(
+                                        content.openStream(0, offset),
+                                        new ByteArrayInputStream(bytes),
+                                        content.openStream(suffixOffset, content.getLength() - suffixOffset)
+                                )
+                        )
+                );
+
+        try {
+            byteRepository.save(key, patchedStream, content.getLength());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+
+    /**
+     * Returns a snapshot of the operands having the given id, which must be closed after use
+     *
+     * @return The snapshot, or an empty Optional if neither operand is present
+     */
+    public Optional<OperandPair> acquire(String id) {
+        validateId(id);
+
+        PairEntry pairEntry =
+                pairsMap.get(id);
+
+        if (pairEntry == null) {
+            return Optional.empty();
+        }
+
+        if (retain(pairEntry.left)) {
+            if (retain(pairEntry.right)) {
+                return Optional.of(
+                        new OperandPair(pairEntry.left, pairEntry.right)
+                );
+            }
+
+            release(pairEntry.left);
+        }
+
+
+        //Retaining fails if an operand was replaced, or is being patched in place within
+        //the lock of its hash bin: instead of spinning, the entry is then retained within that lock,
+        //where its operands are still referenced by the entry itself - so retaining them cannot fail
+        OperandPair[] operandPair =
+                new OperandPair[1];
+
+        pairsMap.computeIfPresent(id, (pairId, currentEntry) -> {
+            if (!retain(currentEntry.left) || !retain(currentEntry.right)) {
+                throw new IllegalStateException();
+            }
+
+            operandPair[0] =
+                    new OperandPair(currentEntry.left, currentEntry.right);
+
+            return currentEntry;
+        });
+
+        return Optional.ofNullable(operandPair[0]);
+    }
+
+
+    /**
+     * Returns true if the current operands of the given id have the given versions
+     */
+    public boolean hasVersions(String id, long leftVersion, long rightVersion) {
+        PairEntry pairEntry =
+                pairsMap.get(id);
+
+        return pairEntry != null
+                && pairEntry.left != null
+                && pairEntry.right != null
+                && pairEntry.left.getVersion() == leftVersion
+                && pairEntry.right.getVersion() == rightVersion;
+    }
+
+
+    public void remove(String id) {
+        validateId(id);
+
+        PairEntry pairEntry =
+                pairsMap.remove(id);
+
+        if (pairEntry != null) {
+            release(pairEntry.left);
+            release(pairEntry.right);
+        }
+    }
+
+
+    /**
+     * Stops building hash trees - waiting for the tree being built, which is reading its operand -
+     * then closes the underlying ByteRepository, whose lifecycle is not managed by the container
+     */
+    @PreDestroy
+    public void close() {
+        if (hashTreeExecutor instanceof ExecutorService) {
+            ExecutorService hashTreeExecutorService =
+                    (ExecutorService) hashTreeExecutor;
+
+            hashTreeExecutorService.shutdownNow();
+
+            try {
+                hashTreeExecutorService.awaitTermination(hashTreeTerminationSeconds, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        byteRepository.close();
+    }
+
+
+    public ByteRepository getByteRepository() {
+        return byteRepository;
+    }
+
+
+    public int getPairCount() {
+        return pairsMap.size();
+    }
+
+
+    /**
+     * Returns the number of current operands, computed on request by iterating the pairs
+     */
+    public long getOperandCount() {
+        return pairsMap.values()
+                .stream()
+                .mapToLong(pairEntry ->
+                        ((pairEntry.left != null) ? 1 : 0) + ((pairEntry.right != null) ? 1 : 0)
+                )
+                .sum();
+    }
+
+
+    /**
+     * Returns the total length of the current operands, computed on request by iterating the pairs
+     */
+    public long getOperandBytes() {
+        return pairsMap.values()
+                .stream()
+                .mapToLong(pairEntry ->
+                        getLength(pairEntry.left) + getLength(pairEntry.right)
+                )
+                .sum();
+    }
+
+
+    private static long getLength(Operand operand) {
+        return (operand != null) ? operand.getLength() : 0;
+    }
+
+
+    /**
+     * Called when the ByteRepository removes an operand on its own - for example, when it expires
+     */
+    private void discardOperand(String key) {
+        String id =
+                key.substring(key.indexOf(':') + 1);
+
+        Operand[] discardedOperand =
+                new Operand[1];
+
+        pairsMap.computeIfPresent(id, (pairId, pairEntry) -> {
+            for (boolean left : new boolean[]{true, false}) {
+                Operand operand =
+                        pairEntry.get(left);
+
+                if (operand != null && operand.getKey().equals(key)) {
+                    discardedOperand[0] =
+                            operand;
+
+                    return PairEntry.with(pairEntry, left, null);
+                }
+            }
+
+            return pairEntry;
+        });
+
+        release(discardedOperand[0]);
+    }
+
+
+    private static boolean retain(Operand operand) {
+        return operand == null || operand.retain();
+    }
+
+
+    private static void release(Operand operand) {
+        if (operand != null) {
+            operand.release();
+        }
+    }
+
+
+    private static void validateId(String id) {
+        Objects.requireNonNull(id);
+
+        if (id.isEmpty()) {
+            throw new IllegalArgumentException();
+        }
+    }
+
+
+    private static class PairEntry {
+        final Operand left;
+        final Operand right;
+
+        PairEntry(Operand left, Operand right) {
+            this.left = left;
+            this.right = right;
+        }
+
+
+        Operand get(boolean left) {
+            return left ? this.left : this.right;
+        }
+
+
+        /**
+         * Returns a copy of the given entry - possibly null - with the given side replaced,
+         * or null if neither side would be left
+         */
+        static PairEntry with(PairEntry pairEntry, boolean left, Operand operand) {
+            Operand otherOperand =
+                    (pairEntry != null) ? pairEntry.get(!left) : null;
+
+            if (operand == null && otherOperand == null) {
+                return null;
+            }
+
+            return left ?
+                    new PairEntry(operand, otherOperand)
+                    :
+                    new PairEntry(otherOperand, operand);
+        }
+    }
+}
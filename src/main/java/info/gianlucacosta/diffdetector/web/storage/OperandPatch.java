@@ -0,0 +1,75 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.storage;
+
+/**
+ * Describes a range of bytes overwritten in an operand by OperandPairRepository
+ */
+public final class OperandPatch {
+    private final boolean left;
+    private final long previousVersion;
+    private final long version;
+    private final int offset;
+    private final int length;
+
+
+    OperandPatch(boolean left, long previousVersion, long version, int offset, int length) {
+        this.left = left;
+        this.previousVersion = previousVersion;
+        this.version = version;
+        this.offset = offset;
+        this.length = length;
+    }
+
+
+    /**
+     * Returns true if the left operand was patched, false for the right one
+     */
+    public boolean isLeft() {
+        return left;
+    }
+
+
+    /**
+     * Returns the version of the operand before the patch
+     */
+    public long getPreviousVersion() {
+        return previousVersion;
+    }
+
+
+    /**
+     * Returns the version of the patched operand
+     */
+    public long getVersion() {
+        return version;
+    }
+
+
+    public int getOffset() {
+        return offset;
+    }
+
+
+    public int getLength() {
+        return length;
+    }
+}
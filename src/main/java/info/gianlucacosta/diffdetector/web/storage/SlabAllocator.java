@@ -0,0 +1,288 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocator of direct memory, carving fixed-size slabs into slots whose sizes are
+ * powers of two; freed slots go back to their slab and are reused.
+ * <p>
+ * Each size class keeps at most one slab whose slots are all free: further slabs becoming
+ * empty are released at once, so that their memory can serve other size classes
+ * when the mix of item sizes changes.
+ * <p>
+ * Requests larger than a slab get a dedicated direct buffer, released explicitly
+ * as soon as it is freed - instead of waiting for the garbage collector, which
+ * might not run for long, as direct buffers hardly occupy the heap.
+ * <p>
+ * The class is thread-safe: each size class is guarded by its own lock.
+ */
+class SlabAllocator {
+    private static final int minSlotSizeBits =
+            6;
+
+
+    private final int slabSize;
+
+    private final List<SizeClass> sizeClasses;
+
+    private final AtomicLong slabBytes =
+            new AtomicLong();
+
+    private final AtomicLong usedSlotBytes =
+            new AtomicLong();
+
+    private final AtomicLong dedicatedBytes =
+            new AtomicLong();
+
+
+    /**
+     * @param slabSize The size of each slab, in bytes; it must be a power of two
+     */
+    public SlabAllocator(int slabSize) {
+        if (slabSize < (1 << minSlotSizeBits) || Integer.bitCount(slabSize) != 1) {
+            throw new IllegalArgumentException("The slab size must be a power of two, at least 64");
+        }
+
+        this.slabSize =
+                slabSize;
+
+        int sizeClassCount =
+                Integer.numberOfTrailingZeros(slabSize) - minSlotSizeBits + 1;
+
+        sizeClasses =
+                new ArrayList<>(sizeClassCount);
+
+        for (int sizeClass = 0; sizeClass < sizeClassCount; sizeClass++) {
+            sizeClasses.add(
+                    new SizeClass(1 << (sizeClass + minSlotSizeBits))
+            );
+        }
+    }
+
+
+    /**
+     * Returns a slot whose buffer has position 0 and the requested length as its limit
+     */
+    public Slot allocate(int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException();
+        }
+
+        if (length > slabSize) {
+            ByteBuffer dedicatedBuffer =
+                    ByteBuffer.allocateDirect(length);
+
+            dedicatedBytes.addAndGet(length);
+
+            return new Slot(dedicatedBuffer, null);
+        }
+
+
+        SizeClass sizeClass =
+                sizeClasses.get(getSizeClass(length));
+
+        Slot slot;
+
+        synchronized (sizeClass) {
+            if (sizeClass.availableSlabs.isEmpty()) {
+                sizeClass.availableSlabs.add(
+                        carveSlab(sizeClass.slotSize)
+                );
+
+                sizeClass.emptySlabCount++;
+            }
+
+            Slab slab =
+                    sizeClass.availableSlabs.peekFirst();
+
+            if (slab.usedSlotCount == 0) {
+                sizeClass.emptySlabCount--;
+            }
+
+            slot =
+                    new Slot(slab.freeBuffers.pop(), slab);
+
+            slab.usedSlotCount++;
+
+            if (slab.freeBuffers.isEmpty()) {
+                sizeClass.availableSlabs.removeFirst();
+            }
+        }
+
+        usedSlotBytes.addAndGet(slot.buffer.capacity());
+
+        slot.buffer.clear().limit(length);
+
+        return slot;
+    }
+
+
+    /**
+     * Makes a slot returned by allocate() available again - releasing its memory, if it is
+     * a dedicated buffer or the last used slot of a slab; the slot's buffer, as well as
+     * its views, must not be used afterwards
+     */
+    public void free(Slot slot) {
+        Slab slab =
+                slot.slab;
+
+        if (slab == null) {
+            dedicatedBytes.addAndGet(-slot.buffer.capacity());
+
+            DirectBuffers.release(slot.buffer);
+            return;
+        }
+
+        SizeClass sizeClass =
+                sizeClasses.get(getSizeClass(slot.buffer.capacity()));
+
+        usedSlotBytes.addAndGet(-slot.buffer.capacity());
+
+        synchronized (sizeClass) {
+            if (slab.freeBuffers.isEmpty()) {
+                sizeClass.availableSlabs.addLast(slab);
+            }
+
+            slab.freeBuffers.push(slot.buffer);
+            slab.usedSlotCount--;
+
+            if (slab.usedSlotCount > 0) {
+                return;
+            }
+
+            if (sizeClass.emptySlabCount == 0) {
+                sizeClass.emptySlabCount++;
+                return;
+            }
+
+            sizeClass.availableSlabs.remove(slab);
+        }
+
+        slabBytes.addAndGet(-slabSize);
+
+        DirectBuffers.release(slab.memory);
+    }
+
+
+    private Slab carveSlab(int slotSize) {
+        ByteBuffer memory =
+                ByteBuffer.allocateDirect(slabSize);
+
+        slabBytes.addAndGet(slabSize);
+
+        Slab slab =
+                new Slab(memory);
+
+        for (int slotOffset = 0; slotOffset < slabSize; slotOffset += slotSize) {
+            memory.limit(slotOffset + slotSize).position(slotOffset);
+
+            slab.freeBuffers.push(memory.slice());
+        }
+
+        return slab;
+    }
+
+
+    private static int getSizeClass(int length) {
+        int slotSizeBits =
+                Math.max(
+                        minSlotSizeBits,
+                        32 - Integer.numberOfLeadingZeros(Math.max(length, 1) - 1)
+                );
+
+        return slotSizeBits - minSlotSizeBits;
+    }
+
+
+    /**
+     * Returns the direct memory reserved by the slabs, in bytes
+     */
+    public long getSlabBytes() {
+        return slabBytes.get();
+    }
+
+
+    /**
+     * Returns the bytes of the slots currently allocated - including the unused tail of each slot
+     */
+    public long getUsedSlotBytes() {
+        return usedSlotBytes.get();
+    }
+
+
+    /**
+     * Returns the direct memory of the dedicated buffers currently allocated, in bytes
+     */
+    public long getDedicatedBytes() {
+        return dedicatedBytes.get();
+    }
+
+
+    /**
+     * Memory returned by allocate(), to be passed back to free()
+     */
+    static final class Slot {
+        private final ByteBuffer buffer;
+        private final Slab slab;
+
+        private Slot(ByteBuffer buffer, Slab slab) {
+            this.buffer = buffer;
+            this.slab = slab;
+        }
+
+
+        ByteBuffer getBuffer() {
+            return buffer;
+        }
+    }
+
+
+    private static final class Slab {
+        final ByteBuffer memory;
+        final Deque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+        int usedSlotCount;
+
+        Slab(ByteBuffer memory) {
+            this.memory = memory;
+        }
+    }
+
+
+    /**
+     * The slabs whose slots have the same size; its fields are guarded by its own lock
+     */
+    private static final class SizeClass {
+        final int slotSize;
+        final Deque<Slab> availableSlabs = new ArrayDeque<>();
+        int emptySlabCount;
+
+        SizeClass(int slotSize) {
+            this.slotSize = slotSize;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Implementation of the 64-bit xxHash algorithm (XXH64), a fast non-cryptographic hash
+ */
+final class XxHash64 {
+    private static final long prime1 = 0x9E3779B185EBCA87L;
+    private static final long prime2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long prime3 = 0x165667B19E3779F9L;
+    private static final long prime4 = 0x85EBCA77C2B2AE63L;
+    private static final long prime5 = 0x27D4EB2F165667C5L;
+
+    private static final int stripeLength =
+            32;
+
+
+    /**
+     * Hashes the bytes between the position and the limit of the given buffer,
+     * without altering its state
+     */
+    public static long hash(ByteBuffer buffer, long seed) {
+        ByteBuffer input =
+                buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+
+        int length =
+                input.limit();
+
+        int offset =
+                0;
+
+        long hash;
+
+        if (length >= stripeLength) {
+            long accumulator1 = seed + prime1 + prime2;
+            long accumulator2 = seed + prime2;
+            long accumulator3 = seed;
+            long accumulator4 = seed - prime1;
+
+            do {
+                accumulator1 = round(accumulator1, input.getLong(offset));
+                accumulator2 = round(accumulator2, input.getLong(offset + 8));
+                accumulator3 = round(accumulator3, input.getLong(offset + 16));
+                accumulator4 = round(accumulator4, input.getLong(offset + 24));
+
+                offset += stripeLength;
+            } while (offset <= length - stripeLength);
+
+            hash =
+                    Long.rotateLeft(accumulator1, 1)
+                            + Long.rotateLeft(accumulator2, 7)
+                            + Long.rotateLeft(accumulator3, 12)
+                            + Long.rotateLeft(accumulator4, 18);
+
+            hash = mergeRound(hash, accumulator1);
+            hash = mergeRound(hash, accumulator2);
+            hash = mergeRound(hash, accumulator3);
+            hash = mergeRound(hash, accumulator4);
+        } else {
+            hash =
+                    seed + prime5;
+        }
+
+        hash += length;
+
+
+        while (offset <= length - Long.BYTES) {
+            hash ^= round(0, input.getLong(offset));
+            hash = Long.rotateLeft(hash, 27) * prime1 + prime4;
+
+            offset += Long.BYTES;
+        }
+
+        if (offset <= length - Integer.BYTES) {
+            hash ^= (input.getInt(offset) & 0xFFFFFFFFL) * prime1;
+            hash = Long.rotateLeft(hash, 23) * prime2 + prime3;
+
+            offset += Integer.BYTES;
+        }
+
+        while (offset < length) {
+            hash ^= (input.get(offset) & 0xFFL) * prime5;
+            hash = Long.rotateLeft(hash, 11) * prime1;
+
+            offset++;
+        }
+
+
+        hash ^= hash >>> 33;
+        hash *= prime2;
+        hash ^= hash >>> 29;
+        hash *= prime3;
+        hash ^= hash >>> 32;
+
+        return hash;
+    }
+
+
+    /**
+     * Hashes two longs - as if they were 16 little-endian bytes - without allocating a buffer
+     */
+    static long hash(long first, long second, long seed) {
+        long hash =
+                seed + prime5 + 2 * Long.BYTES;
+
+        hash ^= round(0, first);
+        hash = Long.rotateLeft(hash, 27) * prime1 + prime4;
+
+        hash ^= round(0, second);
+        hash = Long.rotateLeft(hash, 27) * prime1 + prime4;
+
+        hash ^= hash >>> 33;
+        hash *= prime2;
+        hash ^= hash >>> 29;
+        hash *= prime3;
+        hash ^= hash >>> 32;
+
+        return hash;
+    }
+
+
+    private static long round(long accumulator, long input) {
+        accumulator += input * prime2;
+        accumulator = Long.rotateLeft(accumulator, 31);
+        return accumulator * prime1;
+    }
+
+
+    private static long mergeRound(long accumulator, long value) {
+        accumulator ^= round(0, value);
+        return accumulator * prime1 + prime4;
+    }
+
+
+    private XxHash64() {
+    }
+}
@@ -0,0 +1,66 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Measures the heap bytes allocated by the current thread, skipping the calling test
+ * if the JVM does not support such measure
+ */
+public final class AllocationMeter {
+    @FunctionalInterface
+    public interface Action {
+        void run() throws Exception;
+    }
+
+
+    public static long measureAllocatedBytes(Action action) throws Exception {
+        java.lang.management.ThreadMXBean threadMXBean =
+                ManagementFactory.getThreadMXBean();
+
+        assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+
+        com.sun.management.ThreadMXBean allocationMeasuringBean =
+                (com.sun.management.ThreadMXBean) threadMXBean;
+
+        assumeTrue(allocationMeasuringBean.isThreadAllocatedMemorySupported());
+
+        allocationMeasuringBean.setThreadAllocatedMemoryEnabled(true);
+
+
+        long threadId =
+                Thread.currentThread().getId();
+
+        long initialBytes =
+                allocationMeasuringBean.getThreadAllocatedBytes(threadId);
+
+        action.run();
+
+        return allocationMeasuringBean.getThreadAllocatedBytes(threadId) - initialBytes;
+    }
+
+
+    private AllocationMeter() {
+    }
+}
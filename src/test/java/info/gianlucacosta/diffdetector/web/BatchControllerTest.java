@@ -0,0 +1,293 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import info.gianlucacosta.diffdetector.core.ComparisonOperand;
+import info.gianlucacosta.diffdetector.core.ComparisonResult;
+import info.gianlucacosta.diffdetector.core.Diff;
+import info.gianlucacosta.diffdetector.web.diff.ComparisonResultCache;
+import info.gianlucacosta.diffdetector.web.diff.DiffService;
+import info.gianlucacosta.diffdetector.web.storage.InMemoryByteRepository;
+import info.gianlucacosta.diffdetector.web.storage.OperandPairRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+public class BatchControllerTest {
+    private final ObjectMapper objectMapper =
+            new ObjectMapper();
+
+    private OperandPairRepository operandPairRepository;
+
+    private ComparisonExecutor comparisonExecutor;
+
+    private BatchController batchController;
+
+    private CyclicBarrier overlappingComparisons;
+
+
+    @BeforeEach
+    public void init() {
+        overlappingComparisons =
+                new CyclicBarrier(2);
+
+        operandPairRepository =
+                new OperandPairRepository(new InMemoryByteRepository());
+
+        ComparisonCoordinator comparisonCoordinator =
+                new ComparisonCoordinator(
+                        operandPairRepository,
+                        new DiffService(),
+                        new ComparisonResultCache(100, 1024 * 1024),
+                        false
+                ) {
+                    @Override
+                    public ComparisonResult compare(String id) {
+                        if (id.startsWith("failing")) {
+                            throw (id.endsWith("rejected")) ?
+                                    new ComparisonRejectedException()
+                                    :
+                                    new IllegalStateException();
+                        }
+
+                        if (id.startsWith("overlapping")) {
+                            try {
+                                overlappingComparisons.await(5, TimeUnit.SECONDS);
+                            } catch (Exception ex) {
+                                throw new IllegalStateException(ex);
+                            }
+                        }
+
+                        return super.compare(id);
+                    }
+                };
+
+        comparisonExecutor =
+                new ComparisonExecutor(2, 4);
+
+        batchController =
+                new BatchController(
+                        operandPairRepository,
+                        comparisonCoordinator,
+                        comparisonExecutor,
+                        objectMapper
+                );
+    }
+
+
+    @AfterEach
+    public void shutdown() {
+        comparisonExecutor.shutdown();
+    }
+
+
+    private Map<String, JsonNode> compare(List<String> ids) throws Exception {
+        MockHttpServletResponse response =
+                new MockHttpServletResponse();
+
+        batchController.compare(ids, response).get();
+
+        Map<String, JsonNode> entriesById =
+                new HashMap<>();
+
+        objectMapper.readTree(response.getContentAsByteArray()).forEach(entry ->
+                entriesById.put(entry.get("id").asText(), entry)
+        );
+
+        return entriesById;
+    }
+
+
+    @Test
+    public void uploadedOperandsShouldBeComparedInBatch() throws Exception {
+        List<String> ids =
+                new ArrayList<>();
+
+        List<BatchUploadEntry> entries =
+                new ArrayList<>();
+
+        for (int index = 0; index < 100; index++) {
+            String id =
+                    "id" + index;
+
+            ids.add(id);
+
+            entries.add(
+                    new BatchUploadEntry(
+                            id,
+                            new ComparisonOperand("ABCDEFGH".getBytes()),
+                            new ComparisonOperand(("ABCD" + (index % 10) + "FGH").getBytes())
+                    )
+            );
+        }
+
+        batchController.upload(entries);
+
+
+        Map<String, JsonNode> entriesById =
+                compare(ids);
+
+        assertThat(entriesById.size(), is(100));
+
+        assertThat(
+                entriesById.get("id7").get("result"),
+                equalTo(
+                        objectMapper.valueToTree(
+                                ComparisonResult.ofDiffs(
+                                        Collections.singletonList(new Diff(4, 1))
+                                )
+                        )
+                )
+        );
+    }
+
+
+    @Test
+    public void idsLackingAnOperandShouldBeMarkedAsNotFound() throws Exception {
+        batchController.upload(
+                Arrays.asList(
+                        new BatchUploadEntry("complete", new ComparisonOperand(new byte[]{1}), new ComparisonOperand(new byte[]{1})),
+                        new BatchUploadEntry("partial", new ComparisonOperand(new byte[]{1}), null)
+                )
+        );
+
+
+        Map<String, JsonNode> entriesById =
+                compare(Arrays.asList("complete", "partial", "missing"));
+
+        assertThat(entriesById.get("complete").get("found").asBoolean(), is(true));
+
+        assertThat(entriesById.get("partial").get("found").asBoolean(), is(false));
+        assertThat(entriesById.get("partial").has("result"), is(false));
+
+        assertThat(entriesById.get("missing").get("found").asBoolean(), is(false));
+    }
+
+
+    @Test
+    public void failedComparisonsShouldBeReportedByTheirEntries() throws Exception {
+        batchController.upload(
+                Collections.singletonList(
+                        new BatchUploadEntry("test", new ComparisonOperand(new byte[]{1}), new ComparisonOperand(new byte[]{1}))
+                )
+        );
+
+
+        Map<String, JsonNode> entriesById =
+                compare(Arrays.asList("failing", "test", "failing-rejected"));
+
+        assertThat(entriesById.size(), is(3));
+
+        assertThat(entriesById.get("failing").has("found"), is(false));
+        assertThat(entriesById.get("failing").get("error").get("status").asInt(), is(500));
+
+        assertThat(entriesById.get("failing-rejected").get("error").get("status").asInt(), is(503));
+
+        assertThat(entriesById.get("test").get("found").asBoolean(), is(true));
+    }
+
+
+    @Test
+    public void comparisonsShouldOverlap() throws Exception {
+        batchController.upload(
+                Arrays.asList(
+                        new BatchUploadEntry("overlapping-1", new ComparisonOperand(new byte[]{1}), new ComparisonOperand(new byte[]{1})),
+                        new BatchUploadEntry("overlapping-2", new ComparisonOperand(new byte[]{1}), new ComparisonOperand(new byte[]{2}))
+                )
+        );
+
+
+        //Each comparison waits for the other one to be running
+        Map<String, JsonNode> entriesById =
+                compare(Arrays.asList("overlapping-1", "overlapping-2"));
+
+        assertThat(entriesById.get("overlapping-1").get("found").asBoolean(), is(true));
+        assertThat(entriesById.get("overlapping-2").get("found").asBoolean(), is(true));
+    }
+
+
+    @Test
+    public void entriesShouldFollowTheOrderOfTheIds() throws Exception {
+        List<String> ids =
+                new ArrayList<>();
+
+        for (int index = 0; index < 10_000; index++) {
+            ids.add("id" + index);
+        }
+
+        MockHttpServletResponse response =
+                new MockHttpServletResponse();
+
+        batchController.compare(ids, response).get();
+
+
+        List<String> entryIds =
+                new ArrayList<>();
+
+        objectMapper.readTree(response.getContentAsByteArray()).forEach(entry ->
+                entryIds.add(entry.get("id").asText())
+        );
+
+        assertThat(entryIds, equalTo(ids));
+    }
+
+
+    @Test
+    public void deletedIdsShouldNotBeFound() throws Exception {
+        batchController.upload(
+                Collections.singletonList(
+                        new BatchUploadEntry("test", new ComparisonOperand(new byte[]{1}), new ComparisonOperand(new byte[]{2}))
+                )
+        );
+
+        batchController.delete(Collections.singletonList("test"));
+
+
+        assertThat(operandPairRepository.getPairCount(), is(0));
+        assertThat(compare(Collections.singletonList("test")).get("test").get("found").asBoolean(), is(false));
+    }
+
+
+    @Test
+    public void emptyIdsShouldBeRejected() {
+        assertThrows(InvalidIdException.class, () -> {
+            batchController.compare(Arrays.asList("test", ""), new MockHttpServletResponse());
+        });
+    }
+}
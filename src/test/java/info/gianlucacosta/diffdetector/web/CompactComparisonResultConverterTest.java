@@ -0,0 +1,266 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web;
+
+import info.gianlucacosta.diffdetector.core.ComparisonResult;
+import info.gianlucacosta.diffdetector.core.Diff;
+import info.gianlucacosta.diffdetector.web.diff.ComparisonResultCache;
+import info.gianlucacosta.diffdetector.web.diff.DiffService;
+import info.gianlucacosta.diffdetector.web.storage.InMemoryByteRepository;
+import info.gianlucacosta.diffdetector.web.storage.OperandPairRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.mock.http.MockHttpOutputMessage;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+
+public class CompactComparisonResultConverterTest {
+    private final CompactComparisonResultConverter compactConverter =
+            new CompactComparisonResultConverter();
+
+    private final MappingJackson2HttpMessageConverter jsonConverter =
+            new MappingJackson2HttpMessageConverter();
+
+
+    private static byte[] write(
+            HttpMessageConverter<Object> converter,
+            ComparisonResult comparisonResult,
+            MediaType mediaType
+    ) throws IOException {
+        MockHttpOutputMessage outputMessage =
+                new MockHttpOutputMessage();
+
+        converter.write(comparisonResult, mediaType, outputMessage);
+
+        return outputMessage.getBodyAsBytes();
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private byte[] writeCompact(ComparisonResult comparisonResult) throws IOException {
+        return write(
+                (HttpMessageConverter<Object>) (HttpMessageConverter<?>) compactConverter,
+                comparisonResult,
+                CompactComparisonResultConverter.mediaType
+        );
+    }
+
+
+    private byte[] writeJson(ComparisonResult comparisonResult) throws IOException {
+        return write(
+                jsonConverter,
+                comparisonResult,
+                MediaType.APPLICATION_JSON
+        );
+    }
+
+
+    private static ComparisonResult createRandomResult(int diffCount) {
+        Random random =
+                new Random(90);
+
+        List<Diff> diffs =
+                new ArrayList<>(diffCount);
+
+        int offset =
+                0;
+
+        for (int index = 0; index < diffCount; index++) {
+            offset += 1 + random.nextInt(100);
+
+            int length =
+                    1 + random.nextInt(8);
+
+            diffs.add(new Diff(offset, length));
+
+            offset += length;
+        }
+
+        return ComparisonResult.ofDiffs(diffs);
+    }
+
+
+    @Test
+    public void comparisonResultsShouldBeDecodedBackIdentically() throws IOException {
+        List<ComparisonResult> comparisonResults =
+                Arrays.asList(
+                        ComparisonResult.ofDifferentLengths(),
+                        ComparisonResult.ofDiffs(Collections.emptyList()),
+                        ComparisonResult.ofDiffs(
+                                Arrays.asList(
+                                        new Diff(0, 1),
+                                        new Diff(200, 300),
+                                        new Diff(Integer.MAX_VALUE - 5, 5)
+                                )
+                        ),
+                        createRandomResult(100_000)
+                );
+
+        for (ComparisonResult comparisonResult : comparisonResults) {
+            assertThat(
+                    CompactDiffDecoder.decode(writeCompact(comparisonResult)),
+                    equalTo(comparisonResult)
+            );
+        }
+    }
+
+
+    @Test
+    public void onlyComparisonResultsShouldBeWritten() {
+        assertThat(
+                compactConverter.canWrite(ComparisonResult.class, CompactComparisonResultConverter.mediaType),
+                is(true)
+        );
+
+        assertThat(
+                compactConverter.canWrite(DiffPage.class, CompactComparisonResultConverter.mediaType),
+                is(false)
+        );
+
+        assertThat(
+                compactConverter.canRead(ComparisonResult.class, CompactComparisonResultConverter.mediaType),
+                is(false)
+        );
+    }
+
+
+    @Test
+    public void theCompactFormatShouldBeSelectedOnlyWhenExplicitlyAccepted() throws Exception {
+        OperandPairRepository operandPairRepository =
+                new OperandPairRepository(new InMemoryByteRepository());
+
+        operandPairRepository.saveLeft("test", "ABCDEFGH".getBytes());
+        operandPairRepository.saveRight("test", "ABXDEFXX".getBytes());
+
+        ComparisonExecutor comparisonExecutor =
+                new ComparisonExecutor(1, 4);
+
+        DiffController diffController =
+                new DiffController(
+                        operandPairRepository,
+                        new ComparisonCoordinator(
+                                operandPairRepository,
+                                new DiffService(),
+                                new ComparisonResultCache(100, 1024 * 1024),
+                                false
+                        ),
+                        comparisonExecutor
+                );
+
+        List<HttpMessageConverter<?>> converters =
+                new ArrayList<>(
+                        Collections.singletonList(jsonConverter)
+                );
+
+        new WebConfiguration(new EndpointLatencyInterceptor(), 0).extendMessageConverters(converters);
+
+        MockMvc mockMvc =
+                MockMvcBuilders
+                        .standaloneSetup(diffController)
+                        .setMessageConverters(converters.toArray(new HttpMessageConverter<?>[0]))
+                        .build();
+
+
+        MvcResult wildcardResult =
+                mockMvc.perform(
+                        get(DiffController.path + "/test").accept(MediaType.ALL)
+                )
+                        .andExpect(request().asyncStarted())
+                        .andReturn();
+
+        mockMvc.perform(asyncDispatch(wildcardResult))
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON));
+
+
+        MvcResult compactAsyncResult =
+                mockMvc.perform(
+                        get(DiffController.path + "/test").accept(CompactComparisonResultConverter.mediaType)
+                )
+                        .andExpect(request().asyncStarted())
+                        .andReturn();
+
+        MvcResult compactResult =
+                mockMvc.perform(asyncDispatch(compactAsyncResult))
+                        .andExpect(content().contentTypeCompatibleWith(CompactComparisonResultConverter.mediaType))
+                        .andReturn();
+
+        assertThat(
+                CompactDiffDecoder.decode(compactResult.getResponse().getContentAsByteArray()),
+                equalTo(
+                        ComparisonResult.ofDiffs(
+                                Arrays.asList(
+                                        new Diff(2, 1),
+                                        new Diff(6, 2)
+                                )
+                        )
+                )
+        );
+
+        comparisonExecutor.shutdown();
+    }
+
+
+    /**
+     * The writing speed of both formats is measured by ComparisonResultWritingBenchmark
+     */
+    @Test
+    public void compactPayloadsShouldBeMuchSmallerThanJson() throws IOException {
+        ComparisonResult comparisonResult =
+                createRandomResult(1_000_000);
+
+        byte[] compactPayload =
+                writeCompact(comparisonResult);
+
+        byte[] jsonPayload =
+                writeJson(comparisonResult);
+
+
+        assertThat(
+                String.format(
+                        "Bytes per diff - compact: %.2f, JSON: %.2f",
+                        (double) compactPayload.length / comparisonResult.getDiffs().size(),
+                        (double) jsonPayload.length / comparisonResult.getDiffs().size()
+                ),
+                compactPayload.length * 10,
+                lessThan(jsonPayload.length)
+        );
+    }
+}
@@ -0,0 +1,119 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web;
+
+import info.gianlucacosta.diffdetector.core.ComparisonResult;
+import info.gianlucacosta.diffdetector.core.Diff;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reference decoder of the compact binary format written by CompactDiffWriter -
+ * which clients can use to verify their own decoders
+ */
+public class CompactDiffDecoder {
+    public static ComparisonResult decode(byte[] bytes) {
+        try {
+            return decode(new ByteArrayInputStream(bytes));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+
+    public static ComparisonResult decode(InputStream inputStream) throws IOException {
+        int header =
+                inputStream.read();
+
+        if (header < 0) {
+            throw new EOFException();
+        }
+
+        if (header > 1) {
+            throw new IOException("Invalid header: " + header);
+        }
+
+        List<Diff> diffs =
+                new ArrayList<>();
+
+        int previousEndOffset =
+                0;
+
+        while (true) {
+            int gap =
+                    readVarint(inputStream);
+
+            int length =
+                    readVarint(inputStream);
+
+            if (length == 0) {
+                break;
+            }
+
+            int offset =
+                    previousEndOffset + gap;
+
+            diffs.add(new Diff(offset, length));
+
+            previousEndOffset =
+                    offset + length;
+        }
+
+
+        return (header == 1) ?
+                ComparisonResult.ofDiffs(diffs)
+                :
+                ComparisonResult.ofDifferentLengths();
+    }
+
+
+    private static int readVarint(InputStream inputStream) throws IOException {
+        int value =
+                0;
+
+        for (int shift = 0; shift < 35; shift += 7) {
+            int currentByte =
+                    inputStream.read();
+
+            if (currentByte < 0) {
+                throw new EOFException();
+            }
+
+            value |= (currentByte & 0x7F) << shift;
+
+            if ((currentByte & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Varint too long");
+    }
+
+
+    private CompactDiffDecoder() {
+    }
+}
@@ -0,0 +1,499 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web;
+
+import info.gianlucacosta.diffdetector.core.ComparisonResult;
+import info.gianlucacosta.diffdetector.core.Diff;
+import info.gianlucacosta.diffdetector.web.diff.ComparisonResultCache;
+import info.gianlucacosta.diffdetector.web.diff.DiffService;
+import info.gianlucacosta.diffdetector.web.diff.DiffSummary;
+import info.gianlucacosta.diffdetector.web.storage.InMemoryByteRepository;
+import info.gianlucacosta.diffdetector.web.storage.OperandPair;
+import info.gianlucacosta.diffdetector.web.storage.OperandPairRepository;
+import info.gianlucacosta.diffdetector.web.storage.OperandPatch;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+
+public class ComparisonCoordinatorTest {
+    private final String testId =
+            "test";
+
+    private final byte[] left =
+            "ABCDEFGHIJ".getBytes();
+
+    private final byte[] right =
+            "ABCDXXGHIX".getBytes();
+
+    private final ComparisonResult expectedComparisonResult =
+            ComparisonResult.ofDiffs(
+                    Arrays.asList(
+                            new Diff(4, 2),
+                            new Diff(9, 1)
+                    )
+            );
+
+
+    private final CountDownLatch comparisonGate =
+            new CountDownLatch(1);
+
+    private final AtomicInteger comparisonCount =
+            new AtomicInteger();
+
+    /**
+     * Counts the comparisons, which wait until the gate is opened
+     */
+    private final DiffService gatedDiffService =
+            new DiffService() {
+                @Override
+                public ComparisonResult compare(ByteBuffer left, ByteBuffer right) {
+                    comparisonCount.incrementAndGet();
+
+                    try {
+                        comparisonGate.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+
+                    return super.compare(left, right);
+                }
+            };
+
+
+    private OperandPairRepository operandPairRepository;
+
+    private ComparisonResultCache comparisonResultCache;
+
+    private ComparisonCoordinator comparisonCoordinator;
+
+
+    @BeforeEach
+    public void init() {
+        operandPairRepository =
+                new OperandPairRepository(new InMemoryByteRepository());
+
+        comparisonResultCache =
+                new ComparisonResultCache(100, 1024 * 1024);
+
+        comparisonCoordinator =
+                new ComparisonCoordinator(
+                        operandPairRepository,
+                        gatedDiffService,
+                        comparisonResultCache,
+                        false,
+                        true,
+                        1,
+                        1
+                );
+    }
+
+
+    @AfterEach
+    public void shutdown() {
+        comparisonGate.countDown();
+        comparisonCoordinator.shutdown();
+    }
+
+
+    private void saveLeft(String id, byte[] data) {
+        operandPairRepository.saveLeft(id, data);
+        comparisonCoordinator.operandSaved(id);
+    }
+
+
+    private void saveRight(String id, byte[] data) {
+        operandPairRepository.saveRight(id, data);
+        comparisonCoordinator.operandSaved(id);
+    }
+
+
+    @Test
+    public void noComparisonShouldBeScheduledUntilBothOperandsArePresent() {
+        saveLeft(testId, left);
+
+        assertThat(comparisonCoordinator.getScheduledCount(), is(0L));
+    }
+
+
+    @Test
+    public void comparisonShouldBePrecomputedOnceBothOperandsArePresent() throws InterruptedException {
+        saveLeft(testId, left);
+        saveRight(testId, right);
+
+        comparisonGate.countDown();
+
+        awaitNoPendingComparisons();
+
+
+        assertThat(comparisonCoordinator.getScheduledCount(), is(1L));
+        assertThat(comparisonResultCache.getSize(), is(1));
+
+        assertThat(comparisonCoordinator.compare(testId), equalTo(expectedComparisonResult));
+        assertThat(comparisonCount.get(), is(1));
+    }
+
+
+    @Test
+    public void requestsShouldWaitForTheInFlightComparison() throws InterruptedException {
+        saveLeft(testId, left);
+        saveRight(testId, right);
+
+        new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+
+            comparisonGate.countDown();
+        }).start();
+
+
+        assertThat(comparisonCoordinator.compare(testId), equalTo(expectedComparisonResult));
+        assertThat(comparisonCount.get(), is(1));
+    }
+
+
+    @Test
+    public void newUploadsShouldSupersedeTheStaleComparison() throws InterruptedException {
+        saveLeft(testId, left);
+        saveRight(testId, right);
+
+        awaitComparisonStart();
+
+        saveRight(testId, left);
+
+        comparisonGate.countDown();
+
+
+        assertThat(comparisonCoordinator.getSupersededCount(), is(1L));
+
+        assertThat(
+                comparisonCoordinator.compare(testId),
+                equalTo(ComparisonResult.ofDiffs(Collections.emptyList()))
+        );
+    }
+
+
+    @Test
+    public void supersededComparisonsShouldStopWithoutCachingTheirResult() throws InterruptedException {
+        saveLeft(testId, left);
+        saveRight(testId, right);
+
+        long staleLeftVersion;
+        long staleRightVersion;
+
+        try (OperandPair operandPair = operandPairRepository.acquire(testId).get()) {
+            staleLeftVersion =
+                    operandPair.getLeft().get().getVersion();
+
+            staleRightVersion =
+                    operandPair.getRight().get().getVersion();
+        }
+
+        awaitComparisonStart();
+
+        saveRight(testId, left);
+
+        comparisonGate.countDown();
+
+        awaitNoPendingComparisons();
+
+
+        assertThat(
+                comparisonResultCache.find(testId, staleLeftVersion, staleRightVersion).isPresent(),
+                is(false)
+        );
+    }
+
+
+    @Test
+    public void comparisonsExceedingTheQueueCapacityShouldBePerformedOnRequest() {
+        saveLeft("a", left);
+        saveRight("a", right);
+
+        saveLeft("b", left);
+        saveRight("b", right);
+
+        saveLeft("c", left);
+        saveRight("c", right);
+
+        comparisonGate.countDown();
+
+
+        assertThat(comparisonCoordinator.getRejectedCount(), is(1L));
+        assertThat(comparisonCoordinator.compare("c"), equalTo(expectedComparisonResult));
+    }
+
+
+    @Test
+    public void removingTheOperandsShouldCancelTheComparison() throws InterruptedException {
+        saveLeft(testId, left);
+        saveRight(testId, right);
+
+        awaitComparisonStart();
+
+        operandPairRepository.remove(testId);
+        comparisonCoordinator.operandsRemoved(testId);
+
+
+        assertThat(comparisonCoordinator.getSupersededCount(), is(1L));
+        assertThat(comparisonCoordinator.getPendingCount(), is(0));
+    }
+
+
+    @Test
+    public void patchingAnOperandShouldRecompareJustThePatchedRange() {
+        ComparisonCoordinator lazyComparisonCoordinator =
+                new ComparisonCoordinator(
+                        operandPairRepository,
+                        gatedDiffService,
+                        comparisonResultCache,
+                        false
+                );
+
+        comparisonGate.countDown();
+
+        operandPairRepository.saveLeft(testId, left);
+        operandPairRepository.saveRight(testId, right);
+
+        lazyComparisonCoordinator.compare(testId);
+
+
+        OperandPatch operandPatch =
+                operandPairRepository.patchRight(testId, 4, "EF".getBytes()).get();
+
+        lazyComparisonCoordinator.operandPatched(testId, operandPatch);
+
+
+        assertThat(
+                lazyComparisonCoordinator.compare(testId),
+                equalTo(
+                        ComparisonResult.ofDiffs(
+                                Collections.singletonList(new Diff(9, 1))
+                        )
+                )
+        );
+
+        assertThat(comparisonCount.get(), is(1));
+    }
+
+
+    @Test
+    public void patchingAnOperandWithoutCachedResultShouldCompareItAgain() {
+        saveLeft(testId, left);
+        saveRight(testId, right);
+
+        comparisonResultCache.invalidate(testId);
+
+        OperandPatch operandPatch =
+                operandPairRepository.patchRight(testId, 4, "EF".getBytes()).get();
+
+        comparisonCoordinator.operandPatched(testId, operandPatch);
+
+        comparisonGate.countDown();
+
+
+        assertThat(
+                comparisonCoordinator.compare(testId),
+                equalTo(
+                        ComparisonResult.ofDiffs(
+                                Collections.singletonList(new Diff(9, 1))
+                        )
+                )
+        );
+    }
+
+
+    @Test
+    public void hashTreesShouldBeUsedUnlessVerifyingFingerprintMatches() {
+        OperandPairRepository hashingPairRepository =
+                new OperandPairRepository(new InMemoryByteRepository(), 2, Runnable::run);
+
+        hashingPairRepository.saveLeft(testId, left);
+        hashingPairRepository.saveRight(testId, right);
+
+        for (boolean verifyingFingerprintMatches : new boolean[]{false, true}) {
+            DiffService diffService =
+                    new DiffService();
+
+            ComparisonCoordinator hashingComparisonCoordinator =
+                    new ComparisonCoordinator(
+                            hashingPairRepository,
+                            diffService,
+                            new ComparisonResultCache(100, 1024 * 1024),
+                            verifyingFingerprintMatches
+                    );
+
+            assertThat(hashingComparisonCoordinator.compare(testId), equalTo(expectedComparisonResult));
+
+            //The blocks "AB", "CD" and "GH" are equal
+            assertThat(
+                    diffService.getSkippedBytes(),
+                    is(verifyingFingerprintMatches ? 0L : 6L)
+            );
+        }
+    }
+
+
+    @Test
+    public void comparisonsShouldNotWaitForTheHashTrees() {
+        List<Runnable> pendingBuilds =
+                new ArrayList<>();
+
+        OperandPairRepository hashingPairRepository =
+                new OperandPairRepository(new InMemoryByteRepository(), 2, pendingBuilds::add);
+
+        hashingPairRepository.saveLeft(testId, left);
+        hashingPairRepository.saveRight(testId, right);
+
+        DiffService diffService =
+                new DiffService();
+
+        ComparisonCoordinator hashingComparisonCoordinator =
+                new ComparisonCoordinator(
+                        hashingPairRepository,
+                        diffService,
+                        new ComparisonResultCache(0, 0),
+                        false
+                );
+
+        assertThat(hashingComparisonCoordinator.compare(testId), equalTo(expectedComparisonResult));
+        assertThat(diffService.getSkippedBytes(), is(0L));
+
+
+        pendingBuilds.forEach(Runnable::run);
+
+        assertThat(hashingComparisonCoordinator.compare(testId), equalTo(expectedComparisonResult));
+        assertThat(diffService.getSkippedBytes(), is(6L));
+    }
+
+
+    @Test
+    public void equalityChecksShouldRelyOnFingerprintsUnlessVerifyingThem() {
+        operandPairRepository.saveLeft(testId, left);
+        operandPairRepository.saveRight(testId, right);
+
+        for (boolean verifyingFingerprintMatches : new boolean[]{false, true}) {
+            DiffService diffService =
+                    new DiffService();
+
+            ComparisonCoordinator lazyComparisonCoordinator =
+                    new ComparisonCoordinator(
+                            operandPairRepository,
+                            diffService,
+                            new ComparisonResultCache(100, 1024 * 1024),
+                            verifyingFingerprintMatches
+                    );
+
+            EqualityCheck equalityCheck =
+                    lazyComparisonCoordinator.checkEquality(testId);
+
+            assertThat(equalityCheck.isSameLength(), is(true));
+            assertThat(equalityCheck.isEqual(), is(false));
+
+            //Different fingerprints are enough to tell the operands apart
+            assertThat(diffService.getComparisonCount(), is(0L));
+        }
+
+
+        operandPairRepository.saveRight(testId, left);
+
+        DiffService verifyingDiffService =
+                new DiffService();
+
+        ComparisonCoordinator verifyingComparisonCoordinator =
+                new ComparisonCoordinator(
+                        operandPairRepository,
+                        verifyingDiffService,
+                        new ComparisonResultCache(100, 1024 * 1024),
+                        true
+                );
+
+        assertThat(verifyingComparisonCoordinator.checkEquality(testId).isEqual(), is(true));
+        assertThat(verifyingDiffService.getComparisonCount(), is(1L));
+    }
+
+
+    @Test
+    public void summariesShouldCountTheDiffsOfScannedAndCachedResults() {
+        ComparisonCoordinator lazyComparisonCoordinator =
+                new ComparisonCoordinator(
+                        operandPairRepository,
+                        gatedDiffService,
+                        comparisonResultCache,
+                        false
+                );
+
+        comparisonGate.countDown();
+
+        operandPairRepository.saveLeft(testId, left);
+        operandPairRepository.saveRight(testId, right);
+
+        DiffSummary expectedSummary =
+                new DiffSummary(true, 2, 3);
+
+        assertThat(lazyComparisonCoordinator.summarize(testId), equalTo(expectedSummary));
+        assertThat(comparisonCount.get(), is(0));
+
+        lazyComparisonCoordinator.compare(testId);
+
+        assertThat(lazyComparisonCoordinator.summarize(testId), equalTo(expectedSummary));
+        assertThat(comparisonCount.get(), is(1));
+    }
+
+
+    /**
+     * Waits until the background comparison has acquired the operands
+     */
+    private void awaitComparisonStart() throws InterruptedException {
+        long deadline =
+                System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+        while (comparisonCount.get() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+
+    private void awaitNoPendingComparisons() throws InterruptedException {
+        long deadline =
+                System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+        while (comparisonCoordinator.getPendingCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+public class ComparisonExecutorTest {
+    private final ComparisonExecutor comparisonExecutor =
+            new ComparisonExecutor(1, 1);
+
+    private final CountDownLatch comparisonGate =
+            new CountDownLatch(1);
+
+
+    @AfterEach
+    public void shutdown() {
+        comparisonExecutor.shutdown();
+    }
+
+
+    private String awaitGate() {
+        try {
+            comparisonGate.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        return "done";
+    }
+
+
+    @Test
+    public void comparisonsExceedingThePoolAndTheQueueShouldBeRejected() throws Exception {
+        CountDownLatch startSignal =
+                new CountDownLatch(1);
+
+        CompletableFuture<String> activeFuture =
+                comparisonExecutor.submit(() -> {
+                    startSignal.countDown();
+                    return awaitGate();
+                });
+
+        startSignal.await(10, TimeUnit.SECONDS);
+
+        CompletableFuture<String> queuedFuture =
+                comparisonExecutor.submit(this::awaitGate);
+
+
+        assertThat(comparisonExecutor.getActiveCount(), is(1));
+        assertThat(comparisonExecutor.getQueuedCount(), is(1));
+
+        assertThrows(ComparisonRejectedException.class, () -> {
+            comparisonExecutor.submit(this::awaitGate);
+        });
+
+        assertThat(comparisonExecutor.getRejectedCount(), is(1L));
+
+
+        comparisonGate.countDown();
+
+        assertThat(activeFuture.get(10, TimeUnit.SECONDS), is("done"));
+        assertThat(queuedFuture.get(10, TimeUnit.SECONDS), is("done"));
+    }
+
+
+    @Test
+    public void comparisonExceptionsShouldCompleteTheFutureUnwrapped() {
+        CompletableFuture<String> future =
+                comparisonExecutor.submit(() -> {
+                    throw new DataNotFoundException();
+                });
+
+        ExecutionException executionException =
+                assertThrows(ExecutionException.class, () -> {
+                    future.get(10, TimeUnit.SECONDS);
+                });
+
+        assertThat(executionException.getCause(), instanceOf(DataNotFoundException.class));
+    }
+}
@@ -0,0 +1,307 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import info.gianlucacosta.diffdetector.core.ComparisonOperand;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+public class ComparisonOperandDeserializerTest {
+    private ObjectMapper objectMapper;
+
+
+    @BeforeEach
+    public void init() {
+        objectMapper =
+                new ObjectMapper();
+
+        objectMapper.registerModule(
+                new SimpleModule().addDeserializer(
+                        ComparisonOperand.class,
+                        new ComparisonOperandDeserializer()
+                )
+        );
+    }
+
+
+    @AfterEach
+    public void resetRequest() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+
+    private static byte[] createRandomData(int length) {
+        byte[] data =
+                new byte[length];
+
+        new Random(90).nextBytes(data);
+
+        return data;
+    }
+
+
+    private static byte[] toJson(byte[] data) {
+        return ("{\"base64Data\":\"" + Base64.getEncoder().encodeToString(data) + "\"}").getBytes();
+    }
+
+
+    private static void setCurrentRequest(byte[] content) {
+        MockHttpServletRequest request =
+                new MockHttpServletRequest();
+
+        request.setContent(content);
+
+        RequestContextHolder.setRequestAttributes(
+                new ServletRequestAttributes(request)
+        );
+    }
+
+
+    @Test
+    public void operandsShouldBeDecodedWithinRequests() throws IOException {
+        for (int length = 0; length < 10; length++) {
+            byte[] data =
+                    createRandomData(length);
+
+            byte[] json =
+                    toJson(data);
+
+            setCurrentRequest(json);
+
+            assertThat(
+                    objectMapper.readValue(json, ComparisonOperand.class).getData(),
+                    equalTo(data)
+            );
+        }
+    }
+
+
+    @Test
+    public void nestedOperandsShouldNotBePresizedAccordingToTheWholeRequest() throws Exception {
+        byte[] data =
+                createRandomData(1024);
+
+        String operandJson =
+                new String(toJson(data));
+
+        StringBuilder batchJson =
+                new StringBuilder("[");
+
+        for (int index = 0; index < 1000; index++) {
+            batchJson
+                    .append((index > 0) ? "," : "")
+                    .append("{\"id\":\"")
+                    .append(index)
+                    .append("\",\"left\":")
+                    .append(operandJson)
+                    .append("}");
+        }
+
+        byte[] batchBytes =
+                batchJson.append("]").toString().getBytes();
+
+        setCurrentRequest(batchBytes);
+
+        TypeReference<List<BatchUploadEntry>> entriesType =
+                new TypeReference<List<BatchUploadEntry>>() {
+                };
+
+        //Warm-up, so that the measure does not include class loading
+        objectMapper.readValue(batchBytes, entriesType);
+
+
+        List<BatchUploadEntry>[] entries =
+                new List[1];
+
+        long allocatedBytes =
+                AllocationMeter.measureAllocatedBytes(() ->
+                        entries[0] = objectMapper.readValue(batchBytes, entriesType)
+                );
+
+
+        assertThat(entries[0].get(999).getLeft().getData(), equalTo(data));
+
+        //Presizing each operand according to the whole request would allocate about 1 GB
+        assertThat(allocatedBytes, lessThan(100L * batchBytes.length));
+    }
+
+
+    @Test
+    public void operandsShouldBeDecodedOutsideRequests() throws IOException {
+        byte[] data =
+                createRandomData(100_000);
+
+        String json =
+                "{ \"unknown\": [1, {\"a\": 2}], \"base64Data\": \""
+                        + Base64.getEncoder().encodeToString(data)
+                        + "\" }";
+
+        assertThat(
+                objectMapper.readValue(json, ComparisonOperand.class).getData(),
+                equalTo(data)
+        );
+    }
+
+
+    @Test
+    public void missingDataShouldFail() {
+        assertThrows(IOException.class, () -> {
+            objectMapper.readValue("{}", ComparisonOperand.class);
+        });
+    }
+
+
+    @Test
+    public void decodingALargeOperandShouldAllocateAboutItsDecodedSize() throws Exception {
+        byte[] data =
+                createRandomData(3 * 5 * 1024 * 1024);
+
+        byte[] json =
+                toJson(data);
+
+        setCurrentRequest(json);
+
+        //Warm-up, so that the measures do not include class loading
+        decodeViaString(json);
+        objectMapper.readValue(json, ComparisonOperand.class);
+
+
+        long stringBytes =
+                AllocationMeter.measureAllocatedBytes(() ->
+                        decodeViaString(json)
+                );
+
+        long streamingBytes =
+                AllocationMeter.measureAllocatedBytes(() ->
+                        objectMapper.readValue(new ByteArrayInputStream(json), ComparisonOperand.class)
+                );
+
+
+        assertThat(
+                String.format(
+                        "Allocated bytes per decoded byte - via String: %.2f, streaming: %.2f",
+                        (double) stringBytes / data.length,
+                        (double) streamingBytes / data.length
+                ),
+                (double) streamingBytes / data.length,
+                lessThan(1.5)
+        );
+    }
+
+
+    @Test
+    public void operandsWithPaddedBase64ShouldNotBeCopiedAfterDecoding() throws Exception {
+        int baseLength =
+                3 * 1024 * 1024;
+
+        for (int remainder = 1; remainder <= 2; remainder++) {
+            byte[] data =
+                    createRandomData(baseLength + remainder);
+
+            assertDecodedWithoutCopying(data, toJson(data));
+        }
+    }
+
+
+    @Test
+    public void operandsWithinPaddedEnvelopesShouldNotBeCopiedAfterDecoding() throws Exception {
+        byte[] data =
+                createRandomData(3 * 1024 * 1024);
+
+        byte[] json =
+                ("{\n    \"base64Data\" : \""
+                        + Base64.getEncoder().encodeToString(data)
+                        + "\",\n    \"comment\" : \"Padded envelope\"\n}\n").getBytes();
+
+        assertDecodedWithoutCopying(data, json);
+    }
+
+
+    private void assertDecodedWithoutCopying(byte[] data, byte[] json) throws Exception {
+        setCurrentRequest(json);
+
+        //Warm-up, so that the measure does not include class loading
+        objectMapper.readValue(json, ComparisonOperand.class);
+
+
+        ComparisonOperand[] operands =
+                new ComparisonOperand[1];
+
+        long allocatedBytes =
+                AllocationMeter.measureAllocatedBytes(() ->
+                        operands[0] = objectMapper.readValue(new ByteArrayInputStream(json), ComparisonOperand.class)
+                );
+
+
+        DecodedComparisonOperand decodedOperand =
+                (DecodedComparisonOperand) operands[0];
+
+        assertThat(decodedOperand.getLength(), equalTo(data.length));
+
+        //The estimate exceeds the decoded length, but the array is not trimmed
+        assertThat(decodedOperand.getBuffer().length, greaterThan(data.length));
+
+        assertThat(
+                String.format("Allocated bytes per decoded byte: %.2f", (double) allocatedBytes / data.length),
+                (double) allocatedBytes / data.length,
+                lessThan(1.5)
+        );
+
+        assertThat(decodedOperand.getData(), equalTo(data));
+        assertThat(decodedOperand.getBase64Data(), equalTo(Base64.getEncoder().encodeToString(data)));
+    }
+
+
+    private void decodeViaString(byte[] json) throws IOException {
+        StringOperand stringOperand =
+                new ObjectMapper().readValue(json, StringOperand.class);
+
+        Base64.getDecoder().decode(stringOperand.base64Data);
+    }
+
+
+    /**
+     * How the operand was bound before introducing the streaming deserializer
+     */
+    private static class StringOperand {
+        public String base64Data;
+    }
+}
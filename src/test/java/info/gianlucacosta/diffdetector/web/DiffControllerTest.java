@@ -20,22 +20,48 @@
 
 package info.gianlucacosta.diffdetector.web;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import info.gianlucacosta.diffdetector.core.ComparisonOperand;
 import info.gianlucacosta.diffdetector.core.ComparisonResult;
 import info.gianlucacosta.diffdetector.core.Diff;
+import info.gianlucacosta.diffdetector.web.diff.AlignedRegion;
+import info.gianlucacosta.diffdetector.web.diff.Alignment;
+import info.gianlucacosta.diffdetector.web.diff.ComparisonResultCache;
 import info.gianlucacosta.diffdetector.web.diff.DiffService;
+import info.gianlucacosta.diffdetector.web.diff.DiffSummary;
 import info.gianlucacosta.diffdetector.web.storage.InMemoryByteRepository;
+import info.gianlucacosta.diffdetector.web.storage.OperandPairRepository;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 
 public class DiffControllerTest {
+    private ComparisonExecutor comparisonExecutor;
+
     private DiffController diffController;
 
     private final String testId =
@@ -61,19 +87,52 @@ public class DiffControllerTest {
 
     @BeforeEach
     public void init() {
+        OperandPairRepository operandPairRepository =
+                new OperandPairRepository(new InMemoryByteRepository());
+
+        comparisonExecutor =
+                new ComparisonExecutor(2, 16);
+
         diffController =
                 new DiffController(
-                        new InMemoryByteRepository(),
-                        new InMemoryByteRepository(),
-                        new DiffService()
+                        operandPairRepository,
+                        new ComparisonCoordinator(
+                                operandPairRepository,
+                                new DiffService(),
+                                new ComparisonResultCache(100, 1024 * 1024),
+                                false
+                        ),
+                        comparisonExecutor
                 );
     }
 
 
+    @AfterEach
+    public void shutdown() {
+        comparisonExecutor.shutdown();
+    }
+
+
+    /**
+     * Waits for the asynchronous comparison, rethrowing its exception
+     */
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+
+            throw ex;
+        }
+    }
+
+
     @Test
     public void diffsShouldNotBeComputedIfBothLeftAndRightAreMissing() {
         assertThrows(DataNotFoundException.class, () -> {
-            diffController.compare(testId);
+            await(diffController.compare(testId));
         });
     }
 
@@ -86,7 +145,7 @@ public class DiffControllerTest {
         );
 
         assertThrows(DataNotFoundException.class, () -> {
-            diffController.compare(testId);
+            await(diffController.compare(testId));
         });
     }
 
@@ -99,7 +158,7 @@ public class DiffControllerTest {
         );
 
         assertThrows(DataNotFoundException.class, () -> {
-            diffController.compare(testId);
+            await(diffController.compare(testId));
         });
     }
 
@@ -117,7 +176,7 @@ public class DiffControllerTest {
         );
 
         ComparisonResult comparisonResult =
-                diffController.compare(testId);
+                await(diffController.compare(testId));
 
 
         assertThat(
@@ -127,4 +186,485 @@ public class DiffControllerTest {
 
         diffController.delete(testId);
     }
+
+
+    @Test
+    public void diffsShouldBeCorrectlyComputedForRawBinaryOperands() throws IOException {
+        MockHttpServletRequest leftRequest =
+                new MockHttpServletRequest();
+
+        leftRequest.setContent(left);
+
+        diffController.putLeftBytes(
+                testId,
+                leftRequest
+        );
+
+
+        MockHttpServletRequest rightRequest =
+                new MockHttpServletRequest();
+
+        rightRequest.setContent(right);
+
+        diffController.putRightBytes(
+                testId,
+                rightRequest
+        );
+
+
+        assertThat(
+                await(diffController.compare(testId)),
+                equalTo(expectedComparisonResult)
+        );
+
+        diffController.delete(testId);
+    }
+
+
+    @Test
+    public void updatingAnOperandShouldInvalidateTheCachedResult() {
+        diffController.putLeft(
+                testId,
+                new ComparisonOperand(left)
+        );
+
+        diffController.putRight(
+                testId,
+                new ComparisonOperand(right)
+        );
+
+        await(diffController.compare(testId));
+
+        diffController.putRight(
+                testId,
+                new ComparisonOperand(left)
+        );
+
+
+        assertThat(
+                await(diffController.compare(testId)),
+                equalTo(ComparisonResult.ofDiffs(Collections.emptyList()))
+        );
+
+        diffController.delete(testId);
+    }
+
+
+    @Test
+    public void patchingAnOperandShouldUpdateTheComparisonResult() throws IOException {
+        diffController.putLeft(
+                testId,
+                new ComparisonOperand(left)
+        );
+
+        diffController.putRight(
+                testId,
+                new ComparisonOperand(right)
+        );
+
+        await(diffController.compare(testId));
+
+
+        MockHttpServletRequest patchRequest =
+                new MockHttpServletRequest();
+
+        patchRequest.setContent("EFG".getBytes());
+
+        diffController.patchRightBytes(testId, 4, patchRequest);
+
+        diffController.patchRight(
+                testId,
+                21,
+                new ComparisonOperand("VW".getBytes())
+        );
+
+
+        assertThat(
+                await(diffController.compare(testId)),
+                equalTo(
+                        ComparisonResult.ofDiffs(
+                                Arrays.asList(
+                                        new Diff(10, 1),
+                                        new Diff(13, 5)
+                                )
+                        )
+                )
+        );
+
+        diffController.delete(testId);
+    }
+
+
+    @Test
+    public void patchingBeyondAnOperandShouldFail() {
+        diffController.putLeft(
+                testId,
+                new ComparisonOperand(left)
+        );
+
+        assertThrows(InvalidRangeException.class, () -> {
+            diffController.patchLeft(
+                    testId,
+                    left.length,
+                    new ComparisonOperand(new byte[]{1})
+            );
+        });
+    }
+
+
+    @Test
+    public void patchingAMissingOperandShouldFail() {
+        assertThrows(DataNotFoundException.class, () -> {
+            diffController.patchLeft(
+                    testId,
+                    0,
+                    new ComparisonOperand(new byte[]{1})
+            );
+        });
+    }
+
+
+    @Test
+    public void diffsShouldBeReturnedPageByPage() {
+        diffController.putLeft(
+                testId,
+                new ComparisonOperand(left)
+        );
+
+        diffController.putRight(
+                testId,
+                new ComparisonOperand(right)
+        );
+
+
+        DiffPage firstPage =
+                await(diffController.compare(testId, 0, 3));
+
+        assertThat(firstPage.isSameLength(), is(true));
+        assertThat(firstPage.getDiffs(), equalTo(expectedComparisonResult.getDiffs().subList(0, 3)));
+        assertThat(firstPage.getNextCursor(), is(21));
+
+
+        DiffPage lastPage =
+                await(diffController.compare(testId, firstPage.getNextCursor(), 3));
+
+        assertThat(lastPage.getDiffs(), equalTo(expectedComparisonResult.getDiffs().subList(3, 4)));
+        assertThat(lastPage.getNextCursor(), is(nullValue()));
+
+
+        assertThat(
+                await(diffController.compare(testId, 5, 1)).getDiffs(),
+                equalTo(Collections.singletonList(new Diff(10, 1)))
+        );
+
+        diffController.delete(testId);
+    }
+
+
+    @Test
+    public void invalidPagesShouldBeRejected() {
+        assertThrows(InvalidRangeException.class, () -> {
+            await(diffController.compare(testId, 0, 0));
+        });
+    }
+
+
+    @Test
+    public void firstDiffsShouldBeReturnedWithTheNextCursor() {
+        diffController.putLeft(
+                testId,
+                new ComparisonOperand(left)
+        );
+
+        diffController.putRight(
+                testId,
+                new ComparisonOperand(right)
+        );
+
+
+        DiffPage scannedPage =
+                await(diffController.compareFirst(testId, 2));
+
+        assertThat(scannedPage.isSameLength(), is(true));
+        assertThat(scannedPage.getDiffs(), equalTo(expectedComparisonResult.getDiffs().subList(0, 2)));
+        assertThat(scannedPage.getNextCursor(), is(13));
+
+
+        await(diffController.compare(testId));
+
+        DiffPage cachedPage =
+                await(diffController.compareFirst(testId, 2));
+
+        assertThat(cachedPage.getDiffs(), equalTo(scannedPage.getDiffs()));
+        assertThat(cachedPage.getNextCursor(), is(13));
+
+
+        DiffPage fullPage =
+                await(diffController.compareFirst(testId, 10));
+
+        assertThat(fullPage.getDiffs(), equalTo(expectedComparisonResult.getDiffs()));
+        assertThat(fullPage.getNextCursor(), is(nullValue()));
+
+
+        assertThrows(InvalidRangeException.class, () -> {
+            await(diffController.compareFirst(testId, 0));
+        });
+
+        diffController.delete(testId);
+    }
+
+
+    @Test
+    public void summariesAndEqualityChecksShouldBeComputed() {
+        diffController.putLeft(
+                testId,
+                new ComparisonOperand(left)
+        );
+
+        diffController.putRight(
+                testId,
+                new ComparisonOperand(right)
+        );
+
+        assertThat(
+                await(diffController.summarize(testId)),
+                equalTo(new DiffSummary(true, 4, 11))
+        );
+
+        assertThat(await(diffController.checkEquality(testId)).isEqual(), is(false));
+
+
+        diffController.putRight(
+                testId,
+                new ComparisonOperand(left)
+        );
+
+        assertThat(
+                await(diffController.summarize(testId)),
+                equalTo(new DiffSummary(true, 0, 0))
+        );
+
+        assertThat(await(diffController.checkEquality(testId)).isEqual(), is(true));
+
+
+        diffController.putRight(
+                testId,
+                new ComparisonOperand("ABC".getBytes())
+        );
+
+        assertThat(
+                await(diffController.summarize(testId)),
+                equalTo(DiffSummary.ofDifferentLengths())
+        );
+
+        EqualityCheck equalityCheck =
+                await(diffController.checkEquality(testId));
+
+        assertThat(equalityCheck.isSameLength(), is(false));
+        assertThat(equalityCheck.isEqual(), is(false));
+
+        diffController.delete(testId);
+    }
+
+
+    @Test
+    public void streamedResponsesShouldHaveTheDefaultFormat() throws IOException {
+        diffController.putLeft(
+                testId,
+                new ComparisonOperand(left)
+        );
+
+        diffController.putRight(
+                testId,
+                new ComparisonOperand(right)
+        );
+
+        ObjectMapper objectMapper =
+                new ObjectMapper();
+
+        JsonNode expectedJson =
+                objectMapper.valueToTree(expectedComparisonResult);
+
+
+        MockHttpServletResponse scannedResponse =
+                new MockHttpServletResponse();
+
+        await(diffController.compareStreaming(testId, MediaType.APPLICATION_JSON_VALUE, scannedResponse));
+
+        assertThat(
+                objectMapper.readTree(scannedResponse.getContentAsByteArray()),
+                equalTo(expectedJson)
+        );
+
+
+        await(diffController.compare(testId));
+
+        MockHttpServletResponse cachedResponse =
+                new MockHttpServletResponse();
+
+        await(diffController.compareStreaming(testId, MediaType.APPLICATION_JSON_VALUE, cachedResponse));
+
+        assertThat(
+                objectMapper.readTree(cachedResponse.getContentAsByteArray()),
+                equalTo(expectedJson)
+        );
+
+        diffController.delete(testId);
+    }
+
+
+    @Test
+    public void streamingMissingOperandsShouldFail() {
+        assertThrows(DataNotFoundException.class, () -> {
+            await(diffController.compareStreaming(testId, MediaType.APPLICATION_JSON_VALUE, new MockHttpServletResponse()));
+        });
+    }
+
+
+    @Test
+    public void streamedResponsesShouldSupportTheCompactFormat() throws IOException {
+        diffController.putLeft(
+                testId,
+                new ComparisonOperand(left)
+        );
+
+        diffController.putRight(
+                testId,
+                new ComparisonOperand(right)
+        );
+
+        MockHttpServletResponse response =
+                new MockHttpServletResponse();
+
+        await(diffController.compareStreaming(
+                testId,
+                "application/json;q=0.5, " + CompactComparisonResultConverter.mediaTypeValue,
+                response
+        ));
+
+
+        assertThat(
+                response.getContentType(),
+                equalTo(CompactComparisonResultConverter.mediaTypeValue)
+        );
+
+        assertThat(
+                CompactDiffDecoder.decode(response.getContentAsByteArray()),
+                equalTo(expectedComparisonResult)
+        );
+
+        diffController.delete(testId);
+    }
+
+
+    @Test
+    public void operandsHavingDifferentLengthsShouldBeAligned() {
+        diffController.putLeft(
+                testId,
+                new ComparisonOperand("Hello, world!".getBytes())
+        );
+
+        diffController.putRight(
+                testId,
+                new ComparisonOperand("Hello, wonderful world!".getBytes())
+        );
+
+        Alignment alignment =
+                await(diffController.align(testId));
+
+        assertThat(alignment.getLeftLength(), is(13));
+        assertThat(alignment.getRightLength(), is(23));
+        assertThat(alignment.isCoarse(), is(false));
+
+        assertThat(
+                alignment.getRegions(),
+                equalTo(Collections.singletonList(new AlignedRegion(9, 0, 9, 10)))
+        );
+
+        diffController.delete(testId);
+    }
+
+
+    @Test
+    public void aligningAMissingOperandShouldFail() {
+        diffController.putLeft(
+                testId,
+                new ComparisonOperand("Hello, world!".getBytes())
+        );
+
+        assertThrows(DataNotFoundException.class, () -> {
+            await(diffController.align(testId));
+        });
+
+        diffController.delete(testId);
+    }
+
+
+    @Test
+    public void eachRequestShouldSelectAtMostOneComparisonMode() throws Exception {
+        diffController.putLeft(
+                testId,
+                new ComparisonOperand(left)
+        );
+
+        diffController.putRight(
+                testId,
+                new ComparisonOperand(right)
+        );
+
+        MockMvc mockMvc =
+                MockMvcBuilders
+                        .standaloneSetup(diffController)
+                        .build();
+
+        String comparisonPath =
+                DiffController.path + "/" + testId;
+
+
+        String[][] conflictingParams = {
+                {"summary", "true", "equality", "true"},
+                {"limit", "3", "first", "2"},
+                {"stream", "true", "align", "true"},
+                {"cursor", "4", "summary", "true"},
+                {"cursor", "4", "", ""}
+        };
+
+        for (String[] params : conflictingParams) {
+            MockHttpServletRequestBuilder requestBuilder =
+                    get(comparisonPath).param(params[0], params[1]);
+
+            if (!params[2].isEmpty()) {
+                requestBuilder.param(params[2], params[3]);
+            }
+
+            mockMvc.perform(requestBuilder)
+                    .andExpect(status().isBadRequest());
+        }
+
+
+        MvcResult summaryResult =
+                mockMvc.perform(
+                        get(comparisonPath)
+                                .param("summary", "true")
+                                .param("equality", "false")
+                )
+                        .andExpect(request().asyncStarted())
+                        .andReturn();
+
+        assertThat(summaryResult.getAsyncResult(), equalTo(new DiffSummary(true, 4, 11)));
+
+
+        MvcResult pageResult =
+                mockMvc.perform(
+                        get(comparisonPath)
+                                .param("limit", "1")
+                                .param("cursor", "5")
+                )
+                        .andExpect(request().asyncStarted())
+                        .andReturn();
+
+        assertThat(((DiffPage) pageResult.getAsyncResult()).getDiffs(), equalTo(Collections.singletonList(new Diff(10, 1))));
+
+        diffController.delete(testId);
+    }
 }
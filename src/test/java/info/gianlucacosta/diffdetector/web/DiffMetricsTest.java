@@ -0,0 +1,180 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web;
+
+import info.gianlucacosta.diffdetector.web.diff.ComparisonResultCache;
+import info.gianlucacosta.diffdetector.web.diff.DiffService;
+import info.gianlucacosta.diffdetector.web.storage.InMemoryByteRepository;
+import info.gianlucacosta.diffdetector.web.storage.OperandPairRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+
+public class DiffMetricsTest {
+    private final OperandPairRepository operandPairRepository =
+            new OperandPairRepository(new InMemoryByteRepository());
+
+    private final DiffService diffService =
+            new DiffService();
+
+    private final ComparisonResultCache comparisonResultCache =
+            new ComparisonResultCache(100, 1024 * 1024);
+
+    private final ComparisonCoordinator comparisonCoordinator =
+            new ComparisonCoordinator(
+                    operandPairRepository,
+                    diffService,
+                    comparisonResultCache,
+                    false
+            );
+
+    private final ComparisonExecutor comparisonExecutor =
+            new ComparisonExecutor(1, 4);
+
+    private final EndpointLatencyInterceptor endpointLatencyInterceptor =
+            new EndpointLatencyInterceptor();
+
+    private final DiffMetrics diffMetrics =
+            new DiffMetrics(
+                    endpointLatencyInterceptor,
+                    diffService,
+                    operandPairRepository,
+                    comparisonResultCache,
+                    comparisonCoordinator,
+                    comparisonExecutor
+            );
+
+
+    @AfterEach
+    public void shutdown() {
+        comparisonExecutor.shutdown();
+    }
+
+
+    private Map<String, Number> getMetricValues() {
+        return diffMetrics.metrics()
+                .stream()
+                .collect(Collectors.toMap(
+                        Metric::getName,
+                        Metric::getValue
+                ));
+    }
+
+
+    @Test
+    public void requestsShouldBeReflectedInTheMetrics() throws Exception {
+        MockMvc mockMvc =
+                MockMvcBuilders
+                        .standaloneSetup(
+                                new DiffController(operandPairRepository, comparisonCoordinator, comparisonExecutor)
+                        )
+                        .addInterceptors(endpointLatencyInterceptor)
+                        .build();
+
+        operandPairRepository.saveLeft("test", "ABCDEFGH".getBytes());
+        operandPairRepository.saveRight("test", "ABXDEFXX".getBytes());
+        operandPairRepository.saveLeft("other", "ABC".getBytes());
+
+
+        MvcResult asyncResult =
+                mockMvc.perform(get(DiffController.path + "/test"))
+                        .andExpect(request().asyncStarted())
+                        .andReturn();
+
+        mockMvc.perform(asyncDispatch(asyncResult))
+                .andExpect(status().isOk());
+
+        Map<String, Number> metricValues =
+                getMetricValues();
+
+        assertThat(metricValues.get("diffdetector.endpoint.DiffController.compare.full.latency-ms.count"), is(1L));
+        assertThat(metricValues.get("diffdetector.comparison.count"), is(1L));
+        assertThat(metricValues.get("diffdetector.comparison.scanned-bytes"), is(8L));
+        assertThat(metricValues.get("diffdetector.comparison.diffs.max"), is(2.0));
+        assertThat(metricValues.get("diffdetector.storage.pairs"), is(2));
+        assertThat(metricValues.get("diffdetector.storage.operands"), is(3L));
+        assertThat(metricValues.get("diffdetector.storage.operand-bytes"), is(19L));
+        assertThat(metricValues.get("diffdetector.cache.misses"), is(1L));
+        assertThat(metricValues.get("diffdetector.executor.rejected"), is(0L));
+
+
+        mockMvc.perform(delete(DiffController.path + "/test"));
+
+        metricValues =
+                getMetricValues();
+
+        assertThat(metricValues, hasKey("diffdetector.endpoint.DiffController.delete.latency-ms.p99"));
+        assertThat(metricValues.get("diffdetector.storage.operands"), is(1L));
+        assertThat(metricValues.get("diffdetector.comparison.bytes-per-second").doubleValue(), greaterThan(0.0));
+    }
+
+
+    @Test
+    public void eachComparisonModeShouldHaveItsOwnLatency() throws Exception {
+        MockMvc mockMvc =
+                MockMvcBuilders
+                        .standaloneSetup(
+                                new DiffController(operandPairRepository, comparisonCoordinator, comparisonExecutor)
+                        )
+                        .addInterceptors(endpointLatencyInterceptor)
+                        .build();
+
+        operandPairRepository.saveLeft("test", "ABCDEFGH".getBytes());
+        operandPairRepository.saveRight("test", "ABXDEFXX".getBytes());
+
+
+        for (String query : new String[]{"", "?summary=true", "?summary=true", "?equality=true"}) {
+            MvcResult asyncResult =
+                    mockMvc.perform(get(DiffController.path + "/test" + query))
+                            .andExpect(request().asyncStarted())
+                            .andReturn();
+
+            mockMvc.perform(asyncDispatch(asyncResult))
+                    .andExpect(status().isOk());
+        }
+
+        Map<String, Number> metricValues =
+                getMetricValues();
+
+        assertThat(metricValues.get("diffdetector.endpoint.DiffController.compare.full.latency-ms.count"), is(1L));
+        assertThat(metricValues.get("diffdetector.endpoint.DiffController.compare.summary.latency-ms.count"), is(2L));
+        assertThat(metricValues.get("diffdetector.endpoint.DiffController.compare.equality.latency-ms.count"), is(1L));
+        assertThat(metricValues, not(hasKey("diffdetector.endpoint.DiffController.compare.latency-ms.count")));
+    }
+}
@@ -0,0 +1,401 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.embedded.EmbeddedWebApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load harness: starts the app on a random local port, then drives it via HTTP
+ * with concurrent users - each one repeatedly uploading a pair of operands,
+ * comparing them and deleting them - and finally reports throughput
+ * and latency percentiles per endpoint.
+ * <p>
+ * It is configured via the following system properties:
+ * <ul>
+ * <li><b>loadtest.users</b>: the number of concurrent users. Default: 16</li>
+ * <li><b>loadtest.warmup-seconds</b>: the initial period whose requests are not measured. Default: 5</li>
+ * <li><b>loadtest.duration-seconds</b>: the measured period. Default: 30</li>
+ * <li><b>loadtest.operand-size</b>: the length of each operand, in bytes. Default: 1048576</li>
+ * <li><b>loadtest.diff-interval</b>: the distance between the diffs of the operands, in bytes. Default: 4096</li>
+ * <li><b>loadtest.compares-per-pair</b>: the comparisons requested after uploading each pair. Default: 4</li>
+ * </ul>
+ * <p>
+ * The command-line arguments are passed to the app - for example, <i>--diffdetector.storage.type=off-heap</i>.
+ * <p>
+ * The exit code is 1 if any request failed.
+ */
+public class LoadHarness {
+    private enum Endpoint {
+        UPLOAD,
+        COMPARE,
+        DELETE
+    }
+
+
+    private static final int users =
+            Integer.getInteger("loadtest.users", 16);
+
+    private static final int warmupSeconds =
+            Integer.getInteger("loadtest.warmup-seconds", 5);
+
+    private static final int durationSeconds =
+            Integer.getInteger("loadtest.duration-seconds", 30);
+
+    private static final int operandSize =
+            Integer.getInteger("loadtest.operand-size", 1024 * 1024);
+
+    private static final int diffInterval =
+            Integer.getInteger("loadtest.diff-interval", 4096);
+
+    private static final int comparesPerPair =
+            Integer.getInteger("loadtest.compares-per-pair", 4);
+
+
+    public static void main(String[] args) throws Exception {
+        if (users < 1 || warmupSeconds < 0 || durationSeconds < 1 || operandSize < 0 || diffInterval < 1 || comparesPerPair < 0) {
+            throw new IllegalArgumentException("Invalid load test settings");
+        }
+
+        //Otherwise, HttpURLConnection would keep just 5 connections alive
+        System.setProperty("http.maxConnections", String.valueOf(users));
+
+        List<String> appArgs =
+                new ArrayList<>(Arrays.asList(args));
+
+        appArgs.add("--server.port=0");
+
+        boolean failed;
+
+        try (ConfigurableApplicationContext applicationContext = SpringApplication.run(App.class, appArgs.toArray(new String[0]))) {
+            int port =
+                    ((EmbeddedWebApplicationContext) applicationContext)
+                            .getEmbeddedServletContainer()
+                            .getPort();
+
+            failed =
+                    runLoad("http://localhost:" + port + DiffController.path + "/");
+        }
+
+        System.exit(failed ? 1 : 0);
+    }
+
+
+    private static boolean runLoad(String baseUrl) throws InterruptedException {
+        Random random =
+                new Random(90);
+
+        byte[] left =
+                new byte[operandSize];
+
+        random.nextBytes(left);
+
+        byte[] right =
+                left.clone();
+
+        for (int offset = 0; offset < operandSize; offset += diffInterval) {
+            right[offset] ^= 0x5A;
+        }
+
+
+        long measureStartTime =
+                System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+
+        long endTime =
+                measureStartTime + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        System.out.printf(
+                "Running %d users for %d + %d seconds - operands of %d bytes, %d comparisons per pair...%n",
+                users,
+                warmupSeconds,
+                durationSeconds,
+                operandSize,
+                comparesPerPair
+        );
+
+        List<User> userList =
+                new ArrayList<>();
+
+        for (int userIndex = 0; userIndex < users; userIndex++) {
+            User user =
+                    new User(baseUrl, "load-" + userIndex + "-", left, right, measureStartTime, endTime);
+
+            userList.add(user);
+
+            user.start();
+        }
+
+        for (User user : userList) {
+            user.join();
+        }
+
+
+        return printReport(userList);
+    }
+
+
+    private static boolean printReport(List<User> userList) {
+        System.out.println();
+        System.out.printf(
+                "%-10s %10s %8s %14s %10s %10s %10s%n",
+                "Endpoint",
+                "Requests",
+                "Errors",
+                "Requests/s",
+                "p50 (ms)",
+                "p99 (ms)",
+                "p99.9 (ms)"
+        );
+
+        boolean failed =
+                false;
+
+        for (Endpoint endpoint : Endpoint.values()) {
+            LatencyList latencies =
+                    new LatencyList();
+
+            long errorCount =
+                    0;
+
+            for (User user : userList) {
+                latencies.addAll(user.latencies.get(endpoint));
+
+                errorCount +=
+                        user.errorCounts.get(endpoint)[0];
+            }
+
+            long[] sortedLatencies =
+                    latencies.toSortedArray();
+
+            System.out.printf(
+                    "%-10s %10d %8d %14.1f %10.2f %10.2f %10.2f%n",
+                    endpoint,
+                    sortedLatencies.length,
+                    errorCount,
+                    (double) sortedLatencies.length / durationSeconds,
+                    getPercentileMillis(sortedLatencies, 0.5),
+                    getPercentileMillis(sortedLatencies, 0.99),
+                    getPercentileMillis(sortedLatencies, 0.999)
+            );
+
+            failed |=
+                    errorCount > 0;
+        }
+
+        return failed;
+    }
+
+
+    private static double getPercentileMillis(long[] sortedLatencies, double quantile) {
+        if (sortedLatencies.length == 0) {
+            return 0;
+        }
+
+        int index =
+                (int) Math.ceil(quantile * sortedLatencies.length) - 1;
+
+        return sortedLatencies[Math.max(index, 0)] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+
+    /**
+     * Thread repeatedly uploading, comparing and deleting pairs of operands
+     */
+    private static class User extends Thread {
+        private final String baseUrl;
+        private final String idPrefix;
+        private final byte[] left;
+        private final byte[] right;
+        private final long measureStartTime;
+        private final long endTime;
+
+        final Map<Endpoint, LatencyList> latencies =
+                new EnumMap<>(Endpoint.class);
+
+        final Map<Endpoint, long[]> errorCounts =
+                new EnumMap<>(Endpoint.class);
+
+
+        User(String baseUrl, String idPrefix, byte[] left, byte[] right, long measureStartTime, long endTime) {
+            super("LoadHarness-" + idPrefix);
+
+            this.baseUrl = baseUrl;
+            this.idPrefix = idPrefix;
+            this.left = left;
+            this.right = right;
+            this.measureStartTime = measureStartTime;
+            this.endTime = endTime;
+
+            for (Endpoint endpoint : Endpoint.values()) {
+                latencies.put(endpoint, new LatencyList());
+                errorCounts.put(endpoint, new long[1]);
+            }
+        }
+
+
+        @Override
+        public void run() {
+            long iteration =
+                    0;
+
+            while (System.nanoTime() < endTime) {
+                String id =
+                        idPrefix + iteration++;
+
+                send(Endpoint.UPLOAD, "POST", id + "/left", left);
+                send(Endpoint.UPLOAD, "POST", id + "/right", right);
+
+                for (int compareIndex = 0; compareIndex < comparesPerPair; compareIndex++) {
+                    send(Endpoint.COMPARE, "GET", id, null);
+                }
+
+                send(Endpoint.DELETE, "DELETE", id, null);
+            }
+        }
+
+
+        private void send(Endpoint endpoint, String method, String path, byte[] body) {
+            long startTime =
+                    System.nanoTime();
+
+            boolean succeeded;
+
+            try {
+                succeeded =
+                        sendRequest(method, baseUrl + path, body) < 400;
+            } catch (IOException ex) {
+                succeeded =
+                        false;
+            }
+
+            long endTime =
+                    System.nanoTime();
+
+            if (startTime < measureStartTime || endTime > this.endTime) {
+                return;
+            }
+
+            if (succeeded) {
+                latencies.get(endpoint).add(endTime - startTime);
+            } else {
+                errorCounts.get(endpoint)[0]++;
+            }
+        }
+
+
+        /**
+         * Sends a request, reading the whole response so that the connection can be reused
+         *
+         * @return The response status
+         */
+        private static int sendRequest(String method, String url, byte[] body) throws IOException {
+            HttpURLConnection connection =
+                    (HttpURLConnection) new URL(url).openConnection();
+
+            connection.setRequestMethod(method);
+
+            if (body != null) {
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", "application/octet-stream");
+                connection.setFixedLengthStreamingMode(body.length);
+
+                try (OutputStream outputStream = connection.getOutputStream()) {
+                    outputStream.write(body);
+                }
+            }
+
+            int status =
+                    connection.getResponseCode();
+
+            InputStream responseStream =
+                    (status < 400) ?
+                            connection.getInputStream()
+                            :
+                            connection.getErrorStream();
+
+            if (responseStream != null) {
+                try (InputStream inputStream = responseStream) {
+                    byte[] buffer =
+                            new byte[8192];
+
+                    while (inputStream.read(buffer) != -1) {
+                        //Just draining the response
+                    }
+                }
+            }
+
+            return status;
+        }
+    }
+
+
+    /**
+     * Growable list of latencies, in nanoseconds, without boxing
+     */
+    private static class LatencyList {
+        private long[] values =
+                new long[1024];
+
+        private int size;
+
+
+        void add(long value) {
+            if (size == values.length) {
+                values =
+                        Arrays.copyOf(values, size * 2);
+            }
+
+            values[size++] =
+                    value;
+        }
+
+
+        void addAll(LatencyList other) {
+            for (int index = 0; index < other.size; index++) {
+                add(other.values[index]);
+            }
+        }
+
+
+        long[] toSortedArray() {
+            long[] result =
+                    Arrays.copyOf(values, size);
+
+            Arrays.sort(result);
+
+            return result;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.diff;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+
+public class AlignmentServiceTest {
+    private final AlignmentService alignmentService =
+            new AlignmentService(256, 4);
+
+
+    private Alignment align(byte[] left, byte[] right) {
+        Alignment alignment =
+                alignmentService.align(ByteBuffer.wrap(left), ByteBuffer.wrap(right));
+
+        assertConsistent(left, right, alignment);
+
+        return alignment;
+    }
+
+
+    /**
+     * The bytes outside the regions must be identical, and the regions must be ascending
+     */
+    private static void assertConsistent(byte[] left, byte[] right, Alignment alignment) {
+        int leftOffset =
+                0;
+
+        int rightOffset =
+                0;
+
+        for (AlignedRegion region : alignment.getRegions()) {
+            assertThat(region.getLeftOffset() - leftOffset, equalTo(region.getRightOffset() - rightOffset));
+
+            assertThat(
+                    ByteBuffer.wrap(left, leftOffset, region.getLeftOffset() - leftOffset),
+                    equalTo(ByteBuffer.wrap(right, rightOffset, region.getRightOffset() - rightOffset))
+            );
+
+            leftOffset =
+                    region.getLeftOffset() + region.getLeftLength();
+
+            rightOffset =
+                    region.getRightOffset() + region.getRightLength();
+        }
+
+        assertThat(left.length - leftOffset, equalTo(right.length - rightOffset));
+
+        assertThat(
+                ByteBuffer.wrap(left, leftOffset, left.length - leftOffset),
+                equalTo(ByteBuffer.wrap(right, rightOffset, right.length - rightOffset))
+        );
+    }
+
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] result =
+                new byte[length];
+
+        random.nextBytes(result);
+
+        return result;
+    }
+
+
+    private static byte[] filledBytes(int length, int value) {
+        byte[] result =
+                new byte[length];
+
+        Arrays.fill(result, (byte) value);
+
+        return result;
+    }
+
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream outputStream =
+                new ByteArrayOutputStream();
+
+        for (byte[] part : parts) {
+            outputStream.write(part, 0, part.length);
+        }
+
+        return outputStream.toByteArray();
+    }
+
+
+    @Test
+    public void identicalOperandsShouldHaveNoRegions() {
+        byte[] data =
+                randomBytes(new Random(90), 10_000);
+
+        Alignment alignment =
+                align(data, data.clone());
+
+        assertThat(alignment.getRegions(), equalTo(Collections.emptyList()));
+        assertThat(alignment.isCoarse(), is(false));
+    }
+
+
+    @Test
+    public void insertionsAndDeletionsShouldBeLocated() {
+        Random random =
+                new Random(90);
+
+        byte[] head =
+                randomBytes(random, 20_000);
+
+        byte[] middle =
+                randomBytes(random, 30_000);
+
+        byte[] tail =
+                randomBytes(random, 20_000);
+
+        byte[] inserted =
+                randomBytes(random, 1234);
+
+
+        byte[] left =
+                concat(head, middle, tail);
+
+        byte[] right =
+                concat(head, inserted, middle, tail);
+
+        assertThat(
+                align(left, right).getRegions(),
+                equalTo(Collections.singletonList(new AlignedRegion(20_000, 0, 20_000, 1234)))
+        );
+
+        assertThat(
+                align(right, left).getRegions(),
+                equalTo(Collections.singletonList(new AlignedRegion(20_000, 1234, 20_000, 0)))
+        );
+    }
+
+
+    @Test
+    public void scatteredEditsShouldBeReportedSeparately() {
+        Random random =
+                new Random(90);
+
+        byte[] a =
+                randomBytes(random, 10_000);
+
+        byte[] b =
+                randomBytes(random, 10_000);
+
+        byte[] c =
+                randomBytes(random, 10_000);
+
+        byte[] d =
+                randomBytes(random, 10_000);
+
+
+        byte[] left =
+                concat(a, b, new byte[]{1, 2, 3}, c, d);
+
+        byte[] right =
+                concat(a, new byte[]{9}, b, new byte[]{4, 5}, c, d, new byte[]{7, 7});
+
+        assertThat(
+                align(left, right).getRegions(),
+                equalTo(
+                        Arrays.asList(
+                                new AlignedRegion(10_000, 0, 10_000, 1),
+                                new AlignedRegion(20_000, 3, 20_001, 2),
+                                new AlignedRegion(40_003, 0, 40_003, 2)
+                        )
+                )
+        );
+    }
+
+
+    @Test
+    public void randomEditsShouldProduceConsistentAlignments() {
+        Random random =
+                new Random(90);
+
+        for (int round = 0; round < 20; round++) {
+            byte[] left =
+                    randomBytes(random, 50_000 + random.nextInt(50_000));
+
+            ByteArrayOutputStream rightStream =
+                    new ByteArrayOutputStream();
+
+            int offset =
+                    0;
+
+            while (offset < left.length) {
+                int keptLength =
+                        Math.min(left.length - offset, random.nextInt(10_000));
+
+                rightStream.write(left, offset, keptLength);
+
+                offset +=
+                        keptLength + random.nextInt(100);
+
+                byte[] inserted =
+                        randomBytes(random, random.nextInt(100));
+
+                rightStream.write(inserted, 0, inserted.length);
+            }
+
+            byte[] right =
+                    rightStream.toByteArray();
+
+            Alignment alignment =
+                    align(left, right);
+
+            int changedBytes =
+                    alignment.getRegions()
+                            .stream()
+                            .mapToInt(region -> region.getLeftLength() + region.getRightLength())
+                            .sum();
+
+            assertThat(changedBytes, lessThan((left.length + right.length) / 10));
+        }
+    }
+
+
+    @Test
+    public void unrelatedOperandsShouldBeASingleChangedRegion() {
+        Random random =
+                new Random(90);
+
+        List<AlignedRegion> regions =
+                align(randomBytes(random, 5000), randomBytes(random, 7000)).getRegions();
+
+        assertThat(regions, equalTo(Collections.singletonList(new AlignedRegion(0, 5000, 0, 7000))));
+        assertThat(regions.get(0).getType(), is(AlignedRegion.Type.CHANGED));
+    }
+
+
+    @Test
+    public void reachingTheCostCeilingShouldReturnACoarseResult() {
+        Random random =
+                new Random(90);
+
+        byte[] common =
+                randomBytes(random, 1000);
+
+        //Shorter than a chunk of the first step, so that the operands must be chunked again
+        byte[] left =
+                concat(filledBytes(300, 1), common, filledBytes(400, 1));
+
+        byte[] right =
+                concat(filledBytes(500, 2), common, filledBytes(200, 2));
+
+
+        Alignment coarseAlignment =
+                new AlignmentService(4096, 1).align(ByteBuffer.wrap(left), ByteBuffer.wrap(right));
+
+        assertConsistent(left, right, coarseAlignment);
+        assertThat(coarseAlignment.isCoarse(), is(true));
+
+        assertThat(
+                coarseAlignment.getRegions(),
+                equalTo(Collections.singletonList(new AlignedRegion(0, 1700, 0, 1700)))
+        );
+
+
+        Alignment fineAlignment =
+                new AlignmentService(4096, 4).align(ByteBuffer.wrap(left), ByteBuffer.wrap(right));
+
+        assertConsistent(left, right, fineAlignment);
+        assertThat(fineAlignment.isCoarse(), is(false));
+
+        assertThat(
+                fineAlignment.getRegions(),
+                equalTo(
+                        Arrays.asList(
+                                new AlignedRegion(0, 300, 0, 500),
+                                new AlignedRegion(1300, 400, 1500, 200)
+                        )
+                )
+        );
+    }
+}
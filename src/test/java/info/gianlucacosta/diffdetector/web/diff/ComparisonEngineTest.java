@@ -0,0 +1,142 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.diff;
+
+import info.gianlucacosta.diffdetector.core.Diff;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+
+public class ComparisonEngineTest {
+    private static List<Diff> scan(ComparisonEngine comparisonEngine, byte[] left, byte[] right) {
+        DiffTracker diffTracker =
+                new DiffTracker();
+
+        comparisonEngine.scan(
+                ByteBuffer.wrap(left),
+                ByteBuffer.wrap(right),
+                0,
+                left.length,
+                diffTracker
+        );
+
+        return diffTracker.getDiffs();
+    }
+
+
+    @Test
+    public void wordEngineShouldDetectDiffsCrossingWordBoundaries() {
+        byte[] left =
+                "ABCDEFGHIJKLMNOPQRSTUVWXYZ".getBytes();
+
+        byte[] right =
+                "ABCDEFGXXXXXXXXXXRSTUVWX99".getBytes();
+
+
+        assertThat(
+                scan(ComparisonEngine.WORD, left, right),
+                equalTo(
+                        Arrays.asList(
+                                new Diff(7, 10),
+                                new Diff(24, 2)
+                        )
+                )
+        );
+    }
+
+
+    @Test
+    public void wordEngineShouldDetectDiffsSpanningTheWholeOperands() {
+        byte[] left =
+                "ABCDEFGHIJKLMNOPQRSTUVWXYZ".getBytes();
+
+        byte[] right =
+                "abcdefghijklmnopqrstuvwxyz".getBytes();
+
+
+        assertThat(
+                scan(ComparisonEngine.WORD, left, right),
+                equalTo(
+                        Collections.singletonList(
+                                new Diff(0, 26)
+                        )
+                )
+        );
+    }
+
+
+    @Test
+    public void wordEngineShouldDetectEqualBytesHavingTheHighBitSet() {
+        byte[] left =
+                new byte[]{(byte) 0x80, 1, (byte) 0xFF, 2, (byte) 0x80, 3, 4, 5, 6};
+
+        byte[] right =
+                new byte[]{(byte) 0x81, 1, (byte) 0xFF, 7, (byte) 0x80, 8, 4, 9, 6};
+
+
+        assertThat(
+                scan(ComparisonEngine.WORD, left, right),
+                equalTo(scan(ComparisonEngine.BYTE, left, right))
+        );
+    }
+
+
+    @Test
+    public void wordEngineShouldMatchTheReferenceEngineOnRandomData() {
+        Random random =
+                new Random(90);
+
+        int[] diffPercentages =
+                {0, 1, 10, 50, 90, 100};
+
+        for (int length = 0; length < 100; length++) {
+            for (int diffPercentage : diffPercentages) {
+                byte[] left =
+                        new byte[length];
+
+                random.nextBytes(left);
+
+                byte[] right =
+                        left.clone();
+
+                for (int offset = 0; offset < length; offset++) {
+                    if (random.nextInt(100) < diffPercentage) {
+                        right[offset] ^= 1 << random.nextInt(8);
+                    }
+                }
+
+
+                assertThat(
+                        scan(ComparisonEngine.WORD, left, right),
+                        equalTo(scan(ComparisonEngine.BYTE, left, right))
+                );
+            }
+        }
+    }
+}
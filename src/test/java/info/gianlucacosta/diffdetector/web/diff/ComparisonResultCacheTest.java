@@ -0,0 +1,204 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.diff;
+
+import info.gianlucacosta.diffdetector.core.ComparisonResult;
+import info.gianlucacosta.diffdetector.core.Diff;
+import info.gianlucacosta.diffdetector.web.storage.InMemoryByteRepository;
+import info.gianlucacosta.diffdetector.web.storage.OperandPair;
+import info.gianlucacosta.diffdetector.web.storage.OperandPairRepository;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+
+public class ComparisonResultCacheTest {
+    private final ComparisonResult comparisonResult =
+            ComparisonResult.ofDiffs(
+                    Arrays.asList(
+                            new Diff(4, 3),
+                            new Diff(10, 1)
+                    )
+            );
+
+    private final AtomicInteger comparisonCount =
+            new AtomicInteger();
+
+    private final Supplier<ComparisonResult> comparison = () -> {
+        comparisonCount.incrementAndGet();
+        return comparisonResult;
+    };
+
+
+    @Test
+    public void repeatedComparisonsShouldHitTheCache() {
+        ComparisonResultCache comparisonResultCache =
+                new ComparisonResultCache(10, 1024 * 1024);
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(
+                    comparisonResultCache.getOrCompare("test", 1, 2, comparison),
+                    equalTo(comparisonResult)
+            );
+        }
+
+
+        assertThat(comparisonCount.get(), is(1));
+        assertThat(comparisonResultCache.getMissCount(), is(1L));
+        assertThat(comparisonResultCache.getHitCount(), is(2L));
+    }
+
+
+    @Test
+    public void newOperandVersionsShouldNotHitTheCache() {
+        ComparisonResultCache comparisonResultCache =
+                new ComparisonResultCache(10, 1024 * 1024);
+
+        comparisonResultCache.getOrCompare("test", 1, 2, comparison);
+        comparisonResultCache.getOrCompare("test", 3, 2, comparison);
+        comparisonResultCache.getOrCompare("test", 3, 4, comparison);
+
+
+        assertThat(comparisonCount.get(), is(3));
+        assertThat(comparisonResultCache.getHitCount(), is(0L));
+        assertThat(comparisonResultCache.getSize(), is(1));
+    }
+
+
+    @Test
+    public void invalidatingAnIdShouldRemoveItsCachedResult() {
+        ComparisonResultCache comparisonResultCache =
+                new ComparisonResultCache(10, 1024 * 1024);
+
+        comparisonResultCache.getOrCompare("test", 1, 2, comparison);
+
+        comparisonResultCache.invalidate("test");
+
+
+        assertThat(comparisonResultCache.getSize(), is(0));
+        assertThat(comparisonResultCache.getEstimatedBytes(), is(0L));
+    }
+
+
+    @Test
+    public void exceedingTheMaxEntriesShouldEvictTheLeastRecentlyUsedResult() {
+        ComparisonResultCache comparisonResultCache =
+                new ComparisonResultCache(2, 1024 * 1024);
+
+        comparisonResultCache.getOrCompare("a", 1, 2, comparison);
+        comparisonResultCache.getOrCompare("b", 3, 4, comparison);
+        comparisonResultCache.getOrCompare("a", 1, 2, comparison);
+        comparisonResultCache.getOrCompare("c", 5, 6, comparison);
+
+        comparisonResultCache.getOrCompare("a", 1, 2, comparison);
+        comparisonResultCache.getOrCompare("b", 3, 4, comparison);
+
+
+        assertThat(comparisonResultCache.getEvictionCount(), is(2L));
+        assertThat(comparisonResultCache.getSize(), is(2));
+        assertThat(comparisonCount.get(), is(4));
+    }
+
+
+    @Test
+    public void exceedingTheMaxBytesShouldEvictResults() {
+        ComparisonResultCache comparisonResultCache =
+                new ComparisonResultCache(10, 300);
+
+        comparisonResultCache.getOrCompare("a", 1, 2, comparison);
+        comparisonResultCache.getOrCompare("b", 3, 4, comparison);
+
+
+        assertThat(comparisonResultCache.getSize(), is(1));
+        assertThat(comparisonResultCache.getEvictionCount(), is(1L));
+    }
+
+
+    @Test
+    public void resultsExceedingTheMaxBytesShouldNotBeCached() {
+        ComparisonResultCache comparisonResultCache =
+                new ComparisonResultCache(10, 100);
+
+        comparisonResultCache.getOrCompare("test", 1, 2, () ->
+                ComparisonResult.ofDiffs(Collections.emptyList())
+        );
+
+        assertThat(comparisonResultCache.getSize(), is(0));
+    }
+
+
+    @Test
+    public void resultsOfOperandsSavedWhileComparingShouldNotBeCached() {
+        OperandPairRepository operandPairRepository =
+                new OperandPairRepository(new InMemoryByteRepository());
+
+        ComparisonResultCache comparisonResultCache =
+                new ComparisonResultCache(10, 1024 * 1024, operandPairRepository);
+
+        operandPairRepository.saveLeft("test", "ABC".getBytes());
+        operandPairRepository.saveRight("test", "AXC".getBytes());
+
+        long leftVersion;
+        long rightVersion;
+
+        try (OperandPair operandPair = operandPairRepository.acquire("test").get()) {
+            leftVersion =
+                    operandPair.getLeft().get().getVersion();
+
+            rightVersion =
+                    operandPair.getRight().get().getVersion();
+        }
+
+
+        comparisonResultCache.getOrCompare("test", leftVersion, rightVersion, () -> {
+            //An upload completing while the comparison is still running
+            operandPairRepository.saveRight("test", "ABC".getBytes());
+
+            return comparisonResult;
+        });
+
+        assertThat(comparisonResultCache.getSize(), is(0));
+        assertThat(comparisonResultCache.find("test", leftVersion, rightVersion).isPresent(), is(false));
+    }
+
+
+    @Test
+    public void staleResultsShouldNotReplaceNewerOnes() {
+        ComparisonResultCache comparisonResultCache =
+                new ComparisonResultCache(10, 1024 * 1024);
+
+        comparisonResultCache.getOrCompare("test", 3, 4, comparison);
+
+        comparisonResultCache.put("test", 1, 4, ComparisonResult.ofDifferentLengths());
+
+
+        assertThat(comparisonResultCache.find("test", 3, 4), equalTo(Optional.of(comparisonResult)));
+        assertThat(comparisonResultCache.find("test", 1, 4).isPresent(), is(false));
+    }
+}
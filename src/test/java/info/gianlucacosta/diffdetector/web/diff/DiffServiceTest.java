@@ -22,14 +22,30 @@ package info.gianlucacosta.diffdetector.web.diff;
 
 import info.gianlucacosta.diffdetector.core.ComparisonResult;
 import info.gianlucacosta.diffdetector.core.Diff;
+import info.gianlucacosta.diffdetector.web.AllocationMeter;
+import info.gianlucacosta.diffdetector.web.storage.BlockCompression;
+import info.gianlucacosta.diffdetector.web.storage.BlockContent;
+import info.gianlucacosta.diffdetector.web.storage.BlockHashTree;
+import info.gianlucacosta.diffdetector.web.storage.BufferBlockContent;
+import info.gianlucacosta.diffdetector.web.storage.InMemoryByteRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 
 public class DiffServiceTest {
@@ -208,4 +224,895 @@ public class DiffServiceTest {
                 equalTo(expectedComparisonResult)
         );
     }
+
+
+    @Test
+    public void computeDiffShouldScanTheRemainingBytesOfDirectBuffers() {
+        byte[] left =
+                "__ABCDEFGHIJKLMNOPQRSTUVW".getBytes();
+
+        byte[] right =
+                "ABCDXXXHIJXLMXXXXXSTUXX".getBytes();
+
+
+        ByteBuffer leftBuffer =
+                ByteBuffer.allocateDirect(left.length);
+
+        leftBuffer.put(left);
+        leftBuffer.position(2);
+
+        ByteBuffer rightBuffer =
+                ByteBuffer.allocateDirect(right.length);
+
+        rightBuffer.put(right);
+        rightBuffer.flip();
+
+
+        ComparisonResult expectedComparisonResult =
+                ComparisonResult.ofDiffs(
+                        Arrays.asList(
+                                new Diff(4, 3),
+                                new Diff(10, 1),
+                                new Diff(13, 5),
+                                new Diff(21, 2)
+                        )
+                );
+
+
+        assertThat(
+                diffService.compare(leftBuffer, rightBuffer),
+                equalTo(expectedComparisonResult)
+        );
+
+        assertThat(
+                leftBuffer.position(),
+                equalTo(2)
+        );
+    }
+
+
+    @Test
+    public void parallelComparisonShouldStitchDiffsCrossingChunkBoundaries() {
+        int length =
+                1024 * 1024;
+
+        byte[] left =
+                new byte[length];
+
+        new Random(90).nextBytes(left);
+
+        byte[] right =
+                left.clone();
+
+        for (int boundary = 64 * 1024; boundary < length; boundary += 64 * 1024) {
+            for (int offset = boundary - 5; offset < boundary + 3; offset++) {
+                right[offset] ^= 1;
+            }
+        }
+
+        right[length - 1] ^= 1;
+
+
+        for (ComparisonEngine comparisonEngine : ComparisonEngine.values()) {
+            DiffService sequentialDiffService =
+                    new DiffService(comparisonEngine, Integer.MAX_VALUE, 1);
+
+            DiffService parallelDiffService =
+                    new DiffService(comparisonEngine, 0, 4);
+
+            try {
+                ComparisonResult parallelComparisonResult =
+                        parallelDiffService.compare(left, right);
+
+                assertThat(
+                        parallelComparisonResult.getDiffs(),
+                        hasSize(16)
+                );
+
+                assertThat(
+                        parallelComparisonResult,
+                        equalTo(sequentialDiffService.compare(left, right))
+                );
+            } finally {
+                parallelDiffService.shutdown();
+            }
+        }
+    }
+
+
+    @Test
+    public void recomparingARangeShouldMatchAFullComparison() {
+        Random random =
+                new Random(90);
+
+        int length =
+                4096;
+
+        byte[] left =
+                new byte[length];
+
+        random.nextBytes(left);
+
+
+        for (ComparisonEngine comparisonEngine : ComparisonEngine.values()) {
+            DiffService engineDiffService =
+                    new DiffService(comparisonEngine, Integer.MAX_VALUE, 1);
+
+            byte[] right =
+                    left.clone();
+
+            for (int index = 0; index < length; index += 1 + random.nextInt(64)) {
+                right[index] ^= 1 + random.nextInt(255);
+            }
+
+            ComparisonResult comparisonResult =
+                    engineDiffService.compare(left, right);
+
+
+            for (int patchIndex = 0; patchIndex < 200; patchIndex++) {
+                int offset =
+                        random.nextInt(length);
+
+                int patchLength =
+                        random.nextInt(Math.min(256, length - offset) + 1);
+
+                byte[] patchedOperand =
+                        random.nextBoolean() ? left : right;
+
+                for (int index = offset; index < offset + patchLength; index++) {
+                    //Restoring some bytes and altering others, so that diffs both appear and disappear
+                    patchedOperand[index] =
+                            random.nextBoolean() ?
+                                    (byte) random.nextInt()
+                                    :
+                                    ((patchedOperand == left) ? right[index] : left[index]);
+                }
+
+                comparisonResult =
+                        engineDiffService.recompare(
+                                comparisonResult,
+                                ByteBuffer.wrap(left),
+                                ByteBuffer.wrap(right),
+                                offset,
+                                patchLength
+                        );
+
+                assertThat(
+                        comparisonResult,
+                        equalTo(engineDiffService.compare(left, right))
+                );
+            }
+        }
+    }
+
+
+    @Test
+    public void recomparingShouldStitchTheDiffsCrossingTheRangeBoundaries() {
+        byte[] left =
+                "ABCDEFGHIJKLMNOPQRSTUVW".getBytes();
+
+        byte[] right =
+                "ABCDXXXXXXXXXXXXXXSTUVW".getBytes();
+
+        ComparisonResult previousResult =
+                diffService.compare(left, right);
+
+        right[10] = 'K';
+
+
+        assertThat(
+                diffService.recompare(previousResult, ByteBuffer.wrap(left), ByteBuffer.wrap(right), 8, 4),
+                equalTo(
+                        ComparisonResult.ofDiffs(
+                                Arrays.asList(
+                                        new Diff(4, 6),
+                                        new Diff(11, 7)
+                                )
+                        )
+                )
+        );
+
+        right[10] = 'X';
+
+        assertThat(
+                diffService.recompare(previousResult, ByteBuffer.wrap(left), ByteBuffer.wrap(right), 8, 4),
+                equalTo(previousResult)
+        );
+    }
+
+
+    @Test
+    public void streamedDiffsShouldMatchTheDiffList() {
+        Random random =
+                new Random(90);
+
+        byte[] left =
+                new byte[4096];
+
+        random.nextBytes(left);
+
+        byte[] right =
+                left.clone();
+
+        for (int index = 0; index < right.length; index += 1 + random.nextInt(32)) {
+            right[index] ^= 1;
+        }
+
+
+        for (ComparisonEngine comparisonEngine : ComparisonEngine.values()) {
+            DiffService engineDiffService =
+                    new DiffService(comparisonEngine, Integer.MAX_VALUE, 1);
+
+            List<Diff> streamedDiffs =
+                    new ArrayList<>();
+
+            engineDiffService.compare(
+                    ByteBuffer.wrap(left),
+                    ByteBuffer.wrap(right),
+                    (offset, length) -> streamedDiffs.add(new Diff(offset, length))
+            );
+
+
+            assertThat(
+                    streamedDiffs,
+                    equalTo(engineDiffService.compare(left, right).getDiffs())
+            );
+        }
+    }
+
+
+    @Test
+    public void blockComparisonsShouldMatchBufferComparisons() {
+        Random random =
+                new Random(90);
+
+        byte[] left =
+                new byte[10_000];
+
+        random.nextBytes(left);
+
+        byte[] right =
+                left.clone();
+
+        //Leaving the first blocks equal, so that they can be skipped
+        for (int index = 3000; index < right.length; index += 1 + random.nextInt(200)) {
+            right[index] ^= 1;
+        }
+
+
+        for (ComparisonEngine comparisonEngine : ComparisonEngine.values()) {
+            DiffService engineDiffService =
+                    new DiffService(comparisonEngine, Integer.MAX_VALUE, 1);
+
+            ComparisonResult expectedResult =
+                    engineDiffService.compare(left, right);
+
+            for (int leftBlockSize : new int[]{1, 100, 1024, 4096}) {
+                for (int rightBlockSize : new int[]{100, 4096}) {
+                    BlockContent leftContent =
+                            compress(left, leftBlockSize);
+
+                    BlockContent rightContent =
+                            compress(right, rightBlockSize);
+
+                    assertThat(
+                            engineDiffService.compare(leftContent, rightContent),
+                            equalTo(expectedResult)
+                    );
+
+                    assertThat(
+                            engineDiffService.compare(leftContent, new BufferBlockContent(ByteBuffer.wrap(right))),
+                            equalTo(expectedResult)
+                    );
+
+
+                    List<Diff> streamedDiffs =
+                            new ArrayList<>();
+
+                    engineDiffService.compare(
+                            leftContent,
+                            rightContent,
+                            (offset, length) -> streamedDiffs.add(new Diff(offset, length))
+                    );
+
+                    assertThat(
+                            streamedDiffs,
+                            equalTo(expectedResult.getDiffs())
+                    );
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void recomparingBlocksShouldMatchAFullComparison() {
+        Random random =
+                new Random(90);
+
+        byte[] left =
+                new byte[4096];
+
+        random.nextBytes(left);
+
+        byte[] right =
+                left.clone();
+
+        for (int index = 0; index < right.length; index += 1 + random.nextInt(64)) {
+            right[index] ^= 1;
+        }
+
+        ComparisonResult comparisonResult =
+                diffService.compare(left, right);
+
+
+        for (int patchIndex = 0; patchIndex < 50; patchIndex++) {
+            int offset =
+                    random.nextInt(right.length);
+
+            int patchLength =
+                    random.nextInt(Math.min(256, right.length - offset) + 1);
+
+            for (int index = offset; index < offset + patchLength; index++) {
+                right[index] =
+                        random.nextBoolean() ? (byte) random.nextInt() : left[index];
+            }
+
+            comparisonResult =
+                    diffService.recompare(
+                            comparisonResult,
+                            compress(left, 512),
+                            compress(right, 512),
+                            offset,
+                            patchLength
+                    );
+
+            assertThat(
+                    comparisonResult,
+                    equalTo(diffService.compare(left, right))
+            );
+        }
+    }
+
+
+    @Test
+    public void hashTreeComparisonsShouldMatchFullComparisons() {
+        Random random =
+                new Random(90);
+
+        byte[] left =
+                new byte[100_000];
+
+        random.nextBytes(left);
+
+
+        for (int diffInterval : new int[]{1, 7, 500, 20_000, 200_000}) {
+            byte[] right =
+                    left.clone();
+
+            for (int index = random.nextInt(diffInterval); index < right.length; index += 1 + random.nextInt(diffInterval)) {
+                right[index] ^= 1;
+            }
+
+            for (ComparisonEngine comparisonEngine : ComparisonEngine.values()) {
+                DiffService engineDiffService =
+                        new DiffService(comparisonEngine, Integer.MAX_VALUE, 1);
+
+                ComparisonResult expectedResult =
+                        engineDiffService.compare(left, right);
+
+                for (int blockSize : new int[]{1, 64, 1000, 65536}) {
+                    BlockHashTree leftTree =
+                            BlockHashTree.of(ByteBuffer.wrap(left), blockSize);
+
+                    BlockHashTree rightTree =
+                            BlockHashTree.of(ByteBuffer.wrap(right), blockSize);
+
+                    assertThat(
+                            engineDiffService.compare(ByteBuffer.wrap(left), ByteBuffer.wrap(right), leftTree, rightTree),
+                            equalTo(expectedResult)
+                    );
+
+
+                    List<Diff> streamedDiffs =
+                            new ArrayList<>();
+
+                    engineDiffService.compare(
+                            ByteBuffer.wrap(left),
+                            ByteBuffer.wrap(right),
+                            leftTree,
+                            rightTree,
+                            (offset, length) -> streamedDiffs.add(new Diff(offset, length))
+                    );
+
+                    assertThat(
+                            streamedDiffs,
+                            equalTo(expectedResult.getDiffs())
+                    );
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void hashTreesShouldLetComparisonsSkipIdenticalBlocks() {
+        byte[] left =
+                new byte[10_000];
+
+        byte[] right =
+                new byte[10_000];
+
+        right[5000] = 1;
+
+        ComparisonResult comparisonResult =
+                diffService.compare(
+                        ByteBuffer.wrap(left),
+                        ByteBuffer.wrap(right),
+                        BlockHashTree.of(ByteBuffer.wrap(left), 1000),
+                        BlockHashTree.of(ByteBuffer.wrap(right), 1000)
+                );
+
+        assertThat(comparisonResult.getDiffs(), equalTo(Collections.singletonList(new Diff(5000, 1))));
+        assertThat(diffService.getScannedBytes(), equalTo(1000L));
+        assertThat(diffService.getSkippedBytes(), equalTo(9000L));
+    }
+
+
+    /**
+     * Blocks having equal hashes are deliberately not read: the risk of a 64-bit hash collision
+     * is accepted - unless fingerprint matches are verified, which disables hash trees.
+     * The collision is simulated by passing the same tree for both buffers.
+     */
+    @Test
+    public void blocksHavingEqualHashesShouldBeAssumedEqual() {
+        byte[] left =
+                new byte[10_000];
+
+        byte[] right =
+                new byte[10_000];
+
+        right[5000] = 1;
+
+        BlockHashTree leftTree =
+                BlockHashTree.of(ByteBuffer.wrap(left), 1000);
+
+        ComparisonResult comparisonResult =
+                diffService.compare(
+                        ByteBuffer.wrap(left),
+                        ByteBuffer.wrap(right),
+                        leftTree,
+                        leftTree
+                );
+
+        assertThat(comparisonResult.getDiffs(), equalTo(Collections.emptyList()));
+        assertThat(diffService.getScannedBytes(), equalTo(0L));
+    }
+
+
+    @Test
+    public void limitedComparisonsShouldPassTheFirstDiffsAndStopAtTheNextOne() {
+        Random random =
+                new Random(90);
+
+        byte[] left =
+                new byte[10_000];
+
+        random.nextBytes(left);
+
+        byte[] right =
+                left.clone();
+
+        for (int index = 3000; index < right.length; index += 1 + random.nextInt(200)) {
+            right[index] ^= 1;
+        }
+
+
+        for (ComparisonEngine comparisonEngine : ComparisonEngine.values()) {
+            DiffService engineDiffService =
+                    new DiffService(comparisonEngine, Integer.MAX_VALUE, 1);
+
+            List<Diff> expectedDiffs =
+                    engineDiffService.compare(left, right).getDiffs();
+
+            for (int diffLimit : new int[]{0, 1, 5, expectedDiffs.size(), Integer.MAX_VALUE}) {
+                List<Diff> firstDiffs =
+                        expectedDiffs.subList(0, Math.min(diffLimit, expectedDiffs.size()));
+
+                int expectedStopOffset =
+                        (diffLimit < expectedDiffs.size()) ?
+                                expectedDiffs.get(diffLimit).getOffset()
+                                :
+                                -1;
+
+
+                List<Diff> bufferDiffs =
+                        new ArrayList<>();
+
+                int bufferStopOffset =
+                        engineDiffService.compare(
+                                ByteBuffer.wrap(left),
+                                ByteBuffer.wrap(right),
+                                (offset, length) -> bufferDiffs.add(new Diff(offset, length)),
+                                diffLimit
+                        );
+
+                assertThat(bufferDiffs, equalTo(firstDiffs));
+                assertThat(bufferStopOffset, equalTo(expectedStopOffset));
+
+
+                List<Diff> treeDiffs =
+                        new ArrayList<>();
+
+                int treeStopOffset =
+                        engineDiffService.compare(
+                                ByteBuffer.wrap(left),
+                                ByteBuffer.wrap(right),
+                                BlockHashTree.of(ByteBuffer.wrap(left), 1000),
+                                BlockHashTree.of(ByteBuffer.wrap(right), 1000),
+                                (offset, length) -> treeDiffs.add(new Diff(offset, length)),
+                                diffLimit
+                        );
+
+                assertThat(treeDiffs, equalTo(firstDiffs));
+                assertThat(treeStopOffset, equalTo(expectedStopOffset));
+
+
+                List<Diff> blockDiffs =
+                        new ArrayList<>();
+
+                int blockStopOffset =
+                        engineDiffService.compare(
+                                compress(left, 1024),
+                                compress(right, 100),
+                                (offset, length) -> blockDiffs.add(new Diff(offset, length)),
+                                diffLimit
+                        );
+
+                assertThat(blockDiffs, equalTo(firstDiffs));
+                assertThat(blockStopOffset, equalTo(expectedStopOffset));
+            }
+        }
+    }
+
+
+    @Test
+    public void limitedComparisonsShouldStopScanningAtTheFirstDiffExceedingTheLimit() {
+        byte[] left =
+                new byte[1024 * 1024];
+
+        byte[] right =
+                left.clone();
+
+        right[1000] = 1;
+        right[2000] = 1;
+
+        //The whole remaining operands differ, yet they must not be scanned
+        Arrays.fill(right, 3000, right.length, (byte) 1);
+
+        int stopOffset =
+                diffService.compare(
+                        ByteBuffer.wrap(left),
+                        ByteBuffer.wrap(right),
+                        (offset, length) -> {
+                        },
+                        2
+                );
+
+        assertThat(stopOffset, is(3000));
+        assertThat(diffService.getScannedBytes(), is(3000L));
+        assertThat(diffService.getDiffCountHistogram().getMax(), is(2L));
+    }
+
+
+    @Test
+    public void limitedBlockComparisonsShouldStopScanningWithinTheBlock() throws Exception {
+        byte[] left =
+                new byte[4 * 1024 * 1024];
+
+        byte[] right =
+                left.clone();
+
+        //A single block, having a run every other byte
+        for (int index = 0; index < right.length; index += 2) {
+            right[index] = 1;
+        }
+
+        BlockContent leftContent =
+                new BufferBlockContent(ByteBuffer.wrap(left));
+
+        BlockContent rightContent =
+                new BufferBlockContent(ByteBuffer.wrap(right));
+
+        //Warm-up, so that the measure does not include class loading
+        diffService.compare(leftContent, rightContent, (offset, length) -> {
+        }, 2);
+
+        List<Diff> firstDiffs =
+                new ArrayList<>();
+
+        int[] stopOffset =
+                new int[1];
+
+        long allocatedBytes =
+                AllocationMeter.measureAllocatedBytes(() ->
+                        stopOffset[0] =
+                                diffService.compare(
+                                        leftContent,
+                                        rightContent,
+                                        (offset, length) -> firstDiffs.add(new Diff(offset, length)),
+                                        2
+                                )
+                );
+
+        assertThat(firstDiffs, equalTo(Arrays.asList(new Diff(0, 1), new Diff(2, 1))));
+        assertThat(stopOffset[0], is(4));
+
+        //Tracking the runs of the whole block would take several megabytes
+        assertThat(
+                String.format("Allocated bytes: %d", allocatedBytes),
+                allocatedBytes,
+                lessThan(64L * 1024)
+        );
+    }
+
+
+    @Test
+    public void summariesShouldMatchTheDiffList() {
+        Random random =
+                new Random(90);
+
+        byte[] left =
+                new byte[1024 * 1024];
+
+        random.nextBytes(left);
+
+        byte[] right =
+                left.clone();
+
+        for (int index = 0; index < right.length; index += 1 + random.nextInt(5000)) {
+            right[index] ^= 1;
+        }
+
+        //Runs crossing the boundaries of the parallel chunks
+        for (int boundary = 64 * 1024; boundary < right.length; boundary += 64 * 1024) {
+            for (int offset = boundary - 5; offset < boundary + 3; offset++) {
+                right[offset] =
+                        (byte) ~left[offset];
+            }
+        }
+
+
+        for (ComparisonEngine comparisonEngine : ComparisonEngine.values()) {
+            DiffService sequentialDiffService =
+                    new DiffService(comparisonEngine, Integer.MAX_VALUE, 1);
+
+            DiffService parallelDiffService =
+                    new DiffService(comparisonEngine, 0, 4);
+
+            try {
+                List<Diff> diffs =
+                        sequentialDiffService.compare(left, right).getDiffs();
+
+                DiffSummary expectedSummary =
+                        new DiffSummary(
+                                true,
+                                diffs.size(),
+                                diffs.stream().mapToLong(Diff::getLength).sum()
+                        );
+
+                assertThat(
+                        sequentialDiffService.summarize(ByteBuffer.wrap(left), ByteBuffer.wrap(right)),
+                        equalTo(expectedSummary)
+                );
+
+                assertThat(
+                        parallelDiffService.summarize(ByteBuffer.wrap(left), ByteBuffer.wrap(right)),
+                        equalTo(expectedSummary)
+                );
+
+                assertThat(
+                        sequentialDiffService.summarize(
+                                ByteBuffer.wrap(left),
+                                ByteBuffer.wrap(right),
+                                BlockHashTree.of(ByteBuffer.wrap(left), 4096),
+                                BlockHashTree.of(ByteBuffer.wrap(right), 4096)
+                        ),
+                        equalTo(expectedSummary)
+                );
+
+                assertThat(
+                        sequentialDiffService.summarize(compress(left, 65536), compress(right, 4096)),
+                        equalTo(expectedSummary)
+                );
+            } finally {
+                parallelDiffService.shutdown();
+            }
+        }
+
+
+        assertThat(
+                diffService.summarize(ByteBuffer.wrap(left), ByteBuffer.allocate(10)),
+                equalTo(DiffSummary.ofDifferentLengths())
+        );
+    }
+
+
+    @Test
+    public void interruptedComparisonsShouldBeCancelled() {
+        byte[] left =
+                new byte[4 * 1024 * 1024];
+
+        byte[] right =
+                new byte[left.length];
+
+        DiffService parallelDiffService =
+                new DiffService(ComparisonEngine.WORD, 0, 4);
+
+        try {
+            for (DiffService testedDiffService : Arrays.asList(diffService, parallelDiffService)) {
+                Thread.currentThread().interrupt();
+
+                try {
+                    assertThrows(CancellationException.class, () -> {
+                        testedDiffService.compare(left, right);
+                    });
+                } finally {
+                    Thread.interrupted();
+                }
+
+                assertThat(testedDiffService.getScannedBytes(), is(0L));
+            }
+
+
+            Thread.currentThread().interrupt();
+
+            try {
+                assertThrows(CancellationException.class, () -> {
+                    diffService.compare(compress(left, 65536), compress(right, 65536));
+                });
+            } finally {
+                Thread.interrupted();
+            }
+        } finally {
+            parallelDiffService.shutdown();
+        }
+    }
+
+
+    @Test
+    public void cancelledParallelScansShouldThrowOnlyOnceNoChunkIsBeingScanned() throws InterruptedException {
+        byte[] left =
+                new byte[1024 * 1024];
+
+        byte[] right =
+                new byte[left.length];
+
+        AtomicInteger scanningChunks =
+                new AtomicInteger();
+
+        CountDownLatch chunkStarted =
+                new CountDownLatch(1);
+
+        CountDownLatch chunkReleased =
+                new CountDownLatch(1);
+
+        ScanCancellation cancellation =
+                new ScanCancellation() {
+                    @Override
+                    public void scan(
+                            ComparisonEngine comparisonEngine,
+                            ByteBuffer left,
+                            ByteBuffer right,
+                            int startOffset,
+                            int endOffset,
+                            DiffTracker diffTracker
+                    ) {
+                        scanningChunks.incrementAndGet();
+
+                        try {
+                            chunkStarted.countDown();
+                            chunkReleased.await();
+
+                            super.scan(comparisonEngine, left, right, startOffset, endOffset, diffTracker);
+                        } catch (InterruptedException ex) {
+                            throw new IllegalStateException(ex);
+                        } finally {
+                            scanningChunks.decrementAndGet();
+                        }
+                    }
+                };
+
+        ForkJoinPool forkJoinPool =
+                new ForkJoinPool(2);
+
+        AtomicReference<RuntimeException> thrownException =
+                new AtomicReference<>();
+
+        AtomicInteger chunksScannedWhenThrowing =
+                new AtomicInteger(-1);
+
+        Thread comparingThread =
+                new Thread(() -> {
+                    try {
+                        DiffService.invokeInterruptibly(
+                                forkJoinPool,
+                                new ComparisonTask(
+                                        ComparisonEngine.WORD,
+                                        ByteBuffer.wrap(left),
+                                        ByteBuffer.wrap(right),
+                                        0,
+                                        left.length,
+                                        64 * 1024,
+                                        cancellation
+                                ),
+                                cancellation
+                        );
+                    } catch (RuntimeException ex) {
+                        chunksScannedWhenThrowing.set(scanningChunks.get());
+                        thrownException.set(ex);
+                    }
+                });
+
+        try {
+            comparingThread.start();
+
+            chunkStarted.await();
+            comparingThread.interrupt();
+
+            //The comparing thread must keep waiting for the chunks being scanned
+            comparingThread.join(200);
+            assertThat(comparingThread.isAlive(), is(true));
+
+            chunkReleased.countDown();
+            comparingThread.join();
+
+
+            assertThat(thrownException.get(), instanceOf(CancellationException.class));
+            assertThat(chunksScannedWhenThrowing.get(), is(0));
+            assertThat(cancellation.isCancelled(), is(true));
+        } finally {
+            chunkReleased.countDown();
+            forkJoinPool.shutdownNow();
+        }
+    }
+
+
+    private static BlockContent compress(byte[] data, int blockSize) {
+        InMemoryByteRepository byteRepository =
+                new InMemoryByteRepository(0, 0, 0, BlockCompression.DEFLATE, blockSize);
+
+        byteRepository.save("test", data);
+
+        return byteRepository.findBlockContent("test").get();
+    }
+
+
+    @Test
+    public void comparisonsShouldBeRecordedInTheMetrics() {
+        diffService.compare(
+                "ABCDEFGH".getBytes(),
+                "AXCDXXGH".getBytes()
+        );
+
+        diffService.compare(
+                ByteBuffer.wrap("ABCD".getBytes()),
+                ByteBuffer.wrap("ABCD".getBytes()),
+                (offset, length) -> {
+                }
+        );
+
+        diffService.compare(
+                "AB".getBytes(),
+                "ABC".getBytes()
+        );
+
+
+        assertThat(diffService.getComparisonCount(), is(2L));
+        assertThat(diffService.getScannedBytes(), is(12L));
+        assertThat(diffService.getScanNanos(), greaterThan(0L));
+
+        assertThat(diffService.getDiffCountHistogram().getCount(), is(2L));
+        assertThat(diffService.getDiffCountHistogram().getMax(), is(2L));
+    }
 }
@@ -0,0 +1,294 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.diff;
+
+import info.gianlucacosta.diffdetector.core.Diff;
+import info.gianlucacosta.diffdetector.web.AllocationMeter;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+
+public class DiffTrackerTest {
+    private static final int measuredLength =
+            4 * 1024 * 1024;
+
+
+    @Test
+    public void runsInputByteByByteShouldBeTracked() {
+        DiffTracker diffTracker =
+                new DiffTracker(10);
+
+        byte[] left =
+                "ABCDEFGH".getBytes();
+
+        byte[] right =
+                "AXXDEFGX".getBytes();
+
+        for (int offset = 0; offset < left.length; offset++) {
+            diffTracker.inputBytes(left[offset], right[offset]);
+        }
+
+
+        assertThat(
+                diffTracker.getDiffs(),
+                equalTo(
+                        Arrays.asList(
+                                new Diff(11, 2),
+                                new Diff(17, 1)
+                        )
+                )
+        );
+    }
+
+
+    @Test
+    public void trackersShouldStopAtTheFirstRunExceedingTheLimit() {
+        List<Diff> passedDiffs =
+                new ArrayList<>();
+
+        DiffTracker diffTracker =
+                new DiffTracker(0, (offset, length) -> passedDiffs.add(new Diff(offset, length)), 2);
+
+        diffTracker.inputDiff(3, 2);
+        diffTracker.inputDiff(8, 1);
+
+        assertThat(diffTracker.stopsAt(9), is(false));
+        diffTracker.inputDiff(9, 2);
+
+        assertThat(diffTracker.stopsAt(20), is(true));
+        diffTracker.inputDiff(30, 5);
+
+        diffTracker.finish();
+
+
+        assertThat(
+                passedDiffs,
+                equalTo(
+                        Arrays.asList(
+                                new Diff(3, 2),
+                                new Diff(8, 3)
+                        )
+                )
+        );
+
+        assertThat(diffTracker.isStopped(), is(true));
+        assertThat(diffTracker.getStopOffset(), is(20));
+    }
+
+
+    @Test
+    public void sliceTrackersShouldStopAsSoonAsTheirTargetWould() {
+        for (boolean mergedIntoTarget : new boolean[]{false, true}) {
+            List<Diff> passedDiffs =
+                    new ArrayList<>();
+
+            DiffTracker target =
+                    new DiffTracker(0, (offset, length) -> passedDiffs.add(new Diff(offset, length)), 3);
+
+            target.inputDiff(5, 5);
+
+            DiffTracker sliceTracker =
+                    target.createSliceTracker();
+
+            //The slice starts at offset 10: its first run is adjacent to the last run of the target
+            int sliceStart =
+                    mergedIntoTarget ? 0 : 1;
+
+            for (int sliceOffset = sliceStart; !sliceTracker.stopsAt(sliceOffset); sliceOffset += 10) {
+                sliceTracker.inputDiff(sliceOffset, 1);
+            }
+
+            target.inputDiffs(sliceTracker, 10);
+            target.finish();
+
+
+            List<Diff> expectedDiffs =
+                    mergedIntoTarget ?
+                            Arrays.asList(new Diff(5, 6), new Diff(20, 1), new Diff(30, 1))
+                            :
+                            Arrays.asList(new Diff(5, 5), new Diff(11, 1), new Diff(21, 1));
+
+            int expectedStopOffset =
+                    mergedIntoTarget ? 40 : 31;
+
+            assertThat(passedDiffs, equalTo(expectedDiffs));
+            assertThat(target.getStopOffset(), is(expectedStopOffset));
+            assertThat(sliceTracker.getStopOffset(), is(mergedIntoTarget ? 30 : 31));
+        }
+    }
+
+
+    @Test
+    public void adjacentRunsShouldBeMerged() {
+        DiffTracker diffTracker =
+                new DiffTracker();
+
+        diffTracker.inputDiff(3, 2);
+
+        DiffTracker nextTracker =
+                new DiffTracker(5);
+
+        nextTracker.inputBytes((byte) 1, (byte) 2);
+        nextTracker.inputBytes((byte) 1, (byte) 1);
+        nextTracker.inputBytes((byte) 1, (byte) 2);
+
+        diffTracker.inputDiffs(nextTracker);
+
+
+        assertThat(
+                diffTracker.getDiffs(),
+                equalTo(
+                        Arrays.asList(
+                                new Diff(3, 3),
+                                new Diff(7, 1)
+                        )
+                )
+        );
+    }
+
+
+    @Test
+    public void runsShouldBePassedToTheSinkOnceComplete() {
+        List<Diff> sunkDiffs =
+                new ArrayList<>();
+
+        DiffTracker diffTracker =
+                new DiffTracker(0, (offset, length) -> sunkDiffs.add(new Diff(offset, length)));
+
+        diffTracker.inputDiff(1, 2);
+        diffTracker.inputDiff(3, 1);
+
+        assertThat(sunkDiffs, is(empty()));
+
+        diffTracker.inputDiff(6, 1);
+
+        assertThat(sunkDiffs, equalTo(Collections.singletonList(new Diff(1, 3))));
+
+        diffTracker.finish();
+
+
+        assertThat(
+                sunkDiffs,
+                equalTo(
+                        Arrays.asList(
+                                new Diff(1, 3),
+                                new Diff(6, 1)
+                        )
+                )
+        );
+    }
+
+
+    @Test
+    public void trackingAlternatingDiffsShouldAllocateLessThanBoxedRuns() throws Exception {
+        //Warm-up, so that the measures do not include class loading and JIT compilation
+        trackBoxedRuns();
+        trackPrimitiveRuns();
+
+
+        double boxedBytesPerComparedByte =
+                (double) AllocationMeter.measureAllocatedBytes(this::trackBoxedRuns) / measuredLength;
+
+        double primitiveBytesPerComparedByte =
+                (double) AllocationMeter.measureAllocatedBytes(this::trackPrimitiveRuns) / measuredLength;
+
+        assertThat(
+                String.format(
+                        "Allocated bytes per compared byte - before: %.2f, after: %.2f",
+                        boxedBytesPerComparedByte,
+                        primitiveBytesPerComparedByte
+                ),
+                primitiveBytesPerComparedByte,
+                lessThan(boxedBytesPerComparedByte / 2)
+        );
+    }
+
+
+    private void trackPrimitiveRuns() {
+        DiffTracker diffTracker =
+                new DiffTracker();
+
+        for (int offset = 0; offset < measuredLength; offset++) {
+            diffTracker.inputBytes((byte) 0, (byte) (offset & 1));
+        }
+
+        diffTracker.getDiffs();
+    }
+
+
+    private void trackBoxedRuns() {
+        BoxedDiffTracker diffTracker =
+                new BoxedDiffTracker();
+
+        for (int offset = 0; offset < measuredLength; offset++) {
+            diffTracker.inputBytes((byte) 0, (byte) (offset & 1));
+        }
+
+        diffTracker.getDiffs();
+    }
+
+
+    /**
+     * The previous implementation of DiffTracker, kept as the baseline of the allocation measure
+     */
+    private static class BoxedDiffTracker {
+        private int offset;
+
+        private Optional<Integer> diffStartOffsetOption =
+                Optional.empty();
+
+        private final List<Diff> diffs =
+                new ArrayList<>();
+
+
+        void inputBytes(byte left, byte right) {
+            if (left == right) {
+                diffStartOffsetOption.ifPresent(diffStartOffset -> {
+                    diffs.add(new Diff(diffStartOffset, offset - diffStartOffset));
+
+                    diffStartOffsetOption =
+                            Optional.empty();
+                });
+            } else if (!diffStartOffsetOption.isPresent()) {
+                diffStartOffsetOption =
+                        Optional.of(offset);
+            }
+
+            offset++;
+        }
+
+
+        List<Diff> getDiffs() {
+            return diffs;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.LongStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+public class HistogramTest {
+    private final Histogram histogram =
+            new Histogram();
+
+
+    @Test
+    public void emptyHistogramsShouldReturnZeros() {
+        assertThat(histogram.getCount(), is(0L));
+        assertThat(histogram.getMean(), is(0.0));
+        assertThat(histogram.getMax(), is(0L));
+        assertThat(histogram.getPercentile(0.99), is(0L));
+    }
+
+
+    @Test
+    public void statisticsShouldBeExact() {
+        LongStream.rangeClosed(1, 100).forEach(histogram::record);
+
+        assertThat(histogram.getCount(), is(100L));
+        assertThat(histogram.getSum(), is(5050L));
+        assertThat(histogram.getMean(), is(50.5));
+        assertThat(histogram.getMax(), is(100L));
+    }
+
+
+    @Test
+    public void percentilesShouldBeTheUpperBoundOfTheirBucket() {
+        LongStream.rangeClosed(1, 100).forEach(histogram::record);
+
+        //The 50th value lies in [32, 64)
+        assertThat(histogram.getPercentile(0.5), is(63L));
+
+        //The 99th value lies in [64, 128), but the maximum is lower
+        assertThat(histogram.getPercentile(0.99), is(100L));
+
+        assertThat(histogram.getPercentile(0), is(1L));
+    }
+
+
+    @Test
+    public void zeroAndNegativeValuesShouldShareTheFirstBucket() {
+        histogram.record(0);
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        assertThat(histogram.getPercentile(0.5), is(0L));
+        assertThat(histogram.getPercentile(1), is(Long.MAX_VALUE));
+    }
+
+
+    @Test
+    public void invalidPercentilesShouldBeRejected() {
+        assertThrows(IllegalArgumentException.class, () -> {
+            histogram.getPercentile(1.5);
+        });
+    }
+}
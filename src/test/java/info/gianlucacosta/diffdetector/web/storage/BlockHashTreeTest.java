@@ -0,0 +1,164 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+
+public class BlockHashTreeTest {
+    @Test
+    public void hashingTwoLongsShouldMatchHashingTheirBytes() {
+        ByteBuffer bytes =
+                ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+
+        bytes.putLong(0x0123456789ABCDEFL);
+        bytes.putLong(-90L);
+        bytes.flip();
+
+        assertThat(
+                XxHash64.hash(0x0123456789ABCDEFL, -90L, 0),
+                equalTo(XxHash64.hash(bytes, 0))
+        );
+    }
+
+
+    @Test
+    public void identicalDataShouldHaveNoDifferingRanges() {
+        byte[] data =
+                new byte[10_000];
+
+        new Random(90).nextBytes(data);
+
+        BlockHashTree leftTree =
+                BlockHashTree.of(ByteBuffer.wrap(data), 1000);
+
+        BlockHashTree rightTree =
+                BlockHashTree.of(ByteBuffer.wrap(data.clone()), 1000);
+
+        assertThat(leftTree, equalTo(rightTree));
+        assertThat(findDifferingRanges(leftTree, rightTree), equalTo(Collections.emptyList()));
+    }
+
+
+    @Test
+    public void differingBlocksShouldBeMergedIntoRanges() {
+        byte[] left =
+                new byte[10_500];
+
+        new Random(90).nextBytes(left);
+
+        byte[] right =
+                left.clone();
+
+        right[0] ^= 1;
+        right[3500] ^= 1;
+        right[4999] ^= 1;
+        right[10_499] ^= 1;
+
+        assertThat(
+                findDifferingRanges(
+                        BlockHashTree.of(ByteBuffer.wrap(left), 1000),
+                        BlockHashTree.of(ByteBuffer.wrap(right), 1000)
+                ),
+                equalTo(
+                        Arrays.asList(
+                                Arrays.asList(0, 1000),
+                                Arrays.asList(3000, 5000),
+                                Arrays.asList(10_000, 10_500)
+                        )
+                )
+        );
+    }
+
+
+    @Test
+    public void updatingARangeShouldMatchHashingTheWholeData() {
+        Random random =
+                new Random(90);
+
+        byte[] data =
+                new byte[7777];
+
+        random.nextBytes(data);
+
+        BlockHashTree hashTree =
+                BlockHashTree.of(ByteBuffer.wrap(data), 100);
+
+        for (int patchIndex = 0; patchIndex < 100; patchIndex++) {
+            int offset =
+                    random.nextInt(data.length);
+
+            int length =
+                    random.nextInt(Math.min(500, data.length - offset) + 1);
+
+            for (int index = offset; index < offset + length; index++) {
+                data[index] =
+                        (byte) random.nextInt();
+            }
+
+            hashTree =
+                    hashTree.withUpdatedRange(ByteBuffer.wrap(data), offset, length);
+
+            assertThat(
+                    hashTree,
+                    equalTo(BlockHashTree.of(ByteBuffer.wrap(data), 100))
+            );
+        }
+    }
+
+
+    @Test
+    public void treesHavingDifferentBlockSizesShouldNotBeComparable() {
+        byte[] data =
+                new byte[1000];
+
+        BlockHashTree hashTree =
+                BlockHashTree.of(ByteBuffer.wrap(data), 100);
+
+        assertThat(hashTree.isComparableWith(BlockHashTree.of(ByteBuffer.wrap(data), 200)), is(false));
+        assertThat(hashTree.getRootHash(), not(equalTo(BlockHashTree.of(ByteBuffer.wrap(new byte[999]), 100).getRootHash())));
+    }
+
+
+    private static List<List<Integer>> findDifferingRanges(BlockHashTree leftTree, BlockHashTree rightTree) {
+        List<List<Integer>> ranges =
+                new ArrayList<>();
+
+        leftTree.findDifferingRanges(rightTree, (startOffset, endOffset) ->
+                ranges.add(Arrays.asList(startOffset, endOffset))
+        );
+
+        return ranges;
+    }
+}
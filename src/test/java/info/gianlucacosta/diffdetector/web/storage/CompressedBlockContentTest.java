@@ -0,0 +1,146 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+public class CompressedBlockContentTest {
+    @Test
+    public void compressedContentShouldBeReadBackBlockByBlock() {
+        Random random =
+                new Random(90);
+
+        byte[] data =
+                new byte[10_000];
+
+        random.nextBytes(data);
+
+        for (BlockCompression compression : BlockCompression.values()) {
+            CompressedBlockContent content =
+                    CompressedBlockContent.compress(data, 4096, compression);
+
+            assertThat(content.getLength(), is(10_000));
+            assertThat(content.getBlockCount(), is(3));
+            assertThat(content.toByteArray(), equalTo(data));
+
+            BlockContent.Reader reader =
+                    content.openReader();
+
+            assertThat(reader.read(2), equalTo(ByteBuffer.wrap(data, 8192, 10_000 - 8192)));
+            assertThat(reader.read(0), equalTo(ByteBuffer.wrap(data, 0, 4096)));
+        }
+    }
+
+
+    @Test
+    public void compressibleDataShouldTakeLessSpace() {
+        byte[] data =
+                new byte[100_000];
+
+        CompressedBlockContent content =
+                CompressedBlockContent.compress(data, 65536, BlockCompression.DEFLATE);
+
+        assertThat(content.getCompressedBytes(), lessThan(1000L));
+        assertThat(content.toByteArray(), equalTo(data));
+    }
+
+
+    @Test
+    public void aCorruptedBlockShouldNotAffectTheFollowingDecompressions() {
+        byte[] data =
+                new byte[4096];
+
+        new Random(90).nextBytes(data);
+
+        byte[] compressedBlock =
+                BlockCompression.DEFLATE.compress(data, 0, data.length);
+
+        byte[] target =
+                new byte[data.length];
+
+        assertThrows(IllegalStateException.class, () ->
+                BlockCompression.DEFLATE.decompress(
+                        Arrays.copyOf(compressedBlock, compressedBlock.length / 2),
+                        target,
+                        data.length
+                )
+        );
+
+        BlockCompression.DEFLATE.decompress(compressedBlock, target, data.length);
+
+        assertThat(target, equalTo(data));
+    }
+
+
+    @Test
+    public void identicalBlocksShouldBeRecognizedWithoutReadingThem() {
+        byte[] left =
+                new byte[3000];
+
+        byte[] right =
+                new byte[3000];
+
+        right[1500] = 1;
+
+        CompressedBlockContent leftContent =
+                CompressedBlockContent.compress(left, 1024, BlockCompression.DEFLATE);
+
+        CompressedBlockContent rightContent =
+                CompressedBlockContent.compress(right, 1024, BlockCompression.DEFLATE);
+
+        assertThat(leftContent.isSameBlock(0, rightContent), is(true));
+        assertThat(leftContent.isSameBlock(1, rightContent), is(false));
+        assertThat(leftContent.isSameBlock(2, rightContent), is(true));
+
+        CompressedBlockContent differentlySizedContent =
+                CompressedBlockContent.compress(left, 512, BlockCompression.DEFLATE);
+
+        assertThat(leftContent.isSameBlock(0, differentlySizedContent), is(false));
+    }
+
+
+    @Test
+    public void streamsShouldReadRangesAcrossBlocks() throws Exception {
+        byte[] data =
+                new byte[5000];
+
+        new Random(90).nextBytes(data);
+
+        CompressedBlockContent content =
+                CompressedBlockContent.compress(data, 1000, BlockCompression.DEFLATE);
+
+        byte[] range =
+                InputStreams.readFully(content.openStream(900, 2500), 2500);
+
+        assertThat(ByteBuffer.wrap(range), equalTo(ByteBuffer.wrap(data, 900, 2500)));
+    }
+}
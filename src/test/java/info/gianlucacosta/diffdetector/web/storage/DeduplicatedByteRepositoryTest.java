@@ -0,0 +1,184 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.storage;
+
+import info.gianlucacosta.diffdetector.core.ComparisonResult;
+import info.gianlucacosta.diffdetector.web.diff.DiffService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+
+public class DeduplicatedByteRepositoryTest {
+    private static final int blockSize =
+            1024;
+
+    private DeduplicatedByteRepository byteRepository;
+
+    @BeforeEach
+    public void init() {
+        byteRepository =
+                new DeduplicatedByteRepository(blockSize);
+    }
+
+
+    @Test
+    public void storingAndRetrievingDataShouldWork() {
+        byte[] originalData =
+                new byte[3 * blockSize + 1];
+
+        new Random(90).nextBytes(originalData);
+
+
+        byteRepository.save("test", originalData);
+
+        assertThat(
+                byteRepository.find("test").get(),
+                equalTo(originalData)
+        );
+
+        assertThat(
+                byteRepository.findFingerprint("test"),
+                equalTo(Optional.of(Fingerprint.of(originalData)))
+        );
+
+        BlockContent blockContent =
+                byteRepository.findBlockContent("test").get();
+
+        assertThat(blockContent.getBlockCount(), is(4));
+        assertThat(blockContent.openReader().read(3), equalTo(ByteBuffer.wrap(originalData, 3 * blockSize, 1)));
+    }
+
+
+    @Test
+    public void storingAndRetrievingEmptyArraysShouldWork() {
+        byteRepository.save("test", new byte[0]);
+
+        assertThat(
+                byteRepository.find("test").get(),
+                equalTo(new byte[0])
+        );
+    }
+
+
+    @Test
+    public void identicalBlocksShouldBeStoredOnce() {
+        byte[] baseline =
+                new byte[4 * blockSize];
+
+        new Random(90).nextBytes(baseline);
+
+        byte[] variant =
+                baseline.clone();
+
+        variant[2 * blockSize] ^= 1;
+
+
+        byteRepository.save("a", baseline);
+        byteRepository.save("b", baseline);
+        byteRepository.save("c", variant);
+
+        assertThat(byteRepository.getBlockCount(), is(5));
+        assertThat(byteRepository.getBlockBytes(), equalTo(5L * blockSize));
+        assertThat(byteRepository.getItemBytes(), equalTo(12L * blockSize));
+
+
+        BlockContent baselineContent =
+                byteRepository.findBlockContent("a").get();
+
+        BlockContent variantContent =
+                byteRepository.findBlockContent("c").get();
+
+        assertThat(baselineContent.isSameBlock(1, variantContent), is(true));
+        assertThat(baselineContent.isSameBlock(2, variantContent), is(false));
+    }
+
+
+    @Test
+    public void blocksShouldBeRemovedWhenNoItemReferencesThem() {
+        byte[] baseline =
+                new byte[2 * blockSize];
+
+        new Random(90).nextBytes(baseline);
+
+        byteRepository.save("a", baseline);
+        byteRepository.save("b", baseline);
+
+        byteRepository.remove("a");
+
+        assertThat(byteRepository.getBlockCount(), is(2));
+        assertThat(byteRepository.find("b").get(), equalTo(baseline));
+
+        byteRepository.save("b", new byte[10]);
+
+        assertThat(byteRepository.getBlockCount(), is(1));
+        assertThat(byteRepository.getBlockBytes(), equalTo(10L));
+        assertThat(byteRepository.getItemBytes(), equalTo(10L));
+
+        byteRepository.remove("b");
+
+        assertThat(byteRepository.getBlockCount(), is(0));
+        assertThat(byteRepository.getBlockBytes(), equalTo(0L));
+    }
+
+
+    @Test
+    public void comparingDeduplicatedItemsShouldMatchComparingArrays() {
+        Random random =
+                new Random(90);
+
+        byte[] left =
+                new byte[10 * blockSize + 100];
+
+        random.nextBytes(left);
+
+        byte[] right =
+                left.clone();
+
+        for (int index = 5 * blockSize; index < right.length; index += 1 + random.nextInt(300)) {
+            right[index] ^= 1;
+        }
+
+        byteRepository.save("left", left);
+        byteRepository.save("right", right);
+
+        DiffService diffService =
+                new DiffService();
+
+        ComparisonResult comparisonResult =
+                diffService.compare(
+                        byteRepository.findBlockContent("left").get(),
+                        byteRepository.findBlockContent("right").get()
+                );
+
+        assertThat(
+                comparisonResult,
+                equalTo(diffService.compare(left, right))
+        );
+    }
+}
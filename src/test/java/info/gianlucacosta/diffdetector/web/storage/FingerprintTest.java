@@ -0,0 +1,87 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+
+
+public class FingerprintTest {
+    @Test
+    public void hashesShouldMatchTheReferenceXxHash64() {
+        assertThat(
+                Fingerprint.of("".getBytes()).getHash(),
+                equalTo(0xEF46DB3751D8E999L)
+        );
+
+        assertThat(
+                Fingerprint.of("a".getBytes()).getHash(),
+                equalTo(0xD24EC4F1A98C6E5BL)
+        );
+
+        assertThat(
+                Fingerprint.of("abc".getBytes()).getHash(),
+                equalTo(0x44BC2CF5AD770999L)
+        );
+
+        assertThat(
+                Fingerprint.of("Nobody inspects the spammish repetition".getBytes()).getHash(),
+                equalTo(0xFBCEA83C8A378BF1L)
+        );
+    }
+
+
+    @Test
+    public void fingerprintsShouldOnlyDependOnTheRemainingBytes() {
+        byte[] data =
+                "Hello, world!".getBytes();
+
+        ByteBuffer buffer =
+                ByteBuffer.wrap(data);
+
+        buffer.position(7);
+
+
+        assertThat(
+                Fingerprint.of(buffer),
+                equalTo(Fingerprint.of("world!".getBytes()))
+        );
+
+        assertThat(
+                buffer.position(),
+                equalTo(7)
+        );
+    }
+
+
+    @Test
+    public void differentDataShouldHaveDifferentFingerprints() {
+        assertThat(
+                Fingerprint.of("ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789".getBytes()),
+                not(equalTo(Fingerprint.of("ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456780".getBytes())))
+        );
+    }
+}
@@ -20,14 +20,25 @@
 
 package info.gianlucacosta.diffdetector.web.storage;
 
+import info.gianlucacosta.diffdetector.web.AllocationMeter;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 
@@ -62,6 +73,143 @@ public class InMemoryByteRepositoryTest {
     }
 
 
+    @Test
+    public void storingDataFromStreamsShouldWorkWhateverTheExpectedLength() throws IOException {
+        String id =
+                "test";
+
+        byte[] originalData =
+                new byte[100_000];
+
+        for (int i = 0; i < originalData.length; i++) {
+            originalData[i] =
+                    (byte) i;
+        }
+
+
+        int[] expectedLengths =
+                {-1, 0, 10, originalData.length, 2 * originalData.length};
+
+        for (int expectedLength : expectedLengths) {
+            byteRepository.save(
+                    id,
+                    new ByteArrayInputStream(originalData),
+                    expectedLength
+            );
+
+            assertThat(
+                    byteRepository.find(id).get(),
+                    equalTo(originalData)
+            );
+        }
+    }
+
+
+    @Test
+    public void hugeExpectedLengthsShouldNotBeAllocatedUpfront() throws Exception {
+        byte[] originalData =
+                "Hello, world!".getBytes();
+
+        long allocatedBytes =
+                AllocationMeter.measureAllocatedBytes(() ->
+                        byteRepository.save(
+                                "test",
+                                new ByteArrayInputStream(originalData),
+                                Integer.MAX_VALUE - 8
+                        )
+                );
+
+
+        assertThat(
+                byteRepository.find("test").get(),
+                equalTo(originalData)
+        );
+
+        assertThat(
+                allocatedBytes,
+                lessThan(2L * InputStreams.maxPresizedLength)
+        );
+    }
+
+
+    @Test
+    public void streamsLongerThanTheInitialBufferShouldBeReadWhateverTheExpectedLength() throws IOException {
+        byte[] originalData =
+                new byte[InputStreams.maxPresizedLength + 1];
+
+        originalData[InputStreams.maxPresizedLength] =
+                90;
+
+        int[] expectedLengths =
+                {originalData.length, 2 * originalData.length};
+
+        for (int expectedLength : expectedLengths) {
+            assertThat(
+                    InputStreams.readFully(new ByteArrayInputStream(originalData), expectedLength),
+                    equalTo(originalData)
+            );
+        }
+    }
+
+
+    @Test
+    public void storingThePrefixOfAnArrayShouldWork() {
+        String id =
+                "test";
+
+        byte[] buffer =
+                new byte[1000];
+
+        for (int i = 0; i < buffer.length; i++) {
+            buffer[i] =
+                    (byte) i;
+        }
+
+        byte[] expectedData =
+                Arrays.copyOf(buffer, 990);
+
+
+        byteRepository.save(id, buffer, expectedData.length);
+
+        assertThat(
+                byteRepository.find(id).get(),
+                equalTo(expectedData)
+        );
+
+        assertThat(
+                byteRepository.findBuffer(id).get(),
+                equalTo(ByteBuffer.wrap(expectedData))
+        );
+
+        assertThat(
+                byteRepository.findFingerprint(id),
+                equalTo(Optional.of(Fingerprint.of(expectedData)))
+        );
+
+        assertThrows(IndexOutOfBoundsException.class, () -> {
+            byteRepository.write(id, expectedData.length, new byte[]{1});
+        });
+    }
+
+
+    @Test
+    public void storingDataShouldComputeItsFingerprint() {
+        String id =
+                "test";
+
+        byte[] originalData =
+                "Hello, world!".getBytes();
+
+
+        byteRepository.save(id, originalData);
+
+        assertThat(
+                byteRepository.findFingerprint(id),
+                equalTo(Optional.of(Fingerprint.of(originalData)))
+        );
+    }
+
+
     @Test
     public void retrievingNonStoredDataShouldReturnEmpty() {
         String id =
@@ -98,6 +246,53 @@ public class InMemoryByteRepositoryTest {
     }
 
 
+    @Test
+    public void writingDataShouldUpdateTheBytesAndTheFingerprint() {
+        String id =
+                "test";
+
+        byteRepository.save(id, "Hello, world!".getBytes());
+
+        byte[] expectedData =
+                "Hello, WORLD!".getBytes();
+
+
+        assertThat(
+                byteRepository.write(id, 7, "WORLD".getBytes()),
+                is(true)
+        );
+
+        assertThat(
+                byteRepository.find(id).get(),
+                equalTo(expectedData)
+        );
+
+        assertThat(
+                byteRepository.findFingerprint(id),
+                equalTo(Optional.of(Fingerprint.of(expectedData)))
+        );
+    }
+
+
+    @Test
+    public void writingBeyondTheDataShouldFail() {
+        byteRepository.save("test", "Hello".getBytes());
+
+        assertThrows(IndexOutOfBoundsException.class, () -> {
+            byteRepository.write("test", 3, "XYZ".getBytes());
+        });
+    }
+
+
+    @Test
+    public void writingMissingDataShouldReturnFalse() {
+        assertThat(
+                byteRepository.write("test", 0, new byte[]{1}),
+                is(false)
+        );
+    }
+
+
     @Test
     public void storingViaNullIdShouldFail() {
         String id =
@@ -199,4 +394,232 @@ public class InMemoryByteRepositoryTest {
             );
         });
     }
+
+
+    @Test
+    public void itemsShouldExpireAfterTheirTimeToLive() {
+        AtomicLong clock =
+                new AtomicLong();
+
+        InMemoryByteRepository expiringRepository =
+                new InMemoryByteRepository(60, 0, 0, clock::get);
+
+        expiringRepository.save("a", new byte[10]);
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(30));
+
+        expiringRepository.save("b", new byte[10]);
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(30));
+
+
+        assertThat(
+                expiringRepository.find("a").isPresent(),
+                is(false)
+        );
+
+        assertThat(
+                expiringRepository.find("b").isPresent(),
+                is(true)
+        );
+
+
+        expiringRepository.reap();
+
+        assertThat(expiringRepository.getExpiredCount(), equalTo(1L));
+        assertThat(expiringRepository.getItemCount(), equalTo(1));
+        assertThat(expiringRepository.getStoredBytes(), equalTo(10L));
+    }
+
+
+    @Test
+    public void expiredItemsShouldNeverBeReadEvenIfTheReaperHasNotRun() {
+        AtomicLong clock =
+                new AtomicLong();
+
+        InMemoryByteRepository expiringRepository =
+                new InMemoryByteRepository(60, 0, 0, clock::get);
+
+        expiringRepository.save("a", new byte[10]);
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(60));
+
+
+        assertThat(expiringRepository.find("a").isPresent(), is(false));
+        assertThat(expiringRepository.findBuffer("a").isPresent(), is(false));
+        assertThat(expiringRepository.findBlockContent("a").isPresent(), is(false));
+        assertThat(expiringRepository.findFingerprint("a").isPresent(), is(false));
+        assertThat(expiringRepository.write("a", 0, new byte[1]), is(false));
+    }
+
+
+    @Test
+    public void readingAnExpiredItemShouldWakeUpTheReaper() throws InterruptedException {
+        AtomicLong clock =
+                new AtomicLong();
+
+        InMemoryByteRepository expiringRepository =
+                new InMemoryByteRepository(60, 0, 3600, clock::get);
+
+        List<String> removedIds =
+                new CopyOnWriteArrayList<>();
+
+        expiringRepository.addRemovalListener(removedIds::add);
+
+        try {
+            expiringRepository.save("a", new byte[10]);
+
+            clock.addAndGet(TimeUnit.SECONDS.toNanos(60));
+
+            expiringRepository.find("a");
+
+            long deadline =
+                    System.currentTimeMillis() + 5000;
+
+            while (removedIds.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+
+            assertThat(removedIds, contains("a"));
+            assertThat(expiringRepository.getExpiredCount(), equalTo(1L));
+            assertThat(expiringRepository.getItemCount(), equalTo(0));
+        } finally {
+            expiringRepository.close();
+        }
+    }
+
+
+    @Test
+    public void closingTheOwningOperandPairRepositoryShouldStopTheReaper() {
+        InMemoryByteRepository expiringRepository =
+                new InMemoryByteRepository(60, 0, 3600);
+
+        OperandPairRepository operandPairRepository =
+                new OperandPairRepository(expiringRepository);
+
+        assertThat(expiringRepository.isReaperRunning(), is(true));
+
+        operandPairRepository.close();
+
+        assertThat(expiringRepository.isReaperRunning(), is(false));
+    }
+
+
+    @Test
+    public void exceedingTheByteBudgetShouldEvictTheLeastRecentlyUsedItems() {
+        AtomicLong clock =
+                new AtomicLong();
+
+        InMemoryByteRepository boundedRepository =
+                new InMemoryByteRepository(0, 25, 0, clock::get);
+
+        boundedRepository.save("a", new byte[10]);
+        clock.incrementAndGet();
+
+        boundedRepository.save("b", new byte[10]);
+        clock.incrementAndGet();
+
+        boundedRepository.find("a");
+        clock.incrementAndGet();
+
+        boundedRepository.save("c", new byte[10]);
+        clock.incrementAndGet();
+
+
+        boundedRepository.reap();
+
+        assertThat(boundedRepository.find("b").isPresent(), is(false));
+        assertThat(boundedRepository.find("a").isPresent(), is(true));
+        assertThat(boundedRepository.find("c").isPresent(), is(true));
+
+        assertThat(boundedRepository.getEvictedCount(), equalTo(1L));
+        assertThat(boundedRepository.getStoredBytes(), equalTo(20L));
+    }
+
+
+    @Test
+    public void theReaperShouldEnforceTheByteBudgetInBackground() throws InterruptedException {
+        InMemoryByteRepository boundedRepository =
+                new InMemoryByteRepository(0, 15, 60);
+
+        try {
+            boundedRepository.save("a", new byte[10]);
+            boundedRepository.save("b", new byte[10]);
+
+            long deadline =
+                    System.currentTimeMillis() + 5000;
+
+            while (boundedRepository.getEvictedCount() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+
+            assertThat(boundedRepository.getEvictedCount(), equalTo(1L));
+            assertThat(boundedRepository.getStoredBytes(), equalTo(10L));
+        } finally {
+            boundedRepository.close();
+        }
+    }
+
+
+    @Test
+    public void replacingAndRemovingItemsShouldUpdateTheStoredBytes() {
+        byteRepository.save("test", new byte[10]);
+        byteRepository.save("test", new byte[4]);
+
+        assertThat(byteRepository.getStoredBytes(), equalTo(4L));
+
+        byteRepository.remove("test");
+
+        assertThat(byteRepository.getStoredBytes(), equalTo(0L));
+    }
+
+
+    @Test
+    public void compressedItemsShouldBeStoredAsBlocks() {
+        InMemoryByteRepository compressingRepository =
+                new InMemoryByteRepository(0, 0, 0, BlockCompression.DEFLATE, 1024);
+
+        byte[] data =
+                new byte[10_000];
+
+        for (int i = 0; i < data.length; i++) {
+            data[i] =
+                    (byte) (i / 100);
+        }
+
+        compressingRepository.save("test", data);
+
+
+        assertThat(compressingRepository.find("test").get(), equalTo(data));
+        assertThat(compressingRepository.findFingerprint("test").get(), equalTo(Fingerprint.of(data)));
+
+        BlockContent blockContent =
+                compressingRepository.findBlockContent("test").get();
+
+        assertThat(blockContent.getLength(), is(10_000));
+        assertThat(blockContent.getBlockSize(), is(1024));
+
+        assertThat(compressingRepository.isWritable(), is(false));
+
+        assertThat(compressingRepository.getOriginalBytes(), equalTo(10_000L));
+        assertThat(compressingRepository.getStoredBytes() < 10_000L, is(true));
+        assertThat(compressingRepository.getCompressionRatio() > 1, is(true));
+
+
+        compressingRepository.remove("test");
+
+        assertThat(compressingRepository.getOriginalBytes(), equalTo(0L));
+        assertThat(compressingRepository.getStoredBytes(), equalTo(0L));
+    }
+
+
+    @Test
+    public void uncompressedItemsShouldNotBeStoredAsBlocks() {
+        byteRepository.save("test", new byte[10]);
+
+        assertThat(byteRepository.findBlockContent("test").isPresent(), is(false));
+        assertThat(byteRepository.getCompressionRatio(), equalTo(1.0));
+    }
 }
@@ -0,0 +1,299 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+
+public class MappedFileByteRepositoryTest {
+    private Path dataDirectory;
+
+    private MappedFileByteRepository byteRepository;
+
+
+    @BeforeEach
+    public void init() throws IOException {
+        dataDirectory =
+                Files.createTempDirectory("mapped-file-test");
+
+        byteRepository =
+                new MappedFileByteRepository(dataDirectory.toString(), true);
+    }
+
+
+    @AfterEach
+    public void cleanUp() throws IOException {
+        byteRepository.close();
+
+        Files.delete(dataDirectory);
+    }
+
+
+    private long countFiles() throws IOException {
+        try (Stream<Path> files = Files.list(byteRepository.getDirectory())) {
+            return files.count();
+        }
+    }
+
+
+    @Test
+    public void storingAndRetrievingDataShouldWork() {
+        String id =
+                "test";
+
+        byte[] originalData =
+                "Hello, world!".getBytes();
+
+
+        byteRepository.save(id, originalData);
+
+        assertThat(
+                byteRepository.find(id).get(),
+                equalTo(originalData)
+        );
+
+        assertThat(
+                byteRepository.findFingerprint(id),
+                equalTo(Optional.of(Fingerprint.of(originalData)))
+        );
+    }
+
+
+    @Test
+    public void retrievedBuffersShouldBeMappedRegions() {
+        String id =
+                "test";
+
+        byte[] originalData =
+                "Hello, world!".getBytes();
+
+
+        byteRepository.save(id, originalData);
+
+        ByteBuffer buffer =
+                byteRepository.findBuffer(id).get();
+
+        assertThat(buffer, instanceOf(MappedByteBuffer.class));
+
+        assertThat(
+                buffer,
+                equalTo(ByteBuffer.wrap(originalData))
+        );
+    }
+
+
+    @Test
+    public void storingAndRetrievingEmptyArraysShouldWork() {
+        String id =
+                "test";
+
+        byte[] originalData =
+                new byte[]{};
+
+
+        byteRepository.save(id, originalData);
+
+        assertThat(
+                byteRepository.find(id).get(),
+                equalTo(originalData)
+        );
+    }
+
+
+    @Test
+    public void storingDataFromStreamsShouldWork() throws IOException {
+        String id =
+                "test";
+
+        byte[] originalData =
+                new byte[100_000];
+
+        originalData[99_999] =
+                90;
+
+
+        byteRepository.save(
+                id,
+                new ByteArrayInputStream(originalData),
+                -1
+        );
+
+        assertThat(
+                byteRepository.find(id).get(),
+                equalTo(originalData)
+        );
+    }
+
+
+    @Test
+    public void replacingDataShouldDeleteThePreviousFile() throws IOException {
+        String id =
+                "test";
+
+        byteRepository.save(id, "Hello".getBytes());
+        byteRepository.save(id, "World".getBytes());
+
+
+        assertThat(
+                byteRepository.find(id).get(),
+                equalTo("World".getBytes())
+        );
+
+        assertThat(countFiles(), is(1L));
+    }
+
+
+    @Test
+    public void removingDataShouldDeleteItsFile() throws IOException {
+        String id =
+                "test";
+
+        byteRepository.save(id, "Hello, world!".getBytes());
+
+        byteRepository.remove(id);
+
+
+        assertThat(
+                byteRepository.find(id).isPresent(),
+                is(false)
+        );
+
+        assertThat(countFiles(), is(0L));
+    }
+
+
+    @Test
+    public void removingDataShouldReleaseItsMapping() throws IOException {
+        Path memoryMaps =
+                Paths.get("/proc/self/maps");
+
+        assumeTrue(Files.isReadable(memoryMaps));
+
+        byteRepository.save("test", "Hello, world!".getBytes());
+        byteRepository.findBuffer("test");
+
+        assertThat(countMappings(memoryMaps), is(1L));
+
+
+        byteRepository.remove("test");
+
+        assertThat(countMappings(memoryMaps), is(0L));
+    }
+
+
+    private long countMappings(Path memoryMaps) throws IOException {
+        String directory =
+                byteRepository.getDirectory().toString() + "/";
+
+        try (Stream<String> lines = Files.lines(memoryMaps)) {
+            return lines
+                    .filter(line -> line.contains(directory))
+                    .count();
+        }
+    }
+
+
+    @Test
+    public void writingDataShouldUpdateTheBytesAndTheFingerprint() {
+        String id =
+                "test";
+
+        byteRepository.save(id, "Hello, world!".getBytes());
+
+        byte[] expectedData =
+                "Hello, WORLD!".getBytes();
+
+
+        assertThat(
+                byteRepository.write(id, 7, "WORLD".getBytes()),
+                is(true)
+        );
+
+        assertThat(
+                byteRepository.find(id).get(),
+                equalTo(expectedData)
+        );
+
+        assertThat(
+                byteRepository.findFingerprint(id),
+                equalTo(Optional.of(Fingerprint.of(expectedData)))
+        );
+    }
+
+
+    @Test
+    public void writingBeyondTheDataShouldFail() {
+        byteRepository.save("test", "Hello".getBytes());
+
+        assertThrows(IndexOutOfBoundsException.class, () -> {
+            byteRepository.write("test", 3, "XYZ".getBytes());
+        });
+    }
+
+
+    @Test
+    public void writingMissingDataShouldReturnFalse() {
+        assertThat(
+                byteRepository.write("test", 0, new byte[]{1}),
+                is(false)
+        );
+    }
+
+
+    @Test
+    public void storingViaNullIdShouldFail() {
+        assertThrows(NullPointerException.class, () -> {
+            byteRepository.save(
+                    null,
+                    new byte[]{}
+            );
+        });
+    }
+
+
+    @Test
+    public void removingViaEmptyIdShouldFail() {
+        assertThrows(IllegalArgumentException.class, () -> {
+            byteRepository.remove(
+                    ""
+            );
+        });
+    }
+}
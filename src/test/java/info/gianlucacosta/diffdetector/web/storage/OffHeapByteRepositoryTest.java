@@ -0,0 +1,406 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+public class OffHeapByteRepositoryTest {
+    private static final int slabSize =
+            4096;
+
+    private OffHeapByteRepository byteRepository;
+
+    @BeforeEach
+    public void init() {
+        byteRepository =
+                new OffHeapByteRepository(slabSize);
+    }
+
+
+    @Test
+    public void storingAndRetrievingDataShouldWork() {
+        String id =
+                "test";
+
+        byte[] originalData =
+                "Hello, world!".getBytes();
+
+
+        byteRepository.save(id, originalData);
+
+        assertThat(
+                byteRepository.find(id).get(),
+                equalTo(originalData)
+        );
+
+        assertThat(
+                byteRepository.findFingerprint(id),
+                equalTo(Optional.of(Fingerprint.of(originalData)))
+        );
+    }
+
+
+    @Test
+    public void retrievedBuffersShouldBeDirectReadOnlyViews() {
+        String id =
+                "test";
+
+        byte[] originalData =
+                "Hello, world!".getBytes();
+
+
+        byteRepository.save(id, originalData);
+
+        ByteBuffer buffer =
+                byteRepository.findBuffer(id).get();
+
+        assertThat(buffer.isDirect(), is(true));
+        assertThat(buffer.isReadOnly(), is(true));
+
+        assertThat(
+                buffer,
+                equalTo(ByteBuffer.wrap(originalData))
+        );
+    }
+
+
+    @Test
+    public void storingAndRetrievingEmptyArraysShouldWork() {
+        String id =
+                "test";
+
+        byte[] originalData =
+                new byte[]{};
+
+
+        byteRepository.save(id, originalData);
+
+        assertThat(
+                byteRepository.find(id).get(),
+                equalTo(originalData)
+        );
+    }
+
+
+    @Test
+    public void storingDataLargerThanASlabShouldWork() {
+        String id =
+                "test";
+
+        byte[] originalData =
+                new byte[3 * slabSize + 1];
+
+        originalData[slabSize] =
+                90;
+
+
+        byteRepository.save(id, originalData);
+
+        assertThat(
+                byteRepository.find(id).get(),
+                equalTo(originalData)
+        );
+
+        assertThat(
+                byteRepository.getSlabBytes(),
+                equalTo(0L)
+        );
+
+        assertThat(
+                byteRepository.getDedicatedBytes(),
+                equalTo((long) originalData.length)
+        );
+    }
+
+
+    @Test
+    public void removingDataLargerThanASlabShouldReleaseItsBuffer() throws IOException {
+        byte[] originalData =
+                new byte[3 * slabSize + 1];
+
+        byteRepository.save("a", originalData);
+        byteRepository.save("a", originalData);
+
+        byteRepository.save(
+                "b",
+                new ByteArrayInputStream(originalData),
+                originalData.length
+        );
+
+        assertThat(
+                byteRepository.getDedicatedBytes(),
+                equalTo(2L * originalData.length)
+        );
+
+
+        byteRepository.remove("a");
+        byteRepository.remove("b");
+
+        assertThat(
+                byteRepository.getDedicatedBytes(),
+                equalTo(0L)
+        );
+
+        assertThat(
+                byteRepository.find("a").isPresent(),
+                is(false)
+        );
+    }
+
+
+    @Test
+    public void storingDataFromStreamsShouldWorkWhateverTheExpectedLength() throws IOException {
+        String id =
+                "test";
+
+        byte[] originalData =
+                "Hello, world!".getBytes();
+
+
+        int[] expectedLengths =
+                {-1, originalData.length, 2 * originalData.length};
+
+        for (int expectedLength : expectedLengths) {
+            byteRepository.save(
+                    id,
+                    new ByteArrayInputStream(originalData),
+                    expectedLength
+            );
+
+            assertThat(
+                    byteRepository.find(id).get(),
+                    equalTo(originalData)
+            );
+        }
+    }
+
+
+    @Test
+    public void hugeExpectedLengthsShouldNotBeAllocatedUpfront() throws IOException {
+        byte[] originalData =
+                "Hello, world!".getBytes();
+
+        byteRepository.save(
+                "test",
+                new ByteArrayInputStream(originalData),
+                Integer.MAX_VALUE - 8
+        );
+
+
+        assertThat(
+                byteRepository.find("test").get(),
+                equalTo(originalData)
+        );
+
+        assertThat(
+                byteRepository.getDedicatedBytes(),
+                equalTo(0L)
+        );
+    }
+
+
+    @Test
+    public void storingStreamsLongerThanExpectedShouldFail() {
+        assertThrows(IOException.class, () -> {
+            byteRepository.save(
+                    "test",
+                    new ByteArrayInputStream("Hello, world!".getBytes()),
+                    5
+            );
+        });
+
+        assertThat(
+                byteRepository.getUsedSlotBytes(),
+                equalTo(0L)
+        );
+    }
+
+
+    @Test
+    public void freedSpaceShouldBeReused() {
+        byte[] originalData =
+                new byte[1000];
+
+        for (int i = 0; i < 100; i++) {
+            String id =
+                    "test" + i;
+
+            byteRepository.save(id, originalData);
+            byteRepository.remove(id);
+        }
+
+        byteRepository.save("a", originalData);
+        byteRepository.save("a", originalData);
+
+
+        assertThat(
+                byteRepository.getSlabBytes(),
+                equalTo((long) slabSize)
+        );
+
+        assertThat(
+                byteRepository.getUsedSlotBytes(),
+                equalTo(1024L)
+        );
+    }
+
+
+    @Test
+    public void slabsLeftEmptyShouldBeReleasedBeyondOnePerSizeClass() {
+        //Each slab holds 4 items of 1000 bytes
+        for (int i = 0; i < 20; i++) {
+            byteRepository.save("test" + i, new byte[1000]);
+        }
+
+        assertThat(
+                byteRepository.getSlabBytes(),
+                equalTo(5L * slabSize)
+        );
+
+
+        for (int i = 0; i < 20; i++) {
+            byteRepository.remove("test" + i);
+        }
+
+        assertThat(
+                byteRepository.getSlabBytes(),
+                equalTo((long) slabSize)
+        );
+
+
+        //The released memory can serve another size class
+        for (int i = 0; i < 8; i++) {
+            byteRepository.save("test" + i, new byte[2000]);
+        }
+
+        assertThat(
+                byteRepository.getSlabBytes(),
+                equalTo(5L * slabSize)
+        );
+
+        assertThat(
+                byteRepository.find("test7").get(),
+                equalTo(new byte[2000])
+        );
+    }
+
+
+    @Test
+    public void removingDataShouldWork() {
+        String id =
+                "test";
+
+        byteRepository.save(id, "Hello, world!".getBytes());
+
+        byteRepository.remove(id);
+
+
+        assertThat(
+                byteRepository.find(id).isPresent(),
+                is(false)
+        );
+
+        assertThat(
+                byteRepository.getUsedSlotBytes(),
+                equalTo(0L)
+        );
+    }
+
+
+    @Test
+    public void writingDataShouldUpdateTheBytesAndTheFingerprint() {
+        String id =
+                "test";
+
+        byteRepository.save(id, "Hello, world!".getBytes());
+
+        byte[] expectedData =
+                "Hello, WORLD!".getBytes();
+
+
+        assertThat(
+                byteRepository.write(id, 7, "WORLD".getBytes()),
+                is(true)
+        );
+
+        assertThat(
+                byteRepository.find(id).get(),
+                equalTo(expectedData)
+        );
+
+        assertThat(
+                byteRepository.findFingerprint(id),
+                equalTo(Optional.of(Fingerprint.of(expectedData)))
+        );
+    }
+
+
+    @Test
+    public void writingBeyondTheDataShouldFail() {
+        byteRepository.save("test", "Hello".getBytes());
+
+        assertThrows(IndexOutOfBoundsException.class, () -> {
+            byteRepository.write("test", 3, "XYZ".getBytes());
+        });
+    }
+
+
+    @Test
+    public void writingMissingDataShouldReturnFalse() {
+        assertThat(
+                byteRepository.write("test", 0, new byte[]{1}),
+                is(false)
+        );
+    }
+
+
+    @Test
+    public void storingViaNullIdShouldFail() {
+        assertThrows(NullPointerException.class, () -> {
+            byteRepository.save(
+                    null,
+                    new byte[]{}
+            );
+        });
+    }
+
+
+    @Test
+    public void retrievingViaEmptyIdShouldFail() {
+        assertThrows(IllegalArgumentException.class, () -> {
+            byteRepository.find(
+                    ""
+            );
+        });
+    }
+}
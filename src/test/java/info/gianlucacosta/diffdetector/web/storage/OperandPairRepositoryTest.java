@@ -0,0 +1,462 @@
+/*^
+  ===========================================================================
+  Diff Detector - Web
+  ===========================================================================
+  Copyright (C) 2017 Gianluca Costa
+  ===========================================================================
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.diffdetector.web.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+public class OperandPairRepositoryTest {
+    private InMemoryByteRepository byteRepository;
+
+    private OperandPairRepository operandPairRepository;
+
+
+    @BeforeEach
+    public void init() {
+        byteRepository =
+                new InMemoryByteRepository();
+
+        operandPairRepository =
+                new OperandPairRepository(byteRepository);
+    }
+
+
+    @Test
+    public void bothOperandsShouldBeRetrievedInASingleSnapshot() throws IOException {
+        operandPairRepository.saveLeft("test", "Hello".getBytes());
+
+        operandPairRepository.saveRight(
+                "test",
+                new ByteArrayInputStream("World".getBytes()),
+                5
+        );
+
+        try (OperandPair operandPair = operandPairRepository.acquire("test").get()) {
+            Operand left =
+                    operandPair.getLeft().get();
+
+            Operand right =
+                    operandPair.getRight().get();
+
+            assertThat(left.getData(), equalTo(ByteBuffer.wrap("Hello".getBytes())));
+            assertThat(right.getData(), equalTo(ByteBuffer.wrap("World".getBytes())));
+
+            assertThat(right.getFingerprint(), equalTo(Fingerprint.of("World".getBytes())));
+            assertThat(right.getVersion(), greaterThan(left.getVersion()));
+        }
+    }
+
+
+    @Test
+    public void partialPairsShouldBeRetrieved() {
+        operandPairRepository.saveRight("test", "World".getBytes());
+
+        try (OperandPair operandPair = operandPairRepository.acquire("test").get()) {
+            assertThat(operandPair.getLeft().isPresent(), is(false));
+            assertThat(operandPair.getRight().isPresent(), is(true));
+        }
+    }
+
+
+    @Test
+    public void snapshotsShouldNotSeeLaterUpdates() {
+        operandPairRepository.saveLeft("test", "Hello".getBytes());
+        operandPairRepository.saveRight("test", "World".getBytes());
+
+        try (OperandPair operandPair = operandPairRepository.acquire("test").get()) {
+            operandPairRepository.saveLeft("test", "Howdy".getBytes());
+            operandPairRepository.remove("test");
+
+            assertThat(
+                    operandPair.getLeft().get().getData(),
+                    equalTo(ByteBuffer.wrap("Hello".getBytes()))
+            );
+
+            assertThat(byteRepository.getItemCount(), is(2));
+        }
+
+        assertThat(byteRepository.getItemCount(), is(0));
+    }
+
+
+    @Test
+    public void replacingAnOperandShouldReleaseThePreviousOne() {
+        operandPairRepository.saveLeft("test", "Hello".getBytes());
+        operandPairRepository.saveLeft("test", "Howdy".getBytes());
+
+        assertThat(byteRepository.getItemCount(), is(1));
+
+        try (OperandPair operandPair = operandPairRepository.acquire("test").get()) {
+            assertThat(
+                    operandPair.getLeft().get().getData(),
+                    equalTo(ByteBuffer.wrap("Howdy".getBytes()))
+            );
+        }
+    }
+
+
+    @Test
+    public void removingAnIdShouldReleaseBothOperands() {
+        operandPairRepository.saveLeft("test", "Hello".getBytes());
+        operandPairRepository.saveRight("test", "World".getBytes());
+
+        operandPairRepository.remove("test");
+
+
+        assertThat(operandPairRepository.acquire("test").isPresent(), is(false));
+        assertThat(byteRepository.getItemCount(), is(0));
+    }
+
+
+    @Test
+    public void operandsExpiredInTheByteRepositoryShouldBeDiscarded() {
+        AtomicLong clock =
+                new AtomicLong();
+
+        InMemoryByteRepository expiringRepository =
+                new InMemoryByteRepository(60, 0, 0, clock::get);
+
+        OperandPairRepository expiringPairRepository =
+                new OperandPairRepository(expiringRepository);
+
+        expiringPairRepository.saveLeft("test", "Hello".getBytes());
+
+        clock.addAndGet(30_000_000_000L);
+
+        expiringPairRepository.saveRight("test", "World".getBytes());
+
+        clock.addAndGet(30_000_000_000L);
+
+        expiringRepository.reap();
+
+
+        try (OperandPair operandPair = expiringPairRepository.acquire("test").get()) {
+            assertThat(operandPair.getLeft().isPresent(), is(false));
+            assertThat(operandPair.getRight().isPresent(), is(true));
+        }
+    }
+
+
+    @Test
+    public void patchingAnUnreferencedOperandShouldWriteInPlace() {
+        operandPairRepository.saveLeft("test", "Hello, world!".getBytes());
+
+        long previousVersion =
+                acquireLeft("test").getVersion();
+
+        OperandPatch operandPatch =
+                operandPairRepository.patchLeft("test", 7, "WORLD".getBytes()).get();
+
+
+        assertThat(operandPatch.isLeft(), is(true));
+        assertThat(operandPatch.getPreviousVersion(), is(previousVersion));
+        assertThat(operandPatch.getOffset(), is(7));
+        assertThat(operandPatch.getLength(), is(5));
+
+        assertThat(byteRepository.getItemCount(), is(1));
+
+        Operand patchedOperand =
+                acquireLeft("test");
+
+        assertThat(patchedOperand.getVersion(), is(operandPatch.getVersion()));
+        assertThat(patchedOperand.getData(), equalTo(ByteBuffer.wrap("Hello, WORLD!".getBytes())));
+        assertThat(patchedOperand.getFingerprint(), equalTo(Fingerprint.of("Hello, WORLD!".getBytes())));
+    }
+
+
+    @Test
+    public void acquiringAnOperandBeingPatchedInPlaceShouldWaitWithoutSpinning() throws Exception {
+        CountDownLatch writeStarted =
+                new CountDownLatch(1);
+
+        CountDownLatch writeReleased =
+                new CountDownLatch(1);
+
+        OperandPairRepository blockingPairRepository =
+                new OperandPairRepository(
+                        new InMemoryByteRepository() {
+                            @Override
+                            public boolean write(String id, int offset, byte[] bytes) {
+                                writeStarted.countDown();
+
+                                try {
+                                    writeReleased.await();
+                                } catch (InterruptedException ex) {
+                                    throw new IllegalStateException(ex);
+                                }
+
+                                return super.write(id, offset, bytes);
+                            }
+                        }
+                );
+
+        blockingPairRepository.saveLeft("test", "Hello, world!".getBytes());
+
+        Thread patchingThread =
+                new Thread(() -> blockingPairRepository.patchLeft("test", 7, "WORLD".getBytes()));
+
+        AtomicReference<Operand> acquiredOperand =
+                new AtomicReference<>();
+
+        Thread acquiringThread =
+                new Thread(() -> acquiredOperand.set(acquireLeft(blockingPairRepository, "test")));
+
+        try {
+            patchingThread.start();
+            writeStarted.await();
+
+            acquiringThread.start();
+
+            long deadline =
+                    System.currentTimeMillis() + 5000;
+
+            while (acquiringThread.getState() != Thread.State.BLOCKED && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            assertThat(acquiringThread.getState(), is(Thread.State.BLOCKED));
+        } finally {
+            writeReleased.countDown();
+
+            patchingThread.join();
+            acquiringThread.join();
+        }
+
+
+        assertThat(acquiredOperand.get().getData(), equalTo(ByteBuffer.wrap("Hello, WORLD!".getBytes())));
+    }
+
+
+    @Test
+    public void patchingAReferencedOperandShouldLeaveTheSnapshotUnaltered() {
+        operandPairRepository.saveRight("test", "Hello, world!".getBytes());
+
+        try (OperandPair operandPair = operandPairRepository.acquire("test").get()) {
+            operandPairRepository.patchRight("test", 0, "J".getBytes());
+
+            assertThat(
+                    operandPair.getRight().get().getData(),
+                    equalTo(ByteBuffer.wrap("Hello, world!".getBytes()))
+            );
+
+            assertThat(byteRepository.getItemCount(), is(2));
+        }
+
+
+        assertThat(byteRepository.getItemCount(), is(1));
+
+        assertThat(
+                acquireRight("test").getData(),
+                equalTo(ByteBuffer.wrap("Jello, world!".getBytes()))
+        );
+    }
+
+
+    @Test
+    public void patchingAMissingOperandShouldReturnEmpty() {
+        operandPairRepository.saveLeft("test", "Hello".getBytes());
+
+        assertThat(
+                operandPairRepository.patchRight("test", 0, "J".getBytes()).isPresent(),
+                is(false)
+        );
+    }
+
+
+    @Test
+    public void patchingBeyondTheOperandShouldFail() {
+        operandPairRepository.saveLeft("test", "Hello".getBytes());
+
+        assertThrows(IndexOutOfBoundsException.class, () -> {
+            operandPairRepository.patchLeft("test", 4, "XY".getBytes());
+        });
+    }
+
+
+    private Operand acquireLeft(String id) {
+        return acquireLeft(operandPairRepository, id);
+    }
+
+
+    private static Operand acquireLeft(OperandPairRepository pairRepository, String id) {
+        try (OperandPair operandPair = pairRepository.acquire(id).get()) {
+            return operandPair.getLeft().get();
+        }
+    }
+
+
+    private Operand acquireRight(String id) {
+        try (OperandPair operandPair = operandPairRepository.acquire(id).get()) {
+            return operandPair.getRight().get();
+        }
+    }
+
+
+    @Test
+    public void savingViaEmptyIdShouldFail() {
+        assertThrows(IllegalArgumentException.class, () -> {
+            operandPairRepository.saveLeft(
+                    "",
+                    new byte[]{}
+            );
+        });
+    }
+
+
+    @Test
+    public void operandTotalsShouldReflectTheCurrentOperands() {
+        operandPairRepository.saveLeft("first", "Hello".getBytes());
+        operandPairRepository.saveRight("first", "World!".getBytes());
+        operandPairRepository.saveLeft("second", "Hi".getBytes());
+        operandPairRepository.saveLeft("second", "Howdy".getBytes());
+
+        assertThat(operandPairRepository.getOperandCount(), is(3L));
+        assertThat(operandPairRepository.getOperandBytes(), is(16L));
+
+
+        operandPairRepository.remove("first");
+
+        assertThat(operandPairRepository.getOperandCount(), is(1L));
+        assertThat(operandPairRepository.getOperandBytes(), is(5L));
+    }
+
+
+    @Test
+    public void patchingACompressedOperandShouldSaveAPatchedCopy() {
+        OperandPairRepository compressedPairRepository =
+                new OperandPairRepository(
+                        new InMemoryByteRepository(0, 0, 0, BlockCompression.DEFLATE, 4)
+                );
+
+        compressedPairRepository.saveLeft("test", "Hello, world!".getBytes());
+
+        compressedPairRepository.patchLeft("test", 7, "WORLD".getBytes()).get();
+
+        try (OperandPair operandPair = compressedPairRepository.acquire("test").get()) {
+            Operand patchedOperand =
+                    operandPair.getLeft().get();
+
+            assertThat(patchedOperand.isBlockBased(), is(true));
+            assertThat(patchedOperand.getLength(), is(13));
+            assertThat(patchedOperand.getData(), equalTo(ByteBuffer.wrap("Hello, WORLD!".getBytes())));
+            assertThat(patchedOperand.getFingerprint(), equalTo(Fingerprint.of("Hello, WORLD!".getBytes())));
+        }
+    }
+
+
+    @Test
+    public void patchesShouldUpdateTheHashTrees() {
+        OperandPairRepository hashingPairRepository =
+                new OperandPairRepository(byteRepository, 4, Runnable::run);
+
+        hashingPairRepository.saveLeft("test", "Hello, world!".getBytes());
+
+        try (OperandPair operandPair = hashingPairRepository.acquire("test").get()) {
+            assertThat(
+                    operandPair.getLeft().get().getHashTree().get(),
+                    equalTo(BlockHashTree.of(ByteBuffer.wrap("Hello, world!".getBytes()), 4))
+            );
+        }
+
+        hashingPairRepository.patchLeft("test", 3, "LO, WO".getBytes());
+
+        try (OperandPair operandPair = hashingPairRepository.acquire("test").get()) {
+            assertThat(
+                    operandPair.getLeft().get().getHashTree().get(),
+                    equalTo(BlockHashTree.of(ByteBuffer.wrap("HelLO, WOrld!".getBytes()), 4))
+            );
+        }
+    }
+
+
+    @Test
+    public void hashTreesShouldBeBuiltInBackgroundAfterSaving() {
+        List<Runnable> pendingBuilds =
+                new ArrayList<>();
+
+        OperandPairRepository hashingPairRepository =
+                new OperandPairRepository(byteRepository, 4, pendingBuilds::add);
+
+        hashingPairRepository.saveLeft("test", "Hello, world!".getBytes());
+        hashingPairRepository.patchLeft("test", 3, "LO, WO".getBytes());
+
+        assertThat(acquireLeft(hashingPairRepository, "test").getHashTree().isPresent(), is(false));
+        assertThat(pendingBuilds.size(), is(2));
+
+
+        pendingBuilds.forEach(Runnable::run);
+
+        //The tree of the replaced operand is not built
+        assertThat(
+                acquireLeft(hashingPairRepository, "test").getHashTree().get(),
+                equalTo(BlockHashTree.of(ByteBuffer.wrap("HelLO, WOrld!".getBytes()), 4))
+        );
+    }
+
+
+    @Test
+    public void hashTreesShouldBeDisabledByDefault() {
+        operandPairRepository.saveLeft("test", "Hello, world!".getBytes());
+
+        assertThat(acquireLeft("test").getHashTree().isPresent(), is(false));
+    }
+
+
+    @Test
+    public void closingShouldCloseTheByteRepository() throws IOException {
+        Path dataDirectory =
+                Files.createTempDirectory("operand-pair-test");
+
+        try {
+            MappedFileByteRepository mappedFileRepository =
+                    new MappedFileByteRepository(dataDirectory.toString(), false);
+
+            OperandPairRepository mappedOperandPairRepository =
+                    new OperandPairRepository(mappedFileRepository);
+
+            mappedOperandPairRepository.saveLeft("test", "Hello".getBytes());
+
+            mappedOperandPairRepository.close();
+
+            assertThat(Files.exists(mappedFileRepository.getDirectory()), is(false));
+        } finally {
+            Files.delete(dataDirectory);
+        }
+    }
+}